@@ -2,20 +2,26 @@ package ch.fhnw.dlcopy;
 
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.jbackpack.RdiffBackupRestore;
+import ch.fhnw.util.StorageDevice;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
- * An ActionListener when running rdiff-backup in DLCopy
+ * An ActionListener when running rdiff-backup or a {@link BackupStore}
+ * operation in DLCopy
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
 public class BackupActionListener implements ActionListener {
 
     private final boolean backup;
-    private final RdiffBackupRestore rdiffBackupRestore;
+    private final LongSupplier fileCounterSupplier;
+    private final Supplier<String> currentFileSupplier;
+    private final StorageDevice storageDevice;
     private final DLCopyGUI dLCopyGUI;
     private final ResourceBundle BUNDLE = ResourceBundle.getBundle(
             "ch/fhnw/jbackpack/Strings");
@@ -27,33 +33,62 @@ public class BackupActionListener implements ActionListener {
      * @param backup if <code>true</code> we are running a backup, otherwise a
      * restore operation
      * @param rdiffBackupRestore the RdiffBackupRestore instance
+     * @param storageDevice the upgraded StorageDevice
      * @param dLCopyGUI the current GUI of DLCopy
      */
     public BackupActionListener(boolean backup,
-            RdiffBackupRestore rdiffBackupRestore, DLCopyGUI dLCopyGUI) {
+            RdiffBackupRestore rdiffBackupRestore, StorageDevice storageDevice,
+            DLCopyGUI dLCopyGUI) {
+        this(backup, rdiffBackupRestore::getFileCounter,
+                rdiffBackupRestore::getCurrentFile, storageDevice, dLCopyGUI);
+    }
+
+    /**
+     * Creates a new BackupActionListener
+     *
+     * @param backup if <code>true</code> we are running a backup, otherwise a
+     * restore operation
+     * @param progress the progress of the BackupStore operation
+     * @param storageDevice the upgraded StorageDevice
+     * @param dLCopyGUI the current GUI of DLCopy
+     */
+    public BackupActionListener(boolean backup,
+            BackupStore.Progress progress, StorageDevice storageDevice,
+            DLCopyGUI dLCopyGUI) {
+        this(backup, progress::getFileCounter, progress::getCurrentFile,
+                storageDevice, dLCopyGUI);
+    }
+
+    private BackupActionListener(boolean backup,
+            LongSupplier fileCounterSupplier,
+            Supplier<String> currentFileSupplier, StorageDevice storageDevice,
+            DLCopyGUI dLCopyGUI) {
         this.backup = backup;
-        this.rdiffBackupRestore = rdiffBackupRestore;
+        this.fileCounterSupplier = fileCounterSupplier;
+        this.currentFileSupplier = currentFileSupplier;
+        this.storageDevice = storageDevice;
         this.dLCopyGUI = dLCopyGUI;
         start = System.currentTimeMillis();
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        long fileCounter = rdiffBackupRestore.getFileCounter();
+        long fileCounter = fileCounterSupplier.getAsLong();
         if (fileCounter == 0) {
             // preparation is still running
-            dLCopyGUI.setUpgradeBackupProgress(" ");
-            dLCopyGUI.setUpgradeBackupFilename(" ");
+            dLCopyGUI.setUpgradeBackupProgress(storageDevice, " ");
+            dLCopyGUI.setUpgradeBackupFilename(storageDevice, " ");
         } else {
             // files are processed
             String string = BUNDLE.getString(
                     backup ? "Backing_Up_File" : "Restoring_File_Not_Counted");
             string = MessageFormat.format(string, fileCounter);
-            dLCopyGUI.setUpgradeBackupProgress(string);
-            String currentFile = rdiffBackupRestore.getCurrentFile();
-            dLCopyGUI.setUpgradeBackupFilename(currentFile);
+            dLCopyGUI.setUpgradeBackupProgress(storageDevice, string);
+            String currentFile = currentFileSupplier.get();
+            dLCopyGUI.setUpgradeBackupFilename(storageDevice, currentFile);
         }
         // update time information
-        dLCopyGUI.setUpgradeBackupDuration(System.currentTimeMillis() - start);
+        dLCopyGUI.setUpgradeBackupDuration(
+                storageDevice, System.currentTimeMillis() - start);
     }
 }
@@ -0,0 +1,666 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.ProcessExecutor;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content-addressed backup store. Files are split into chunks at content
+ * defined boundaries and every chunk is stored only once, named after its
+ * SHA-256 hash. A backup is just a manifest that lists the metadata and the
+ * chunks of all backed up files. Therefore backups of many storage devices
+ * with mostly identical files only need disk space (and write time) for the
+ * chunks that were not yet in the store.
+ * <p>
+ * Several backups may run in parallel, chunks and manifests are written to
+ * temporary files, flushed to the storage device and then renamed atomically.
+ * <p>
+ * Hard links, device files and named pipes are recorded in the manifest.
+ * Unix domain sockets are skipped, they are useless without the process that
+ * created them.
+ */
+public class BackupStore {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(BackupStore.class.getName());
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String MANIFEST_HEADER = "# DLCopy backup manifest 2";
+
+    // chunks are between 64 KiB and 1 MiB, on average about 320 KiB
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final long CHUNK_MASK = (1 << 18) - 1;
+
+    // the random values of the gear rolling hash (must never change,
+    // otherwise the chunks of new backups would not match the stored chunks)
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x444c436f7079L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // the chunk buffer of every backup thread
+    private static final ThreadLocal<byte[]> BUFFERS
+            = ThreadLocal.withInitial(() -> new byte[MAX_CHUNK_SIZE]);
+
+    private final Path chunkDirectory;
+    private final Path manifestDirectory;
+    private final Path tmpDirectory;
+    private final Set<String> knownChunks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the progress of a backup or restore operation
+     */
+    public static class Progress {
+
+        private volatile long fileCounter;
+        private volatile String currentFile;
+
+        /**
+         * returns the number of processed files
+         *
+         * @return the number of processed files
+         */
+        public long getFileCounter() {
+            return fileCounter;
+        }
+
+        /**
+         * returns the currently processed file
+         *
+         * @return the currently processed file
+         */
+        public String getCurrentFile() {
+            return currentFile;
+        }
+
+        private void setCurrentFile(String currentFile) {
+            this.currentFile = currentFile;
+            fileCounter++;
+        }
+    }
+
+    /**
+     * creates a new BackupStore (the directories of the store are created
+     * when needed)
+     *
+     * @param directory the directory of the store
+     */
+    public BackupStore(File directory) {
+        Path path = directory.toPath();
+        chunkDirectory = path.resolve("chunks");
+        manifestDirectory = path.resolve("manifests");
+        tmpDirectory = path.resolve("tmp");
+    }
+
+    /**
+     * backs up a directory
+     *
+     * @param sourceDirectory the directory to back up
+     * @param includes the paths (relative to the source directory) to back
+     * up, all files are backed up if <code>null</code>, paths that don't exist
+     * are ignored
+     * @param name the name of the backup, an existing backup with the same
+     * name is replaced
+     * @param progress the progress of the backup
+     * @throws IOException if backing up fails
+     */
+    public void backup(Path sourceDirectory, List<String> includes,
+            String name, Progress progress) throws IOException {
+
+        long start = System.currentTimeMillis();
+        createDirectories();
+        long[] newBytes = new long[1];
+        // the first backed up path of every file with several hard links
+        Map<Object, Path> linkedFiles = new HashMap<>();
+        Path tmpManifest = Files.createTempFile(tmpDirectory, "manifest", null);
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                tmpManifest, StandardCharsets.UTF_8)) {
+
+            writer.write(MANIFEST_HEADER);
+            writer.newLine();
+
+            List<Path> roots = new ArrayList<>();
+            if (includes == null) {
+                roots.add(sourceDirectory);
+            } else {
+                // the parent directories of the includes keep their metadata
+                Set<Path> parents = new HashSet<>();
+                for (String include : includes) {
+                    Path root = sourceDirectory.resolve(include);
+                    if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+                        continue;
+                    }
+                    roots.add(root);
+                    for (Path parent = root.getParent();
+                            parent.startsWith(sourceDirectory)
+                            && !parent.equals(sourceDirectory);
+                            parent = parent.getParent()) {
+                        parents.add(parent);
+                    }
+                }
+                List<Path> sortedParents = new ArrayList<>(parents);
+                sortedParents.sort(null);
+                for (Path parent : sortedParents) {
+                    writeEntry(writer, sourceDirectory, parent, linkedFiles,
+                            newBytes);
+                }
+            }
+
+            for (Path root : roots) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path directory,
+                            BasicFileAttributes attributes)
+                            throws IOException {
+                        if (!directory.equals(sourceDirectory)) {
+                            writeEntry(writer, sourceDirectory, directory,
+                                    linkedFiles, newBytes);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file,
+                            BasicFileAttributes attributes)
+                            throws IOException {
+                        progress.setCurrentFile(file.toString());
+                        writeEntry(writer, sourceDirectory, file,
+                                linkedFiles, newBytes);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+
+            writer.flush();
+            force(tmpManifest);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tmpManifest);
+            throw ex;
+        }
+
+        Files.move(tmpManifest, getManifest(name),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        LOGGER.log(Level.INFO, "backed up {0} files of {1} as \"{2}\" in {3} "
+                + "ms, wrote {4} byte of new chunks", new Object[]{
+                    progress.getFileCounter(), sourceDirectory, name,
+                    System.currentTimeMillis() - start, newBytes[0]});
+    }
+
+    /**
+     * restores a backup
+     *
+     * @param name the name of the backup
+     * @param destinationDirectory the directory where the files of the backup
+     * are restored
+     * @param progress the progress of the restore operation
+     * @throws IOException if restoring fails
+     */
+    public void restore(String name, Path destinationDirectory,
+            Progress progress) throws IOException {
+
+        long start = System.currentTimeMillis();
+        Path manifest = getManifest(name);
+        if (!Files.exists(manifest)) {
+            throw new IOException(
+                    "could not restore user data, no backup found");
+        }
+
+        // the times of the directories must be set after their contents were
+        // restored
+        List<Path> directories = new ArrayList<>();
+        List<FileTime> directoryTimes = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(
+                manifest, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\t", -1);
+                Path path = destinationDirectory.resolve(
+                        unescape(tokens[tokens.length - 1]));
+                int uid = Integer.parseInt(tokens[2]);
+                int gid = Integer.parseInt(tokens[3]);
+                progress.setCurrentFile(path.toString());
+                switch (tokens[0]) {
+                    case "d":
+                        Files.createDirectories(path);
+                        setAttributes(path, tokens[1], uid, gid);
+                        directories.add(path);
+                        directoryTimes.add(parseTime(tokens[4]));
+                        break;
+
+                    case "f":
+                        Files.createDirectories(path.getParent());
+                        restoreFile(path, tokens[6]);
+                        setAttributes(path, tokens[1], uid, gid);
+                        Files.setLastModifiedTime(path, parseTime(tokens[4]));
+                        break;
+
+                    case "l":
+                        Files.createDirectories(path.getParent());
+                        Files.deleteIfExists(path);
+                        Files.createSymbolicLink(
+                                path, Paths.get(unescape(tokens[4])));
+                        setOwner(path, uid, gid);
+                        break;
+
+                    case "h":
+                        Files.createDirectories(path.getParent());
+                        Files.deleteIfExists(path);
+                        Files.createLink(path, destinationDirectory.resolve(
+                                unescape(tokens[4])));
+                        break;
+
+                    case "n":
+                        Files.createDirectories(path.getParent());
+                        Files.deleteIfExists(path);
+                        createNode(path, tokens[1], uid, gid, tokens[4],
+                                Long.parseLong(tokens[5]));
+                        break;
+
+                    default:
+                        throw new IOException("unsupported manifest entry: "
+                                + line);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("invalid manifest " + manifest, ex);
+        }
+
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Files.setLastModifiedTime(
+                    directories.get(i), directoryTimes.get(i));
+        }
+
+        LOGGER.log(Level.INFO, "restored {0} files of \"{1}\" to {2} in {3} "
+                + "ms", new Object[]{progress.getFileCounter(), name,
+                    destinationDirectory, System.currentTimeMillis() - start});
+    }
+
+    /**
+     * removes a backup (the chunks of the backup stay in the store until
+     * {@link #removeUnusedChunks()} is called)
+     *
+     * @param name the name of the backup
+     * @throws IOException if removing the backup fails
+     */
+    public void removeBackup(String name) throws IOException {
+        Files.deleteIfExists(getManifest(name));
+    }
+
+    /**
+     * removes all chunks that are not used by any backup, must not be called
+     * while a backup is running
+     *
+     * @throws IOException if removing the chunks fails
+     */
+    public void removeUnusedChunks() throws IOException {
+        if (!Files.isDirectory(chunkDirectory)) {
+            return;
+        }
+
+        Set<String> usedChunks = new HashSet<>();
+        try (DirectoryStream<Path> manifests
+                = Files.newDirectoryStream(manifestDirectory)) {
+            for (Path manifest : manifests) {
+                for (String line : Files.readAllLines(
+                        manifest, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("f\t")) {
+                        String chunks = line.split("\t")[6];
+                        if (!chunks.isEmpty()) {
+                            for (String chunk : chunks.split(",")) {
+                                usedChunks.add(chunk);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        int removedChunks = 0;
+        try (DirectoryStream<Path> subdirectories
+                = Files.newDirectoryStream(chunkDirectory)) {
+            for (Path subdirectory : subdirectories) {
+                try (DirectoryStream<Path> chunks
+                        = Files.newDirectoryStream(subdirectory)) {
+                    for (Path chunk : chunks) {
+                        String hash = chunk.getFileName().toString();
+                        if (!usedChunks.contains(hash)) {
+                            Files.delete(chunk);
+                            knownChunks.remove(hash);
+                            removedChunks++;
+                        }
+                    }
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "removed {0} unused chunks", removedChunks);
+    }
+
+    private void createDirectories() throws IOException {
+        Files.createDirectories(chunkDirectory);
+        Files.createDirectories(manifestDirectory);
+        Files.createDirectories(tmpDirectory);
+    }
+
+    private Path getManifest(String name) {
+        return manifestDirectory.resolve(name);
+    }
+
+    private Path getChunk(String hash) {
+        return chunkDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    // manifest entries:
+    // d <mode> <uid> <gid> <mtime> <path>
+    // f <mode> <uid> <gid> <mtime> <size> <chunk,chunk,...> <path>
+    // l <mode> <uid> <gid> <target> <path>
+    // h <mode> <uid> <gid> <first path of the file> <path>
+    // n <mode> <uid> <gid> <b|c|p> <rdev> <path>
+    private void writeEntry(BufferedWriter writer, Path sourceDirectory,
+            Path path, Map<Object, Path> linkedFiles, long[] newBytes)
+            throws IOException {
+
+        Map<String, Object> attributes = Files.readAttributes(path,
+                "unix:mode,uid,gid,size,lastModifiedTime,nlink,dev,ino,rdev",
+                LinkOption.NOFOLLOW_LINKS);
+        int mode = (Integer) attributes.get("mode");
+        String metadata = Integer.toOctalString(mode & 07777) + '\t'
+                + attributes.get("uid") + '\t' + attributes.get("gid") + '\t';
+        String relativePath = escape(sourceDirectory.relativize(path));
+        long time = ((FileTime) attributes.get("lastModifiedTime")).toMillis();
+
+        if (((mode & 0170000) != 0040000)
+                && ((Integer) attributes.get("nlink") > 1)) {
+            Object fileKey = attributes.get("dev") + ":"
+                    + attributes.get("ino");
+            Path firstPath = linkedFiles.putIfAbsent(fileKey, path);
+            if (firstPath != null) {
+                writer.write("h\t" + metadata
+                        + escape(sourceDirectory.relativize(firstPath))
+                        + '\t' + relativePath);
+                writer.newLine();
+                return;
+            }
+        }
+
+        switch (mode & 0170000) {
+            case 0040000:
+                writer.write("d\t" + metadata + time + '\t' + relativePath);
+                break;
+
+            case 0100000:
+                writer.write("f\t" + metadata + time + '\t'
+                        + attributes.get("size") + '\t'
+                        + storeFile(path, newBytes) + '\t' + relativePath);
+                break;
+
+            case 0120000:
+                writer.write("l\t" + metadata
+                        + escape(Files.readSymbolicLink(path)) + '\t'
+                        + relativePath);
+                break;
+
+            case 0060000:
+            case 0020000:
+            case 0010000:
+                String type = ((mode & 0170000) == 0060000) ? "b"
+                        : ((mode & 0170000) == 0020000) ? "c" : "p";
+                writer.write("n\t" + metadata + type + '\t'
+                        + attributes.get("rdev") + '\t' + relativePath);
+                break;
+
+            default:
+                LOGGER.log(Level.WARNING, "skipping {0} (probably a unix "
+                        + "domain socket, they are not supported!)", path);
+                return;
+        }
+        writer.newLine();
+    }
+
+    // stores the chunks of a file and returns the comma separated list of
+    // their hashes
+    private String storeFile(Path file, long[] newBytes) throws IOException {
+        StringBuilder chunks = new StringBuilder();
+        byte[] buffer = BUFFERS.get();
+        int length = 0;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            boolean endOfFile = false;
+            while (!endOfFile || (length > 0)) {
+                // fill the buffer
+                while (!endOfFile && (length < buffer.length)) {
+                    int read = inputStream.read(
+                            buffer, length, buffer.length - length);
+                    if (read == -1) {
+                        endOfFile = true;
+                    } else {
+                        length += read;
+                    }
+                }
+                if (length == 0) {
+                    break;
+                }
+
+                int chunkLength = findChunkBoundary(buffer, length);
+                if (chunks.length() > 0) {
+                    chunks.append(',');
+                }
+                chunks.append(storeChunk(buffer, chunkLength, newBytes));
+                System.arraycopy(buffer, chunkLength,
+                        buffer, 0, length - chunkLength);
+                length -= chunkLength;
+            }
+        }
+        return chunks.toString();
+    }
+
+    // returns the length of the next chunk at the start of the buffer
+    private static int findChunkBoundary(byte[] buffer, int length) {
+        if (length <= MIN_CHUNK_SIZE) {
+            return length;
+        }
+        long hash = 0;
+        for (int i = MIN_CHUNK_SIZE; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & CHUNK_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    private String storeChunk(byte[] buffer, int length, long[] newBytes)
+            throws IOException {
+
+        MessageDigest messageDigest = getMessageDigest();
+        messageDigest.update(buffer, 0, length);
+        String hash = toHex(messageDigest.digest());
+        if (knownChunks.contains(hash)) {
+            return hash;
+        }
+        Path chunk = getChunk(hash);
+        if (!Files.exists(chunk)) {
+            Files.createDirectories(chunk.getParent());
+            Path tmpChunk = Files.createTempFile(tmpDirectory, "chunk", null);
+            try (FileChannel channel = FileChannel.open(
+                    tmpChunk, StandardOpenOption.WRITE)) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                channel.force(true);
+            } catch (IOException ex) {
+                Files.deleteIfExists(tmpChunk);
+                throw ex;
+            }
+            // another backup may have stored the same chunk in the meantime,
+            // replacing it does no harm
+            Files.move(tmpChunk, chunk, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            newBytes[0] += length;
+        }
+        knownChunks.add(hash);
+        return hash;
+    }
+
+    // a renamed file that was not flushed to the storage device before may
+    // be empty or incomplete after a crash
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private void restoreFile(Path path, String chunks) throws IOException {
+        MessageDigest messageDigest = getMessageDigest();
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            if (chunks.isEmpty()) {
+                return;
+            }
+            for (String hash : chunks.split(",")) {
+                byte[] data = Files.readAllBytes(getChunk(hash));
+                if (!toHex(messageDigest.digest(data)).equals(hash)) {
+                    throw new IOException("chunk " + hash + " is corrupt");
+                }
+                outputStream.write(data);
+            }
+        }
+    }
+
+    // creates a device file or named pipe (the Java file attribute views
+    // open the file to change its attributes, which blocks on named pipes)
+    private static void createNode(Path path, String mode, int uid, int gid,
+            String type, long rdev) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("mknod");
+        command.add("-m");
+        command.add(mode);
+        command.add("--");
+        command.add(path.toString());
+        command.add(type);
+        if (!type.equals("p")) {
+            // the encoding of dev_t in glibc
+            long major = ((rdev >>> 8) & 0xfff) | ((rdev >>> 32) & ~0xfffL);
+            long minor = (rdev & 0xff) | ((rdev >>> 12) & ~0xffL);
+            command.add(String.valueOf(major));
+            command.add(String.valueOf(minor));
+        }
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (processExecutor.executeProcess(true, true,
+                command.toArray(new String[command.size()])) != 0) {
+            throw new IOException("could not create " + path + ": "
+                    + processExecutor.getOutput());
+        }
+        if (processExecutor.executeProcess(true, true, "chown", "-h",
+                uid + ":" + gid, "--", path.toString()) != 0) {
+            LOGGER.log(Level.FINE, "could not set owner of {0}: {1}",
+                    new Object[]{path, processExecutor.getOutput()});
+        }
+    }
+
+    private static void setAttributes(Path path, String mode, int uid,
+            int gid) throws IOException {
+        // the owner must be set first, changing the owner clears the setuid
+        // and setgid bits
+        setOwner(path, uid, gid);
+        try {
+            Files.setAttribute(path, "unix:mode",
+                    Integer.parseInt(mode, 8), LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // e.g. on FAT file systems
+            LOGGER.log(Level.FINE, "could not set mode of " + path, ex);
+        }
+    }
+
+    private static void setOwner(Path path, int uid, int gid) {
+        try {
+            Files.setAttribute(
+                    path, "unix:uid", uid, LinkOption.NOFOLLOW_LINKS);
+            Files.setAttribute(
+                    path, "unix:gid", gid, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // e.g. on FAT file systems
+            LOGGER.log(Level.FINE, "could not set owner of " + path, ex);
+        }
+    }
+
+    private static FileTime parseTime(String time) {
+        return FileTime.fromMillis(Long.parseLong(time));
+    }
+
+    private static MessageDigest getMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (byte b : bytes) {
+            stringBuilder.append(String.format("%02x", b));
+        }
+        return stringBuilder.toString();
+    }
+
+    private static String escape(Path path) {
+        return path.toString().replace("\\", "\\\\")
+                .replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String string) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0, length = string.length(); i < length; i++) {
+            char c = string.charAt(i);
+            if ((c == '\\') && (i + 1 < length)) {
+                char next = string.charAt(++i);
+                stringBuilder.append(next == 't' ? '\t'
+                        : next == 'n' ? '\n' : next);
+            } else {
+                stringBuilder.append(c);
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
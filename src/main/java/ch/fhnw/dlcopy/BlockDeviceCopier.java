@@ -0,0 +1,208 @@
+package ch.fhnw.dlcopy;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies file system images to and from block devices with large aligned
+ * direct I/O transfers.
+ */
+public class BlockDeviceCopier {
+
+    /**
+     * direct I/O needs buffers, positions and sizes aligned to the logical
+     * block size of the device, 4 KiB is a safe value for all devices
+     */
+    public static final int ALIGNMENT = 4096;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(BlockDeviceCopier.class.getName());
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final int BUFFER_SIZE = 8 * DLCopy.MEGA;
+
+    private BlockDeviceCopier() {
+    }
+
+    /**
+     * returns the size of a block device
+     *
+     * @param device the block device (e.g. /dev/sdb1)
+     * @return the size of the block device in byte
+     * @throws IOException if an I/O exception occurs
+     */
+    public static long getSize(String device) throws IOException {
+        // FileChannel.size() doesn't work for block devices
+        return readSysfsSectors(device, "size");
+    }
+
+    /**
+     * returns the start of a partition on its storage device
+     *
+     * @param device the partition device (e.g. /dev/sdb1)
+     * @return the start of the partition in byte
+     * @throws IOException if an I/O exception occurs
+     */
+    public static long getStart(String device) throws IOException {
+        return readSysfsSectors(device, "start");
+    }
+
+    /**
+     * writes an image to a block device
+     *
+     * @param image the path to the image
+     * @param size the size of the image, must be a multiple of
+     * {@link #ALIGNMENT}
+     * @param device the block device
+     * @param digest if a digest of the written data should be computed
+     * @param headerPatcher a consumer that may modify the first buffer before
+     * it is written (e.g. to patch device specific boot sector values), may
+     * be <code>null</code>
+     * @return the digest of the written data or <code>null</code>, if no
+     * digest was computed
+     * @throws IOException if an I/O exception occurs
+     * @throws NoSuchAlgorithmException if the digest algorithm can't be found
+     */
+    public static byte[] writeImage(Path image, long size, String device,
+            boolean digest, Consumer<ByteBuffer> headerPatcher)
+            throws IOException, NoSuchAlgorithmException {
+
+        if (getSize(device) < size) {
+            throw new IOException(device + " is too small for " + image);
+        }
+
+        long start = System.currentTimeMillis();
+        MessageDigest messageDigest = digest
+                ? MessageDigest.getInstance(DIGEST_ALGORITHM) : null;
+        ByteBuffer buffer = allocateBuffer();
+        try (FileChannel source = FileChannel.open(
+                image, StandardOpenOption.READ);
+                FileChannel destination = FileChannel.open(Paths.get(device),
+                        StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT)) {
+            for (long position = 0; position < size;) {
+                // the size is aligned, so we always fill complete blocks here
+                buffer.clear();
+                if (size - position < buffer.capacity()) {
+                    buffer.limit((int) (size - position));
+                }
+                int read;
+                do {
+                    read = source.read(buffer, position + buffer.position());
+                } while ((read != -1) && buffer.hasRemaining());
+                buffer.flip();
+                if ((position == 0) && (headerPatcher != null)) {
+                    headerPatcher.accept(buffer.duplicate());
+                }
+                if (messageDigest != null) {
+                    messageDigest.update(buffer.duplicate());
+                }
+                while (buffer.hasRemaining()) {
+                    position += destination.write(buffer, position);
+                }
+            }
+            destination.force(true);
+        }
+        LOGGER.log(Level.INFO, "wrote {0} to {1} in {2} ms", new Object[]{
+            image, device, System.currentTimeMillis() - start});
+        return messageDigest == null ? null : messageDigest.digest();
+    }
+
+    /**
+     * copies the start of a block device into an image file
+     *
+     * @param device the block device
+     * @param size the number of bytes to copy, must be a multiple of
+     * {@link #ALIGNMENT}
+     * @param image the path to the image
+     * @throws IOException if an I/O exception occurs
+     */
+    public static void readImage(String device, long size, Path image)
+            throws IOException {
+        ByteBuffer buffer = allocateBuffer();
+        try (FileChannel source = FileChannel.open(Paths.get(device),
+                StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+                FileChannel destination = FileChannel.open(image,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long position = 0; position < size;) {
+                buffer.clear();
+                if (size - position < buffer.capacity()) {
+                    buffer.limit((int) (size - position));
+                }
+                int read = source.read(buffer, position);
+                if (read == -1) {
+                    throw new IOException("unexpected end of " + device);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += destination.write(buffer, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * computes the digest of the start of a file or block device
+     *
+     * @param path the path to the file or block device
+     * @param size the number of bytes to include in the digest, must be a
+     * multiple of {@link #ALIGNMENT}
+     * @param direct if direct I/O should be used, e.g. to really read back
+     * data from a storage device instead of the page cache
+     * @return the digest
+     * @throws IOException if an I/O exception occurs
+     * @throws NoSuchAlgorithmException if the digest algorithm can't be found
+     */
+    public static byte[] getDigest(Path path, long size, boolean direct)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest messageDigest
+                = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        ByteBuffer buffer = allocateBuffer();
+        OpenOption[] options = direct
+                ? new OpenOption[]{
+                    StandardOpenOption.READ, ExtendedOpenOption.DIRECT}
+                : new OpenOption[]{StandardOpenOption.READ};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            for (long position = 0; position < size;) {
+                buffer.clear();
+                if (size - position < buffer.capacity()) {
+                    buffer.limit((int) (size - position));
+                }
+                int read = channel.read(buffer, position);
+                if (read == -1) {
+                    break;
+                }
+                position += read;
+                buffer.flip();
+                messageDigest.update(buffer);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    private static ByteBuffer allocateBuffer() {
+        return ByteBuffer.allocateDirect(
+                BUFFER_SIZE + ALIGNMENT).alignedSlice(ALIGNMENT);
+    }
+
+    private static long readSysfsSectors(String device, String attribute)
+            throws IOException {
+        String name = Paths.get(device).getFileName().toString();
+        List<String> lines = Files.readAllLines(
+                Paths.get("/sys/class/block", name, attribute));
+        // sysfs always counts in 512 byte sectors
+        return Long.parseLong(lines.get(0).trim()) * 512;
+    }
+}
@@ -0,0 +1,104 @@
+package ch.fhnw.dlcopy;
+
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * The standard D-Bus interface "org.freedesktop.DBus.ObjectManager" (only the
+ * signals we need). UDisks2 emits these signals whenever block devices,
+ * partitions, drives, ... are added or removed.
+ */
+@DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
+public interface DBusObjectManager extends DBusInterface {
+
+    /**
+     * emitted when an object was added or got new interfaces
+     */
+    public static class InterfacesAdded extends DBusSignal {
+
+        private final Path objectPath;
+        private final Map<String, Map<String, Variant>> interfaces;
+
+        /**
+         * creates a new InterfacesAdded signal
+         *
+         * @param path the path of the object manager
+         * @param objectPath the path of the added object
+         * @param interfaces the added interfaces with their properties
+         * @throws DBusException if creating the signal fails
+         */
+        public InterfacesAdded(String path, Path objectPath,
+                Map<String, Map<String, Variant>> interfaces)
+                throws DBusException {
+            super(path, objectPath, interfaces);
+            this.objectPath = objectPath;
+            this.interfaces = interfaces;
+        }
+
+        /**
+         * returns the path of the added object
+         *
+         * @return the path of the added object
+         */
+        public String getObjectPath() {
+            return objectPath.getPath();
+        }
+
+        /**
+         * returns the names of the added interfaces
+         *
+         * @return the names of the added interfaces
+         */
+        public Iterable<String> getInterfaceNames() {
+            return interfaces.keySet();
+        }
+    }
+
+    /**
+     * emitted when an object was removed or lost interfaces
+     */
+    public static class InterfacesRemoved extends DBusSignal {
+
+        private final Path objectPath;
+        private final List<String> interfaces;
+
+        /**
+         * creates a new InterfacesRemoved signal
+         *
+         * @param path the path of the object manager
+         * @param objectPath the path of the removed object
+         * @param interfaces the names of the removed interfaces
+         * @throws DBusException if creating the signal fails
+         */
+        public InterfacesRemoved(String path, Path objectPath,
+                List<String> interfaces) throws DBusException {
+            super(path, objectPath, interfaces);
+            this.objectPath = objectPath;
+            this.interfaces = interfaces;
+        }
+
+        /**
+         * returns the path of the removed object
+         *
+         * @return the path of the removed object
+         */
+        public String getObjectPath() {
+            return objectPath.getPath();
+        }
+
+        /**
+         * returns the names of the removed interfaces
+         *
+         * @return the names of the removed interfaces
+         */
+        public Iterable<String> getInterfaceNames() {
+            return interfaces;
+        }
+    }
+}
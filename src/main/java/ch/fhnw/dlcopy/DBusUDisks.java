@@ -0,0 +1,73 @@
+package ch.fhnw.dlcopy;
+
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * The D-Bus interface "org.freedesktop.UDisks" of the old udisks daemon (only
+ * the signals we need).
+ */
+@DBusInterfaceName("org.freedesktop.UDisks")
+public interface DBusUDisks extends DBusInterface {
+
+    /**
+     * emitted when a device was added
+     */
+    public static class DeviceAdded extends DBusSignal {
+
+        private final Path device;
+
+        /**
+         * creates a new DeviceAdded signal
+         *
+         * @param path the path of the udisks daemon
+         * @param device the path of the added device
+         * @throws DBusException if creating the signal fails
+         */
+        public DeviceAdded(String path, Path device) throws DBusException {
+            super(path, device);
+            this.device = device;
+        }
+
+        /**
+         * returns the path of the added device
+         *
+         * @return the path of the added device
+         */
+        public String getDevicePath() {
+            return device.getPath();
+        }
+    }
+
+    /**
+     * emitted when a device was removed
+     */
+    public static class DeviceRemoved extends DBusSignal {
+
+        private final Path device;
+
+        /**
+         * creates a new DeviceRemoved signal
+         *
+         * @param path the path of the udisks daemon
+         * @param device the path of the removed device
+         * @throws DBusException if creating the signal fails
+         */
+        public DeviceRemoved(String path, Path device) throws DBusException {
+            super(path, device);
+            this.device = device;
+        }
+
+        /**
+         * returns the path of the removed device
+         *
+         * @return the path of the removed device
+         */
+        public String getDevicePath() {
+            return device.getPath();
+        }
+    }
+}
@@ -17,28 +17,28 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.ResourceBundle;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.xml.parsers.ParserConfigurationException;
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.DBusConnection;
@@ -102,8 +102,17 @@ public class DLCopy {
 
     private static final Logger LOGGER
             = Logger.getLogger(DLCopy.class.getName());
-    private static final ProcessExecutor PROCESS_EXECUTOR
-            = new ProcessExecutor();
+    // ProcessExecutor is not thread-safe (it keeps the output of the last
+    // process) but several Installer threads may run in parallel
+    private static final ThreadLocal<ProcessExecutor> PROCESS_EXECUTOR
+            = ThreadLocal.withInitial(ProcessExecutor::new);
+    // the write lock is held while the source data partition is mounted for
+    // copying its files, the read lock while it is cloned
+    private static final ReadWriteLock PERSISTENCE_COPY_LOCK
+            = new ReentrantReadWriteLock();
+    private static final Lock TRANSFER_LOCK = new ReentrantLock();
+    // the read-only btrfs subvolume used for resetting data partitions
+    private static final String GOLDEN_SUBVOLUME = "golden";
     private static final long MINIMUM_PARTITION_SIZE = 200 * MEGA;
     private static final long MINIMUM_FREE_MEMORY = 300 * MEGA;
     private static DBusConnection dbusSystemConnection;
@@ -225,8 +234,12 @@ public class DLCopy {
             throw new IOException(errorMessage);
         }
 
-        // install MBR
-        int exitValue = PROCESS_EXECUTOR.executeScript(
+        installMbr(source, device);
+    }
+
+    private static void installMbr(SystemSource source, String device)
+            throws IOException {
+        int exitValue = PROCESS_EXECUTOR.get().executeScript(
                 "cat " + source.getMbrPath() + " > " + device + '\n'
                 + "sync");
         if (exitValue != 0) {
@@ -274,6 +287,53 @@ public class DLCopy {
             throws InterruptedException, IOException,
             DBusException, NoSuchAlgorithmException {
 
+        DestinationPartitions destinationPartitions = prepareStorageDevice(
+                source, storageDevice, exchangePartitionLabel,
+                installerOrUpgrader, personalDataPartitionEncryption,
+                personalEncryptionPassword, secondaryDataPartitionEncryption,
+                secondaryEncryptionPassword, randomFillDataPartition,
+                dlCopyGUI);
+        copyToPreparedStorageDevice(source, fileCopier, destinationPartitions,
+                installerOrUpgrader, checkCopies, dlCopyGUI);
+        finishStorageDevice(source, destinationPartitions, installerOrUpgrader,
+                dlCopyGUI);
+    }
+
+    /**
+     * Partitions and formats a target storage device. This is the first step
+     * of copyToStorageDevice() and only touches the target storage device (not
+     * the system source).
+     *
+     * @param source the system source
+     * @param storageDevice the target storage device
+     * @param exchangePartitionLabel the label of the exchange partition
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param personalDataPartitionEncryption if the persistence partition
+     * should be encrypted with a personal password
+     * @param personalEncryptionPassword the personal encryption password
+     * @param secondaryDataPartitionEncryption if the persistence partition
+     * should be encrypted with a secondary password
+     * @param secondaryEncryptionPassword the secondary encryption password
+     * @param randomFillDataPartition if the data partition should be filled
+     * with random data before formatting
+     * @param dlCopyGUI the program GUI
+     * @return the partitions of the prepared storage device
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static DestinationPartitions prepareStorageDevice(
+            SystemSource source, StorageDevice storageDevice,
+            String exchangePartitionLabel,
+            InstallerOrUpgrader installerOrUpgrader,
+            boolean personalDataPartitionEncryption,
+            String personalEncryptionPassword,
+            boolean secondaryDataPartitionEncryption,
+            String secondaryEncryptionPassword, boolean randomFillDataPartition,
+            DLCopyGUI dlCopyGUI)
+            throws InterruptedException, IOException, DBusException {
+
         // determine size and state
         String device = storageDevice.getFullDevice();
         long storageDeviceSize = storageDevice.getSize();
@@ -404,15 +464,15 @@ public class DLCopy {
         // will later get exceptions similar to this one:
         // org.freedesktop.dbus.exceptions.DBusExecutionException:
         // No such interface 'org.freedesktop.UDisks2.Filesystem'
-        PROCESS_EXECUTOR.executeProcess("partprobe", device);
+        PROCESS_EXECUTOR.get().executeProcess("partprobe", device);
         // Sigh... even after partprobe exits, we have to give udisks even more
         // time to get its act together and finally know about the new
         // partitions.
-        try {
-            // 5 seconds were not enough!
-            TimeUnit.SECONDS.sleep(7);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, "", ex);
+        if (!DeviceReadiness.waitForPartitions(DeviceReadiness.DEFAULT_TIMEOUT,
+                destinationExchangeDevice, destinationDataDevice,
+                destinationEfiDevice, destinationSystemDevice)) {
+            throw new IOException(
+                    "udisks did not notice the new partitions of " + device);
         }
 
         // the partitions now really exist
@@ -435,31 +495,115 @@ public class DLCopy {
                 = Partition.getPartitionFromDeviceAndNumber(
                         destinationSystemDevice.substring(5));
 
+        return new DestinationPartitions(storageDevice,
+                destinationExchangePartition, destinationDataPartition,
+                destinationBootPartition, destinationSystemPartition);
+    }
+
+    /**
+     * Copies the operating system files and the data partition to a prepared
+     * storage device. This is the second step of copyToStorageDevice() and the
+     * only one that reads from the system source. If copies are checked, they
+     * are verified here while copying.
+     *
+     * @param source the system source
+     * @param fileCopier the Filecopier used for copying the system partition
+     * @param destinationPartitions the partitions of the prepared storage
+     * device
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param checkCopies if copies should be checked for errors
+     * @param dlCopyGUI the program GUI
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     * @throws java.security.NoSuchAlgorithmException when the file checking
+     * algorithm can't be found
+     */
+    public static void copyToPreparedStorageDevice(SystemSource source,
+            FileCopier fileCopier, DestinationPartitions destinationPartitions,
+            InstallerOrUpgrader installerOrUpgrader, boolean checkCopies,
+            DLCopyGUI dlCopyGUI) throws InterruptedException, IOException,
+            DBusException, NoSuchAlgorithmException {
+
         // copy operating system files
-        copyExchangeEfiAndSystem(source, fileCopier, storageDevice,
-                destinationExchangePartition, destinationBootPartition,
-                destinationSystemPartition, installerOrUpgrader, checkCopies,
-                dlCopyGUI);
+        destinationPartitions.setEfiPartitionCloned(copyExchangeEfiAndSystem(
+                source, fileCopier, destinationPartitions.getStorageDevice(),
+                destinationPartitions.getExchangePartition(),
+                destinationPartitions.getEfiPartition(),
+                destinationPartitions.getSystemPartition(),
+                installerOrUpgrader, checkCopies, dlCopyGUI));
 
         // copy persistence layer
         copyPersistence(source, installerOrUpgrader,
-                destinationDataPartition, dlCopyGUI);
+                destinationPartitions.getDataPartition(), checkCopies,
+                dlCopyGUI);
+    }
+
+    /**
+     * Makes a storage device bootable and unmounts all its partitions. This is
+     * the last step of copyToStorageDevice() and only touches the target
+     * storage device (unmounting flushes all remaining buffered writes to the
+     * device).
+     *
+     * @param source the system source
+     * @param destinationPartitions the partitions of the storage device
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param dlCopyGUI the program GUI
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static void finishStorageDevice(SystemSource source,
+            DestinationPartitions destinationPartitions,
+            InstallerOrUpgrader installerOrUpgrader, DLCopyGUI dlCopyGUI)
+            throws IOException, DBusException {
+
+        String device
+                = destinationPartitions.getStorageDevice().getFullDevice();
+        Partition destinationBootPartition
+                = destinationPartitions.getEfiPartition();
+        Partition destinationSystemPartition
+                = destinationPartitions.getSystemPartition();
+        boolean efiPartitionCloned
+                = destinationPartitions.isEfiPartitionCloned();
 
         // make storage device bootable
         installerOrUpgrader.showWritingBootSector();
-        makeBootable(source, device, destinationBootPartition);
+        if (efiPartitionCloned) {
+            // extlinux is already installed in the cloned EFI partition
+            installMbr(source, device);
+        } else {
+            makeBootable(source, device, destinationBootPartition);
+        }
 
         if (!umount(destinationBootPartition, dlCopyGUI)) {
             String errorMessage = "could not umount destination boot partition";
             throw new IOException(errorMessage);
         }
 
+        // the finished EFI partition can be cloned by all following
+        // installations
+        if (!efiPartitionCloned && isCloneEfiPartition(installerOrUpgrader)) {
+            EfiPartitionImage.store(source,
+                    ((Installer) installerOrUpgrader).getDataPartitionMode(),
+                    destinationBootPartition.getFullDeviceAndNumber());
+        }
+
         if (!umount(destinationSystemPartition, dlCopyGUI)) {
             String errorMessage
                     = "could not umount destination system partition";
             throw new IOException(errorMessage);
         }
-        source.unmountTmpPartitions();
+
+        // remember the freshly installed data partition for fast resets
+        Partition destinationDataPartition
+                = destinationPartitions.getDataPartition();
+        if (destinationDataPartition != null) {
+            createGoldenSnapshot(destinationDataPartition);
+        }
+
+        installerOrUpgrader.unmountSourceTmpPartitions();
     }
 
     /**
@@ -525,7 +669,7 @@ public class DLCopy {
             }
         }
 
-        int exitValue = PROCESS_EXECUTOR.executeProcess(
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                 "umount", deviceOrMountpoint);
         if (exitValue != 0) {
             String errorMessage = STRINGS.getString("Error_Umount");
@@ -626,24 +770,9 @@ public class DLCopy {
                 long persistenceSize = persistencePartition.getSize();
 
                 LOGGER.info("filling data partition with random data...");
-                try (FileChannel source = FileChannel.open(
-                        Paths.get("/dev/urandom"), StandardOpenOption.READ); FileChannel destination = FileChannel.open(
-                        Paths.get(device), StandardOpenOption.WRITE)) {
-                    ByteBuffer byteBuffer = ByteBuffer.allocateDirect(MEGA);
-                    long written = 0;
-                    while (true) {
-                        byteBuffer.clear();
-                        source.read(byteBuffer);
-                        byteBuffer.flip();
-                        written += destination.write(byteBuffer);
-                        dlCopyGUI.showInstallOverwritingDataPartitionWithRandomData(
-                                written, persistenceSize);
-                    }
-                } catch (IOException e) {
-                    // this exception is thrown when the filling process is done
-                    // just ignore it...
-                    LOGGER.log(Level.INFO, "", e);
-                }
+                new RandomFiller().fill(device, persistenceSize, written
+                        -> dlCopyGUI.showInstallOverwritingDataPartitionWithRandomData(
+                                written, persistenceSize));
                 dlCopyGUI.showInstallCreatingFileSystems();
             }
 
@@ -672,11 +801,11 @@ public class DLCopy {
         // ------------
         // To make a long story short, this is the reason we have to use the
         // force flag "-F" here.
-        int exitValue = PROCESS_EXECUTOR.executeProcess("/sbin/mkfs."
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess("/sbin/mkfs."
                 + fileSystem, forceFlag, "-L", Partition.PERSISTENCE_LABEL,
                 personalDataPartitionEncryption ? mapperDevice : device);
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage = STRINGS.getString(
                     "Error_Create_Data_Partition");
             LOGGER.severe(errorMessage);
@@ -685,11 +814,11 @@ public class DLCopy {
 
         // ext{2..4} tuning
         if (fileSystem.startsWith("ext")) {
-            exitValue = PROCESS_EXECUTOR.executeProcess(
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "/sbin/tune2fs", "-m", "0", "-c", "0", "-i", "0",
                     personalDataPartitionEncryption ? mapperDevice : device);
             if (exitValue != 0) {
-                LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+                LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
                 String errorMessage = STRINGS.getString(
                         "Error_Tune_Data_Partition");
                 LOGGER.severe(errorMessage);
@@ -697,18 +826,20 @@ public class DLCopy {
             }
         }
 
-        // We have to wait a little for dbus to get to know the new filesystem.
+        // We have to wait for dbus to get to know the new filesystem.
         // Otherwise we will sometimes get the following exception in the calls
         // below:
         // org.freedesktop.dbus.exceptions.DBusExecutionException:
         // No such interface 'org.freedesktop.UDisks2.Filesystem'
-        // 5 seconds were too short!
-        try {
-            TimeUnit.SECONDS.sleep(10);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, "", ex);
+        boolean ready = personalDataPartitionEncryption
+                ? DeviceReadiness.waitForEncrypted(
+                        device, DeviceReadiness.DEFAULT_TIMEOUT)
+                : DeviceReadiness.waitForFileSystem(
+                        device, DeviceReadiness.DEFAULT_TIMEOUT);
+        if (!ready) {
+            throw new IOException(
+                    "udisks did not notice the new file system on " + device);
         }
-        settleUdev();
 
         Partition persistencePartition
                 = Partition.getPartitionFromDeviceAndNumber(
@@ -802,7 +933,7 @@ public class DLCopy {
         for (String bootFile : bootFiles) {
             Path destinationPath = Paths.get(destinationExchangePath, bootFile);
             if (Files.exists(destinationPath)) {
-                PROCESS_EXECUTOR.executeProcess(
+                PROCESS_EXECUTOR.get().executeProcess(
                         "fatattr", "+h", destinationPath.toString());
             }
         }
@@ -823,7 +954,8 @@ public class DLCopy {
         }
 
         // use FAT attributes again to hide macOS ".hidden" file in Windows
-        PROCESS_EXECUTOR.executeProcess("fatattr", "+h", osxHiddenFilePath);
+        PROCESS_EXECUTOR.get().executeProcess(
+                "fatattr", "+h", osxHiddenFilePath);
     }
 
     /**
@@ -877,7 +1009,7 @@ public class DLCopy {
                     }
                 }
                 LernstickFileTools.writeFile(md5sumFile, lines);
-                PROCESS_EXECUTOR.executeProcess("sync");
+                PROCESS_EXECUTOR.get().executeProcess("sync");
             } else {
                 LOGGER.log(Level.WARNING,
                         "file \"{0}\" does not exist!", md5sumFileName);
@@ -901,10 +1033,10 @@ public class DLCopy {
 
         formatEfiPartition(efiDevice);
 
-        int exitValue = PROCESS_EXECUTOR.executeProcess(
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                 "/sbin/mkfs.ext3", "-L", systemPartitionLabel, systemDevice);
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage
                     = STRINGS.getString("Error_Create_System_Partition");
             LOGGER.severe(errorMessage);
@@ -912,6 +1044,24 @@ public class DLCopy {
         }
     }
 
+    private static void formatEfiAndSystemPartition(String efiDevice,
+            String systemDevice, InstallerOrUpgrader installerOrUpgrader)
+            throws IOException {
+        if (isCloneSystemPartition(installerOrUpgrader)) {
+            // the file system will be cloned from the system partition image
+            formatEfiPartition(efiDevice);
+        } else {
+            formatEfiAndSystemPartition(efiDevice, systemDevice);
+        }
+    }
+
+    private static boolean isCloneSystemPartition(
+            InstallerOrUpgrader installerOrUpgrader) {
+        return (installerOrUpgrader instanceof Installer)
+                && ((Installer) installerOrUpgrader)
+                        .isCloneSystemPartitionSelected();
+    }
+
     /**
      * formats the efi partition
      *
@@ -920,10 +1070,10 @@ public class DLCopy {
      */
     public static void formatEfiPartition(String efiDevice) throws IOException {
 
-        int exitValue = PROCESS_EXECUTOR.executeProcess(
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                 "/sbin/mkfs.vfat", "-n", Partition.EFI_LABEL, efiDevice);
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage
                     = STRINGS.getString("Error_Create_EFI_Partition");
             LOGGER.severe(errorMessage);
@@ -1002,28 +1152,47 @@ public class DLCopy {
     }
 
     /**
-     * returns the StorageDevice for a given dbus path after a timeout
+     * returns the StorageDevices for a list of newly added dbus paths, waits
+     * until the partitions of the storage devices are ready and probes the
+     * storage devices in parallel
      *
-     * @param path the dbus path
+     * @param paths the dbus paths
      * @param includeHardDisks if true, paths to hard disks are processed,
      * otherwise ignored
-     * @return the StorageDevice for a given dbus path after a timeout
-     * @throws DBusException
+     * @return the StorageDevices of the given dbus paths (paths of
+     * partitions, hard disks (see above), optical discs, ... are skipped)
      */
-    public static StorageDevice getStorageDeviceAfterTimeout(
-            String path, boolean includeHardDisks) throws DBusException {
+    public static List<StorageDevice> getAddedStorageDevices(
+            List<String> paths, boolean includeHardDisks) {
+
         // It has happened that "udisks --enumerate" returns a valid storage
-        // device but not yet its partitions. Therefore we give the system
-        // a little break after storage devices have been added.
-        try {
-            TimeUnit.SECONDS.sleep(3);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, "", ex);
-        }
-        StorageDevice storageDevice = getStorageDevice(path, includeHardDisks);
-        LOGGER.log(Level.INFO, "storage device of path {0}: {1}",
-                new Object[]{path, storageDevice});
-        return storageDevice;
+        // device but not yet its partitions. Therefore we wait until the
+        // partitions of all added storage devices are known.
+        List<String> devices = new ArrayList<>();
+        paths.forEach(path -> devices.add(
+                path.substring(path.lastIndexOf('/') + 1)));
+        DeviceReadiness.waitForStorageDevices(
+                DeviceReadiness.DEFAULT_TIMEOUT, devices);
+
+        return paths.parallelStream().map(path -> {
+            try {
+                StorageDevice storageDevice
+                        = getStorageDevice(path, includeHardDisks);
+                LOGGER.log(Level.INFO, "storage device of path {0}: {1}",
+                        new Object[]{path, storageDevice});
+                if ((storageDevice != null) && (storageDevice.getType()
+                        == StorageDevice.Type.OpticalDisc)) {
+                    LOGGER.log(Level.INFO,
+                            "skipping optical disk {0}", storageDevice);
+                    return null;
+                }
+                return storageDevice;
+            } catch (DBusException ex) {
+                // the storage device may have been removed in the meantime
+                LOGGER.log(Level.WARNING, "", ex);
+                return null;
+            }
+        }).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     /**
@@ -1164,15 +1333,15 @@ public class DLCopy {
 
         // create subvolume "root" (for the file system root)
         String rootPath = Path.of(mountPath, "root").toString();
-        PROCESS_EXECUTOR.executeProcess("btrfs", "subvolume", "create",
+        PROCESS_EXECUTOR.get().executeProcess("btrfs", "subvolume", "create",
                 rootPath);
         // set subvolume "root" as the default subvolume when mounting the
         // file system without any special options
-        PROCESS_EXECUTOR.executeProcess("btrfs", "subvolume", "set-default",
-                rootPath);
+        PROCESS_EXECUTOR.get().executeProcess("btrfs", "subvolume",
+                "set-default", rootPath);
 
         // create subvolume "snapshots" for storing all file system snapshots
-        PROCESS_EXECUTOR.executeProcess("btrfs", "subvolume", "create",
+        PROCESS_EXECUTOR.get().executeProcess("btrfs", "subvolume", "create",
                 Path.of(mountPath, "snapshots").toString());
         
         // remount persistencePartition with new default root partition
@@ -1180,6 +1349,159 @@ public class DLCopy {
         persistencePartition.mount();
     }
 
+    /**
+     * Captures the current state of a btrfs data partition as the read-only
+     * "golden" subvolume. A data partition with a golden subvolume can later
+     * be reset in constant time with
+     * {@link #resetToGoldenSnapshot(Partition)}. Data partitions with other
+     * file systems are ignored.
+     *
+     * @param dataPartition the data partition
+     * @throws IOException if creating the snapshot fails
+     */
+    public static void createGoldenSnapshot(Partition dataPartition)
+            throws IOException {
+
+        String device = dataPartition.getFullDeviceAndNumber();
+        Path btrfsRoot = mountBtrfsRoot(device);
+        if (btrfsRoot == null) {
+            return;
+        }
+        try {
+            Path rootPath = btrfsRoot.resolve("root");
+            Path goldenPath = btrfsRoot.resolve(GOLDEN_SUBVOLUME);
+            if (!Files.exists(rootPath)) {
+                LOGGER.log(Level.INFO, "{0} has no root subvolume, skipping "
+                        + "golden snapshot", device);
+                return;
+            }
+            if (Files.exists(goldenPath)) {
+                // e.g. cloned from the source data partition
+                executeBtrfs("could not delete old golden snapshot",
+                        "subvolume", "delete", goldenPath.toString());
+            }
+            executeBtrfs("could not create golden snapshot", "subvolume",
+                    "snapshot", "-r", rootPath.toString(),
+                    goldenPath.toString());
+            LOGGER.log(Level.INFO, "created golden snapshot of {0}", device);
+        } finally {
+            umountBtrfsRoot(btrfsRoot);
+        }
+    }
+
+    /**
+     * Deletes the golden snapshot of a btrfs data partition, e.g. after an
+     * upgrade changed the data partition in place. The golden snapshot would
+     * otherwise restore the state of the old system on top of the new one.
+     * Data partitions without golden snapshot are ignored.
+     *
+     * @param dataPartition the data partition
+     * @throws IOException if deleting the snapshot fails
+     */
+    public static void deleteGoldenSnapshot(Partition dataPartition)
+            throws IOException {
+
+        String device = dataPartition.getFullDeviceAndNumber();
+        Path btrfsRoot = mountBtrfsRoot(device);
+        if (btrfsRoot == null) {
+            return;
+        }
+        try {
+            Path goldenPath = btrfsRoot.resolve(GOLDEN_SUBVOLUME);
+            if (Files.exists(goldenPath)) {
+                executeBtrfs("could not delete golden snapshot",
+                        "subvolume", "delete", goldenPath.toString());
+                LOGGER.log(Level.INFO,
+                        "deleted golden snapshot of {0}", device);
+            }
+        } finally {
+            umountBtrfsRoot(btrfsRoot);
+        }
+    }
+
+    /**
+     * Resets a btrfs data partition to its golden snapshot by replacing the
+     * root subvolume with a writable snapshot of the "golden" subvolume. This
+     * takes the same (short) time regardless of the amount of data on the
+     * partition. The data partition must not be mounted.
+     *
+     * @param dataPartition the data partition
+     * @return <code>true</code> if the data partition was reset,
+     * <code>false</code> if the partition has no golden snapshot
+     * @throws IOException if resetting the data partition fails
+     */
+    public static boolean resetToGoldenSnapshot(Partition dataPartition)
+            throws IOException {
+
+        String device = dataPartition.getFullDeviceAndNumber();
+        Path btrfsRoot = mountBtrfsRoot(device);
+        if (btrfsRoot == null) {
+            return false;
+        }
+        try {
+            Path rootPath = btrfsRoot.resolve("root");
+            Path goldenPath = btrfsRoot.resolve(GOLDEN_SUBVOLUME);
+            if (!Files.exists(goldenPath)) {
+                LOGGER.log(Level.INFO, "{0} has no golden snapshot", device);
+                return false;
+            }
+            if (Files.exists(rootPath)) {
+                // btrfs removes the data of deleted subvolumes in background
+                executeBtrfs("could not delete root subvolume",
+                        "subvolume", "delete", rootPath.toString());
+            }
+            executeBtrfs("could not create root subvolume", "subvolume",
+                    "snapshot", goldenPath.toString(), rootPath.toString());
+            executeBtrfs("could not set default subvolume", "subvolume",
+                    "set-default", rootPath.toString());
+            LOGGER.log(Level.INFO, "reset {0} to golden snapshot", device);
+            return true;
+        } finally {
+            umountBtrfsRoot(btrfsRoot);
+        }
+    }
+
+    // mounts the administrative root (subvol "/") of a btrfs file system,
+    // returns null if the device contains no btrfs file system
+    private static Path mountBtrfsRoot(String device) throws IOException {
+        ProcessExecutor processExecutor = PROCESS_EXECUTOR.get();
+        processExecutor.executeProcess(true, true,
+                "blkid", "-o", "value", "-s", "TYPE", device);
+        if (!processExecutor.getStdOut().trim().equals("btrfs")) {
+            return null;
+        }
+        Path btrfsRoot = Files.createTempDirectory("dlcopy");
+        if (processExecutor.executeProcess(true, true, "mount", "-o",
+                "subvol=/", device, btrfsRoot.toString()) != 0) {
+            Files.delete(btrfsRoot);
+            throw new IOException("could not mount " + device + ": "
+                    + processExecutor.getStdErr());
+        }
+        return btrfsRoot;
+    }
+
+    private static void umountBtrfsRoot(Path btrfsRoot) throws IOException {
+        ProcessExecutor processExecutor = PROCESS_EXECUTOR.get();
+        if (processExecutor.executeProcess(true, true,
+                "umount", btrfsRoot.toString()) != 0) {
+            throw new IOException("could not umount " + btrfsRoot + ": "
+                    + processExecutor.getStdErr());
+        }
+        Files.delete(btrfsRoot);
+    }
+
+    private static void executeBtrfs(String errorMessage, String... arguments)
+            throws IOException {
+        String[] command = new String[arguments.length + 1];
+        command[0] = "btrfs";
+        System.arraycopy(arguments, 0, command, 1, arguments.length);
+        ProcessExecutor processExecutor = PROCESS_EXECUTOR.get();
+        if (processExecutor.executeProcess(true, true, command) != 0) {
+            throw new IOException(errorMessage + ": "
+                    + processExecutor.getStdErr());
+        }
+    }
+
     private static PartitionSizes getPartitionSizes(SystemSource source,
             StorageDevice storageDevice, boolean upgrading,
             RepartitionStrategy upgradeRepartitionStrategy,
@@ -1355,9 +1677,8 @@ public class DLCopy {
                 throw new IOException(errorMessage);
         }
 
-        // safety wait in case of device scanning
-        // 5 seconds were not enough...
-        TimeUnit.SECONDS.sleep(7);
+        // wait in case of device scanning
+        DeviceReadiness.settleUdev(DeviceReadiness.DEFAULT_TIMEOUT);
 
         // check if a swap partition is active on this device
         // if so, switch it off
@@ -1375,7 +1696,7 @@ public class DLCopy {
         // We must wipe the whole storage device before creating the partitions,
         // otherwise USB flash drives previously written with a dd'ed ISO
         // will NOT work!
-        if (PROCESS_EXECUTOR.executeProcess(
+        if (PROCESS_EXECUTOR.get().executeProcess(
                 true, true, "wipefs", "-a", device) != 0) {
             String errorMessage = STRINGS.getString("Error_Wiping_File_System");
             errorMessage = MessageFormat.format(errorMessage, device);
@@ -1389,7 +1710,7 @@ public class DLCopy {
         if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
             // "--print-reply" is needed in the call to dbus-send below to make
             // the call synchronous
-            exitValue = PROCESS_EXECUTOR.executeProcess("dbus-send",
+            exitValue = PROCESS_EXECUTOR.get().executeProcess("dbus-send",
                     "--system", "--print-reply",
                     "--dest=org.freedesktop.UDisks",
                     "/org/freedesktop/UDisks/devices/" + device.substring(5),
@@ -1432,7 +1753,7 @@ public class DLCopy {
             //
             // So, for Debian 8 we retry with good old parted and hope for the
             // best...
-            exitValue = PROCESS_EXECUTOR.executeProcess(true, true,
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(true, true,
                     "parted", "-s", device, "mklabel", "msdos");
         }
         if (exitValue != 0) {
@@ -1443,14 +1764,14 @@ public class DLCopy {
             throw new IOException(errorMessage);
         }
 
-        // another safety wait...
-        TimeUnit.SECONDS.sleep(3);
+        // wait until the new partition table is known to the system
+        DeviceReadiness.settleUdev(DeviceReadiness.DEFAULT_TIMEOUT);
 
         // repartition device
         String[] commandArray = partedCommandList.toArray(
                 new String[partedCommandList.size()]);
 
-        exitValue = PROCESS_EXECUTOR.executeProcess(commandArray);
+        exitValue = PROCESS_EXECUTOR.get().executeProcess(commandArray);
         if (exitValue != 0) {
             String errorMessage = STRINGS.getString("Error_Repartitioning");
             errorMessage = MessageFormat.format(errorMessage, device);
@@ -1458,8 +1779,12 @@ public class DLCopy {
             throw new IOException(errorMessage);
         }
 
-        // safety wait so that new partitions are known to the system
-        TimeUnit.SECONDS.sleep(7);
+        // wait until the new partitions are known to the system
+        if (!DeviceReadiness.waitForPartitions(DeviceReadiness.DEFAULT_TIMEOUT,
+                exchangeDevice, persistenceDevice, efiDevice, systemDevice)) {
+            throw new IOException(
+                    "udisks did not notice the new partitions of " + device);
+        }
 
         // The partition types assigned by parted are mostly garbage.
         // We must fix them here...
@@ -1470,9 +1795,9 @@ public class DLCopy {
                 // create two partitions:
                 //  1) efi (EFI)
                 //  2) system (Linux)
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                         "--part-type", device, "1", "ef");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                         "--part-type", device, "2", "83");
                 break;
 
@@ -1481,11 +1806,11 @@ public class DLCopy {
                 //  1) efi (EFI)
                 //  2) persistence (Linux)
                 //  3) system (Linux)
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                         "--part-type", device, "1", "ef");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                         "--part-type", device, "2", "83");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                         "--part-type", device, "3", "83");
                 break;
 
@@ -1495,11 +1820,11 @@ public class DLCopy {
                     //  1) efi (EFI)
                     //  2) persistence (Linux)
                     //  3) system (Linux)
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                    PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                             "--part-type", device, "1", "ef");
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                    PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                             "--part-type", device, "2", "83");
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                    PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                             "--part-type", device, "3", "83");
                 } else {
                     // determine ID for exchange partition
@@ -1515,21 +1840,21 @@ public class DLCopy {
 
                     //  1) efi (EFI)
                     //  2) exchange (exFAT, FAT32 or NTFS)
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                    PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                             "--part-type", device, "1", "ef");
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                    PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                             "--part-type", device, "2", exchangePartitionID);
 
                     if (persistenceMB == 0) {
                         //  3) system (Linux)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                        PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                                 "--part-type", device, "3", "83");
                     } else {
                         //  3) persistence (Linux)
                         //  4) system (Linux)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                        PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                                 "--part-type", device, "3", "83");
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
+                        PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk",
                                 "--part-type", device, "4", "83");
                     }
                 }
@@ -1543,15 +1868,19 @@ public class DLCopy {
         }
 
         // Partition.getPartitionFromDeviceAndNumber() in
-        // formatPersistencePartition() below failed without waiting here for
-        // a little bit
-        TimeUnit.SECONDS.sleep(3);
-        settleUdev();
+        // formatPersistencePartition() below failed without waiting here until
+        // udisks knows about the changed partition types
+        if (!DeviceReadiness.waitForPartitions(DeviceReadiness.DEFAULT_TIMEOUT,
+                exchangeDevice, persistenceDevice, efiDevice, systemDevice)) {
+            throw new IOException("udisks did not notice the changed "
+                    + "partition types of " + device);
+        }
 
         // create file systems
         switch (partitionState) {
             case ONLY_SYSTEM:
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
+                formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, installerOrUpgrader);
                 return;
 
             case PERSISTENCE:
@@ -1562,7 +1891,8 @@ public class DLCopy {
                         secondaryEncryptionPassword, randomFillDataPartition,
                         installerOrUpgrader.getDataPartitionFileSystem(),
                         dlCopyGUI);
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
+                formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, installerOrUpgrader);
                 return;
 
             case EXCHANGE:
@@ -1583,7 +1913,8 @@ public class DLCopy {
                             installerOrUpgrader.getDataPartitionFileSystem(),
                             dlCopyGUI);
                 }
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
+                formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, installerOrUpgrader);
                 return;
 
             default:
@@ -1594,7 +1925,16 @@ public class DLCopy {
         }
     }
 
-    private static void copyExchangeEfiAndSystem(SystemSource source,
+    private static boolean isCloneEfiPartition(
+            InstallerOrUpgrader installerOrUpgrader) {
+        return (installerOrUpgrader instanceof Installer)
+                && ((Installer) installerOrUpgrader)
+                        .isCloneEfiPartitionSelected();
+    }
+
+    // returns true if the EFI partition was cloned from an EFI partition
+    // image (and therefore is already bootable), false otherwise
+    private static boolean copyExchangeEfiAndSystem(SystemSource source,
             FileCopier fileCopier, StorageDevice storageDevice,
             Partition destinationExchangePartition,
             Partition destinationEfiPartition,
@@ -1618,6 +1958,29 @@ public class DLCopy {
             }
         }
 
+        // clone the system partition from the system partition image
+        boolean cloneSystemPartition
+                = isCloneSystemPartition(installerOrUpgrader);
+        if (cloneSystemPartition) {
+            SystemPartitionImage.getInstance(source).writeTo(
+                    destinationSystemPartition.getFullDeviceAndNumber(),
+                    installerOrUpgrader, checkCopies);
+        }
+
+        // clone the EFI partition from the EFI partition image (if we
+        // already have one for this kind of installation)
+        EfiPartitionImage efiPartitionImage = null;
+        if (isCloneEfiPartition(installerOrUpgrader)) {
+            efiPartitionImage = EfiPartitionImage.get(source,
+                    ((Installer) installerOrUpgrader).getDataPartitionMode(),
+                    destinationEfiPartition.getFullDeviceAndNumber());
+            if (efiPartitionImage != null) {
+                efiPartitionImage.writeTo(
+                        destinationEfiPartition.getFullDeviceAndNumber(),
+                        checkCopies);
+            }
+        }
+
         // define CopyJobs for efi and system parititions
         CopyJobsInfo copyJobsInfo = prepareEfiAndSystemCopyJobs(source,
                 storageDevice, destinationEfiPartition,
@@ -1629,16 +1992,22 @@ public class DLCopy {
 
         CopyJob efiFilesCopyJob = copyJobsInfo.getExchangeEfiCopyJob();
         fileCopier.copy(checkCopies, exchangeCopyJob, efiFilesCopyJob,
-                copyJobsInfo.getEfiCopyJob(), copyJobsInfo.getSystemCopyJob());
+                efiPartitionImage == null ? copyJobsInfo.getEfiCopyJob() : null,
+                cloneSystemPartition ? null : copyJobsInfo.getSystemCopyJob());
 
         // update GUI
         installerOrUpgrader.showUnmounting();
 
-        source.unmountTmpPartitions();
+        installerOrUpgrader.unmountSourceTmpPartitions();
         if (destinationExchangePath != null) {
             destinationExchangePartition.umount();
         }
 
+        if (efiPartitionImage != null) {
+            // the EFI partition image is already finished
+            return true;
+        }
+
         String destinationEfiPath = copyJobsInfo.getDestinationEfiPath();
         // isolinux -> syslinux renaming
         // !!! don't check here for boot storage device type !!!
@@ -1654,12 +2023,13 @@ public class DLCopy {
             setDataPartitionMode(source, dataPartitionMode,
                     destinationEfiPath);
         }
+        return false;
     }
 
     private static void copyPersistence(SystemSource source,
             InstallerOrUpgrader installerOrUpgrader,
-            Partition destinationDataPartition, DLCopyGUI dlCopyGUI)
-            throws IOException, InterruptedException, DBusException {
+            Partition destinationDataPartition, boolean checkCopies,
+            DLCopyGUI dlCopyGUI) throws IOException, DBusException {
 
         // some early checks and returns...
         if (!(installerOrUpgrader instanceof Installer)) {
@@ -1673,40 +2043,150 @@ public class DLCopy {
             return;
         }
 
-        // mount persistence source
-        MountInfo sourceDataMountInfo = source.getDataPartition().mount();
-        String sourceDataPath = sourceDataMountInfo.getMountPath();
-        if (sourceDataPath == null) {
-            String errorMessage = "could not mount source data partition";
-            throw new IOException(errorMessage);
+        // Cloning the file system reads the unmounted source data partition,
+        // therefore several clones can run in parallel (but not while
+        // another installation copies the files of the mounted partition).
+        if (cloneDataPartition(source, installer, destinationDataPartition,
+                checkCopies, dlCopyGUI)) {
+            MountInfo destinationDataMountInfo
+                    = destinationDataPartition.mount();
+            String destinationDataPath
+                    = destinationDataMountInfo.getMountPath();
+            if (destinationDataPath == null) {
+                String errorMessage
+                        = "could not mount destination data partition";
+                throw new IOException(errorMessage);
+            }
+            removeSshConfig(destinationDataPath);
+            dlCopyGUI.showInstallUnmounting();
+            if (!destinationDataMountInfo.alreadyMounted()) {
+                destinationDataPartition.umount();
+            }
+            return;
         }
 
-        // mount persistence destination
-        MountInfo destinationDataMountInfo = destinationDataPartition.mount();
-        String destinationDataPath = destinationDataMountInfo.getMountPath();
-        if (destinationDataPath == null) {
-            String errorMessage = "could not mount destination data partition";
-            throw new IOException(errorMessage);
+        // When installing to several devices in parallel, the source data
+        // partition is shared by all installations and would be unmounted
+        // below while other installations still copy from it. Therefore we
+        // only copy one data partition at a time.
+        PERSISTENCE_COPY_LOCK.writeLock().lock();
+        try {
+            // mount persistence source
+            MountInfo sourceDataMountInfo = source.getDataPartition().mount();
+            String sourceDataPath = sourceDataMountInfo.getMountPath();
+            if (sourceDataPath == null) {
+                String errorMessage = "could not mount source data partition";
+                throw new IOException(errorMessage);
+            }
+
+            // mount persistence destination
+            MountInfo destinationDataMountInfo
+                    = destinationDataPartition.mount();
+            String destinationDataPath
+                    = destinationDataMountInfo.getMountPath();
+            if (destinationDataPath == null) {
+                String errorMessage
+                        = "could not mount destination data partition";
+                throw new IOException(errorMessage);
+            }
+
+            copyPersistenceFiles(sourceDataPath, destinationDataPath,
+                    checkCopies, dlCopyGUI);
+
+            // remove original ssh config to make it unique for every system
+            removeSshConfig(destinationDataPath);
+
+            // update GUI
+            dlCopyGUI.showInstallUnmounting();
+
+            // umount both source and destination persistence partitions
+            //  (only if there were not mounted before)
+            if (!sourceDataMountInfo.alreadyMounted()) {
+                source.getDataPartition().umount();
+            }
+            if (!destinationDataMountInfo.alreadyMounted()) {
+                destinationDataPartition.umount();
+            }
+        } finally {
+            PERSISTENCE_COPY_LOCK.writeLock().unlock();
         }
+    }
+
+    // returns true if the data partition was cloned, false if cloning was not
+    // selected or is not possible
+    private static boolean cloneDataPartition(SystemSource source,
+            Installer installer, Partition destinationDataPartition,
+            boolean checkCopies, DLCopyGUI dlCopyGUI)
+            throws IOException, DBusException {
 
-        // TODO: use filecopier as soon as it supports symlinks etc.
-        copyPersistenceCp(installer, sourceDataPath,
-                destinationDataPath, dlCopyGUI);
+        if (!installer.isCloneDataPartitionSelected()) {
+            return false;
+        }
 
-        // remove original ssh config to make it unique for every system
-        removeSshConfig(destinationDataPath);
+        Partition sourceDataPartition = source.getDataPartition();
+        String sourceDevice = sourceDataPartition.getFullDeviceAndNumber();
+        String destinationDevice
+                = destinationDataPartition.getFullDeviceAndNumber();
+        String fileSystem = installer.getDataPartitionFileSystem();
+
+        String reason = null;
+        if (!fileSystem.equals(sourceDataPartition.getIdType())) {
+            reason = "source file system is "
+                    + sourceDataPartition.getIdType();
+        } else if (!fileSystem.equals(destinationDataPartition.getIdType())) {
+            // e.g. an encrypted destination partition
+            reason = "destination file system is "
+                    + destinationDataPartition.getIdType();
+        } else if (!DataPartitionCopier.canCloneFileSystem(fileSystem)) {
+            reason = "cloning " + fileSystem + " is not supported";
+        } else if (BlockDeviceCopier.getSize(sourceDevice)
+                > BlockDeviceCopier.getSize(destinationDevice)) {
+            reason = destinationDevice + " is smaller than " + sourceDevice;
+        }
+        if (reason != null) {
+            LOGGER.log(Level.INFO, "copying files of data partition, "
+                    + "cloning is not possible: {0}", reason);
+            return false;
+        }
 
-        // update GUI
-        dlCopyGUI.showInstallUnmounting();
+        // Other installations must not mount the source data partition
+        // between our check and the end of the clone.
+        PERSISTENCE_COPY_LOCK.readLock().lock();
+        try {
+            if (isMounted(sourceDevice)) {
+                LOGGER.log(Level.INFO, "copying files of data partition, "
+                        + "cloning is not possible: {0} is mounted",
+                        sourceDevice);
+                return false;
+            }
+
+            // the used space must be read from the metadata, getting it from
+            // the partition would mount it
+            long usedSpace;
+            try {
+                usedSpace = SuperblockReader.getUsedSpace(
+                        sourceDevice, fileSystem);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+                usedSpace = BlockDeviceCopier.getSize(sourceDevice);
+            }
 
-        // umount both source and destination persistence partitions
-        //  (only if there were not mounted before)
-        if (!sourceDataMountInfo.alreadyMounted()) {
-            source.getDataPartition().umount();
+            DataPartitionCopier dataPartitionCopier
+                    = new DataPartitionCopier();
+            dlCopyGUI.showInstallPersistencyCopy(dataPartitionCopier);
+            dataPartitionCopier.cloneFileSystem(sourceDevice,
+                    destinationDevice, fileSystem, usedSpace, checkCopies);
+        } finally {
+            PERSISTENCE_COPY_LOCK.readLock().unlock();
         }
-        if (!destinationDataMountInfo.alreadyMounted()) {
-            destinationDataPartition.umount();
+
+        // udisks must notice the new file system UUID before we can mount it
+        if (!DeviceReadiness.waitForFileSystem(
+                destinationDevice, DeviceReadiness.DEFAULT_TIMEOUT)) {
+            throw new IOException("udisks did not notice the new file "
+                    + "system on " + destinationDevice);
         }
+        return true;
     }
 
     private static void mkpart(List<String> commandList,
@@ -1768,7 +2248,7 @@ public class DLCopy {
 
         // If there was a LUKS partition at the very same location, the LUKS
         // header would be still there without wiping.
-        PROCESS_EXECUTOR.executeProcess("/usr/sbin/wipefs", "-a", device);
+        PROCESS_EXECUTOR.get().executeProcess("/usr/sbin/wipefs", "-a", device);
 
         // So that we continue to reliably detect exchange partitions even after
         // reformatting them with a different file system we have to adopt the
@@ -1776,15 +2256,13 @@ public class DLCopy {
         Pattern pattern = Pattern.compile("(.*)(\\p{Digit}+)");
         Matcher matcher = pattern.matcher(device);
         if (matcher.matches()) {
-            PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk", "--part-type",
+            PROCESS_EXECUTOR.get().executeProcess("/sbin/sfdisk", "--part-type",
                     matcher.group(1), matcher.group(2), exchangePartitionID);
-            try {
-                TimeUnit.SECONDS.sleep(7);
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.SEVERE, "", ex);
-            }
+            // sfdisk makes the kernel re-read the partition table
+            DeviceReadiness.waitForPartitions(
+                    DeviceReadiness.DEFAULT_TIMEOUT, device);
 
-            // It happened that after the timeout above, the device was
+            // It happened that after the wait above, the device was
             // automatically mounted.
             // This made the the mkfs call below fail with the error message:
             // mkfs.vfat: /dev/sda2 contains a mounted filesystem
@@ -1798,11 +2276,11 @@ public class DLCopy {
 
         int exitValue;
         if (quickSwitch == null) {
-            exitValue = PROCESS_EXECUTOR.executeProcess(
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "/sbin/mkfs." + mkfsBuilder, mkfsLabelSwitch,
                     label, device);
         } else {
-            exitValue = PROCESS_EXECUTOR.executeProcess(
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "/sbin/mkfs." + mkfsBuilder, quickSwitch, mkfsLabelSwitch,
                     label, device);
         }
@@ -1944,48 +2422,8 @@ public class DLCopy {
      * <code>false</code> otherwise
      */
     public static boolean waitForDeviceNodes(Path... deviceNodes) {
-
-        settleUdev();
-
-        // With this version:
-        // List<Path> deviceNodeList = Arrays.asList(deviceNodes);
-        // iterator.remove() below just throws
-        // java.lang.UnsupportedOperationException: remove
-        // Therefore we have to make a copy of the deviceNodes varargs array.
-        List<Path> deviceNodeList = new ArrayList<>();
-        Collections.addAll(deviceNodeList, deviceNodes);
-
-        for (int i = 0, MAX = 30; i < MAX; i++) {
-
-            Iterator<Path> iterator = deviceNodeList.iterator();
-            while (iterator.hasNext()) {
-                Path path = iterator.next();
-                boolean reappeared = Files.exists(path);
-                LOGGER.log(Level.INFO, "{0} {1}.", new Object[]{
-                    path, reappeared ? "reappeared" : "is still missing"
-                });
-                if (reappeared) {
-                    iterator.remove();
-                }
-            }
-
-            if (deviceNodeList.isEmpty()) {
-                return true;
-            }
-
-            if (i < (MAX - 1)) {
-                try {
-                    TimeUnit.SECONDS.sleep(1);
-                } catch (InterruptedException ex) {
-                    LOGGER.log(Level.SEVERE, "", ex);
-                }
-            } else {
-                LOGGER.warning("Timeout reached, "
-                        + "no longer waiting for device nodes to reappear.");
-            }
-        }
-
-        return false;
+        return DeviceReadiness.waitForDeviceNodes(
+                DeviceReadiness.DEFAULT_TIMEOUT, deviceNodes);
     }
 
     /**
@@ -2001,7 +2439,6 @@ public class DLCopy {
      * @param transferPrinter if the printer settings should be transferred
      * @param transferFirewall if the firewall settings should be transferred
      * @param checkCopies if the copies should be verified
-     * @param installer the Installer used during this transfer
      * @param gui the GUI used during this transfer
      * @throws IOException if an I/O error occurs
      * @throws DBusException if a D-Bus exception occurs
@@ -2012,26 +2449,35 @@ public class DLCopy {
             StorageDevice destinationDevice, boolean transferExchange,
             boolean transferHome, boolean transferNetwork,
             boolean transferPrinter, boolean transferFirewall,
-            boolean checkCopies, Installer installer, DLCopyGUI gui)
+            boolean checkCopies, DLCopyGUI gui)
             throws IOException, DBusException, NoSuchAlgorithmException {
 
-        if (transferExchange) {
+        // When installing to several devices in parallel, all installations
+        // transfer from the same source device. The transferrers mount and
+        // unmount its partitions, therefore we only run one transfer at a
+        // time (same as with PERSISTENCE_COPY_LOCK).
+        TRANSFER_LOCK.lock();
+        try {
+            if (transferExchange) {
 
-            ExchangeTransferrer transferrer = new ExchangeTransferrer(gui,
-                    sourceDevice.getExchangePartition(),
-                    destinationDevice.getExchangePartition());
+                ExchangeTransferrer transferrer = new ExchangeTransferrer(gui,
+                        sourceDevice.getExchangePartition(),
+                        destinationDevice.getExchangePartition());
 
-            transferrer.transfer(checkCopies);
-        }
+                transferrer.transfer(checkCopies);
+            }
 
-        if (transferHome || transferNetwork || transferPrinter
-                || transferFirewall) {
+            if (transferHome || transferNetwork || transferPrinter
+                    || transferFirewall) {
 
-            FileTransferrer transferrer = new FileTransferrer(gui, installer,
-                    sourceDevice, destinationDevice.getDataPartition());
+                FileTransferrer transferrer = new FileTransferrer(gui,
+                        sourceDevice, destinationDevice.getDataPartition());
 
-            transferrer.transfer(transferHome, transferNetwork,
-                    transferPrinter, transferFirewall);
+                transferrer.transfer(transferHome, transferNetwork,
+                        transferPrinter, transferFirewall, checkCopies);
+            }
+        } finally {
+            TRANSFER_LOCK.unlock();
         }
     }
 
@@ -2041,20 +2487,16 @@ public class DLCopy {
      *
      */
     public static void settleUdev() {
-        ProcessExecutor processExecutor = new ProcessExecutor(true);
-        processExecutor.executeProcess(true, true, "udevadm", "settle");
+        DeviceReadiness.settleUdev(DeviceReadiness.DEFAULT_TIMEOUT);
     }
 
-    private static void copyPersistenceCp(Installer installer,
-            String persistenceSourcePath, String persistenceDestinationPath,
-            DLCopyGUI dlCopyGUI)
-            throws InterruptedException, IOException {
-        // this needs to be a script because of the shell globbing
-        String copyScript = "#!/bin/bash\n"
-                + "cp -av \"" + persistenceSourcePath + "/\"* \""
-                + persistenceDestinationPath + "/\"";
-        dlCopyGUI.showInstallPersistencyCopy(
-                installer, copyScript, persistenceSourcePath);
+    private static void copyPersistenceFiles(String persistenceSourcePath,
+            String persistenceDestinationPath, boolean checkCopies,
+            DLCopyGUI dlCopyGUI) throws IOException {
+        DataPartitionCopier dataPartitionCopier = new DataPartitionCopier();
+        dlCopyGUI.showInstallPersistencyCopy(dataPartitionCopier);
+        dataPartitionCopier.copy(Paths.get(persistenceSourcePath),
+                Paths.get(persistenceDestinationPath), checkCopies);
     }
 
     private static void umountPartitions(String device, DLCopyGUI dlCopyGUI)
@@ -2103,7 +2545,7 @@ public class DLCopy {
         }
 
         if (disableSwap) {
-            int exitValue = PROCESS_EXECUTOR.executeProcess(
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "swapoff", swapFile);
             if (exitValue != 0) {
                 String errorMessage = STRINGS.getString("Error_Swapoff_File");
@@ -2136,7 +2578,7 @@ public class DLCopy {
         }
 
         if (disableSwap) {
-            int exitValue = PROCESS_EXECUTOR.executeProcess(
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "swapoff", swapFile);
             if (exitValue != 0) {
                 String errorMessage
@@ -2157,7 +2599,7 @@ public class DLCopy {
      * @return the StorageDevice for a given dbus path
      * @throws DBusException if a dbus exception occurs
      */
-    private static StorageDevice getStorageDevice(
+    public static StorageDevice getStorageDevice(
             String path, boolean includeHardDisks) throws DBusException {
 
         LOGGER.log(Level.FINE, "\n"
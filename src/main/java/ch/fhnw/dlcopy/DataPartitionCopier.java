@@ -0,0 +1,713 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import com.sun.nio.file.ExtendedOpenOption;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the content of a directory on a data partition (e.g. the whole
+ * persistence layer or the home directory) to another directory without
+ * starting external cp processes for the file data.
+ * <p>
+ * Like <code>cp -a</code> it preserves symlinks, hardlinks, ownership,
+ * permissions (including setuid, setgid and sticky bits), timestamps, extended
+ * attributes, ACLs and special files (device nodes, FIFOs, sockets). Ownership
+ * and permissions are set while copying, so there is no second chown pass.
+ * Blocks that contain only zeros are not written, so sparse files stay sparse.
+ * <p>
+ * The file data is copied by several threads in parallel, which helps a lot
+ * with the many small files found on a typical data partition. Progress is
+ * reported in bytes and can be polled with {@link #getByteCount()},
+ * {@link #getCopiedBytes()} and {@link #getCurrentFile()}. An optional
+ * verification reads back all copied files with direct I/O, bypassing the page
+ * cache, and compares their digests with the digests computed while copying.
+ * <p>
+ * Java has no API for creating device nodes and only supports extended
+ * attributes in the user namespace. Special files are therefore copied with a
+ * single cp script and all extended attributes (including ACLs, which are
+ * stored as extended attributes) are transferred with one getfattr/setfattr
+ * run at the end.
+ * <p>
+ * Alternatively, a whole ext2/3/4 or btrfs file system can be cloned with
+ * {@link #cloneFileSystem(String, String, String, long, boolean)}. This
+ * copies only the allocated blocks of the file system and then grows the file
+ * system to the size of the destination partition. The time needed depends
+ * only on the amount of used space and not on the number of files.
+ */
+public class DataPartitionCopier {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DataPartitionCopier.class.getName());
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final int BUFFER_SIZE = DLCopy.MEGA;
+    // granularity for detecting holes in sparse files
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int ALIGNMENT = 4096;
+    private static final ByteBuffer ZERO_BLOCK
+            = ByteBuffer.allocateDirect(BLOCK_SIZE).asReadOnlyBuffer();
+    // one buffer per copy thread, reused for all of its files (aligned for
+    // the direct I/O when verifying the copies)
+    private static final ThreadLocal<ByteBuffer> BUFFERS
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(
+                    BUFFER_SIZE + ALIGNMENT).alignedSlice(ALIGNMENT));
+    private static final LinkOption NOFOLLOW = LinkOption.NOFOLLOW_LINKS;
+    private static final String PARTCLONE_BTRFS = "/usr/sbin/partclone.btrfs";
+
+    private final int threads;
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private volatile String currentFile = "";
+    private volatile boolean finished;
+    // the destination device while cloning a file system
+    private volatile String cloneDevice;
+    private long cloneDeviceWrittenSectors;
+
+    /**
+     * creates a new DataPartitionCopier that uses one thread per available
+     * processor (but at most 8 threads)
+     */
+    public DataPartitionCopier() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * creates a new DataPartitionCopier
+     *
+     * @param threads the number of threads used for copying file data
+     */
+    public DataPartitionCopier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * returns the number of bytes to process (twice the size of all files to
+     * copy, if the copies are verified)
+     *
+     * @return the number of bytes to process
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * returns the number of bytes processed so far
+     *
+     * @return the number of bytes processed so far
+     */
+    public long getCopiedBytes() {
+        String device = cloneDevice;
+        if (device != null) {
+            // the cloning tools don't tell us about their progress, therefore
+            // we use the write statistics of the destination device
+            try {
+                return Math.min(byteCount.get(), 512
+                        * (getWrittenSectors(device)
+                        - cloneDeviceWrittenSectors));
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "", ex);
+            }
+        }
+        return copiedBytes.get();
+    }
+
+    /**
+     * returns the path of the file currently processed (relative to the
+     * source directory)
+     *
+     * @return the path of the file currently processed
+     */
+    public String getCurrentFile() {
+        return currentFile;
+    }
+
+    /**
+     * returns true if the copy operation is finished (successful or not),
+     * false otherwise
+     *
+     * @return true if the copy operation is finished, false otherwise
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Copies the content of a source directory into a destination directory.
+     * The ownership, permissions and timestamps of the source directory are
+     * applied to the destination directory. Like the former
+     * <code>cp -a source/* destination/</code>, hidden entries directly in
+     * the source directory are skipped.
+     *
+     * @param source the source directory
+     * @param destination the destination directory (is created if
+     * necessary)
+     * @param verify if the copies should be verified
+     * @throws IOException if an I/O exception occurs or the verification
+     * fails
+     */
+    public void copy(Path source, Path destination, boolean verify)
+            throws IOException {
+
+        long start = System.currentTimeMillis();
+        finished = false;
+        byteCount.set(0);
+        copiedBytes.set(0);
+        try {
+            Tree tree = new Tree(source, destination);
+            tree.scan();
+            byteCount.set(verify ? 2 * tree.dataSize : tree.dataSize);
+
+            Files.createDirectories(destination);
+            for (Entry directory : tree.directories) {
+                if (!Files.isDirectory(directory.destination, NOFOLLOW)) {
+                    Files.createDirectory(directory.destination);
+                }
+            }
+
+            copyFiles(tree.files, verify);
+
+            for (Entry link : tree.symlinks) {
+                Files.deleteIfExists(link.destination);
+                Files.createSymbolicLink(link.destination,
+                        Files.readSymbolicLink(link.source));
+                setMetadata(link);
+            }
+            for (Map.Entry<Entry, Path> hardlink : tree.hardlinks.entrySet()) {
+                Files.deleteIfExists(hardlink.getKey().destination);
+                Files.createLink(
+                        hardlink.getKey().destination, hardlink.getValue());
+            }
+            copySpecialFiles(tree.specialFiles);
+
+            // Copying the files changes the modification times of their
+            // parent directories. Therefore we set the directory metadata
+            // last and in reverse order (children before their parents).
+            for (int i = tree.directories.size() - 1; i >= 0; i--) {
+                setMetadata(tree.directories.get(i));
+            }
+            setMetadata(tree.root);
+
+            copyExtendedAttributes(source, destination, tree.topLevelNames);
+
+            LOGGER.log(Level.INFO, "copied {0} files and {1} directories "
+                    + "({2} byte) from {3} to {4} in {5} ms", new Object[]{
+                        tree.files.size() + tree.hardlinks.size()
+                        + tree.symlinks.size() + tree.specialFiles.size(),
+                        tree.directories.size(), tree.dataSize, source,
+                        destination, System.currentTimeMillis() - start});
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * returns true if file systems of the given type can be cloned with
+     * {@link #cloneFileSystem(String, String, String, long, boolean)}, false
+     * otherwise
+     *
+     * @param fileSystem the file system type (e.g. "ext4")
+     * @return true if file systems of the given type can be cloned, false
+     * otherwise
+     */
+    public static boolean canCloneFileSystem(String fileSystem) {
+        if (fileSystem.startsWith("ext")) {
+            // e2image is part of e2fsprogs and therefore always available
+            return true;
+        }
+        return fileSystem.equals("btrfs")
+                && Files.isExecutable(Paths.get(PARTCLONE_BTRFS));
+    }
+
+    /**
+     * Clones a file system. Only the allocated blocks are copied, afterwards
+     * the file system is grown to the size of the destination device and gets
+     * a new UUID. The source file system must not be mounted and the
+     * destination device must not be smaller than the source device.
+     *
+     * @param sourceDevice the source device (e.g. /dev/sda2)
+     * @param destinationDevice the destination device (e.g. /dev/sdb2)
+     * @param fileSystem the file system type (e.g. "ext4")
+     * @param usedBytes the used space of the source file system, only used
+     * for progress reporting
+     * @param verify if the cloned file system should be checked
+     * @throws IOException if an I/O exception occurs
+     */
+    public void cloneFileSystem(String sourceDevice, String destinationDevice,
+            String fileSystem, long usedBytes, boolean verify)
+            throws IOException {
+
+        long start = System.currentTimeMillis();
+        finished = false;
+        byteCount.set(usedBytes);
+        copiedBytes.set(0);
+        currentFile = sourceDevice;
+        cloneDeviceWrittenSectors = getWrittenSectors(destinationDevice);
+        cloneDevice = destinationDevice;
+        try {
+            if (fileSystem.equals("btrfs")) {
+                cloneBtrfs(sourceDevice, destinationDevice, verify);
+            } else {
+                cloneExt(sourceDevice, destinationDevice, verify);
+            }
+            copiedBytes.set(usedBytes);
+            LOGGER.log(Level.INFO, "cloned {0} file system from {1} to {2} "
+                    + "in {3} ms", new Object[]{fileSystem, sourceDevice,
+                        destinationDevice, System.currentTimeMillis() - start});
+        } finally {
+            cloneDevice = null;
+            finished = true;
+        }
+    }
+
+    private static void cloneExt(String sourceDevice,
+            String destinationDevice, boolean verify) throws IOException {
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        // "-r -a" creates a raw image that includes all file data
+        execute(processExecutor, "could not clone " + sourceDevice,
+                "/sbin/e2image", "-r", "-a", sourceDevice, destinationDevice);
+
+        // e2fsck returns 1 when it corrected errors
+        if (processExecutor.executeProcess(true, true, "/sbin/e2fsck",
+                "-f", "-p", destinationDevice) > 1) {
+            throw new IOException("file system check of " + destinationDevice
+                    + " failed: " + processExecutor.getOutput());
+        }
+        execute(processExecutor, "could not grow " + destinationDevice,
+                "/sbin/resize2fs", destinationDevice);
+        execute(processExecutor,
+                "could not change UUID of " + destinationDevice,
+                "/sbin/tune2fs", "-U", "random", destinationDevice);
+
+        if (verify) {
+            execute(processExecutor, "verification of " + destinationDevice
+                    + " failed", "/sbin/e2fsck", "-f", "-n", destinationDevice);
+        }
+    }
+
+    private static void cloneBtrfs(String sourceDevice,
+            String destinationDevice, boolean verify) throws IOException {
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        execute(processExecutor, "could not clone " + sourceDevice,
+                PARTCLONE_BTRFS, "-b", "-q", "-s", sourceDevice,
+                "-o", destinationDevice);
+
+        // Two btrfs devices with the same fsid confuse the kernel, therefore
+        // we must change the fsid before the clone is mounted for the first
+        // time.
+        execute(processExecutor, "could not change UUID of "
+                + destinationDevice, "btrfstune", "-f", "-u", destinationDevice);
+
+        if (verify) {
+            execute(processExecutor, "verification of " + destinationDevice
+                    + " failed", "btrfs", "check", "--readonly",
+                    destinationDevice);
+        }
+
+        // btrfs can only be grown while mounted
+        String mountPath = LernstickFileTools.createTempDirectory(
+                new File(System.getProperty("java.io.tmpdir")),
+                "DLCopy-btrfs").getPath();
+        try {
+            execute(processExecutor, "could not mount " + destinationDevice,
+                    "mount", destinationDevice, mountPath);
+            try {
+                execute(processExecutor, "could not grow "
+                        + destinationDevice, "btrfs", "filesystem", "resize",
+                        "max", mountPath);
+            } finally {
+                processExecutor.executeProcess(true, true, "umount", mountPath);
+            }
+        } finally {
+            new File(mountPath).delete();
+        }
+    }
+
+    private static void execute(ProcessExecutor processExecutor,
+            String errorMessage, String... commandArray) throws IOException {
+        if (processExecutor.executeProcess(true, true, commandArray) != 0) {
+            errorMessage += ": " + processExecutor.getOutput();
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+    }
+
+    private static long getWrittenSectors(String device) throws IOException {
+        String name = Paths.get(device).getFileName().toString();
+        List<String> lines = Files.readAllLines(
+                Paths.get("/sys/class/block", name, "stat"));
+        // the 7th field is the number of written 512 byte sectors
+        return Long.parseLong(lines.get(0).trim().split("\\s+")[6]);
+    }
+
+    private void copyFiles(List<Entry> files, boolean verify)
+            throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Entry file : files) {
+                futures.add(executorService.submit(() -> {
+                    copyFile(file, verify);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("copying files was interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void copyFile(Entry file, boolean verify) throws IOException {
+        currentFile = file.relativePath;
+        MessageDigest messageDigest = verify ? getMessageDigest() : null;
+        ByteBuffer buffer = BUFFERS.get();
+        long size = file.size;
+        try (FileChannel source = FileChannel.open(
+                file.source, StandardOpenOption.READ);
+                FileChannel destination = FileChannel.open(file.destination,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            boolean endsWithHole = false;
+            while (position < size) {
+                buffer.clear();
+                int read = source.read(buffer, position);
+                if (read == -1) {
+                    // the file was truncated while copying
+                    size = position;
+                    break;
+                }
+                buffer.flip();
+                if (messageDigest != null) {
+                    messageDigest.update(buffer.duplicate());
+                }
+                endsWithHole = writeNonZeroBlocks(
+                        buffer, destination, position);
+                position += read;
+                copiedBytes.addAndGet(read);
+            }
+            if (endsWithHole) {
+                // extend the file to its real size, keeping the hole
+                destination.write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+        setMetadata(file);
+
+        if (verify) {
+            byte[] copyDigest = getDigest(file.destination, file.relativePath);
+            if (!MessageDigest.isEqual(messageDigest.digest(), copyDigest)) {
+                throw new IOException("verification of "
+                        + file.destination + " failed");
+            }
+        }
+    }
+
+    // returns true if the last block of the buffer was skipped
+    private static boolean writeNonZeroBlocks(ByteBuffer buffer,
+            FileChannel destination, long position) throws IOException {
+        boolean lastBlockSkipped = false;
+        int limit = buffer.limit();
+        int offset = 0;
+        while (offset < limit) {
+            int blockEnd = Math.min(offset + BLOCK_SIZE, limit);
+            ByteBuffer block = buffer.duplicate();
+            block.position(offset).limit(blockEnd);
+            ByteBuffer zeros = ZERO_BLOCK.duplicate();
+            zeros.limit(blockEnd - offset);
+            if (block.mismatch(zeros) == -1) {
+                lastBlockSkipped = true;
+            } else {
+                lastBlockSkipped = false;
+                while (block.hasRemaining()) {
+                    destination.write(
+                            block, position + block.position());
+                }
+            }
+            offset = blockEnd;
+        }
+        return lastBlockSkipped;
+    }
+
+    private byte[] getDigest(Path path, String relativePath)
+            throws IOException {
+        currentFile = relativePath;
+        MessageDigest messageDigest = getMessageDigest();
+        // direct I/O bypasses the page cache, so we really read back the data
+        // from the storage device
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ, ExtendedOpenOption.DIRECT)) {
+            for (long position = 0;;) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                position += read;
+                copiedBytes.addAndGet(read);
+                buffer.flip();
+                messageDigest.update(buffer);
+                if (read < buffer.capacity()) {
+                    // End of file. We must stop here because the position
+                    // would no longer be aligned for direct I/O.
+                    break;
+                }
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    private static MessageDigest getMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static void setMetadata(Entry entry) throws IOException {
+        Path path = entry.destination;
+        // the owner must be set before the mode, because chown clears the
+        // setuid and setgid bits
+        Files.setAttribute(path, "unix:uid", entry.uid, NOFOLLOW);
+        Files.setAttribute(path, "unix:gid", entry.gid, NOFOLLOW);
+        if (entry.type != Type.SYMLINK) {
+            Files.setAttribute(path, "unix:mode", entry.mode, NOFOLLOW);
+        }
+        try {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class,
+                    NOFOLLOW).setTimes(entry.lastModifiedTime,
+                            entry.lastAccessTime, null);
+        } catch (IOException ex) {
+            // not all JREs can set the timestamps of symlinks
+            if (entry.type != Type.SYMLINK) {
+                throw ex;
+            }
+            LOGGER.log(Level.FINE, "", ex);
+        }
+    }
+
+    private static void copySpecialFiles(List<Entry> specialFiles)
+            throws IOException {
+        if (specialFiles.isEmpty()) {
+            return;
+        }
+        // The file names come from a user data partition, therefore they are
+        // passed as separate arguments and never through a shell.
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        for (Entry specialFile : specialFiles) {
+            if (processExecutor.executeProcess(true, true, "cp", "-a", "--",
+                    specialFile.source.toString(),
+                    specialFile.destination.toString()) != 0) {
+                throw new IOException("could not copy special file "
+                        + specialFile.relativePath + ": "
+                        + processExecutor.getOutput());
+            }
+        }
+    }
+
+    private static void copyExtendedAttributes(Path source, Path destination,
+            List<String> topLevelNames) throws IOException {
+        // getfattr only lists files that have extended attributes, so this
+        // is cheap on most data partitions
+        File dumpFile = File.createTempFile("DLCopy-xattrs", null);
+        try {
+            // Only the copied entries are dumped (the skipped hidden entries
+            // don't exist in the destination). All paths are passed as
+            // positional parameters so that file names are never interpreted
+            // by the shell.
+            String script = "cd \"$1\" || exit 1\n"
+                    + "getfattr -P -d -m - -e base64 . > \"$3\" || exit 1\n"
+                    + "if [ $# -gt 3 ]; then\n"
+                    + "  getfattr -R -P -d -m - -e base64 -- \"${@:4}\" "
+                    + ">> \"$3\" || exit 1\n"
+                    + "fi\n"
+                    + "cd \"$2\" || exit 1\n"
+                    + "[ -s \"$3\" ] || exit 0\n"
+                    + "setfattr -h --restore=\"$3\"";
+            List<String> command = new ArrayList<>();
+            command.add("bash");
+            command.add("-c");
+            command.add(script);
+            command.add("bash");
+            command.add(source.toString());
+            command.add(destination.toString());
+            command.add(dumpFile.getPath());
+            command.addAll(topLevelNames);
+            ProcessExecutor processExecutor = new ProcessExecutor();
+            if (processExecutor.executeProcess(true, true,
+                    command.toArray(new String[command.size()])) != 0) {
+                // the file data is complete, we just lost some metadata
+                LOGGER.log(Level.WARNING,
+                        "could not copy extended attributes: {0}",
+                        processExecutor.getOutput());
+            }
+        } finally {
+            dumpFile.delete();
+        }
+    }
+
+    private enum Type {
+        DIRECTORY, FILE, SYMLINK, SPECIAL
+    }
+
+    /**
+     * A file system entry to copy.
+     */
+    private static class Entry {
+
+        private final Path source;
+        private final Path destination;
+        private final String relativePath;
+        private final Type type;
+        private final int uid;
+        private final int gid;
+        private final int mode;
+        private final long size;
+        private final FileTime lastModifiedTime;
+        private final FileTime lastAccessTime;
+        private final List<Object> inode;
+        private final int linkCount;
+
+        public Entry(Path source, Path destination, String relativePath)
+                throws IOException {
+            this.source = source;
+            this.destination = destination;
+            this.relativePath = relativePath;
+            // reading all attributes at once needs just one lstat() call
+            Map<String, Object> attributes
+                    = Files.readAttributes(source, "unix:*", NOFOLLOW);
+            if ((Boolean) attributes.get("isDirectory")) {
+                type = Type.DIRECTORY;
+            } else if ((Boolean) attributes.get("isRegularFile")) {
+                type = Type.FILE;
+            } else if ((Boolean) attributes.get("isSymbolicLink")) {
+                type = Type.SYMLINK;
+            } else {
+                type = Type.SPECIAL;
+            }
+            uid = (Integer) attributes.get("uid");
+            gid = (Integer) attributes.get("gid");
+            mode = (Integer) attributes.get("mode");
+            size = (Long) attributes.get("size");
+            lastModifiedTime = (FileTime) attributes.get("lastModifiedTime");
+            lastAccessTime = (FileTime) attributes.get("lastAccessTime");
+            inode = List.of(attributes.get("dev"), attributes.get("ino"));
+            linkCount = (Integer) attributes.get("nlink");
+        }
+    }
+
+    /**
+     * The list of all entries below a source directory.
+     */
+    private static class Tree {
+
+        private final Entry root;
+        private final List<Entry> directories = new ArrayList<>();
+        private final List<Entry> files = new ArrayList<>();
+        private final List<Entry> symlinks = new ArrayList<>();
+        private final List<Entry> specialFiles = new ArrayList<>();
+        // maps additional hardlinks to the destination of the first link
+        private final Map<Entry, Path> hardlinks = new HashMap<>();
+        private final Map<List<Object>, Path> firstLinks = new HashMap<>();
+        // the names of the copied entries directly in the source directory
+        private final List<String> topLevelNames = new ArrayList<>();
+        private long dataSize;
+
+        public Tree(Path source, Path destination) throws IOException {
+            root = new Entry(source, destination, "");
+            if (root.type != Type.DIRECTORY) {
+                throw new IOException(source + " is not a directory");
+            }
+        }
+
+        public void scan() throws IOException {
+            scan(root, true);
+        }
+
+        private void scan(Entry directory, boolean skipHidden)
+                throws IOException {
+            try (DirectoryStream<Path> stream
+                    = Files.newDirectoryStream(directory.source)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    if (skipHidden) {
+                        if (name.startsWith(".")) {
+                            continue;
+                        }
+                        topLevelNames.add(name);
+                    }
+                    Entry entry = new Entry(path,
+                            directory.destination.resolve(name),
+                            directory.relativePath + '/' + name);
+                    add(entry);
+                }
+            }
+        }
+
+        private void add(Entry entry) throws IOException {
+            switch (entry.type) {
+                case DIRECTORY:
+                    directories.add(entry);
+                    scan(entry, false);
+                    break;
+
+                case FILE:
+                    if (entry.linkCount > 1) {
+                        Path firstLink = firstLinks.putIfAbsent(
+                                entry.inode, entry.destination);
+                        if (firstLink != null) {
+                            hardlinks.put(entry, firstLink);
+                            break;
+                        }
+                    }
+                    files.add(entry);
+                    dataSize += entry.size;
+                    break;
+
+                case SYMLINK:
+                    symlinks.add(entry);
+                    break;
+
+                default:
+                    specialFiles.add(entry);
+            }
+        }
+    }
+}
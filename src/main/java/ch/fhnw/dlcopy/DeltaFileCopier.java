@@ -0,0 +1,390 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.CurrentlyProcessedFile;
+import ch.fhnw.filecopier.FileCopier;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.ProcessExecutor;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A FileCopier that updates existing destination files instead of copying
+ * them again.
+ * <p>
+ * Files with the same size and the same MD5 sum in the md5sum.txt of the
+ * source and of the destination are skipped without reading them. All other
+ * files are compared block by block with their destination file and only the
+ * changed blocks are written. Reading is much faster than writing on flash
+ * storage devices, therefore small updates of large files (e.g. the squashfs
+ * file of the system partition) just take a fraction of a full copy. Files in
+ * the destination directories that match the pattern of a source but no
+ * longer exist in the source are removed.
+ */
+public class DeltaFileCopier extends FileCopier {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DeltaFileCopier.class.getName());
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final int BLOCK_SIZE = DLCopy.MEGA;
+
+    private final PropertyChangeSupport propertyChangeSupport
+            = new PropertyChangeSupport(this);
+    private final ByteBuffer sourceBuffer
+            = ByteBuffer.allocateDirect(BLOCK_SIZE);
+    private final ByteBuffer destinationBuffer
+            = ByteBuffer.allocateDirect(BLOCK_SIZE);
+    private Map<String, String> sourceDigests = new HashMap<>();
+    private Map<String, String> destinationDigests = new HashMap<>();
+    private State state = State.START;
+    private volatile long byteCount;
+    private volatile long copiedBytes;
+    private volatile CurrentlyProcessedFile currentlyProcessedFile;
+    private long writtenBytes;
+
+    /**
+     * reads the MD5 sums of an md5sum.txt file
+     *
+     * @param md5sumFile the md5sum.txt file
+     * @return a map of all paths (relative to the directory of the md5sum.txt
+     * file) to their MD5 sums or an empty map, if the file doesn't exist or
+     * can't be read
+     */
+    public static Map<String, String> readMd5Sums(File md5sumFile) {
+        Map<String, String> md5Sums = new HashMap<>();
+        if (!md5sumFile.isFile()) {
+            return md5Sums;
+        }
+        try {
+            for (String line : Files.readAllLines(md5sumFile.toPath())) {
+                // format: "<md5sum>  ./<path>"
+                String[] tokens = line.trim().split("\\s+", 2);
+                if ((tokens.length == 2) && (tokens[0].length() == 32)) {
+                    md5Sums.put(normalize(tokens[1]), tokens[0].toLowerCase());
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        }
+        return md5Sums;
+    }
+
+    /**
+     * sets the known MD5 sums of the source and destination files
+     *
+     * @param sourceDigests the MD5 sums of the source files, relative to the
+     * base directory of the sources
+     * @param destinationDigests the MD5 sums of the destination files,
+     * relative to the destination directories
+     */
+    public void setDigests(Map<String, String> sourceDigests,
+            Map<String, String> destinationDigests) {
+        this.sourceDigests = sourceDigests;
+        this.destinationDigests = destinationDigests;
+    }
+
+    @Override
+    public void addPropertyChangeListener(
+            String propertyName, PropertyChangeListener listener) {
+        propertyChangeSupport.addPropertyChangeListener(
+                propertyName, listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(
+            String propertyName, PropertyChangeListener listener) {
+        propertyChangeSupport.removePropertyChangeListener(
+                propertyName, listener);
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    @Override
+    public CurrentlyProcessedFile getCurrentlyProcessedFile() {
+        return currentlyProcessedFile;
+    }
+
+    @Override
+    public void reset() {
+        byteCount = 0;
+        copiedBytes = 0;
+        setState(State.START);
+    }
+
+    @Override
+    public void copy(CopyJob... copyJobs)
+            throws IOException, NoSuchAlgorithmException {
+        copy(false, copyJobs);
+    }
+
+    @Override
+    public synchronized void copy(boolean checkCopies, CopyJob... copyJobs)
+            throws IOException, NoSuchAlgorithmException {
+
+        long start = System.currentTimeMillis();
+        setState(State.CHECKING_SOURCE);
+        List<File> sourceFiles = new ArrayList<>();
+        long newByteCount = 0;
+        for (CopyJob copyJob : copyJobs) {
+            if (copyJob == null) {
+                continue;
+            }
+            for (Source source : copyJob.getSources()) {
+                List<File> files = new ArrayList<>();
+                File baseDirectory = source.getBaseDirectory();
+                expand(baseDirectory.getPath().length() + 1, baseDirectory,
+                        source.getPattern(), source.isRecursive(), files);
+                for (File file : files) {
+                    if (file.isFile()) {
+                        newByteCount += file.length()
+                                * copyJob.getDestinations().length;
+                    }
+                }
+                sourceFiles.addAll(files);
+            }
+        }
+        byteCount = newByteCount;
+        copiedBytes = 0;
+        writtenBytes = 0;
+
+        setState(State.COPYING);
+        try {
+            for (CopyJob copyJob : copyJobs) {
+                if (copyJob == null) {
+                    continue;
+                }
+                for (Source source : copyJob.getSources()) {
+                    for (String destination : copyJob.getDestinations()) {
+                        update(source, new File(destination), checkCopies);
+                    }
+                }
+            }
+        } finally {
+            setState(State.END);
+        }
+
+        LOGGER.log(Level.INFO, "updated {0} byte in {1} files by writing "
+                + "{2} byte in {3} ms", new Object[]{byteCount,
+                    sourceFiles.size(), writtenBytes,
+                    System.currentTimeMillis() - start});
+    }
+
+    private void update(Source source, File destinationDirectory,
+            boolean checkCopies) throws IOException, NoSuchAlgorithmException {
+
+        File baseDirectory = source.getBaseDirectory();
+        int baseLength = baseDirectory.getPath().length() + 1;
+        List<File> files = new ArrayList<>();
+        expand(baseLength, baseDirectory, source.getPattern(),
+                source.isRecursive(), files);
+
+        Set<String> relativePaths = new HashSet<>();
+        for (File file : files) {
+            String relativePath = file.getPath().substring(baseLength);
+            relativePaths.add(relativePath);
+            File destination = new File(destinationDirectory, relativePath);
+            if (file.isDirectory()) {
+                if (!destination.isDirectory() && !destination.mkdirs()) {
+                    throw new IOException("could not create " + destination);
+                }
+            } else {
+                updateFile(file, destination, relativePath, checkCopies);
+            }
+        }
+
+        // remove files that no longer exist in the source
+        List<File> destinationFiles = new ArrayList<>();
+        int destinationLength = destinationDirectory.getPath().length() + 1;
+        expand(destinationLength, destinationDirectory,
+                source.getPattern(), source.isRecursive(), destinationFiles);
+        for (File destinationFile : destinationFiles) {
+            String relativePath
+                    = destinationFile.getPath().substring(destinationLength);
+            if (destinationFile.isFile()
+                    && !relativePaths.contains(relativePath)) {
+                LOGGER.log(Level.INFO, "removing obsolete file {0}",
+                        destinationFile);
+                Files.delete(destinationFile.toPath());
+            }
+        }
+    }
+
+    private void updateFile(File source, File destination,
+            String relativePath, boolean checkCopies)
+            throws IOException, NoSuchAlgorithmException {
+
+        currentlyProcessedFile = new CurrentlyProcessedFile(source.getPath());
+        propertyChangeSupport.firePropertyChange(
+                FILE_PROPERTY, null, source.getPath());
+
+        long size = source.length();
+        String sourceDigest = sourceDigests.get(relativePath);
+        if ((sourceDigest != null) && destination.isFile()
+                && (destination.length() == size)
+                && sourceDigest.equals(destinationDigests.get(relativePath))) {
+            LOGGER.log(Level.INFO, "skipping unchanged file {0}", destination);
+            addCopiedBytes(size);
+            return;
+        }
+
+        File parentDirectory = destination.getParentFile();
+        if (!parentDirectory.isDirectory() && !parentDirectory.mkdirs()) {
+            throw new IOException("could not create " + parentDirectory);
+        }
+
+        MessageDigest messageDigest = checkCopies
+                ? MessageDigest.getInstance(DIGEST_ALGORITHM) : null;
+        long changedBytes = 0;
+        try (FileChannel sourceChannel = FileChannel.open(
+                source.toPath(), StandardOpenOption.READ);
+                FileChannel destinationChannel = FileChannel.open(
+                        destination.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            long destinationSize = destinationChannel.size();
+            for (long position = 0; position < size;) {
+                readBlock(sourceChannel, sourceBuffer, position, BLOCK_SIZE);
+                int length = sourceBuffer.remaining();
+                if (length == 0) {
+                    throw new IOException("unexpected end of " + source);
+                }
+                if (messageDigest != null) {
+                    messageDigest.update(sourceBuffer.duplicate());
+                }
+
+                boolean changed = true;
+                if (position + length <= destinationSize) {
+                    readBlock(destinationChannel, destinationBuffer, position,
+                            length);
+                    changed = !sourceBuffer.equals(destinationBuffer);
+                }
+                if (changed) {
+                    while (sourceBuffer.hasRemaining()) {
+                        destinationChannel.write(sourceBuffer,
+                                position + sourceBuffer.position());
+                    }
+                    changedBytes += length;
+                }
+
+                position += length;
+                addCopiedBytes(length);
+            }
+            if (destinationSize > size) {
+                destinationChannel.truncate(size);
+            }
+            destinationChannel.force(true);
+        }
+        destination.setLastModified(source.lastModified());
+        writtenBytes += changedBytes;
+        LOGGER.log(Level.INFO, "{0}: rewrote {1} of {2} byte", new Object[]{
+            destination, changedBytes, size});
+
+        if (messageDigest != null) {
+            checkCopy(messageDigest.digest(), destination);
+        }
+    }
+
+    private static void readBlock(FileChannel channel, ByteBuffer buffer,
+            long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private void checkCopy(byte[] sourceDigest, File destination)
+            throws IOException, NoSuchAlgorithmException {
+        // drop the destination file from the page cache so that we really
+        // read back the data from the storage device
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        processExecutor.executeProcess(true, true, "dd",
+                "of=" + destination.getAbsolutePath(), "oflag=nocache",
+                "conv=notrunc,fdatasync", "count=0");
+        MessageDigest messageDigest
+                = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        try (FileChannel channel = FileChannel.open(
+                destination.toPath(), StandardOpenOption.READ)) {
+            for (long position = 0;; position += destinationBuffer.limit()) {
+                readBlock(channel, destinationBuffer, position, BLOCK_SIZE);
+                if (!destinationBuffer.hasRemaining()) {
+                    break;
+                }
+                messageDigest.update(destinationBuffer.duplicate());
+            }
+        }
+        if (!MessageDigest.isEqual(sourceDigest, messageDigest.digest())) {
+            throw new IOException("checksum of " + destination
+                    + " does not match its source");
+        }
+    }
+
+    private void addCopiedBytes(long bytes) {
+        long oldCopiedBytes = copiedBytes;
+        copiedBytes += bytes;
+        propertyChangeSupport.firePropertyChange(
+                BYTE_COUNTER_PROPERTY, oldCopiedBytes, copiedBytes);
+    }
+
+    private static void expand(int baseLength, File directory,
+            Pattern pattern, boolean recursive, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            LOGGER.log(Level.WARNING, "can not read {0}", directory);
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String relativePath = child.getPath().substring(baseLength);
+            boolean isDirectory = child.isDirectory();
+            if (pattern.matcher(relativePath).matches()) {
+                if (!isDirectory || recursive) {
+                    files.add(child);
+                }
+            }
+            if (isDirectory && recursive) {
+                expand(baseLength, child, pattern, true, files);
+            }
+        }
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("./") ? path.substring(2) : path;
+    }
+
+    private void setState(State newState) {
+        State oldState = state;
+        state = newState;
+        propertyChangeSupport.firePropertyChange(
+                STATE_PROPERTY, oldState, newState);
+    }
+}
@@ -0,0 +1,107 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.StorageDevice;
+
+/**
+ * The partitions of a prepared (partitioned and formatted) destination storage
+ * device
+ */
+public class DestinationPartitions {
+
+    private final StorageDevice storageDevice;
+    private final Partition exchangePartition;
+    private final Partition dataPartition;
+    private final Partition efiPartition;
+    private final Partition systemPartition;
+    private boolean efiPartitionCloned;
+
+    /**
+     * creates a new DestinationPartitions
+     *
+     * @param storageDevice the destination storage device
+     * @param exchangePartition the exchange partition or <code>null</code>, if
+     * there is no exchange partition
+     * @param dataPartition the data partition or <code>null</code>, if there
+     * is no data partition
+     * @param efiPartition the EFI partition
+     * @param systemPartition the system partition
+     */
+    public DestinationPartitions(StorageDevice storageDevice,
+            Partition exchangePartition, Partition dataPartition,
+            Partition efiPartition, Partition systemPartition) {
+        this.storageDevice = storageDevice;
+        this.exchangePartition = exchangePartition;
+        this.dataPartition = dataPartition;
+        this.efiPartition = efiPartition;
+        this.systemPartition = systemPartition;
+    }
+
+    /**
+     * returns the destination storage device
+     *
+     * @return the destination storage device
+     */
+    public StorageDevice getStorageDevice() {
+        return storageDevice;
+    }
+
+    /**
+     * returns the exchange partition
+     *
+     * @return the exchange partition or <code>null</code>, if there is no
+     * exchange partition
+     */
+    public Partition getExchangePartition() {
+        return exchangePartition;
+    }
+
+    /**
+     * returns the data partition
+     *
+     * @return the data partition or <code>null</code>, if there is no data
+     * partition
+     */
+    public Partition getDataPartition() {
+        return dataPartition;
+    }
+
+    /**
+     * returns the EFI partition
+     *
+     * @return the EFI partition
+     */
+    public Partition getEfiPartition() {
+        return efiPartition;
+    }
+
+    /**
+     * returns the system partition
+     *
+     * @return the system partition
+     */
+    public Partition getSystemPartition() {
+        return systemPartition;
+    }
+
+    /**
+     * returns true if the EFI partition was cloned from an EFI partition
+     * image, false otherwise
+     *
+     * @return true if the EFI partition was cloned from an EFI partition
+     * image, false otherwise
+     */
+    public boolean isEfiPartitionCloned() {
+        return efiPartitionCloned;
+    }
+
+    /**
+     * sets if the EFI partition was cloned from an EFI partition image
+     *
+     * @param efiPartitionCloned if the EFI partition was cloned from an EFI
+     * partition image
+     */
+    public void setEfiPartitionCloned(boolean efiPartitionCloned) {
+        this.efiPartitionCloned = efiPartitionCloned;
+    }
+}
@@ -0,0 +1,389 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.DbusTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.ParserConfigurationException;
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.UInt64;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.xml.sax.SAXException;
+
+/**
+ * Waits for storage devices and partitions to become ready after they were
+ * changed (repartitioned, formatted, ...).
+ * <p>
+ * Instead of sleeping a fixed amount of time we wait for the actual condition
+ * we depend on (udev has handled all events, a device node exists, udisks
+ * knows about a partition or file system) and return as soon as it holds.
+ * Every wait is bounded by a timeout and logs how long it really took.
+ * <p>
+ * After repartitioning with the same layout or formatting over an existing
+ * file system udisks still exports the old objects for a while. Therefore the
+ * waits compare the udisks properties with the values that the kernel and
+ * <code>blkid</code> report for the device right now.
+ */
+public class DeviceReadiness {
+
+    /**
+     * the default timeout for all waits (given in seconds)
+     */
+    public static final long DEFAULT_TIMEOUT = 30;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DeviceReadiness.class.getName());
+    private static final String UDISKS2_BUS_NAME = "org.freedesktop.UDisks2";
+    private static final String UDISKS2_PREFIX = "org.freedesktop.UDisks2.";
+    private static final String UDISKS2_BLOCK_DEVICES_PATH
+            = "/org/freedesktop/UDisks2/block_devices/";
+    // condition checks are cheap, therefore we can poll quite often
+    private static final long POLL_INTERVAL = 100; // ms
+
+    private DeviceReadiness() {
+    }
+
+    /**
+     * Calls <code>udevadm settle</code> to wait for all current events of the
+     * udev event queue to be handled.
+     *
+     * @param timeout the maximum number of seconds to wait
+     * @return <code>true</code>, if the udev event queue is empty,
+     * <code>false</code> otherwise
+     */
+    public static boolean settleUdev(long timeout) {
+        long start = System.nanoTime();
+        ProcessExecutor processExecutor = new ProcessExecutor(true);
+        int exitValue = processExecutor.executeProcess(true, true,
+                "udevadm", "settle", "--timeout=" + timeout);
+        boolean settled = exitValue == 0;
+        logDuration("udev settle", settled, start);
+        return settled;
+    }
+
+    /**
+     * Waits for device nodes to appear.
+     *
+     * @param timeout the maximum number of seconds to wait
+     * @param deviceNodes a list of device nodes (e.g. /dev/sda1) to wait for
+     * @return <code>true</code>, if all device nodes appeared,
+     * <code>false</code> otherwise
+     */
+    public static boolean waitForDeviceNodes(
+            long timeout, Path... deviceNodes) {
+
+        settleUdev(timeout);
+
+        // Arrays.asList() returns a list where iterator.remove() just throws
+        // java.lang.UnsupportedOperationException. Therefore we have to make a
+        // copy of the deviceNodes varargs array.
+        List<Path> deviceNodeList = new ArrayList<>();
+        Collections.addAll(deviceNodeList, deviceNodes);
+
+        return waitFor("device nodes " + deviceNodeList, timeout, () -> {
+            Iterator<Path> iterator = deviceNodeList.iterator();
+            while (iterator.hasNext()) {
+                if (Files.exists(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            return deviceNodeList.isEmpty();
+        });
+    }
+
+    /**
+     * Waits until the given partitions are known to the kernel and udisks,
+     * e.g. after the partition table of a storage device was changed.
+     *
+     * @param timeout the maximum number of seconds to wait
+     * @param partitionDevices the partition devices (e.g. /dev/sda1) to wait
+     * for, <code>null</code> elements are ignored
+     * @return <code>true</code>, if all partitions are ready,
+     * <code>false</code> otherwise
+     */
+    public static boolean waitForPartitions(
+            long timeout, String... partitionDevices) {
+
+        List<String> devices = new ArrayList<>();
+        for (String partitionDevice : partitionDevices) {
+            if (partitionDevice != null) {
+                devices.add(partitionDevice);
+            }
+        }
+
+        List<Path> deviceNodes = new ArrayList<>();
+        for (String device : devices) {
+            deviceNodes.add(Paths.get(device));
+        }
+        if (!waitForDeviceNodes(timeout,
+                deviceNodes.toArray(new Path[deviceNodes.size()]))) {
+            return false;
+        }
+
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
+            // udisks1 has no separate partition interface, the udev settle in
+            // waitForDeviceNodes() above is all we can do
+            return true;
+        }
+
+        // the current partition offsets and types as seen by the kernel
+        Map<String, Long> offsets = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for (String device : devices) {
+            offsets.put(device, getPartitionOffset(device));
+            types.put(device, probe(device).get("PART_ENTRY_TYPE"));
+        }
+
+        return waitFor("udisks partitions " + devices, timeout, () -> {
+            Iterator<String> iterator = devices.iterator();
+            while (iterator.hasNext()) {
+                String device = iterator.next();
+                if (hasUdisksInterface(device, "Partition")
+                        && isUdisksPartitionCurrent(device,
+                                offsets.get(device), types.get(device))) {
+                    iterator.remove();
+                }
+            }
+            return devices.isEmpty();
+        });
+    }
+
+    /**
+     * Waits until the partitions of newly added storage devices are known to
+     * the kernel and udisks, i.e. until the partition tables of the storage
+     * devices were scanned and all resulting events were handled.
+     *
+     * @param timeout the maximum number of seconds to wait
+     * @param devices the names of the storage devices (e.g. "sdb")
+     * @return <code>true</code>, if all partitions are ready,
+     * <code>false</code> otherwise
+     */
+    public static boolean waitForStorageDevices(
+            long timeout, List<String> devices) {
+
+        // The kernel creates the partitions when scanning the partition
+        // table, before announcing the storage device. Therefore all
+        // partitions are visible in sysfs after the udev events were handled.
+        settleUdev(timeout);
+
+        List<String> partitions = new ArrayList<>();
+        for (String device : devices) {
+            Path sysPath = Paths.get("/sys/class/block", device);
+            try (DirectoryStream<Path> stream
+                    = Files.newDirectoryStream(sysPath)) {
+                for (Path path : stream) {
+                    if (Files.exists(path.resolve("partition"))) {
+                        partitions.add("/dev/" + path.getFileName());
+                    }
+                }
+            } catch (IOException ex) {
+                // the storage device was removed in the meantime
+                LOGGER.log(Level.INFO, "", ex);
+            }
+        }
+        return waitForPartitions(timeout,
+                partitions.toArray(new String[partitions.size()]));
+    }
+
+    /**
+     * Waits until udisks exports a file system on the given device, e.g. after
+     * the device was formatted.
+     *
+     * @param device the device (e.g. /dev/sda1)
+     * @param timeout the maximum number of seconds to wait
+     * @return <code>true</code>, if udisks knows about the file system,
+     * <code>false</code> otherwise
+     */
+    public static boolean waitForFileSystem(String device, long timeout) {
+        return waitForUdisksInterface(device, "Filesystem", timeout);
+    }
+
+    /**
+     * Waits until udisks exports an encrypted container on the given device,
+     * e.g. after the device was formatted with LUKS.
+     *
+     * @param device the device (e.g. /dev/sda1)
+     * @param timeout the maximum number of seconds to wait
+     * @return <code>true</code>, if udisks knows about the encrypted
+     * container, <code>false</code> otherwise
+     */
+    public static boolean waitForEncrypted(String device, long timeout) {
+        return waitForUdisksInterface(device, "Encrypted", timeout);
+    }
+
+    private static boolean waitForUdisksInterface(
+            String device, String interfaceName, long timeout) {
+
+        settleUdev(timeout);
+
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
+            return true;
+        }
+
+        // the current file system (or container) as seen by blkid
+        Map<String, String> probedProperties = probe(device);
+        String type = probedProperties.get("TYPE");
+        String uuid = probedProperties.get("UUID");
+
+        return waitFor("udisks interface " + interfaceName + " of " + device,
+                timeout, () -> hasUdisksInterface(device, interfaceName)
+                && isUdisksBlockCurrent(device, type, uuid));
+    }
+
+    private static boolean isUdisksPartitionCurrent(
+            String device, Long offset, String type) {
+        try {
+            DBus.Properties properties = getUdisksProperties(device);
+            String interfaceName = UDISKS2_PREFIX + "Partition";
+            if (offset != null) {
+                UInt64 udisksOffset = properties.Get(interfaceName, "Offset");
+                if (udisksOffset.longValue() != offset) {
+                    return false;
+                }
+            }
+            if (type != null) {
+                String udisksType = properties.Get(interfaceName, "Type");
+                if (!type.equalsIgnoreCase(udisksType)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (DBusException | DBusExecutionException ex) {
+            LOGGER.log(Level.FINEST, "", ex);
+            return false;
+        }
+    }
+
+    private static boolean isUdisksBlockCurrent(
+            String device, String type, String uuid) {
+        try {
+            DBus.Properties properties = getUdisksProperties(device);
+            String interfaceName = UDISKS2_PREFIX + "Block";
+            if ((type != null) && !type.equals(
+                    properties.Get(interfaceName, "IdType"))) {
+                return false;
+            }
+            return (uuid == null) || uuid.equals(
+                    properties.Get(interfaceName, "IdUUID"));
+        } catch (DBusException | DBusExecutionException ex) {
+            LOGGER.log(Level.FINEST, "", ex);
+            return false;
+        }
+    }
+
+    private static DBus.Properties getUdisksProperties(String device)
+            throws DBusException {
+        return DBusConnection.getConnection(DBusConnection.SYSTEM)
+                .getRemoteObject(UDISKS2_BUS_NAME, UDISKS2_BLOCK_DEVICES_PATH
+                        + device.substring(5), DBus.Properties.class);
+    }
+
+    /**
+     * returns the offset of a partition (in byte) as known by the kernel
+     *
+     * @param device the partition device (e.g. /dev/sda1)
+     * @return the offset of the partition or <code>null</code>, if it is
+     * unknown
+     */
+    private static Long getPartitionOffset(String device) {
+        Path startPath = Paths.get(
+                "/sys/class/block", device.substring(5), "start");
+        try {
+            // sysfs always counts 512 byte sectors
+            return Long.parseLong(
+                    new String(Files.readAllBytes(startPath)).trim()) * 512;
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return null;
+        }
+    }
+
+    /**
+     * probes a device directly (bypassing the blkid cache)
+     *
+     * @param device the device (e.g. /dev/sda1)
+     * @return the probed properties (e.g. "TYPE", "UUID" or
+     * "PART_ENTRY_TYPE")
+     */
+    private static Map<String, String> probe(String device) {
+        Map<String, String> properties = new HashMap<>();
+        ProcessExecutor processExecutor = new ProcessExecutor(true);
+        processExecutor.executeProcess(true, true,
+                "blkid", "-p", "-o", "export", device);
+        for (String line : processExecutor.getStdOut().split("\n")) {
+            int index = line.indexOf('=');
+            if (index > 0) {
+                properties.put(line.substring(0, index),
+                        line.substring(index + 1));
+            }
+        }
+        return properties;
+    }
+
+    private static boolean hasUdisksInterface(
+            String device, String interfaceName) {
+        try {
+            return DbusTools.getInterfaceNames(UDISKS2_BLOCK_DEVICES_PATH
+                    + device.substring(5)).contains(
+                            UDISKS2_PREFIX + interfaceName);
+        } catch (IOException | SAXException | ParserConfigurationException
+                | DBusExecutionException ex) {
+            // udisks doesn't know the device (yet)
+            LOGGER.log(Level.FINEST, "", ex);
+            return false;
+        }
+    }
+
+    private static boolean waitFor(
+            String description, long timeout, BooleanSupplier condition) {
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+        while (true) {
+            if (condition.getAsBoolean()) {
+                logDuration(description, true, start);
+                return true;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                logDuration(description, false, start);
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL);
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "", ex);
+                Thread.currentThread().interrupt();
+                logDuration(description, false, start);
+                return false;
+            }
+        }
+    }
+
+    private static void logDuration(
+            String description, boolean ready, long start) {
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (ready) {
+            LOGGER.log(Level.INFO, "{0} ready after {1} ms",
+                    new Object[]{description, duration});
+        } else {
+            LOGGER.log(Level.WARNING,
+                    "timeout reached, {0} still not ready after {1} ms",
+                    new Object[]{description, duration});
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package ch.fhnw.dlcopy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache for the file digests computed by FileCopier when
+ * verifying copies.
+ * <p>
+ * FileCopier uses a HashMap with the source path as key. This cache keeps that
+ * interface but additionally remembers the file key (device and inode), size
+ * and modification time of every source file. An entry is only used as long as
+ * the file did not change. The least recently used entries are evicted when
+ * the estimated memory consumption exceeds a given limit. The cache is loaded
+ * lazily on first use and stored with {@link #save()}.
+ * <p>
+ * Only the methods used by FileCopier (containsKey(), get(), put()) and
+ * remove() and clear() are supported.
+ */
+public class DigestCache extends LinkedHashMap<String, byte[]> {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DigestCache.class.getName());
+    private static final long DEFAULT_MEMORY_LIMIT = 16 * DLCopy.MEGA;
+    // path, String, byte[], version and LinkedHashMap entry overhead
+    private static final int ENTRY_OVERHEAD = 200;
+    private static DigestCache instance;
+
+    private final Path cacheFile;
+    private final long memoryLimit;
+    private final Map<String, FileVersion> fileVersions = new HashMap<>();
+    // FileCopier calls get() right after containsKey(), another thread may
+    // evict the entry in between, therefore the entry found by containsKey()
+    // is pinned until the next get() of the same thread
+    private final ThreadLocal<Map.Entry<String, byte[]>> pinnedEntries
+            = new ThreadLocal<>();
+    private long memoryUsage;
+    private boolean loaded;
+    private boolean modified;
+
+    /**
+     * creates a new DigestCache
+     *
+     * @param cacheFile the file where the cache is stored
+     * @param memoryLimit the estimated memory (given in byte) that the cache
+     * may use
+     */
+    public DigestCache(Path cacheFile, long memoryLimit) {
+        // use access order for LRU eviction
+        super(16, 0.75f, true);
+        this.cacheFile = cacheFile;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * returns the global DigestCache of the program
+     *
+     * @return the global DigestCache of the program
+     */
+    public static synchronized DigestCache getInstance() {
+        if (instance == null) {
+            instance = new DigestCache(Paths.get(
+                    System.getProperty("user.home"), ".cache", "dlcopy",
+                    "digests"), DEFAULT_MEMORY_LIMIT);
+        }
+        return instance;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        byte[] digest = lookup(key);
+        if (digest == null) {
+            pinnedEntries.remove();
+            return false;
+        }
+        pinnedEntries.set(new SimpleImmutableEntry<>((String) key, digest));
+        return true;
+    }
+
+    @Override
+    public synchronized byte[] get(Object key) {
+        Map.Entry<String, byte[]> pinnedEntry = pinnedEntries.get();
+        if (pinnedEntry != null) {
+            pinnedEntries.remove();
+            if (pinnedEntry.getKey().equals(key)) {
+                return pinnedEntry.getValue();
+            }
+        }
+        return lookup(key);
+    }
+
+    private byte[] lookup(Object key) {
+        load();
+        byte[] digest = super.get(key);
+        if (digest == null) {
+            return null;
+        }
+        String path = (String) key;
+        if (!Objects.equals(fileVersions.get(path), FileVersion.of(path))) {
+            LOGGER.log(Level.INFO,
+                    "{0} was changed, removing it from digest cache", path);
+            remove(path);
+            return null;
+        }
+        return digest;
+    }
+
+    @Override
+    public synchronized byte[] put(String path, byte[] digest) {
+        load();
+        FileVersion fileVersion = FileVersion.of(path);
+        if (fileVersion == null) {
+            return null;
+        }
+        modified = true;
+        return add(path, fileVersion, digest);
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key) {
+        byte[] digest = super.remove(key);
+        if (digest != null) {
+            String path = (String) key;
+            memoryUsage -= getMemoryUsage(path, digest);
+            fileVersions.remove(path);
+            modified = true;
+        }
+        return digest;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        fileVersions.clear();
+        memoryUsage = 0;
+        modified = true;
+    }
+
+    /**
+     * stores the cache in its cache file (if it was modified)
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path tmpFile = cacheFile.resolveSibling(
+                    cacheFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(
+                    tmpFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, byte[]> entry : entrySet()) {
+                    String path = entry.getKey();
+                    FileVersion fileVersion = fileVersions.get(path);
+                    writer.write(fileVersion.fileKey + '\t'
+                            + fileVersion.size + '\t'
+                            + fileVersion.modificationTime + '\t'
+                            + toHexString(entry.getValue()) + '\t' + path);
+                    writer.newLine();
+                }
+            }
+            Files.move(tmpFile, cacheFile,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            modified = false;
+            LOGGER.log(Level.INFO, "stored {0} digests in {1}",
+                    new Object[]{size(), cacheFile});
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not store digest cache", ex);
+        }
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+        if (memoryUsage <= memoryLimit) {
+            return false;
+        }
+        String path = eldest.getKey();
+        memoryUsage -= getMemoryUsage(path, eldest.getValue());
+        fileVersions.remove(path);
+        return true;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        try (BufferedReader reader = Files.newBufferedReader(
+                cacheFile, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                // the path is last because it may contain tabs
+                String[] tokens = line.split("\t", 5);
+                if (tokens.length != 5) {
+                    LOGGER.log(Level.WARNING,
+                            "ignoring invalid digest cache line \"{0}\"", line);
+                    continue;
+                }
+                try {
+                    add(tokens[4], new FileVersion(tokens[0],
+                            Long.parseLong(tokens[1]),
+                            Long.parseLong(tokens[2])),
+                            fromHexString(tokens[3]));
+                } catch (NumberFormatException ex) {
+                    LOGGER.log(Level.WARNING,
+                            "ignoring invalid digest cache line \"{0}\"", line);
+                }
+            }
+            LOGGER.log(Level.INFO, "loaded {0} digests from {1}",
+                    new Object[]{size(), cacheFile});
+        } catch (NoSuchFileException ex) {
+            LOGGER.log(Level.INFO, "{0} does not exist yet", cacheFile);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not load digest cache", ex);
+        }
+    }
+
+    private byte[] add(String path, FileVersion fileVersion, byte[] digest) {
+        byte[] oldDigest = super.get(path);
+        if (oldDigest != null) {
+            memoryUsage -= getMemoryUsage(path, oldDigest);
+        }
+        memoryUsage += getMemoryUsage(path, digest);
+        fileVersions.put(path, fileVersion);
+        return super.put(path, digest);
+    }
+
+    private static long getMemoryUsage(String path, byte[] digest) {
+        return ENTRY_OVERHEAD + 2 * path.length() + digest.length;
+    }
+
+    private static String toHexString(byte[] bytes) {
+        StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            stringBuilder.append(String.format("%02x", b));
+        }
+        return stringBuilder.toString();
+    }
+
+    private static byte[] fromHexString(String string) {
+        if ((string.length() % 2) != 0) {
+            throw new NumberFormatException("invalid hex string " + string);
+        }
+        byte[] bytes = new byte[string.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(
+                    string.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * The properties of a file that change when the file is replaced or
+     * modified.
+     */
+    private static class FileVersion {
+
+        private final String fileKey;
+        private final long size;
+        private final long modificationTime;
+
+        public FileVersion(String fileKey, long size, long modificationTime) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.modificationTime = modificationTime;
+        }
+
+        public static FileVersion of(String path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                        Paths.get(path), BasicFileAttributes.class);
+                // the file key contains the device and inode on Linux
+                return new FileVersion(String.valueOf(attributes.fileKey()),
+                        attributes.size(),
+                        attributes.lastModifiedTime().toMillis());
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof FileVersion)) {
+                return false;
+            }
+            FileVersion other = (FileVersion) object;
+            return fileKey.equals(other.fileKey) && (size == other.size)
+                    && (modificationTime == other.modificationTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, size, modificationTime);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts office documents to PDF with LibreOffice.
+ * <p>
+ * Starting LibreOffice is expensive, especially with a fresh user profile.
+ * Therefore a DocumentConverter converts documents in batches (one
+ * LibreOffice process per batch) and keeps its own LibreOffice user profile
+ * for all batches until {@link #cleanup()} is called. The converted documents
+ * are handed out batch by batch so that printing them can overlap with the
+ * conversion of the next batch.
+ */
+public class DocumentConverter {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DocumentConverter.class.getName());
+
+    // the maximum number of documents converted by one LibreOffice process
+    private static final int BATCH_SIZE = 8;
+
+    private final Path tempDirectory;
+    private final String userInstallation;
+    private int batchCounter;
+
+    /**
+     * creates a new DocumentConverter
+     *
+     * @throws IOException if creating the temporary directory fails
+     */
+    public DocumentConverter() throws IOException {
+        tempDirectory = Files.createTempDirectory("printingHelper");
+        userInstallation = tempDirectory.resolve("profile").toUri().toString();
+    }
+
+    /**
+     * converts documents to PDF
+     *
+     * @param documents the documents to convert
+     * @param pdfConsumer gets the converted PDF (or <code>null</code> if
+     * converting failed) for every document in the order of the given
+     * documents, is called after every batch
+     * @throws IOException if creating a batch directory fails
+     */
+    public synchronized void convert(List<Path> documents,
+            Consumer<Path> pdfConsumer) throws IOException {
+
+        List<Path> batch = new ArrayList<>();
+        Set<String> batchNames = new HashSet<>();
+        for (Path document : documents) {
+            // LibreOffice names the PDF after the document, therefore every
+            // name may occur only once per batch
+            String name = getBaseName(document);
+            if ((batch.size() == BATCH_SIZE) || batchNames.contains(name)) {
+                convertBatch(batch, pdfConsumer);
+                batch.clear();
+                batchNames.clear();
+            }
+            batch.add(document);
+            batchNames.add(name);
+        }
+        if (!batch.isEmpty()) {
+            convertBatch(batch, pdfConsumer);
+        }
+    }
+
+    /**
+     * removes all converted documents and the LibreOffice user profile
+     */
+    public synchronized void cleanup() {
+        LernstickFileTools.recursiveDelete(tempDirectory.toFile(), true);
+    }
+
+    private void convertBatch(List<Path> batch, Consumer<Path> pdfConsumer)
+            throws IOException {
+
+        Path outputDirectory = tempDirectory.resolve(
+                "batch" + (++batchCounter));
+        Files.createDirectory(outputDirectory);
+
+        List<String> command = new ArrayList<>();
+        command.add("libreoffice");
+        command.add("-env:UserInstallation=" + userInstallation);
+        command.add("--headless");
+        command.add("--convert-to");
+        command.add("pdf");
+        command.add("--outdir");
+        command.add(outputDirectory.toString());
+        batch.forEach(document -> command.add(document.toString()));
+
+        long start = System.currentTimeMillis();
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        int exitValue = processExecutor.executeProcess(true, true,
+                command.toArray(new String[command.size()]));
+        LOGGER.log(Level.INFO, "converted {0} documents in {1} ms",
+                new Object[]{batch.size(), System.currentTimeMillis() - start});
+        if (exitValue != 0) {
+            LOGGER.log(Level.SEVERE, "LibreOffice failed: {0}",
+                    processExecutor.getStdErr());
+        }
+
+        for (Path document : batch) {
+            Path pdf = outputDirectory.resolve(getBaseName(document) + ".pdf");
+            if (Files.exists(pdf)) {
+                pdfConsumer.accept(pdf);
+            } else {
+                LOGGER.log(Level.SEVERE, "could not convert {0}", document);
+                pdfConsumer.accept(null);
+            }
+        }
+    }
+
+    private static String getBaseName(Path document) {
+        String fileName = document.getFileName().toString();
+        int index = fileName.lastIndexOf('.');
+        return index == -1 ? fileName : fileName.substring(0, index);
+    }
+}
@@ -0,0 +1,157 @@
+package ch.fhnw.dlcopy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Searches documents with certain file name suffixes in a list of
+ * directories. Every directory is walked only once for all suffixes and the
+ * directories are walked in parallel.
+ */
+public class DocumentScanner {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DocumentScanner.class.getName());
+
+    private final Set<String> suffixes;
+    private final boolean recursive;
+
+    /**
+     * the documents found in a list of directories
+     */
+    public static class Documents {
+
+        // the documents of every directory grouped by suffix
+        private final List<Map<String, List<Path>>> directories;
+
+        private Documents(List<Map<String, List<Path>>> directories) {
+            this.directories = directories;
+        }
+
+        /**
+         * returns all found documents with a certain suffix
+         *
+         * @param suffix the suffix (lowercase and without dot, e.g. "pdf")
+         * @return all found documents with a certain suffix
+         */
+        public List<Path> getDocuments(String suffix) {
+            return getDocuments(Collections.singletonList(suffix));
+        }
+
+        /**
+         * returns all found documents with the given suffixes (ordered by
+         * directory first and by suffix second)
+         *
+         * @param suffixes the suffixes (lowercase and without dot)
+         * @return all found documents with the given suffixes
+         */
+        public List<Path> getDocuments(Collection<String> suffixes) {
+            List<Path> documents = new ArrayList<>();
+            for (Map<String, List<Path>> directory : directories) {
+                for (String suffix : suffixes) {
+                    documents.addAll(directory.getOrDefault(
+                            suffix, Collections.emptyList()));
+                }
+            }
+            return documents;
+        }
+    }
+
+    /**
+     * creates a new DocumentScanner
+     *
+     * @param suffixes the suffixes of the documents to search (lowercase and
+     * without dot, e.g. "pdf"), the suffixes of the found files are compared
+     * case insensitive
+     * @param recursive if the directories should be searched recursively
+     */
+    public DocumentScanner(Set<String> suffixes, boolean recursive) {
+        this.suffixes = suffixes;
+        this.recursive = recursive;
+    }
+
+    /**
+     * searches documents in a list of directories, directories that don't
+     * exist are ignored
+     *
+     * @param directories the directories
+     * @return the found documents
+     * @throws IOException if reading a directory fails
+     */
+    public Documents scan(List<Path> directories) throws IOException {
+        try {
+            return new Documents(directories.parallelStream().map(
+                    directory -> {
+                        try {
+                            return scan(directory);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }).collect(Collectors.toList()));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private Map<String, List<Path>> scan(Path directory) throws IOException {
+        Map<String, List<Path>> documents = new HashMap<>();
+        try {
+            if (recursive) {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file,
+                            BasicFileAttributes attributes) {
+                        addDocument(documents, file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                try (DirectoryStream<Path> stream
+                        = Files.newDirectoryStream(directory)) {
+                    for (Path path : stream) {
+                        if (Files.isRegularFile(path)) {
+                            addDocument(documents, path);
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // not important, sanity checks are done by the caller
+            LOGGER.log(Level.INFO, "", ex);
+        }
+        return documents;
+    }
+
+    private void addDocument(Map<String, List<Path>> documents, Path path) {
+        String fileName = path.getFileName().toString();
+        int index = fileName.lastIndexOf('.');
+        if (index == -1) {
+            return;
+        }
+        String suffix = fileName.substring(index + 1).toLowerCase(Locale.ROOT);
+        if (suffixes.contains(suffix)) {
+            LOGGER.log(Level.INFO, "found {0} to print: {1}",
+                    new Object[]{suffix, path});
+            documents.computeIfAbsent(
+                    suffix, key -> new ArrayList<>()).add(path);
+        }
+    }
+}
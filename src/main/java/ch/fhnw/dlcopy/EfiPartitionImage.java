@@ -0,0 +1,221 @@
+package ch.fhnw.dlcopy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A "golden" image of a finished EFI partition.
+ * <p>
+ * After copying the EFI files, an installation renames isolinux to syslinux,
+ * changes the data partition mode in the boot configuration and installs
+ * extlinux. The result is the same for every storage device with the same
+ * system source, data partition mode, system partition label and EFI partition
+ * size. Therefore the EFI partition of the first successful installation is
+ * read back into an image and all following installations just write this
+ * image to their EFI partition. Only the device specific values of the FAT
+ * boot sector (volume serial number and number of hidden sectors) are patched
+ * while writing.
+ */
+public class EfiPartitionImage {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(EfiPartitionImage.class.getName());
+    private static final Map<List<Object>, EfiPartitionImage> IMAGES
+            = new HashMap<>();
+
+    // offsets in the FAT boot sector
+    private static final int BYTES_PER_SECTOR_OFFSET = 0x0B;
+    private static final int SECTORS_PER_FAT_16_OFFSET = 0x16;
+    private static final int HIDDEN_SECTORS_OFFSET = 0x1C;
+    private static final int VOLUME_ID_16_OFFSET = 0x27;
+    private static final int BACKUP_BOOT_SECTOR_32_OFFSET = 0x32;
+    private static final int VOLUME_ID_32_OFFSET = 0x43;
+    private static final int SIGNATURE_OFFSET = 0x1FE;
+
+    private final Path imagePath;
+    private final long imageSize;
+
+    private EfiPartitionImage(Path imagePath, long imageSize) {
+        this.imagePath = imagePath;
+        this.imageSize = imageSize;
+    }
+
+    /**
+     * returns the EFI partition image for the given combination of system
+     * source, data partition mode and EFI partition
+     *
+     * @param source the system source
+     * @param dataPartitionMode the data partition mode of the destination
+     * @param efiDevice the device of the destination EFI partition (e.g.
+     * /dev/sdb1)
+     * @return the EFI partition image or <code>null</code>, if there is no
+     * image (yet)
+     * @throws IOException if an I/O exception occurs
+     */
+    public static synchronized EfiPartitionImage get(SystemSource source,
+            DataPartitionMode dataPartitionMode, String efiDevice)
+            throws IOException {
+        return IMAGES.get(getKey(source, dataPartitionMode, efiDevice));
+    }
+
+    /**
+     * stores the finished EFI partition of an installation as image for all
+     * following installations with the same system source, data partition
+     * mode and EFI partition size
+     *
+     * @param source the system source
+     * @param dataPartitionMode the data partition mode of the destination
+     * @param efiDevice the device of the finished and unmounted EFI partition
+     * (e.g. /dev/sdb1)
+     * @throws IOException if an I/O exception occurs
+     */
+    public static void store(SystemSource source,
+            DataPartitionMode dataPartitionMode, String efiDevice)
+            throws IOException {
+
+        List<Object> key = getKey(source, dataPartitionMode, efiDevice);
+        synchronized (EfiPartitionImage.class) {
+            if (IMAGES.containsKey(key)) {
+                return;
+            }
+        }
+
+        long size = BlockDeviceCopier.getSize(efiDevice);
+        if ((size % BlockDeviceCopier.ALIGNMENT) != 0) {
+            LOGGER.log(Level.INFO, "size of {0} is not aligned, "
+                    + "can't use it as EFI partition image", efiDevice);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Path path = Files.createTempFile("DLCopy-efi", ".img");
+        path.toFile().deleteOnExit();
+        BlockDeviceCopier.readImage(efiDevice, size, path);
+
+        if (!isFatBootSector(path)) {
+            LOGGER.log(Level.WARNING, "{0} contains no FAT file system, "
+                    + "can't use it as EFI partition image", efiDevice);
+            Files.delete(path);
+            return;
+        }
+
+        synchronized (EfiPartitionImage.class) {
+            if (IMAGES.containsKey(key)) {
+                // a parallel installation was faster
+                Files.delete(path);
+                return;
+            }
+            IMAGES.put(key, new EfiPartitionImage(path, size));
+        }
+        LOGGER.log(Level.INFO,
+                "stored EFI partition image {0} of {1} in {2} ms",
+                new Object[]{path, efiDevice,
+                    System.currentTimeMillis() - start});
+    }
+
+    /**
+     * writes the image to an EFI partition
+     *
+     * @param efiDevice the device of the EFI partition (e.g. /dev/sdb1)
+     * @param checkCopies if the written partition should be verified
+     * @throws IOException if an I/O exception occurs
+     * @throws NoSuchAlgorithmException if the digest algorithm used for
+     * verification can't be found
+     */
+    public void writeTo(String efiDevice, boolean checkCopies)
+            throws IOException, NoSuchAlgorithmException {
+
+        long partitionStart = BlockDeviceCopier.getStart(efiDevice);
+        int volumeId = ThreadLocalRandom.current().nextInt();
+
+        byte[] writtenDigest = BlockDeviceCopier.writeImage(
+                imagePath, imageSize, efiDevice, checkCopies,
+                buffer -> patchBootSectors(buffer, partitionStart, volumeId));
+
+        if (checkCopies) {
+            byte[] readDigest = BlockDeviceCopier.getDigest(
+                    Paths.get(efiDevice), imageSize, true);
+            if (!MessageDigest.isEqual(writtenDigest, readDigest)) {
+                throw new IOException("verification of EFI partition "
+                        + efiDevice + " failed");
+            }
+            LOGGER.log(Level.INFO, "verified EFI partition {0}", efiDevice);
+        }
+
+        // udisks must notice the new file system before we can mount it
+        if (!DeviceReadiness.waitForFileSystem(
+                efiDevice, DeviceReadiness.DEFAULT_TIMEOUT)) {
+            throw new IOException("udisks did not notice the new file "
+                    + "system on " + efiDevice);
+        }
+    }
+
+    private static List<Object> getKey(SystemSource source,
+            DataPartitionMode dataPartitionMode, String efiDevice)
+            throws IOException {
+        return Arrays.asList(source, dataPartitionMode,
+                DLCopy.systemPartitionLabel,
+                BlockDeviceCopier.getSize(efiDevice));
+    }
+
+    private static boolean isFatBootSector(Path path) throws IOException {
+        byte[] bootSector = new byte[512];
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            if (inputStream.readNBytes(bootSector, 0, bootSector.length)
+                    != bootSector.length) {
+                return false;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bootSector);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int bytesPerSector
+                = buffer.getShort(BYTES_PER_SECTOR_OFFSET) & 0xFFFF;
+        return (buffer.getShort(SIGNATURE_OFFSET) == (short) 0xAA55)
+                && (bytesPerSector >= 512)
+                && (Integer.bitCount(bytesPerSector) == 1);
+    }
+
+    private static void patchBootSectors(
+            ByteBuffer buffer, long partitionStart, int volumeId) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int bytesPerSector
+                = buffer.getShort(BYTES_PER_SECTOR_OFFSET) & 0xFFFF;
+        // FAT32 has no 16 bit FAT size
+        boolean fat32 = buffer.getShort(SECTORS_PER_FAT_16_OFFSET) == 0;
+        patchBootSector(buffer, 0, fat32, partitionStart / bytesPerSector,
+                volumeId);
+        if (fat32) {
+            // FAT32 keeps a backup copy of the boot sector
+            int backupSector = buffer.getShort(
+                    BACKUP_BOOT_SECTOR_32_OFFSET) & 0xFFFF;
+            if ((backupSector != 0) && (backupSector != 0xFFFF)) {
+                patchBootSector(buffer, backupSector * bytesPerSector, fat32,
+                        partitionStart / bytesPerSector, volumeId);
+            }
+        }
+    }
+
+    private static void patchBootSector(ByteBuffer buffer, int offset,
+            boolean fat32, long hiddenSectors, int volumeId) {
+        // The syslinux boot sector uses the number of hidden sectors to find
+        // ldlinux.sys on the storage device. All other block references of
+        // extlinux are relative to the partition start and need no changes.
+        buffer.putInt(offset + HIDDEN_SECTORS_OFFSET, (int) hiddenSectors);
+        buffer.putInt(offset + (fat32 ? VOLUME_ID_32_OFFSET
+                : VOLUME_ID_16_OFFSET), volumeId);
+    }
+}
@@ -50,7 +50,8 @@ public class ExchangeTransferrer extends Transferrer {
     public void transfer(boolean checkCopies)
             throws IOException, DBusException, NoSuchAlgorithmException {
 
-        FileCopier fileCopier = new FileCopier();
+        DigestCache digestCache = DigestCache.getInstance();
+        FileCopier fileCopier = new FileCopier(digestCache);
         gui.showInstallFileCopy(fileCopier);
 
         mount();
@@ -61,6 +62,7 @@ public class ExchangeTransferrer extends Transferrer {
                 new String[]{destinationMountInfo.getMountPath()});
 
         fileCopier.copy(checkCopies, copyJob);
+        digestCache.save();
 
         unmount();
     }
@@ -0,0 +1,735 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.CurrentlyProcessedFile;
+import ch.fhnw.filecopier.FileCopier;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.ProcessExecutor;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A FileCopier for several installations that run in parallel from the same
+ * system source.
+ * <p>
+ * Every installation thread registers itself before it starts and later calls
+ * {@link #copy(boolean, ch.fhnw.filecopier.CopyJob...)} with its own
+ * CopyJobs. As soon as all registered installations arrived there (or the
+ * first one waited for half a minute), the CopyJobs of all arrived
+ * installations are merged by their sources and every source file is read
+ * only once into a bounded ring of direct buffers. From there it is written
+ * to all destinations concurrently. A slow destination only stalls its own
+ * writer until the ring is full. Syncing and verifying the copies happens
+ * afterwards on a separate thread per installation, so that the slowest
+ * storage device doesn't hold back the reader at every file. Digests for
+ * verifying the copies are computed only once while reading the source.
+ * Installations that arrive after their round started copy their files with
+ * a normal FileCopier that uses the given DigestCache.
+ */
+public class FanOutCopier extends FileCopier {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(FanOutCopier.class.getName());
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final int RING_SIZE = 16;
+    // how long the first arrived installation waits for the others
+    private static final long MAX_ROUND_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final DigestCache digestCache;
+    private final PropertyChangeSupport propertyChangeSupport
+            = new PropertyChangeSupport(this);
+    // the installation threads that are expected to call copy()
+    private final Set<Thread> pendingThreads = new HashSet<>();
+    // the installation threads that missed the start of their round
+    private final Set<Thread> lateThreads = new HashSet<>();
+    private Round currentRound = new Round();
+    private State state = State.START;
+    private volatile long byteCount;
+    private volatile long copiedBytes;
+    private volatile CurrentlyProcessedFile currentlyProcessedFile;
+
+    /**
+     * creates a new FanOutCopier
+     *
+     * @param digestCache the digest cache for installations that copy their
+     * files on their own
+     */
+    public FanOutCopier(DigestCache digestCache) {
+        super(digestCache);
+        this.digestCache = digestCache;
+    }
+
+    /**
+     * registers the current thread as an installation thread that will later
+     * call {@link #copy(boolean, ch.fhnw.filecopier.CopyJob...)}
+     */
+    public synchronized void register() {
+        pendingThreads.add(Thread.currentThread());
+    }
+
+    /**
+     * deregisters the current thread, e.g. because its installation failed
+     * before it reached the copy step
+     */
+    public synchronized void deregister() {
+        lateThreads.remove(Thread.currentThread());
+        if (pendingThreads.remove(Thread.currentThread())) {
+            checkRoundReady();
+        }
+    }
+
+    @Override
+    public void addPropertyChangeListener(
+            String propertyName, PropertyChangeListener listener) {
+        propertyChangeSupport.addPropertyChangeListener(
+                propertyName, listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(
+            String propertyName, PropertyChangeListener listener) {
+        propertyChangeSupport.removePropertyChangeListener(
+                propertyName, listener);
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    @Override
+    public CurrentlyProcessedFile getCurrentlyProcessedFile() {
+        return currentlyProcessedFile;
+    }
+
+    @Override
+    public void reset() {
+        byteCount = 0;
+        copiedBytes = 0;
+        setState(State.START);
+    }
+
+    @Override
+    public void copy(CopyJob... copyJobs)
+            throws IOException, NoSuchAlgorithmException {
+        copy(false, copyJobs);
+    }
+
+    @Override
+    public void copy(boolean checkCopies, CopyJob... copyJobs)
+            throws IOException, NoSuchAlgorithmException {
+
+        boolean late;
+        synchronized (this) {
+            late = lateThreads.remove(Thread.currentThread());
+        }
+        if (late) {
+            // the other installations don't wait for us
+            LOGGER.info("copying files without fan-out");
+            new FileCopier(digestCache).copy(checkCopies, copyJobs);
+            return;
+        }
+
+        Participant participant = new Participant(checkCopies, copyJobs);
+        Round round;
+        boolean leader;
+        synchronized (this) {
+            round = currentRound;
+            leader = round.participants.isEmpty();
+            round.participants.add(participant);
+            pendingThreads.remove(Thread.currentThread());
+            checkRoundReady();
+        }
+
+        boolean interrupted = false;
+        if (leader) {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + MAX_ROUND_DELAY;
+                while (!round.ready) {
+                    long delay = deadline - System.currentTimeMillis();
+                    if (delay <= 0) {
+                        // don't let the arrived installations wait for slow
+                        // preparations of the others
+                        LOGGER.log(Level.INFO, "starting round without {0} "
+                                + "late installation(s)",
+                                pendingThreads.size());
+                        lateThreads.addAll(pendingThreads);
+                        pendingThreads.clear();
+                        startRound();
+                        break;
+                    }
+                    try {
+                        wait(delay);
+                    } catch (InterruptedException ex) {
+                        // we must not leave the other participants behind
+                        interrupted = true;
+                    }
+                }
+            }
+            try {
+                copy(round.participants);
+            } finally {
+                synchronized (this) {
+                    round.finished = true;
+                    notifyAll();
+                }
+            }
+        } else {
+            synchronized (this) {
+                while (!round.finished) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (participant.exception != null) {
+            throw participant.exception;
+        }
+    }
+
+    // must be called while holding the monitor
+    private void checkRoundReady() {
+        if (pendingThreads.isEmpty() && !currentRound.participants.isEmpty()) {
+            startRound();
+        }
+    }
+
+    // must be called while holding the monitor
+    private void startRound() {
+        LOGGER.log(Level.INFO, "copying files for {0} installation(s)",
+                currentRound.participants.size());
+        currentRound.ready = true;
+        currentRound = new Round();
+        notifyAll();
+    }
+
+    private void copy(List<Participant> participants)
+            throws NoSuchAlgorithmException {
+
+        // merge the CopyJobs of all participants by their sources
+        setState(State.CHECKING_SOURCE);
+        Map<String, FanOutJob> fanOutJobs = new LinkedHashMap<>();
+        for (Participant participant : participants) {
+            for (CopyJob copyJob : participant.copyJobs) {
+                if (copyJob == null) {
+                    continue;
+                }
+                for (Source source : copyJob.getSources()) {
+                    String key = source.getBaseDirectory().getPath() + '|'
+                            + source.getPattern().pattern() + '|'
+                            + source.isRecursive();
+                    FanOutJob fanOutJob = fanOutJobs.get(key);
+                    if (fanOutJob == null) {
+                        fanOutJob = new FanOutJob(source);
+                        fanOutJobs.put(key, fanOutJob);
+                    }
+                    for (String destination : copyJob.getDestinations()) {
+                        fanOutJob.targets.add(
+                                new Target(participant, destination));
+                    }
+                }
+            }
+        }
+
+        long newByteCount = 0;
+        for (FanOutJob fanOutJob : fanOutJobs.values()) {
+            Source source = fanOutJob.source;
+            File baseDirectory = source.getBaseDirectory();
+            expand(baseDirectory.getPath().length() + 1, baseDirectory,
+                    source.getPattern(), source.isRecursive(),
+                    fanOutJob.files);
+            for (File file : fanOutJob.files) {
+                if (file.isFile()) {
+                    newByteCount += file.length();
+                }
+            }
+        }
+        byteCount = newByteCount;
+        copiedBytes = 0;
+
+        setState(State.COPYING);
+        // Several rounds may run at the same time (e.g. in the installation
+        // pipeline), therefore every round needs its own buffers.
+        ByteBuffer[] buffers = new ByteBuffer[RING_SIZE];
+        ExecutorService executor = Executors.newCachedThreadPool();
+        // syncs and verifies the copies of every participant
+        Map<Participant, ExecutorService> syncExecutors = new HashMap<>();
+        for (Participant participant : participants) {
+            syncExecutors.put(participant,
+                    Executors.newSingleThreadExecutor());
+        }
+        try {
+            for (FanOutJob fanOutJob : fanOutJobs.values()) {
+                int baseLength
+                        = fanOutJob.source.getBaseDirectory().getPath().length();
+                for (File file : fanOutJob.files) {
+                    String relativePath = file.getPath().substring(baseLength);
+                    List<Target> targets = new ArrayList<>();
+                    for (Target target : fanOutJob.targets) {
+                        if (target.participant.exception == null) {
+                            targets.add(target);
+                        }
+                    }
+                    if (targets.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        if (file.isDirectory()) {
+                            for (Target target : targets) {
+                                File directory = new File(
+                                        target.destination, relativePath);
+                                if (!directory.isDirectory()
+                                        && !directory.mkdirs()) {
+                                    target.participant.exception
+                                            = new IOException(
+                                                    "could not create "
+                                                    + directory);
+                                }
+                            }
+                        } else {
+                            copyFile(executor, syncExecutors, buffers,
+                                    file, relativePath, targets,
+                                    participants);
+                        }
+                    } catch (IOException ex) {
+                        // reading the source failed, this affects everyone
+                        LOGGER.log(Level.SEVERE, "", ex);
+                        for (Participant participant : participants) {
+                            if (participant.exception == null) {
+                                participant.exception = ex;
+                            }
+                        }
+                        return;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            awaitSyncs(syncExecutors.values());
+            setState(State.END);
+        }
+    }
+
+    private void awaitSyncs(Iterable<ExecutorService> syncExecutors) {
+        boolean interrupted = false;
+        for (ExecutorService syncExecutor : syncExecutors) {
+            syncExecutor.shutdown();
+            while (true) {
+                try {
+                    if (syncExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                        break;
+                    }
+                } catch (InterruptedException ex) {
+                    // the participants must not return before their copies
+                    // are synced
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void expand(int baseLength, File directory, Pattern pattern,
+            boolean recursive, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            LOGGER.log(Level.WARNING, "can not read {0}", directory);
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String relativePath = child.getPath().substring(baseLength);
+            boolean isDirectory = child.isDirectory();
+            if (pattern.matcher(relativePath).matches()) {
+                if (!isDirectory || recursive) {
+                    files.add(child);
+                }
+            }
+            if (isDirectory && recursive) {
+                expand(baseLength, child, pattern, true, files);
+            }
+        }
+    }
+
+    private void copyFile(ExecutorService executor,
+            Map<Participant, ExecutorService> syncExecutors,
+            ByteBuffer[] buffers, File file, String relativePath,
+            List<Target> targets,
+            List<Participant> participants)
+            throws IOException, NoSuchAlgorithmException {
+
+        LOGGER.log(Level.FINE, "copying {0} to {1} destination(s)",
+                new Object[]{file, targets.size()});
+        currentlyProcessedFile = new CurrentlyProcessedFile(file.getPath());
+        propertyChangeSupport.firePropertyChange(
+                FILE_PROPERTY, null, file.getPath());
+
+        boolean checkCopies = false;
+        for (Participant participant : participants) {
+            checkCopies |= participant.checkCopies;
+        }
+        MessageDigest messageDigest = checkCopies
+                ? MessageDigest.getInstance(DIGEST_ALGORITHM) : null;
+
+        Ring ring = new Ring(targets.size());
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            Target target = targets.get(i);
+            File destination = new File(target.destination, relativePath);
+            int writer = i;
+            writers.add(executor.submit(() -> {
+                try {
+                    write(ring, buffers, writer, destination);
+                    // the source digest is known after the last buffer
+                    byte[] sourceDigest = ring.getSourceDigest();
+                    syncExecutors.get(target.participant).execute(
+                            () -> sync(target, destination, sourceDigest));
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                    target.participant.exception = (ex instanceof IOException)
+                            ? (IOException) ex : new IOException(ex);
+                } finally {
+                    // never let the reader wait for a failed writer
+                    ring.removeWriter(writer);
+                }
+                return null;
+            }));
+        }
+
+        try (FileChannel source = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            for (long sequence = 0;; sequence++) {
+                if (!ring.awaitSpace(sequence)) {
+                    // all writers failed
+                    break;
+                }
+                ByteBuffer buffer = getBuffer(buffers, sequence);
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                int length = buffer.remaining();
+                if (length == 0) {
+                    break;
+                }
+                if (messageDigest != null) {
+                    messageDigest.update(buffer.duplicate());
+                }
+                ring.publish(length);
+                long oldCopiedBytes = copiedBytes;
+                copiedBytes += length;
+                propertyChangeSupport.firePropertyChange(
+                        BYTE_COUNTER_PROPERTY, oldCopiedBytes, copiedBytes);
+            }
+        } finally {
+            ring.finish(messageDigest == null ? null : messageDigest.digest());
+            for (Future<?> writer : writers) {
+                try {
+                    writer.get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    LOGGER.log(Level.SEVERE, "", ex);
+                }
+            }
+        }
+    }
+
+    private void write(Ring ring, ByteBuffer[] buffers, int writer,
+            File destination) throws IOException {
+        File parentDirectory = destination.getParentFile();
+        if (!parentDirectory.isDirectory() && !parentDirectory.mkdirs()) {
+            throw new IOException("could not create " + parentDirectory);
+        }
+        try (FileChannel channel = FileChannel.open(destination.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long sequence = 0;; sequence++) {
+                int length = ring.awaitData(writer, sequence);
+                if (length < 0) {
+                    break;
+                }
+                ByteBuffer buffer = getBuffer(buffers, sequence).duplicate();
+                buffer.position(0);
+                buffer.limit(length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                ring.release(writer);
+            }
+        }
+    }
+
+    private void sync(Target target, File destination, byte[] sourceDigest) {
+        Participant participant = target.participant;
+        if (participant.exception != null) {
+            return;
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(
+                    destination.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            if (participant.checkCopies) {
+                checkCopy(sourceDigest, destination);
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            participant.exception = (ex instanceof IOException)
+                    ? (IOException) ex : new IOException(ex);
+        }
+    }
+
+    private void checkCopy(byte[] sourceDigest, File destination)
+            throws IOException, NoSuchAlgorithmException {
+        if (sourceDigest == null) {
+            // reading the source failed
+            return;
+        }
+        // drop the destination file from the page cache so that we really
+        // read back the data from the storage device
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        processExecutor.executeProcess(true, true, "dd",
+                "of=" + destination.getAbsolutePath(), "oflag=nocache",
+                "conv=notrunc,fdatasync", "count=0");
+        MessageDigest messageDigest
+                = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        byte[] buffer = new byte[DLCopy.MEGA];
+        try (InputStream inputStream
+                = Files.newInputStream(destination.toPath())) {
+            for (int read = inputStream.read(buffer); read != -1;
+                    read = inputStream.read(buffer)) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        if (!MessageDigest.isEqual(sourceDigest, messageDigest.digest())) {
+            throw new IOException("checksum of " + destination
+                    + " does not match its source");
+        }
+    }
+
+    private static ByteBuffer getBuffer(ByteBuffer[] buffers, long sequence) {
+        int index = (int) (sequence % RING_SIZE);
+        // buffers are only accessed by the reader (allocation, filling) and
+        // by writers after the reader published them via the ring lock
+        if (buffers[index] == null) {
+            buffers[index] = ByteBuffer.allocateDirect(DLCopy.MEGA);
+        }
+        return buffers[index];
+    }
+
+    private void setState(State newState) {
+        State oldState = state;
+        state = newState;
+        propertyChangeSupport.firePropertyChange(
+                STATE_PROPERTY, oldState, newState);
+    }
+
+    /**
+     * The ring of buffers between the reader and the writers of a single file.
+     * Sequence numbers count the buffers that were read from the source file.
+     */
+    private static class Ring {
+
+        private final Lock lock = new ReentrantLock();
+        private final Condition dataAvailable = lock.newCondition();
+        private final Condition spaceAvailable = lock.newCondition();
+        private final long[] writerSequences;
+        private final boolean[] activeWriters;
+        private final int[] lengths = new int[RING_SIZE];
+        private long published;
+        private boolean finished;
+        private byte[] sourceDigest;
+
+        public Ring(int writers) {
+            writerSequences = new long[writers];
+            activeWriters = new boolean[writers];
+            Arrays.fill(activeWriters, true);
+        }
+
+        /**
+         * waits until the buffer for the given sequence is no longer used by
+         * any writer
+         *
+         * @return <code>false</code>, if there are no writers left
+         */
+        public boolean awaitSpace(long sequence) {
+            lock.lock();
+            try {
+                while (true) {
+                    long slowest = Long.MAX_VALUE;
+                    for (int i = 0; i < writerSequences.length; i++) {
+                        if (activeWriters[i]) {
+                            slowest = Math.min(slowest, writerSequences[i]);
+                        }
+                    }
+                    if (slowest == Long.MAX_VALUE) {
+                        return false;
+                    }
+                    if (sequence - slowest < RING_SIZE) {
+                        return true;
+                    }
+                    spaceAvailable.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void publish(int length) {
+            lock.lock();
+            try {
+                lengths[(int) (published % RING_SIZE)] = length;
+                published++;
+                dataAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void finish(byte[] sourceDigest) {
+            lock.lock();
+            try {
+                this.sourceDigest = sourceDigest;
+                finished = true;
+                dataAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * waits until the buffer with the given sequence was read
+         *
+         * @return the length of the data in the buffer or <code>-1</code>, if
+         * the end of the source file was reached
+         */
+        public int awaitData(int writer, long sequence) {
+            lock.lock();
+            try {
+                while (sequence >= published) {
+                    if (finished) {
+                        return -1;
+                    }
+                    dataAvailable.awaitUninterruptibly();
+                }
+                return lengths[(int) (sequence % RING_SIZE)];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release(int writer) {
+            lock.lock();
+            try {
+                writerSequences[writer]++;
+                spaceAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void removeWriter(int writer) {
+            lock.lock();
+            try {
+                activeWriters[writer] = false;
+                spaceAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public byte[] getSourceDigest() {
+            lock.lock();
+            try {
+                return sourceDigest;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Round {
+
+        private final List<Participant> participants = new ArrayList<>();
+        private boolean ready;
+        private boolean finished;
+    }
+
+    private static class Participant {
+
+        private final boolean checkCopies;
+        private final CopyJob[] copyJobs;
+        private volatile IOException exception;
+
+        public Participant(boolean checkCopies, CopyJob[] copyJobs) {
+            this.checkCopies = checkCopies;
+            this.copyJobs = copyJobs;
+        }
+    }
+
+    private static class FanOutJob {
+
+        private final Source source;
+        private final List<File> files = new ArrayList<>();
+        private final List<Target> targets = new ArrayList<>();
+
+        public FanOutJob(Source source) {
+            this.source = source;
+        }
+    }
+
+    private static class Target {
+
+        private final Participant participant;
+        private final String destination;
+
+        public Target(Participant participant, String destination) {
+            this.participant = participant;
+            this.destination = destination;
+        }
+    }
+}
@@ -4,10 +4,10 @@ import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.MountInfo;
 import ch.fhnw.util.Partition;
-import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -24,7 +24,6 @@ public class FileTransferrer extends Transferrer {
     private static final Logger LOGGER
             = Logger.getLogger(FileTransferrer.class.getName());
 
-    private final Installer installer;
     private final StorageDevice sourceDevice;
     private final Partition destinationPartition;
 
@@ -37,35 +36,32 @@ public class FileTransferrer extends Transferrer {
     private String cowPath;
     private MountInfo destinationMountInfo;
 
-    public FileTransferrer(DLCopyGUI gui, Installer installer,
+    public FileTransferrer(DLCopyGUI gui,
             StorageDevice sourceDevice, Partition destinationPartition) {
 
         super(gui);
-        this.installer = installer;
         this.sourceDevice = sourceDevice;
         this.destinationPartition = destinationPartition;
     }
 
     public void transfer(boolean transferHome, boolean transferNetwork,
-            boolean transferPrinter, boolean transferFirewall)
-            throws IOException, DBusException {
+            boolean transferPrinter, boolean transferFirewall,
+            boolean checkCopies) throws IOException, DBusException {
 
         mount();
 
+        // the ownership of the directories is transferred, too
         if (transferHome) {
-            transferDirectory("/home/user/");
-            ProcessExecutor executor = new ProcessExecutor();
-            executor.executeProcess("chown", "user.user",
-                    destinationMountInfo.getMountPath() + "/rw/home/user");
+            transferDirectory("/home/user/", checkCopies);
         }
         if (transferNetwork) {
-            transferDirectory("/etc/NetworkManager/");
+            transferDirectory("/etc/NetworkManager/", checkCopies);
         }
         if (transferPrinter) {
-            transferDirectory("/etc/cups/");
+            transferDirectory("/etc/cups/", checkCopies);
         }
         if (transferFirewall) {
-            transferDirectory("/etc/lernstick-firewall/");
+            transferDirectory("/etc/lernstick-firewall/", checkCopies);
         }
         // TODO: find a way to transfer user settings
         // (directly after installation, the necessary files are not there yet)
@@ -93,14 +89,14 @@ public class FileTransferrer extends Transferrer {
         destinationMountInfo = destinationPartition.mount();
     }
 
-    private void transferDirectory(String sourceDir) {
+    private void transferDirectory(String sourceDir, boolean checkCopies)
+            throws IOException {
         String destination = destinationMountInfo.getMountPath()
                 + "/rw" + sourceDir;
-        String copyScript = "#!/bin/bash\n"
-                + "mkdir -p \"" + destination + "\"\n"
-                + "cp -av \"" + cowPath + sourceDir + "\"* \""
-                + destination + "\"";
-        gui.showInstallPersistencyCopy(installer, copyScript, cowPath);
+        DataPartitionCopier dataPartitionCopier = new DataPartitionCopier();
+        gui.showInstallPersistencyCopy(dataPartitionCopier);
+        dataPartitionCopier.copy(Paths.get(cowPath + sourceDir),
+                Paths.get(destination), checkCopies);
     }
 
     private void unmount() throws IOException, DBusException {
@@ -0,0 +1,330 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.DbusTools;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Monitors the udisks daemon for added, removed and changed storage devices
+ * via D-Bus signals.
+ * <p>
+ * Plugging in a storage device produces a burst of signals (the device itself,
+ * every partition, every file system, ...). All signals of a short time window
+ * are coalesced per storage device and handed to the listener as one batch of
+ * {@link Changes}, e.g. plugging in a hub with ten storage devices results in
+ * a single batch with ten added storage devices.
+ */
+public class HotplugMonitor {
+
+    /**
+     * the changed storage devices of one batch, given by device name (e.g.
+     * "sdb")
+     */
+    public static class Changes {
+
+        private final List<String> addedDevices;
+        private final List<String> removedDevices;
+        private final List<String> changedDevices;
+
+        private Changes(List<String> addedDevices,
+                List<String> removedDevices, List<String> changedDevices) {
+            this.addedDevices = Collections.unmodifiableList(addedDevices);
+            this.removedDevices = Collections.unmodifiableList(removedDevices);
+            this.changedDevices = Collections.unmodifiableList(changedDevices);
+        }
+
+        /**
+         * returns the added storage devices
+         *
+         * @return the added storage devices
+         */
+        public List<String> getAddedDevices() {
+            return addedDevices;
+        }
+
+        /**
+         * returns the removed storage devices (a storage device that was
+         * removed and added again within one batch is contained in both the
+         * removed and the added storage devices, removals should be handled
+         * first)
+         *
+         * @return the removed storage devices
+         */
+        public List<String> getRemovedDevices() {
+            return removedDevices;
+        }
+
+        /**
+         * returns the storage devices that are still plugged but whose
+         * partitions or file systems changed
+         *
+         * @return the changed storage devices
+         */
+        public List<String> getChangedDevices() {
+            return changedDevices;
+        }
+    }
+
+    private enum Change {
+        ADDED, REMOVED, READDED, CHANGED
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(HotplugMonitor.class.getName());
+    private static final String UDISKS_DEVICES_PATH
+            = "/org/freedesktop/UDisks/devices/";
+    private static final String UDISKS2_BLOCK_DEVICES_PATH
+            = "/org/freedesktop/UDisks2/block_devices/";
+    private static final String UDISKS2_PREFIX = "org.freedesktop.UDisks2.";
+    // e.g. "mmcblk0p1", "nvme0n1p1" or "loop0p1"
+    private static final Pattern P_PARTITION_PATTERN
+            = Pattern.compile("(.*\\d)p\\d+");
+    // e.g. "sdb1"
+    private static final Pattern PARTITION_PATTERN
+            = Pattern.compile("(.*\\D)\\d+");
+    // the time window for coalescing signals
+    private static final long COALESCING_DELAY = 500; // ms
+
+    private final Consumer<Changes> listener;
+    private final ScheduledExecutorService executor;
+    // the pending changes by device name (in the order of their occurence)
+    private final Map<String, Change> pendingChanges = new LinkedHashMap<>();
+    private final DBusSigHandler<DBusObjectManager.InterfacesAdded>
+            interfacesAddedHandler = signal -> interfacesChanged(
+                    signal.getObjectPath(), signal.getInterfaceNames(), true);
+    private final DBusSigHandler<DBusObjectManager.InterfacesRemoved>
+            interfacesRemovedHandler = signal -> interfacesChanged(
+                    signal.getObjectPath(), signal.getInterfaceNames(), false);
+    private final DBusSigHandler<DBusUDisks.DeviceAdded> deviceAddedHandler
+            = signal -> deviceChanged(signal.getDevicePath(), Change.ADDED);
+    private final DBusSigHandler<DBusUDisks.DeviceRemoved> deviceRemovedHandler
+            = signal -> deviceChanged(signal.getDevicePath(), Change.REMOVED);
+    private DBusConnection connection;
+    private boolean batchScheduled;
+
+    /**
+     * creates a new HotplugMonitor
+     *
+     * @param listener gets every batch of changes, is called on the (single)
+     * thread of the HotplugMonitor
+     */
+    public HotplugMonitor(Consumer<Changes> listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, getClass().getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * returns the udisks path of a storage device
+     *
+     * @param device the device name (e.g. "sdb")
+     * @return the udisks path of the storage device
+     */
+    public static String getPath(String device) {
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
+            return UDISKS_DEVICES_PATH + device;
+        }
+        return UDISKS2_BLOCK_DEVICES_PATH + device;
+    }
+
+    /**
+     * starts monitoring
+     *
+     * @throws DBusException if subscribing to the udisks signals fails
+     */
+    public synchronized void start() throws DBusException {
+        connection = DBusConnection.getConnection(DBusConnection.SYSTEM);
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
+            connection.addSigHandler(
+                    DBusUDisks.DeviceAdded.class, deviceAddedHandler);
+            connection.addSigHandler(
+                    DBusUDisks.DeviceRemoved.class, deviceRemovedHandler);
+        } else {
+            connection.addSigHandler(DBusObjectManager.InterfacesAdded.class,
+                    interfacesAddedHandler);
+            connection.addSigHandler(DBusObjectManager.InterfacesRemoved.class,
+                    interfacesRemovedHandler);
+        }
+        LOGGER.info("monitoring udisks signals");
+    }
+
+    /**
+     * stops monitoring, pending changes are discarded
+     */
+    public synchronized void stop() {
+        if (connection != null) {
+            try {
+                if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
+                    connection.removeSigHandler(
+                            DBusUDisks.DeviceAdded.class, deviceAddedHandler);
+                    connection.removeSigHandler(DBusUDisks.DeviceRemoved.class,
+                            deviceRemovedHandler);
+                } else {
+                    connection.removeSigHandler(
+                            DBusObjectManager.InterfacesAdded.class,
+                            interfacesAddedHandler);
+                    connection.removeSigHandler(
+                            DBusObjectManager.InterfacesRemoved.class,
+                            interfacesRemovedHandler);
+                }
+            } catch (DBusException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+            }
+            connection = null;
+        }
+        executor.shutdownNow();
+    }
+
+    private void interfacesChanged(String path,
+            Iterable<String> interfaceNames, boolean added) {
+
+        if (!path.startsWith(UDISKS2_BLOCK_DEVICES_PATH)) {
+            // drives, jobs, ...
+            return;
+        }
+        String name = path.substring(UDISKS2_BLOCK_DEVICES_PATH.length());
+
+        boolean block = false;
+        boolean partition = false;
+        for (String interfaceName : interfaceNames) {
+            if (interfaceName.equals(UDISKS2_PREFIX + "Block")) {
+                block = true;
+            } else if (interfaceName.equals(UDISKS2_PREFIX + "Partition")) {
+                partition = true;
+            }
+        }
+
+        String parent = getParent(name, partition);
+        if (parent != null) {
+            // a partition (or its file system) changes its storage device
+            addChange(parent, Change.CHANGED);
+        } else if (block) {
+            addChange(name, added ? Change.ADDED : Change.REMOVED);
+        } else {
+            // e.g. a file system was created directly on the storage device
+            addChange(name, Change.CHANGED);
+        }
+    }
+
+    private void deviceChanged(String path, Change change) {
+        if (path.startsWith(UDISKS_DEVICES_PATH)) {
+            // The old udisks daemon doesn't tell us if the device was a
+            // partition, but partitions are ignored when probing anyway.
+            addChange(path.substring(UDISKS_DEVICES_PATH.length()), change);
+        }
+    }
+
+    /**
+     * returns the name of the storage device of a partition
+     *
+     * @param name the name of the block device
+     * @param partition if the block device is known to be a partition
+     * @return the name of the storage device or <code>null</code> if the
+     * block device is no partition
+     */
+    private static String getParent(String name, boolean partition) {
+        Path sysPath = Paths.get("/sys/class/block", name);
+        if (Files.exists(sysPath.resolve("partition"))) {
+            try {
+                return sysPath.toRealPath().getParent()
+                        .getFileName().toString();
+            } catch (IOException ex) {
+                // the partition was just removed, see below
+                LOGGER.log(Level.FINE, "", ex);
+            }
+        }
+        if (!partition) {
+            return null;
+        }
+        // the partition is already gone, guess the name of its storage device
+        Matcher matcher = P_PARTITION_PATTERN.matcher(name);
+        if (matcher.matches()) {
+            return matcher.group(1);
+        }
+        matcher = PARTITION_PATTERN.matcher(name);
+        if (matcher.matches()) {
+            return matcher.group(1);
+        }
+        return name;
+    }
+
+    private void addChange(String name, Change change) {
+        LOGGER.log(Level.FINE, "{0}: {1}", new Object[]{name, change});
+        synchronized (pendingChanges) {
+            pendingChanges.merge(name, change, HotplugMonitor::merge);
+            if (!batchScheduled) {
+                batchScheduled = true;
+                executor.schedule(this::dispatchChanges,
+                        COALESCING_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static Change merge(Change previous, Change next) {
+        switch (next) {
+            case REMOVED:
+                return Change.REMOVED;
+            case ADDED:
+                return (previous == Change.ADDED)
+                        ? Change.ADDED : Change.READDED;
+            default:
+                // a change of an added or removed device is no news
+                return previous;
+        }
+    }
+
+    private void dispatchChanges() {
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        synchronized (pendingChanges) {
+            pendingChanges.forEach((name, change) -> {
+                switch (change) {
+                    case ADDED:
+                        added.add(name);
+                        break;
+                    case REMOVED:
+                        removed.add(name);
+                        break;
+                    case READDED:
+                        removed.add(name);
+                        added.add(name);
+                        break;
+                    default:
+                        changed.add(name);
+                }
+            });
+            pendingChanges.clear();
+            batchScheduled = false;
+        }
+        LOGGER.log(Level.INFO, "added: {0}, removed: {1}, changed: {2}",
+                new Object[]{added, removed, changed});
+        try {
+            listener.accept(new Changes(added, removed, changed));
+        } catch (Exception ex) {
+            // don't let an exception kill the (single) monitor thread
+            LOGGER.log(Level.SEVERE, "", ex);
+        }
+    }
+}
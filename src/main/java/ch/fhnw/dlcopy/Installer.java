@@ -2,13 +2,14 @@ package ch.fhnw.dlcopy;
 
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.filecopier.FileCopier;
-import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.IOException;
-import java.util.HashMap;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,8 +20,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
-public class Installer extends InstallerOrUpgrader
-        implements PropertyChangeListener {
+public class Installer extends InstallerOrUpgrader {
 
     private static final Logger LOGGER
             = Logger.getLogger(Installer.class.getName());
@@ -45,6 +45,12 @@ public class Installer extends InstallerOrUpgrader
     private final boolean transferPrinter;
     private final boolean transferFirewall;
     private final boolean checkCopies;
+    private final int maxConcurrentInstallations;
+    private final boolean cloneSystemPartition;
+    private final boolean cloneEfiPartition;
+    private final boolean cloneDataPartition;
+    private final int[] pipelineStageConcurrencies;
+    private volatile boolean concurrentInstallationRunning;
 
     /**
      * creates a new Installer
@@ -86,11 +92,24 @@ public class Installer extends InstallerOrUpgrader
      * @param transferNetwork if the network settings should be transferred
      * @param transferPrinter if the printer settings should be transferred
      * @param transferFirewall if the firewall settings should be transferred
+     * @param maxConcurrentInstallations the maximum number of storage devices
+     * to install in parallel
+     * @param cloneSystemPartition if the system partition should be cloned
+     * from a system partition image instead of copying all files
+     * @param cloneEfiPartition if the EFI partition should be cloned from the
+     * EFI partition of the first finished installation
+     * @param cloneDataPartition if the data partition should be copied by
+     * cloning its file system (when possible) instead of copying all files
+     * @param pipelineStageConcurrencies the number of storage devices that
+     * are processed in parallel in the preparation (partitioning and
+     * formatting), copy and finishing (bootloader and unmounting) stage of the
+     * installation pipeline or <code>null</code>, if no installation pipeline
+     * should be used
      * @param lock the lock to aquire before executing in background
      */
     public Installer(SystemSource source, List<StorageDevice> deviceList,
             String exchangePartitionLabel, String exchangePartitionFileSystem,
-            String dataPartitionFileSystem, HashMap<String, byte[]> digestCache,
+            String dataPartitionFileSystem, DigestCache digestCache,
             DLCopyGUI dlCopyGUI, int exchangePartitionSize,
             boolean copyExchangePartition, String autoNumberPattern,
             int autoNumberStart, int autoNumberIncrement,
@@ -102,7 +121,10 @@ public class Installer extends InstallerOrUpgrader
             DataPartitionMode dataPartitionMode, StorageDevice transferDevice,
             boolean transferExchange, boolean transferHome,
             boolean transferNetwork, boolean transferPrinter,
-            boolean transferFirewall, boolean checkCopies, Lock lock) {
+            boolean transferFirewall, boolean checkCopies,
+            int maxConcurrentInstallations, boolean cloneSystemPartition,
+            boolean cloneEfiPartition, boolean cloneDataPartition,
+            int[] pipelineStageConcurrencies, Lock lock) {
 
         super(source, deviceList, exchangePartitionLabel,
                 exchangePartitionFileSystem, dataPartitionFileSystem,
@@ -128,6 +150,11 @@ public class Installer extends InstallerOrUpgrader
         this.transferNetwork = transferNetwork;
         this.transferPrinter = transferPrinter;
         this.transferFirewall = transferFirewall;
+        this.maxConcurrentInstallations = maxConcurrentInstallations;
+        this.cloneSystemPartition = cloneSystemPartition;
+        this.cloneEfiPartition = cloneEfiPartition;
+        this.cloneDataPartition = cloneDataPartition;
+        this.pipelineStageConcurrencies = pipelineStageConcurrencies;
     }
 
     @Override
@@ -139,49 +166,19 @@ public class Installer extends InstallerOrUpgrader
 
             dlCopyGUI.showInstallProgress();
 
-            String currentExchangePartitionLabel = exchangePartitionLabel;
-            for (StorageDevice storageDevice : deviceList) {
-
-                // update overall progress message
-                dlCopyGUI.installingDeviceStarted(storageDevice);
-
-                // auto numbering
-                if (!autoNumberPattern.isEmpty()) {
-                    String autoNumberString = String.valueOf(autoNumber);
-                    int nrOfPrefixZeros
-                            = autoNumberMinDigits - autoNumberString.length();
-                    for (int i = 0; i < nrOfPrefixZeros; i++) {
-                        autoNumberString = "0" + autoNumberString;
-                    }
-                    currentExchangePartitionLabel
-                            = exchangePartitionLabel.replace(
-                                    autoNumberPattern, autoNumberString);
-                    autoNumber += autoNumberIncrement;
-                }
-
-                String errorMessage = null;
-                try {
-                    DLCopy.copyToStorageDevice(source, fileCopier,
-                            storageDevice, currentExchangePartitionLabel,
-                            this, personalDataPartitionEncryption,
-                            personalEncryptionPassword,
-                            secondaryDataPartitionEncryption,
-                            secondaryEncryptionPassword,
-                            randomFillDataPartition, checkCopies, dlCopyGUI);
-                } catch (InterruptedException | IOException
-                        | DBusException exception) {
-                    LOGGER.log(Level.WARNING, "", exception);
-                    errorMessage = exception.getMessage();
+            if ((pipelineStageConcurrencies != null)
+                    && (deviceListSize > 1)) {
+                installPipelined();
+            } else if ((maxConcurrentInstallations > 1)
+                    && (deviceListSize > 1)) {
+                installConcurrently();
+            } else {
+                for (StorageDevice storageDevice : deviceList) {
+                    String currentExchangePartitionLabel
+                            = getNextExchangePartitionLabel();
+                    install(storageDevice, currentExchangePartitionLabel,
+                            fileCopier, autoNumber);
                 }
-
-                if (transferDevice != null) {
-                    DLCopy.transfer(transferDevice, storageDevice,
-                            transferExchange, transferHome, transferNetwork,
-                            transferPrinter, transferFirewall, checkCopies,
-                            this, dlCopyGUI);
-                }
-
-                dlCopyGUI.installingDeviceFinished(errorMessage, autoNumber);
             }
 
             return null;
@@ -197,17 +194,17 @@ public class Installer extends InstallerOrUpgrader
             inhibit.delete();
         }
 
-        dlCopyGUI.installingListFinished();
-    }
+        digestCache.save();
 
-    @Override
-    public void propertyChange(PropertyChangeEvent evt) {
-        if (ProcessExecutor.LINE.equals(evt.getPropertyName())) {
-            // store current cp progress line
-            // (will be pattern matched later when needed)
-            String line = (String) evt.getNewValue();
-            dlCopyGUI.setInstallCopyLine(line);
+        // the following try-catch block is needed to log otherwise invisible
+        // exceptions
+        try {
+            get();
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "", ex);
         }
+
+        dlCopyGUI.installingListFinished();
     }
 
     @Override
@@ -230,6 +227,15 @@ public class Installer extends InstallerOrUpgrader
         dlCopyGUI.showInstallWritingBootSector();
     }
 
+    @Override
+    public void unmountSourceTmpPartitions() {
+        // the source partitions are still needed by the other installations
+        // (they are unmounted when all installations are finished)
+        if (!concurrentInstallationRunning) {
+            super.unmountSourceTmpPartitions();
+        }
+    }
+
     @Override
     public PartitionSizes getPartitionSizes(StorageDevice storageDevice) {
         return DLCopy.getInstallPartitionSizes(
@@ -258,6 +264,39 @@ public class Installer extends InstallerOrUpgrader
         return copyDataPartition;
     }
 
+    /**
+     * returns true if the system partition should be cloned from a system
+     * partition image, false otherwise
+     *
+     * @return true if the system partition should be cloned from a system
+     * partition image, false otherwise
+     */
+    public boolean isCloneSystemPartitionSelected() {
+        return cloneSystemPartition;
+    }
+
+    /**
+     * returns true if the EFI partition should be cloned from the EFI
+     * partition of the first finished installation, false otherwise
+     *
+     * @return true if the EFI partition should be cloned from the EFI
+     * partition of the first finished installation, false otherwise
+     */
+    public boolean isCloneEfiPartitionSelected() {
+        return cloneEfiPartition;
+    }
+
+    /**
+     * returns true if the data partition should be copied by cloning its file
+     * system (when possible), false otherwise
+     *
+     * @return true if the data partition should be copied by cloning its file
+     * system (when possible), false otherwise
+     */
+    public boolean isCloneDataPartitionSelected() {
+        return cloneDataPartition;
+    }
+
     /**
      * returns the mode for the data partition to set in the bootloaders config
      *
@@ -266,4 +305,211 @@ public class Installer extends InstallerOrUpgrader
     public DataPartitionMode getDataPartitionMode() {
         return dataPartitionMode;
     }
+
+    private void installConcurrently() throws Exception {
+
+        // The auto numbering must not depend on the order in which the
+        // parallel installations start or finish. Therefore we assign all
+        // exchange partition labels in advance in the order of the device
+        // list.
+        List<String> exchangePartitionLabels = new ArrayList<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            exchangePartitionLabels.add(getNextExchangePartitionLabel());
+        }
+        int nextAutoNumber = autoNumber;
+
+        int threadCount = Math.min(maxConcurrentInstallations, deviceListSize);
+        LOGGER.log(Level.INFO, "installing {0} storage devices with {1} "
+                + "parallel installations", new Object[]{
+                    deviceListSize, threadCount});
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(threadCount);
+        // all installations running at the same time share one FanOutCopier
+        // so that the system files are read only once for all of them
+        FanOutCopier fanOutCopier = new FanOutCopier(digestCache);
+        concurrentInstallationRunning = true;
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < deviceListSize; i++) {
+                StorageDevice storageDevice = deviceList.get(i);
+                String currentExchangePartitionLabel
+                        = exchangePartitionLabels.get(i);
+                futures.add(executorService.submit(() -> {
+                    fanOutCopier.register();
+                    try {
+                        install(storageDevice, currentExchangePartitionLabel,
+                                fanOutCopier, nextAutoNumber);
+                    } catch (Exception ex) {
+                        // a failed installation must not abort the other
+                        // installations but must be reported for its
+                        // storage device
+                        dlCopyGUI.installingDeviceFinished(storageDevice,
+                                ex.getMessage(), nextAutoNumber);
+                        throw ex;
+                    } finally {
+                        fanOutCopier.deregister();
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(futures, "installation");
+        } finally {
+            // the source partitions must stay mounted until all
+            // installations are really terminated
+            shutdownAndAwaitTermination(executorService);
+            concurrentInstallationRunning = false;
+            source.unmountTmpPartitions();
+        }
+    }
+
+    private void installPipelined() throws InterruptedException {
+
+        // same as in installConcurrently(): assign all exchange partition
+        // labels in advance in the order of the device list
+        List<PipelineInstallation> installations = new ArrayList<>();
+        for (StorageDevice storageDevice : deviceList) {
+            installations.add(new PipelineInstallation(
+                    storageDevice, getNextExchangePartitionLabel()));
+        }
+        int nextAutoNumber = autoNumber;
+
+        LOGGER.log(Level.INFO, "installing {0} storage devices in a "
+                + "pipeline with {1} preparing, {2} copying and {3} "
+                + "finishing installations", new Object[]{deviceListSize,
+                    pipelineStageConcurrencies[0],
+                    pipelineStageConcurrencies[1],
+                    pipelineStageConcurrencies[2]});
+
+        FanOutCopier fanOutCopier = new FanOutCopier(digestCache);
+        concurrentInstallationRunning = true;
+        try {
+            new StagedPipeline<PipelineInstallation>()
+                    .addStage("prepare", pipelineStageConcurrencies[0],
+                            installation -> {
+                                dlCopyGUI.installingDeviceStarted(
+                                        installation.storageDevice);
+                                prepare(installation);
+                            })
+                    .addStage("copy", pipelineStageConcurrencies[1],
+                            installation -> {
+                                dlCopyGUI.installingDeviceContinued(
+                                        installation.storageDevice);
+                                fanOutCopier.register();
+                                try {
+                                    DLCopy.copyToPreparedStorageDevice(source,
+                                            fanOutCopier,
+                                            installation.destinationPartitions,
+                                            this, checkCopies, dlCopyGUI);
+                                } finally {
+                                    fanOutCopier.deregister();
+                                }
+                            })
+                    .addStage("finish", pipelineStageConcurrencies[2],
+                            installation -> {
+                                dlCopyGUI.installingDeviceContinued(
+                                        installation.storageDevice);
+                                finish(installation);
+                                dlCopyGUI.installingDeviceFinished(
+                                        installation.storageDevice, null,
+                                        nextAutoNumber);
+                            })
+                    .process(installations, (installation, exception)
+                            -> dlCopyGUI.installingDeviceFinished(
+                                    installation.storageDevice,
+                                    exception.getMessage(), nextAutoNumber));
+        } finally {
+            concurrentInstallationRunning = false;
+            source.unmountTmpPartitions();
+        }
+    }
+
+    private void prepare(PipelineInstallation installation)
+            throws InterruptedException, IOException, DBusException {
+        installation.destinationPartitions = DLCopy.prepareStorageDevice(
+                source, installation.storageDevice,
+                installation.exchangePartitionLabel, this,
+                personalDataPartitionEncryption, personalEncryptionPassword,
+                secondaryDataPartitionEncryption, secondaryEncryptionPassword,
+                randomFillDataPartition, dlCopyGUI);
+    }
+
+    private void finish(PipelineInstallation installation)
+            throws IOException, DBusException {
+        DLCopy.finishStorageDevice(source,
+                installation.destinationPartitions, this, dlCopyGUI);
+        if (transferDevice != null) {
+            DLCopy.transfer(transferDevice, installation.storageDevice,
+                    transferExchange, transferHome, transferNetwork,
+                    transferPrinter, transferFirewall, checkCopies,
+                    dlCopyGUI);
+        }
+    }
+
+    private void install(StorageDevice storageDevice,
+            String currentExchangePartitionLabel, FileCopier deviceFileCopier,
+            int autoNumberStart)
+            throws IOException, DBusException, NoSuchAlgorithmException {
+
+        // update overall progress message
+        dlCopyGUI.installingDeviceStarted(storageDevice);
+
+        String errorMessage = null;
+        try {
+            DLCopy.copyToStorageDevice(source, deviceFileCopier,
+                    storageDevice, currentExchangePartitionLabel,
+                    this, personalDataPartitionEncryption,
+                    personalEncryptionPassword,
+                    secondaryDataPartitionEncryption,
+                    secondaryEncryptionPassword,
+                    randomFillDataPartition, checkCopies, dlCopyGUI);
+        } catch (InterruptedException | IOException
+                | DBusException exception) {
+            LOGGER.log(Level.WARNING, "", exception);
+            errorMessage = exception.getMessage();
+        }
+
+        if (transferDevice != null) {
+            DLCopy.transfer(transferDevice, storageDevice,
+                    transferExchange, transferHome, transferNetwork,
+                    transferPrinter, transferFirewall, checkCopies,
+                    dlCopyGUI);
+        }
+
+        dlCopyGUI.installingDeviceFinished(
+                storageDevice, errorMessage, autoNumberStart);
+    }
+
+    private String getNextExchangePartitionLabel() {
+        if (autoNumberPattern.isEmpty()) {
+            return exchangePartitionLabel;
+        }
+        String autoNumberString = String.valueOf(autoNumber);
+        int nrOfPrefixZeros = autoNumberMinDigits - autoNumberString.length();
+        for (int i = 0; i < nrOfPrefixZeros; i++) {
+            autoNumberString = "0" + autoNumberString;
+        }
+        autoNumber += autoNumberIncrement;
+        return exchangePartitionLabel.replace(
+                autoNumberPattern, autoNumberString);
+    }
+
+    // the state of a storage device on its way through the installation
+    // pipeline
+    private static class PipelineInstallation {
+
+        private final StorageDevice storageDevice;
+        private final String exchangePartitionLabel;
+        private DestinationPartitions destinationPartitions;
+
+        public PipelineInstallation(StorageDevice storageDevice,
+                String exchangePartitionLabel) {
+            this.storageDevice = storageDevice;
+            this.exchangePartitionLabel = exchangePartitionLabel;
+        }
+
+        @Override
+        public String toString() {
+            return storageDevice.getFullDevice();
+        }
+    }
 }
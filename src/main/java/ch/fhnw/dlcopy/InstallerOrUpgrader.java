@@ -3,9 +3,16 @@ package ch.fhnw.dlcopy;
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.filecopier.FileCopier;
 import ch.fhnw.util.StorageDevice;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.SwingWorker;
 
 /**
@@ -16,6 +23,9 @@ import javax.swing.SwingWorker;
 public abstract class InstallerOrUpgrader
         extends SwingWorker<Void, Void> {
 
+    private static final Logger LOGGER
+            = Logger.getLogger(InstallerOrUpgrader.class.getName());
+
     /**
      * the system source
      */
@@ -41,6 +51,11 @@ public abstract class InstallerOrUpgrader
      */
     protected final FileCopier fileCopier;
 
+    /**
+     * the global digest cache for speeding up repeated file checks
+     */
+    protected final DigestCache digestCache;
+
     /**
      * the lock to aquire before executing in background
      */
@@ -76,7 +91,7 @@ public abstract class InstallerOrUpgrader
     public InstallerOrUpgrader(SystemSource source,
             List<StorageDevice> deviceList, String exchangePartitionLabel,
             String exhangePartitionFileSystem, String dataPartitionFileSystem,
-            HashMap<String, byte[]> digestCache, DLCopyGUI dlCopyGUI,
+            DigestCache digestCache, DLCopyGUI dlCopyGUI,
             Lock lock) {
 
         this.source = source;
@@ -84,6 +99,7 @@ public abstract class InstallerOrUpgrader
         this.exchangePartitionLabel = exchangePartitionLabel;
         this.exchangePartitionFileSystem = exhangePartitionFileSystem;
         this.dataPartitionFileSystem = dataPartitionFileSystem;
+        this.digestCache = digestCache;
         this.fileCopier = new FileCopier(digestCache);
         this.dlCopyGUI = dlCopyGUI;
         this.lock = lock;
@@ -121,6 +137,14 @@ public abstract class InstallerOrUpgrader
      */
     public abstract void showWritingBootSector();
 
+    /**
+     * unmounts all partitions that were temporarily mounted by the system
+     * source
+     */
+    public void unmountSourceTmpPartitions() {
+        source.unmountTmpPartitions();
+    }
+
     /**
      * returns the selected file system of the exchange partition
      *
@@ -147,4 +171,75 @@ public abstract class InstallerOrUpgrader
     public long getSourceSystemSize() {
         return source.getSystemSize();
     }
+
+    /**
+     * waits until all tasks of a concurrent installation or upgrade are
+     * finished, a failing task does not stop waiting for the other tasks
+     *
+     * @param futures the futures of the tasks, in the same order as the
+     * device list
+     * @param operation the name of the operation, used in log and error
+     * messages
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting
+     * @throws IOException if any task failed, the message names all storage
+     * devices with a failed task
+     */
+    protected void awaitAll(List<Future<Void>> futures, String operation)
+            throws InterruptedException, IOException {
+
+        List<String> failedDevices = new ArrayList<>();
+        Exception firstException = null;
+        for (int i = 0, size = futures.size(); i < size; i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                Exception exception = (cause instanceof Exception)
+                        ? (Exception) cause : ex;
+                String device = deviceList.get(i).getDevice();
+                LOGGER.log(Level.WARNING,
+                        operation + " of " + device + " failed", exception);
+                failedDevices.add(device);
+                if (firstException == null) {
+                    firstException = exception;
+                } else {
+                    firstException.addSuppressed(exception);
+                }
+            }
+        }
+        if (firstException != null) {
+            throw new IOException(operation + " failed on "
+                    + String.join(", ", failedDevices), firstException);
+        }
+    }
+
+    /**
+     * shuts down an executor service and waits until all of its tasks are
+     * terminated (the tasks may still use the temporarily mounted source
+     * partitions or other resources that are released afterwards)
+     *
+     * @param executorService the executor service to terminate
+     */
+    protected static void shutdownAndAwaitTermination(
+            ExecutorService executorService) {
+        executorService.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+                LOGGER.info("waiting for running tasks to terminate...");
+            } catch (InterruptedException ex) {
+                // the resources used by the tasks must not be released
+                // before the tasks are terminated, we just ask them to stop
+                interrupted = true;
+                executorService.shutdownNow();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -96,7 +96,7 @@ public class IsoSystemSource extends SystemSource {
     }
 
     @Override
-    public String getSystemPath() {
+    public synchronized String getSystemPath() {
         mountIsoImageIfNeeded();
         return mediaPath;
     }
@@ -154,13 +154,14 @@ public class IsoSystemSource extends SystemSource {
     }
 
     @Override
-    public String getMbrPath() {
+    public synchronized String getMbrPath() {
         mountSystemImageIfNeeded();
         return rootFsPath + version.getMbrFilePath();
     }
 
     @Override
-    public void installExtlinux(Partition partition) throws IOException {
+    public synchronized void installExtlinux(Partition partition)
+            throws IOException {
         mountSystemImageIfNeeded();
         processExecutor.executeProcess("sync");
         String syslinuxDir = createSyslinuxDir(partition);
@@ -181,7 +182,7 @@ public class IsoSystemSource extends SystemSource {
     }
 
     @Override
-    public void unmountTmpPartitions() {
+    public synchronized void unmountTmpPartitions() {
         if (rootFsPath != null) {
             try {
                 processExecutor.executeScript(String.format(
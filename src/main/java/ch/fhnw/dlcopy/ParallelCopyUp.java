@@ -0,0 +1,233 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.ProcessExecutor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies up all files of directory trees in a union file system (aufs or
+ * overlay) from the read-only lower branches to the writable upper branch.
+ * Directory subtrees are processed in parallel.
+ * <p>
+ * For aufs and overlay it is enough to change the access time of files and
+ * directories to trigger a copy-up. Symbolic links have to be recreated.
+ * Further links to an already copied up hardlinked file are linked to the
+ * copy instead of being copied up again. Special files (named pipes, sockets
+ * and device nodes) can't be opened for changing their access time and are
+ * touched with a single "touch" call at the end. Whiteouts are applied by the
+ * union file system itself, files that were removed in the upper branch are
+ * not visible and therefore not copied up.
+ */
+public class ParallelCopyUp {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ParallelCopyUp.class.getName());
+
+    // the minimal interval between two progress reports in ms
+    private static final long PROGRESS_INTERVAL = 500;
+
+    // the maximum number of special files per "touch" call
+    private static final int TOUCH_BATCH_SIZE = 1000;
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+
+    private final BiConsumer<Long, Long> progressListener;
+    private final LongAdder fileCounter = new LongAdder();
+    private final LongAdder byteCounter = new LongAdder();
+    private final AtomicLong lastProgress = new AtomicLong();
+    private final Map<String, Path> hardLinks = new ConcurrentHashMap<>();
+    private final Queue<Path> specialFiles = new ConcurrentLinkedQueue<>();
+    private FileTime accessTime;
+
+    /**
+     * creates a new ParallelCopyUp
+     *
+     * @param progressListener gets the number of copied up files and bytes,
+     * is called at most every 500 ms from one of the worker threads
+     */
+    public ParallelCopyUp(BiConsumer<Long, Long> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * copies up all files in the given directories (directories that don't
+     * exist are ignored)
+     *
+     * @param directories the directories in the union file system
+     * @throws IOException if copying up a file fails
+     */
+    public void copyUp(List<Path> directories) throws IOException {
+
+        long start = System.currentTimeMillis();
+        accessTime = FileTime.fromMillis(start);
+        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        try {
+            for (Path directory : directories) {
+                if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                    forkJoinPool.invoke(new DirectoryCopyUp(directory));
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        copyUpSpecialFiles();
+
+        long files = fileCounter.sum();
+        long bytes = byteCounter.sum();
+        progressListener.accept(files, bytes);
+        LOGGER.log(Level.INFO, "copied up {0} files ({1} byte) in {2} ms",
+                new Object[]{files, bytes, System.currentTimeMillis() - start});
+    }
+
+    private void copyUpFile(Path path, int mode, Map<String, Object> attributes)
+            throws IOException {
+
+        switch (mode & S_IFMT) {
+            case S_IFLNK:
+                // recreate symbolic link
+                Path target = Files.readSymbolicLink(path);
+                LOGGER.log(Level.FINEST, "recreating symbolic link {0} > {1}",
+                        new Object[]{path, target});
+                Files.delete(path);
+                Files.createSymbolicLink(path, target);
+                break;
+
+            case S_IFREG:
+                if ((Integer) attributes.get("nlink") > 1) {
+                    copyUpHardLink(path, attributes);
+                } else {
+                    changeAccessTime(path);
+                }
+                byteCounter.add((Long) attributes.get("size"));
+                break;
+
+            default:
+                specialFiles.add(path);
+        }
+
+        fileCounter.increment();
+        long now = System.currentTimeMillis();
+        long last = lastProgress.get();
+        if ((now - last >= PROGRESS_INTERVAL)
+                && lastProgress.compareAndSet(last, now)) {
+            progressListener.accept(fileCounter.sum(), byteCounter.sum());
+        }
+    }
+
+    private void copyUpHardLink(Path path, Map<String, Object> attributes)
+            throws IOException {
+        // The first link is copied up, all other links are linked to the
+        // copy. Other links wait in computeIfAbsent() until the first link
+        // is copied up.
+        String key = attributes.get("dev") + ":" + attributes.get("ino");
+        Path firstLink;
+        try {
+            firstLink = hardLinks.computeIfAbsent(key, k -> {
+                try {
+                    changeAccessTime(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return path;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        if (!firstLink.equals(path)) {
+            LOGGER.log(Level.FINEST, "linking {0} to {1}",
+                    new Object[]{path, firstLink});
+            Files.delete(path);
+            Files.createLink(path, firstLink);
+        }
+    }
+
+    private void changeAccessTime(Path path) throws IOException {
+        LOGGER.log(Level.FINEST, "updating access time of {0}", path);
+        BasicFileAttributeView attributeView = Files.getFileAttributeView(
+                path, BasicFileAttributeView.class);
+        attributeView.setTimes(null, accessTime, null);
+    }
+
+    private void copyUpSpecialFiles() throws IOException {
+        List<String> command = new ArrayList<>();
+        while (!specialFiles.isEmpty()) {
+            command.clear();
+            // "-h" changes the times without opening the files
+            command.add("touch");
+            command.add("-a");
+            command.add("-c");
+            command.add("-h");
+            command.add("--");
+            for (int i = 0; (i < TOUCH_BATCH_SIZE) && !specialFiles.isEmpty();
+                    i++) {
+                command.add(specialFiles.poll().toString());
+            }
+            ProcessExecutor processExecutor = new ProcessExecutor();
+            int exitValue = processExecutor.executeProcess(true, true,
+                    command.toArray(new String[command.size()]));
+            if (exitValue != 0) {
+                throw new IOException("could not copy up special files: "
+                        + processExecutor.getStdErr());
+            }
+        }
+    }
+
+    private class DirectoryCopyUp extends RecursiveAction {
+
+        private final Path directory;
+
+        public DirectoryCopyUp(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryCopyUp> subdirectories = new ArrayList<>();
+            try {
+                changeAccessTime(directory);
+                try (DirectoryStream<Path> stream
+                        = Files.newDirectoryStream(directory)) {
+                    for (Path path : stream) {
+                        Map<String, Object> attributes = Files.readAttributes(
+                                path, "unix:mode,nlink,size,dev,ino",
+                                LinkOption.NOFOLLOW_LINKS);
+                        int mode = (Integer) attributes.get("mode");
+                        if ((mode & S_IFMT) == S_IFDIR) {
+                            subdirectories.add(new DirectoryCopyUp(path));
+                        } else {
+                            copyUpFile(path, mode, attributes);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ch.fhnw.dlcopy;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes the contents of a directory tree, directory subtrees are processed
+ * in parallel. This is a replacement for "find &lt;root&gt; ! -regex
+ * &lt;exclude&gt; ... -delete" with the same semantics:
+ * <ul>
+ * <li>the excludes are regular expressions that must match the complete
+ * path</li>
+ * <li>excluded directories are only kept themselves, their contents are
+ * deleted unless also excluded (but see below)</li>
+ * <li>directories that still contain excluded files are kept</li>
+ * <li>the root directory itself is never deleted</li>
+ * <li>files that can't be deleted are skipped, the deletion of all other
+ * files continues and fails at the end</li>
+ * </ul>
+ * Subtrees are skipped completely if their directory matches an exclude that
+ * ends with ".*" because then all paths below also match this exclude.
+ */
+public class ParallelDeleter {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ParallelDeleter.class.getName());
+
+    // the minimal interval between two progress reports in ms
+    private static final long PROGRESS_INTERVAL = 500;
+
+    private final List<Pattern> excludes = new ArrayList<>();
+    private final List<Pattern> subtreeExcludes = new ArrayList<>();
+    private final LongConsumer progressListener;
+    private final LongAdder fileCounter = new LongAdder();
+    private final AtomicLong lastProgress = new AtomicLong();
+    private final Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * creates a new ParallelDeleter
+     *
+     * @param excludes the regular expressions of the paths to keep (must
+     * match the complete path, like "find -regex")
+     * @param progressListener gets the number of deleted files, is called at
+     * most every 500 ms from one of the worker threads
+     */
+    public ParallelDeleter(List<String> excludes,
+            LongConsumer progressListener) {
+        for (String exclude : excludes) {
+            // "find" also matches newlines with "."
+            Pattern pattern = Pattern.compile(exclude, Pattern.DOTALL);
+            this.excludes.add(pattern);
+            if (exclude.endsWith(".*") && !exclude.endsWith("\\.*")) {
+                subtreeExcludes.add(pattern);
+            }
+        }
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * deletes all files below a directory that are not excluded
+     *
+     * @param root the root directory, it is not deleted itself
+     * @return the number of deleted files and directories
+     * @throws IOException if any file or directory could not be deleted or
+     * read
+     */
+    public long delete(Path root) throws IOException {
+        long start = System.currentTimeMillis();
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            LOGGER.log(Level.WARNING, "{0} is no directory", root);
+            return 0;
+        }
+
+        failures.clear();
+        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        try {
+            forkJoinPool.invoke(new DirectoryDeleter(root, true));
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        long files = fileCounter.sum();
+        progressListener.accept(files);
+        LOGGER.log(Level.INFO, "deleted {0} files below {1} in {2} ms",
+                new Object[]{files, root, System.currentTimeMillis() - start});
+        if (!failures.isEmpty()) {
+            throw new IOException("could not delete " + failures.size()
+                    + " file(s) below " + root, failures.peek());
+        }
+        return files;
+    }
+
+    private boolean isExcluded(Path path, List<Pattern> patterns) {
+        String pathString = path.toString();
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(pathString).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteFile(Path path) {
+        LOGGER.log(Level.FINEST, "deleting {0}", path);
+        try {
+            Files.delete(path);
+        } catch (DirectoryNotEmptyException ex) {
+            // there are excluded files below this directory
+            LOGGER.log(Level.FINEST, "keeping {0}", path);
+            return;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "could not delete " + path, ex);
+            failures.add(ex);
+            return;
+        }
+        fileCounter.increment();
+        long now = System.currentTimeMillis();
+        long last = lastProgress.get();
+        if ((now - last >= PROGRESS_INTERVAL)
+                && lastProgress.compareAndSet(last, now)) {
+            progressListener.accept(fileCounter.sum());
+        }
+    }
+
+    private class DirectoryDeleter extends RecursiveAction {
+
+        private final Path directory;
+        private final boolean root;
+
+        public DirectoryDeleter(Path directory, boolean root) {
+            this.directory = directory;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryDeleter> subdirectories = new ArrayList<>();
+            try {
+                try (DirectoryStream<Path> stream
+                        = Files.newDirectoryStream(directory)) {
+                    for (Path path : stream) {
+                        if (Files.isDirectory(
+                                path, LinkOption.NOFOLLOW_LINKS)) {
+                            if (!isExcluded(path, subtreeExcludes)) {
+                                subdirectories.add(
+                                        new DirectoryDeleter(path, false));
+                            }
+                        } else if (!isExcluded(path, excludes)) {
+                            deleteFile(path);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "could not read " + directory, ex);
+                failures.add(ex);
+            }
+
+            invokeAll(subdirectories);
+
+            if (!root && !isExcluded(directory, excludes)) {
+                deleteFile(directory);
+            }
+        }
+    }
+}
@@ -2,8 +2,14 @@ package ch.fhnw.dlcopy;
 
 import ch.fhnw.util.ProcessExecutor;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,34 +32,91 @@ public class PrintingHelper {
      * paper
      */
     public static void print(Path document, int copies, boolean duplex) {
-        if (document.getFileName().toString().toLowerCase().endsWith("pdf")) {
+        if (isPDF(document)) {
             printWithLPR(document, copies, duplex);
-        } else {
-            printWithLibreOffice(document, copies, duplex);
+            return;
+        }
+        try {
+            DocumentConverter documentConverter = new DocumentConverter();
+            try {
+                print(Collections.singletonList(document), copies, duplex,
+                        documentConverter);
+            } finally {
+                documentConverter.cleanup();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
         }
     }
 
-    private static void printWithLibreOffice(
-            Path document, int copies, boolean duplex) {
+    /**
+     * prints several documents in the given order, documents that must be
+     * converted to PDF first are converted in the background while the
+     * previous documents are printed
+     *
+     * @param documents the paths to the document files
+     * @param copies the number of copies to print
+     * @param duplex if the documents should be printed on both sides of the
+     * paper
+     * @param documentConverter the DocumentConverter used for converting
+     * office documents to PDF
+     */
+    public static void print(List<Path> documents, int copies,
+            boolean duplex, DocumentConverter documentConverter) {
+
         /**
          * Unfortunately, command line printing via LibreOffice is very limited.
          * There are no options for the number of copies, collating or duplex
-         * printing. Therefore we first convert the ODT to a PDF and print the
-         * PDF with lpr instead.
+         * printing. Therefore we first convert office documents to PDF and
+         * print the PDF with lpr instead.
          */
+        List<CompletableFuture<Path>> pdfs = new ArrayList<>();
+        List<Path> conversions = new ArrayList<>();
+        List<CompletableFuture<Path>> convertedPdfs = new ArrayList<>();
+        for (Path document : documents) {
+            if (isPDF(document)) {
+                pdfs.add(CompletableFuture.completedFuture(document));
+            } else {
+                CompletableFuture<Path> convertedPdf
+                        = new CompletableFuture<>();
+                pdfs.add(convertedPdf);
+                conversions.add(document);
+                convertedPdfs.add(convertedPdf);
+            }
+        }
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
         try {
-            Path tempDir = Files.createTempDirectory("printingHelper");
-            ProcessExecutor executor = new ProcessExecutor();
-            executor.executeProcess(true, true, "libreoffice",
-                    "--convert-to", "pdf",
-                    "--outdir", tempDir.toString(),
-                    document.toString());
-            printWithLPR(Files.list(tempDir).findFirst().get(), copies, duplex);
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, "", ex);
+            if (!conversions.isEmpty()) {
+                executorService.submit(() -> {
+                    Iterator<CompletableFuture<Path>> iterator
+                            = convertedPdfs.iterator();
+                    try {
+                        documentConverter.convert(conversions,
+                                pdf -> iterator.next().complete(pdf));
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.SEVERE, "", ex);
+                    } finally {
+                        // don't let the printing loop below wait forever
+                        convertedPdfs.forEach(pdf -> pdf.complete(null));
+                    }
+                });
+            }
+            for (CompletableFuture<Path> pdf : pdfs) {
+                Path path = pdf.join();
+                if (path != null) {
+                    printWithLPR(path, copies, duplex);
+                }
+            }
+        } finally {
+            executorService.shutdown();
         }
     }
 
+    private static boolean isPDF(Path document) {
+        return document.getFileName().toString().toLowerCase().endsWith("pdf");
+    }
+
     private static void printWithLPR(
             Path document, int copies, boolean duplex) {
         ProcessExecutor executor = new ProcessExecutor();
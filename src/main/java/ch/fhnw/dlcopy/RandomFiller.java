@@ -0,0 +1,193 @@
+package ch.fhnw.dlcopy;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Fills block devices with random data, e.g. before creating an encrypted
+ * data partition.
+ * <p>
+ * Reading /dev/urandom is far too slow for large storage devices. Therefore
+ * several generator threads produce an AES-CTR keystream (with a random key
+ * from SecureRandom per thread), which is a cryptographically secure
+ * pseudorandom sequence and very fast on all CPUs with AES instructions. The
+ * buffers are handed over to the writer thread via queues, so that generating
+ * the next buffers and writing the current buffer (with direct I/O) overlap.
+ * Every call of {@link #fill(String, long, LongConsumer)} uses its own threads
+ * and buffers, so several devices can be filled in parallel.
+ */
+public class RandomFiller {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(RandomFiller.class.getName());
+    private static final int BUFFER_SIZE = 4 * DLCopy.MEGA;
+    private static final int ALIGNMENT = 4096;
+    // buffers per generator thread (one in work, one waiting to be written)
+    private static final int BUFFERS_PER_GENERATOR = 2;
+    // the keystream is the encryption of zeros
+    private static final byte[] ZEROS = new byte[BUFFER_SIZE];
+
+    private final int generators;
+
+    /**
+     * creates a new RandomFiller that uses one generator thread per available
+     * processor (but at most 4 threads)
+     */
+    public RandomFiller() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * creates a new RandomFiller
+     *
+     * @param generators the number of threads generating random data
+     */
+    public RandomFiller(int generators) {
+        this.generators = Math.max(1, generators);
+    }
+
+    /**
+     * fills a block device with random data
+     *
+     * @param device the block device (e.g. /dev/sdb2)
+     * @param size the number of bytes to write, must be a multiple of the
+     * logical block size of the device
+     * @param progressConsumer a consumer for the number of bytes written so
+     * far, may be <code>null</code>
+     * @throws IOException if an I/O exception occurs
+     */
+    public void fill(String device, long size, LongConsumer progressConsumer)
+            throws IOException {
+
+        long start = System.currentTimeMillis();
+        int bufferCount = generators * BUFFERS_PER_GENERATOR;
+        BlockingQueue<ByteBuffer> emptyBuffers
+                = new ArrayBlockingQueue<>(bufferCount);
+        BlockingQueue<ByteBuffer> filledBuffers
+                = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            emptyBuffers.add(ByteBuffer.allocateDirect(
+                    BUFFER_SIZE + ALIGNMENT).alignedSlice(ALIGNMENT));
+        }
+
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(generators);
+        try {
+            SecureRandom secureRandom = new SecureRandom();
+            Future<?>[] futures = new Future<?>[generators];
+            for (int i = 0; i < generators; i++) {
+                Cipher cipher = createCipher(secureRandom);
+                futures[i] = executorService.submit(() -> {
+                    generate(cipher, emptyBuffers, filledBuffers);
+                    return null;
+                });
+            }
+
+            try (FileChannel channel = FileChannel.open(Paths.get(device),
+                    StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT)) {
+                long written = 0;
+                while (written < size) {
+                    ByteBuffer buffer = takeBuffer(filledBuffers, futures);
+                    // stop exactly at the end of the device
+                    if (size - written < buffer.remaining()) {
+                        buffer.limit((int) (size - written));
+                    }
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, written);
+                    }
+                    emptyBuffers.add(buffer);
+                    if (progressConsumer != null) {
+                        progressConsumer.accept(written);
+                    }
+                }
+                channel.force(true);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        long time = System.currentTimeMillis() - start;
+        LOGGER.log(Level.INFO, "filled {0} with {1} byte of random data "
+                + "in {2} ms ({3} MiB/s)", new Object[]{device, size, time,
+                    time == 0 ? "-" : (size * 1000 / DLCopy.MEGA) / time});
+    }
+
+    private static Cipher createCipher(SecureRandom secureRandom)
+            throws IOException {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        secureRandom.nextBytes(key);
+        secureRandom.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                    new IvParameterSpec(iv));
+            return cipher;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("could not create random generator", ex);
+        }
+    }
+
+    private static void generate(Cipher cipher,
+            BlockingQueue<ByteBuffer> emptyBuffers,
+            BlockingQueue<ByteBuffer> filledBuffers)
+            throws InterruptedException, GeneralSecurityException {
+        byte[] keystream = new byte[BUFFER_SIZE];
+        while (!Thread.currentThread().isInterrupted()) {
+            ByteBuffer buffer = emptyBuffers.take();
+            // the array based update() uses the AES intrinsics of the JVM
+            cipher.update(ZEROS, 0, BUFFER_SIZE, keystream);
+            buffer.clear();
+            buffer.put(keystream);
+            buffer.flip();
+            filledBuffers.put(buffer);
+        }
+    }
+
+    private static ByteBuffer takeBuffer(BlockingQueue<ByteBuffer> buffers,
+            Future<?>[] futures) throws IOException {
+        try {
+            while (true) {
+                ByteBuffer buffer = buffers.poll(1, TimeUnit.SECONDS);
+                if (buffer != null) {
+                    return buffer;
+                }
+                // a generator thread can only end with an exception
+                for (Future<?> future : futures) {
+                    if (future.isDone()) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException ex) {
+                            throw new IOException(
+                                    "generating random data failed",
+                                    ex.getCause());
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("filling with random data was interrupted",
+                    ex);
+        }
+    }
+}
@@ -12,24 +12,30 @@ import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.function.BiPredicate;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 import javax.swing.SwingWorker;
 import org.freedesktop.dbus.exceptions.DBusException;
 
@@ -62,6 +68,9 @@ public class Resetter extends SwingWorker<Boolean, Void> {
     private static final Logger LOGGER
             = Logger.getLogger(Resetter.class.getName());
 
+    // the maximum number of exchange partitions searched in parallel
+    private static final int MAX_DOCUMENT_SCANS = 4;
+
     private final DLCopyGUI dlCopyGUI;
     private final List<StorageDevice> deviceList;
     private final String bootDeviceName;
@@ -79,6 +88,8 @@ public class Resetter extends SwingWorker<Boolean, Void> {
     private final boolean printXLSX;
     private final boolean printPPT;
     private final boolean printPPTX;
+    // the suffixes of the documents to print
+    private final Set<String> printSuffixes = new LinkedHashSet<>();
     private final AutoPrintMode autoPrintMode;
     private final int printCopies;
     private final boolean printDuplex;
@@ -97,10 +108,17 @@ public class Resetter extends SwingWorker<Boolean, Void> {
     private final boolean resetSystem;
     private final boolean restoreData;
     private final List<OverwriteEntry> overwriteEntries;
+    private final int maxConcurrentResets;
     private final Lock lock;
+    // printing (including all dialogs) is serialized even when several
+    // storage devices are reset in parallel
+    private final Lock printLock = new ReentrantLock();
+    private final Map<StorageDevice, Future<DocumentScanner.Documents>>
+            documentScans = new HashMap<>();
+    private ExecutorService documentScanExecutor;
+    private DocumentConverter documentConverter;
 
     private int deviceListSize;
-    private int batchCounter;
 
     /**
      * creates a new Resetter
@@ -152,6 +170,8 @@ public class Resetter extends SwingWorker<Boolean, Void> {
      * @param restoreData if data should be restored at all
      * @param overwriteEntries the list of entries to overwrite (if restoreData
      * is true)
+     * @param maxConcurrentResets the maximum number of storage devices to
+     * reset in parallel
      * @param lock the lock to aquire before executing in background
      */
     public Resetter(DLCopyGUI dlCopyGUI, List<StorageDevice> deviceList,
@@ -170,7 +190,8 @@ public class Resetter extends SwingWorker<Boolean, Void> {
             String newExchangePartitionLabel, boolean deleteOnDataPartition,
             boolean formatDataPartition, String dataPartitionFileSystem,
             boolean resetHome, boolean resetSystem, boolean restoreData,
-            List<OverwriteEntry> overwriteEntries, Lock lock) {
+            List<OverwriteEntry> overwriteEntries, int maxConcurrentResets,
+            Lock lock) {
 
         this.dlCopyGUI = dlCopyGUI;
         this.deviceList = deviceList;
@@ -188,6 +209,16 @@ public class Resetter extends SwingWorker<Boolean, Void> {
         this.printXLSX = printXLSX;
         this.printPPT = printPPT;
         this.printPPTX = printPPTX;
+        addPrintSuffix(printODT, "odt");
+        addPrintSuffix(printODS, "ods");
+        addPrintSuffix(printODP, "odp");
+        addPrintSuffix(printPDF, "pdf");
+        addPrintSuffix(printDOC, "doc");
+        addPrintSuffix(printDOCX, "docx");
+        addPrintSuffix(printXLS, "xls");
+        addPrintSuffix(printXLSX, "xlsx");
+        addPrintSuffix(printPPT, "ppt");
+        addPrintSuffix(printPPTX, "pptx");
         this.autoPrintMode = autoPrintMode;
         this.printCopies = printCopies;
         this.printDuplex = printDuplex;
@@ -206,6 +237,7 @@ public class Resetter extends SwingWorker<Boolean, Void> {
         this.resetSystem = resetSystem;
         this.restoreData = restoreData;
         this.overwriteEntries = overwriteEntries;
+        this.maxConcurrentResets = maxConcurrentResets;
         this.lock = lock;
     }
 
@@ -221,13 +253,38 @@ public class Resetter extends SwingWorker<Boolean, Void> {
 
             deviceListSize = deviceList.size();
 
-            for (StorageDevice storageDevice : deviceList) {
-                resetStorageDevice(storageDevice);
+            // The documents on all exchange partitions are searched in the
+            // background while the storage devices are reset one by one.
+            if (printDocuments) {
+                // one converter for all storage devices keeps its
+                // LibreOffice profile warm
+                documentConverter = new DocumentConverter();
+                documentScanExecutor = Executors.newFixedThreadPool(
+                        Math.min(deviceListSize, MAX_DOCUMENT_SCANS));
+                for (StorageDevice storageDevice : deviceList) {
+                    documentScans.put(storageDevice,
+                            documentScanExecutor.submit(
+                                    () -> scanDocuments(storageDevice)));
+                }
+            }
+
+            if ((maxConcurrentResets > 1) && (deviceListSize > 1)) {
+                resetConcurrently();
+            } else {
+                for (int i = 0; i < deviceListSize; i++) {
+                    resetStorageDevice(deviceList.get(i), i + 1);
+                }
             }
 
             return true;
 
         } finally {
+            if (documentScanExecutor != null) {
+                documentScanExecutor.shutdownNow();
+            }
+            if (documentConverter != null) {
+                documentConverter.cleanup();
+            }
             LOGGER.info("releasing lock...");
             lock.unlock();
             LOGGER.info("unlocked");
@@ -246,13 +303,56 @@ public class Resetter extends SwingWorker<Boolean, Void> {
         }
     }
 
-    private void resetStorageDevice(StorageDevice storageDevice)
+    private void resetConcurrently() throws Exception {
+
+        int threadCount = Math.min(maxConcurrentResets, deviceListSize);
+        LOGGER.log(Level.INFO, "resetting {0} storage devices with {1} "
+                + "parallel resets", new Object[]{
+                    deviceListSize, threadCount});
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < deviceListSize; i++) {
+                StorageDevice storageDevice = deviceList.get(i);
+                int batchCounter = i + 1;
+                futures.add(executorService.submit(() -> {
+                    resetStorageDevice(storageDevice, batchCounter);
+                    return null;
+                }));
+            }
+            // A failed reset must not abort the resets of the other storage
+            // devices (as it does when resetting sequentially), therefore we
+            // wait for all resets before reporting the first error.
+            Exception firstException = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    Exception exception = (cause instanceof Exception)
+                            ? (Exception) cause : ex;
+                    if (firstException == null) {
+                        firstException = exception;
+                    }
+                }
+            }
+            if (firstException != null) {
+                throw firstException;
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void resetStorageDevice(StorageDevice storageDevice,
+            int batchCounter)
             throws DBusException, IOException, NoSuchAlgorithmException {
 
+        String resetError = null;
         try {
             dlCopyGUI.resettingDeviceStarted(storageDevice);
 
-            batchCounter++;
             LOGGER.log(Level.INFO,
                     "resetting storage device: {0} of {1} ({2})",
                     new Object[]{
@@ -262,7 +362,12 @@ public class Resetter extends SwingWorker<Boolean, Void> {
             Partition exchangePartition = storageDevice.getExchangePartition();
             Partition dataPartition = storageDevice.getDataPartition();
 
-            printDocuments(storageDevice, exchangePartition);
+            printLock.lock();
+            try {
+                printDocuments(storageDevice, exchangePartition);
+            } finally {
+                printLock.unlock();
+            }
             try {
                 backup(storageDevice, exchangePartition);
             } catch (Exception exception) {
@@ -286,6 +391,16 @@ public class Resetter extends SwingWorker<Boolean, Void> {
                         batchCounter, deviceListSize, storageDevice
                     });
 
+        } catch (Exception exception) {
+            // don't catch more specific exceptions, otherwise we will miss
+            // occuring runtime exceptions
+            LOGGER.log(Level.WARNING, "", exception);
+            resetError = exception.getMessage();
+            if (resetError == null) {
+                resetError = exception.toString();
+            }
+            throw exception;
+
         } finally {
             if (!storageDevice.getDevice().equals(bootDeviceName)) {
                 // Unmount *all* partitions so that the user doesn't have to
@@ -294,6 +409,7 @@ public class Resetter extends SwingWorker<Boolean, Void> {
                     DLCopy.umount(partition, dlCopyGUI);
                 }
             }
+            dlCopyGUI.resettingDeviceFinished(storageDevice, resetError);
         }
     }
 
@@ -337,28 +453,26 @@ public class Resetter extends SwingWorker<Boolean, Void> {
             throw new IOException(printDirectories + " don't exist");
         }
 
-        // search, collect and print wanted documents
+        // collect and print wanted documents
+        DocumentScanner.Documents documents = getDocuments(storageDevice);
         switch (autoPrintMode) {
             case ALL:
-                for (Path document : getAllDocuments(mountInfo, printDirs)) {
-                    PrintingHelper.print(document, printCopies, printDuplex);
-                }
+                print(documents.getDocuments(printSuffixes));
                 break;
 
             case SINGLE:
-                autoPrintSingleTypes(mountInfo, printDirs);
+                autoPrintSingleTypes(mountInfo, documents);
                 break;
 
             case NONE:
-                List<Path> documents = getAllDocuments(mountInfo, printDirs);
-                if (!documents.isEmpty()) {
+                List<Path> allDocuments
+                        = documents.getDocuments(printSuffixes);
+                if (!allDocuments.isEmpty()) {
                     List<Path> selectedDocuments
                             = dlCopyGUI.selectDocumentsToPrint(null/*no type*/,
-                                    mountInfo.getMountPath(), documents);
+                                    mountInfo.getMountPath(), allDocuments);
                     if (selectedDocuments != null) {
-                        selectedDocuments.forEach(document
-                                -> PrintingHelper.print(document,
-                                        printCopies, printDuplex));
+                        print(selectedDocuments);
                     }
                 }
                 break;
@@ -369,162 +483,127 @@ public class Resetter extends SwingWorker<Boolean, Void> {
         }
     }
 
-    private void autoPrintType(MountInfo mountInfo, String[] printDirs,
-            String type, String suffix) throws IOException {
+    private void autoPrintType(MountInfo mountInfo,
+            DocumentScanner.Documents allDocuments, String type,
+            String suffix, List<Path> printList) {
 
-        List<Path> documents = getAllDocumentsOfType(
-                mountInfo, printDirs, suffix);
+        List<Path> documents = allDocuments.getDocuments(suffix);
 
         switch (documents.size()) {
             case 0:
                 LOGGER.log(Level.WARNING, "found no {0} file to print", suffix);
                 break;
             case 1:
-                PrintingHelper.print(
-                        documents.get(0), printCopies, printDuplex);
+                printList.add(documents.get(0));
                 break;
             default:
                 List<Path> selectedDocuments = dlCopyGUI.selectDocumentsToPrint(
                         DLCopy.STRINGS.getString(type),
                         mountInfo.getMountPath(), documents);
                 if (selectedDocuments != null) {
-                    selectedDocuments.forEach(document -> PrintingHelper.print(
-                            document, printCopies, printDuplex));
+                    printList.addAll(selectedDocuments);
                 }
         }
     }
 
-    private void autoPrintSingleTypes(MountInfo mountInfo, String[] printDirs)
-            throws IOException {
+    private void print(List<Path> documents) {
+        PrintingHelper.print(
+                documents, printCopies, printDuplex, documentConverter);
+    }
+
+    private void autoPrintSingleTypes(MountInfo mountInfo,
+            DocumentScanner.Documents documents) {
+
+        // all documents are printed together after selecting them so that
+        // the office documents are converted in as few batches as possible
+        List<Path> printList = new ArrayList<>();
 
         if (printODT) {
-            autoPrintType(mountInfo, printDirs, "OpenDocument_Text", "odt");
+            autoPrintType(mountInfo, documents,
+                    "OpenDocument_Text", "odt", printList);
         }
         if (printODS) {
-            autoPrintType(mountInfo, printDirs,
-                    "OpenDocument_Spreadsheet", "ods");
+            autoPrintType(mountInfo, documents,
+                    "OpenDocument_Spreadsheet", "ods", printList);
         }
         if (printODP) {
-            autoPrintType(mountInfo, printDirs,
-                    "OpenDocument_Presentation", "odp");
+            autoPrintType(mountInfo, documents,
+                    "OpenDocument_Presentation", "odp", printList);
         }
         if (printPDF) {
-            autoPrintType(mountInfo, printDirs,
-                    "Portable_Document_Format", "pdf");
+            autoPrintType(mountInfo, documents,
+                    "Portable_Document_Format", "pdf", printList);
         }
         if (printDOC) {
-            autoPrintType(mountInfo, printDirs, "MS_Word", "doc");
+            autoPrintType(mountInfo, documents, "MS_Word", "doc", printList);
         }
         if (printDOCX) {
-            autoPrintType(mountInfo, printDirs, "MS_Word", "docx");
+            autoPrintType(mountInfo, documents, "MS_Word", "docx", printList);
         }
         if (printXLS) {
-            autoPrintType(mountInfo, printDirs, "MS_Excel", "xls");
+            autoPrintType(mountInfo, documents, "MS_Excel", "xls", printList);
         }
         if (printXLSX) {
-            autoPrintType(mountInfo, printDirs, "MS_Excel", "xlsx");
+            autoPrintType(mountInfo, documents, "MS_Excel", "xlsx", printList);
         }
         if (printPPT) {
-            autoPrintType(mountInfo, printDirs, "MS_PowerPoint", "ppt");
+            autoPrintType(mountInfo, documents,
+                    "MS_PowerPoint", "ppt", printList);
         }
         if (printPPTX) {
-            autoPrintType(mountInfo, printDirs, "MS_PowerPoint", "pptx");
+            autoPrintType(mountInfo, documents,
+                    "MS_PowerPoint", "pptx", printList);
         }
-    }
 
-    private List<Path> getAllDocumentsOfType(MountInfo mountInfo,
-            String[] printDirs, String suffix) throws IOException {
-
-        List<Path> documents = new ArrayList<>();
+        print(printList);
+    }
 
-        String mountPath = mountInfo.getMountPath();
-        for (String printDir : printDirs) {
-            Path printDirPath = Paths.get(mountPath, printDir);
-            documents.addAll(searchDocuments(printDirPath, suffix));
+    private void addPrintSuffix(boolean print, String suffix) {
+        if (print) {
+            printSuffixes.add(suffix);
         }
-
-        return documents;
     }
 
-    private List<Path> getAllDocuments(MountInfo mountInfo, String[] printDirs)
-            throws IOException {
+    private DocumentScanner.Documents scanDocuments(
+            StorageDevice storageDevice) throws DBusException, IOException {
 
-        List<Path> documents = new ArrayList<>();
-
-        String mountPath = mountInfo.getMountPath();
-        for (String printDir : printDirs) {
-            Path printDirPath = Paths.get(mountPath, printDir);
-            if (printODT) {
-                documents.addAll(searchDocuments(printDirPath, "odt"));
-            }
-            if (printODS) {
-                documents.addAll(searchDocuments(printDirPath, "ods"));
-            }
-            if (printODP) {
-                documents.addAll(searchDocuments(printDirPath, "odp"));
-            }
-            if (printPDF) {
-                documents.addAll(searchDocuments(printDirPath, "pdf"));
-            }
-            if (printDOC) {
-                documents.addAll(searchDocuments(printDirPath, "doc"));
-            }
-            if (printDOCX) {
-                documents.addAll(searchDocuments(printDirPath, "docx"));
-            }
-            if (printXLS) {
-                documents.addAll(searchDocuments(printDirPath, "xls"));
-            }
-            if (printXLSX) {
-                documents.addAll(searchDocuments(printDirPath, "xlsx"));
-            }
-            if (printPPT) {
-                documents.addAll(searchDocuments(printDirPath, "ppt"));
-            }
-            if (printPPTX) {
-                documents.addAll(searchDocuments(printDirPath, "pptx"));
-            }
+        Partition exchangePartition = storageDevice.getExchangePartition();
+        if (exchangePartition == null) {
+            return null;
         }
-
-        return documents;
+        String mountPath = exchangePartition.mount().getMountPath();
+        List<Path> printDirPaths = new ArrayList<>();
+        for (String printDir
+                : printDirectories.split(System.lineSeparator())) {
+            printDirPaths.add(Paths.get(mountPath, printDir));
+        }
+        DocumentScanner documentScanner = new DocumentScanner(
+                printSuffixes, scanDirectoriesRecursively);
+        return documentScanner.scan(printDirPaths);
     }
 
-    private List<Path> searchDocuments(Path printDirPath, String suffix)
-            throws IOException {
+    private DocumentScanner.Documents getDocuments(StorageDevice storageDevice)
+            throws DBusException, IOException {
 
-        List<Path> documents = new ArrayList<>();
-
-        if (scanDirectoriesRecursively) {
-            BiPredicate<Path, BasicFileAttributes> predicate = (path, attributes)
-                    -> path.toString().toLowerCase().endsWith(
-                            suffix.toLowerCase());
-            try (Stream<Path> stream
-                    = Files.find(printDirPath, Integer.MAX_VALUE, predicate)) {
-                stream.forEach(path -> {
-                    LOGGER.log(Level.INFO, "found {0} to print: {1}",
-                            new Object[]{suffix, path});
-                    documents.add(path);
-                });
-            } catch (NoSuchFileException e) {
-                // not important, sanity check is done earlier
-                LOGGER.log(Level.INFO, "", e);
+        Future<DocumentScanner.Documents> documentScan
+                = documentScans.get(storageDevice);
+        if (documentScan == null) {
+            return scanDocuments(storageDevice);
+        }
+        try {
+            return documentScan.get();
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-
-        } else {
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(
-                    printDirPath, new MyFilter(suffix))) {
-                for (Path path : stream) {
-                    LOGGER.log(Level.INFO, "found {0} to print: {1}",
-                            new Object[]{suffix, path});
-                    documents.add(path);
-                }
-            } catch (NoSuchFileException e) {
-                // not important, sanity check is done earlier
-                LOGGER.log(Level.INFO, "", e);
+            if (cause instanceof DBusException) {
+                throw (DBusException) cause;
             }
+            throw new IOException(cause);
         }
-
-        return documents;
     }
 
     private void backup(StorageDevice storageDevice,
@@ -611,15 +690,38 @@ public class Resetter extends SwingWorker<Boolean, Void> {
 
         ProcessExecutor processExecutor = new ProcessExecutor();
         String cleanupRoot = null;
+        boolean removeAllFiles = !formatDataPartition
+                && resetSystem && resetHome;
+
+        if (removeAllFiles) {
+            // A btrfs data partition with a golden snapshot (captured after
+            // installation) is reset by replacing its root subvolume with a
+            // fresh snapshot. This takes constant time and also restores the
+            // original state of "/home/user/".
+            dlCopyGUI.showResetRemovingFiles();
+            if (DLCopy.umount(dataPartition, dlCopyGUI)
+                    && DLCopy.resetToGoldenSnapshot(dataPartition)) {
+                return;
+            }
+        }
 
-        if (formatDataPartition) {
+        // When removing all files from the data partition nothing is kept
+        // that formatting wouldn't recreate ("/lost+found/" and
+        // "persistence.conf"). Formatting is then much faster than deleting
+        // all files one by one.
+        if (formatDataPartition
+                || (removeAllFiles && canReformat(dataPartition))) {
             // format data partition
             dlCopyGUI.showResetFormattingDataPartition();
 
+            // keep the current file system when only removing files
+            String fileSystem = formatDataPartition
+                    ? dataPartitionFileSystem : dataPartition.getIdType();
+
             // TODO: support encryption
             DLCopy.formatPersistencePartition(
                     dataPartition.getFullDeviceAndNumber(), false, null,
-                    false, null, false, dataPartitionFileSystem, dlCopyGUI);
+                    false, null, false, fileSystem, dlCopyGUI);
 
             cleanupRoot = dataPartition.mount().getMountPath() + "/rw";
 
@@ -634,31 +736,26 @@ public class Resetter extends SwingWorker<Boolean, Void> {
                 // Debian 9 and newer
                 cleanupRoot = mountPoint + "/rw";
             }
-            if (resetSystem && resetHome) {
+            if (removeAllFiles) {
                 // remove all files
                 // but keep "/lost+found/" and "persistence.conf"
-                processExecutor.executeProcess("find", mountPoint,
-                        "!", "-regex", mountPoint,
-                        "!", "-regex", mountPoint + "/lost\\+found",
-                        "!", "-regex", mountPoint + "/persistence.conf",
-                        "-delete");
-            } else {
-                if (resetSystem) {
-                    // remove all files but keep
-                    // "/lost+found/", "persistence.conf" and "/home/"
-                    processExecutor.executeProcess("find", mountPoint,
-                            "!", "-regex", mountPoint,
-                            "!", "-regex", cleanupRoot,
-                            "!", "-regex", mountPoint + "/lost\\+found",
-                            "!", "-regex", mountPoint + "/persistence.conf",
-                            "!", "-regex", cleanupRoot + "/home.*",
-                            "-delete");
-                }
-                if (resetHome) {
-                    // only remove "/home/user/"
-                    processExecutor.executeProcess(
-                            "rm", "-rf", cleanupRoot + "/home/user/");
-                }
+                deleteFiles(Paths.get(mountPoint), Arrays.asList(
+                        mountPoint + "/lost\\+found",
+                        mountPoint + "/persistence.conf"));
+            } else if (resetSystem) {
+                // remove all files but keep
+                // "/lost+found/", "persistence.conf" and "/home/"
+                deleteFiles(Paths.get(mountPoint), Arrays.asList(
+                        cleanupRoot,
+                        mountPoint + "/lost\\+found",
+                        mountPoint + "/persistence.conf",
+                        cleanupRoot + "/home.*"));
+            }
+            if (resetHome && !removeAllFiles) {
+                // only remove "/home/user/"
+                Path homePath = Paths.get(cleanupRoot, "home", "user");
+                deleteFiles(homePath, Collections.emptyList());
+                Files.deleteIfExists(homePath);
             }
         }
 
@@ -710,6 +807,38 @@ public class Resetter extends SwingWorker<Boolean, Void> {
         }
     }
 
+    /**
+     * checks if removing all files from a data partition can be replaced by
+     * formatting it
+     *
+     * @param dataPartition the data partition
+     * @return <code>true</code>, if the data partition is unencrypted and has
+     * the "/rw" layout of Debian 9 and newer, <code>false</code> otherwise
+     */
+    private boolean canReformat(Partition dataPartition)
+            throws DBusException, IOException {
+        // formatting would silently drop the encryption
+        if ("crypto_LUKS".equals(dataPartition.getIdType())) {
+            return false;
+        }
+        // the Debian 8 layout (home directly in the partition root) is
+        // handled by the deletion below
+        MountInfo mountInfo = dataPartition.mount();
+        boolean rwLayout = !Files.exists(
+                Paths.get(mountInfo.getMountPath(), "home"));
+        if (!mountInfo.alreadyMounted()) {
+            DLCopy.umount(dataPartition, dlCopyGUI);
+        }
+        return rwLayout;
+    }
+
+    private void deleteFiles(Path root, List<String> excludes)
+            throws IOException {
+        ParallelDeleter parallelDeleter = new ParallelDeleter(excludes,
+                (files) -> dlCopyGUI.setResetDeleteProgress(files));
+        parallelDeleter.delete(root);
+    }
+
     private void restoreFiles(Partition dataPartition)
             throws IOException, DBusException, NoSuchAlgorithmException {
 
@@ -754,20 +883,4 @@ public class Resetter extends SwingWorker<Boolean, Void> {
             executor.executeProcess("chown", "-R", "user.user", destination);
         }
     }
-
-    // our own filter that is always case insensitive
-    private class MyFilter implements DirectoryStream.Filter<Path> {
-
-        private final String pattern;
-
-        public MyFilter(String pattern) {
-            this.pattern = pattern;
-        }
-
-        @Override
-        public boolean accept(Path path) throws IOException {
-            return path.toString().toLowerCase().endsWith(
-                    pattern.toLowerCase());
-        }
-    }
 }
@@ -0,0 +1,542 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates squashfs layers that update an older system to the system of a
+ * source. A layer only contains the files that were added or changed in the
+ * source and whiteouts for the files that were removed. live-boot stacks the
+ * layer on top of the older images, therefore an upgrade only has to write
+ * the layer instead of the complete system.
+ * <p>
+ * Every layer is only created once for every older system and then reused
+ * for all storage devices with the same older system.
+ * <p>
+ * Package updates may keep the size and modification time of a file,
+ * therefore files with equal attributes are still compared byte by byte and
+ * their extended attributes (e.g. file capabilities) are compared, too.
+ */
+public class SquashFSLayerCreator {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SquashFSLayerCreator.class.getName());
+
+    // the attributes that must be equal for an unchanged file
+    private static final String COMPARED_ATTRIBUTES
+            = "unix:mode,uid,gid,size,lastModifiedTime";
+
+    private final SystemSource source;
+    private final Map<String, SystemLayer> layers = new HashMap<>();
+    private File tmpDirectory;
+
+    /**
+     * creates a new SquashFSLayerCreator
+     *
+     * @param source the system source
+     */
+    public SquashFSLayerCreator(SystemSource source) {
+        this.source = source;
+    }
+
+    /**
+     * returns the layer that updates an older system to the system of the
+     * source
+     *
+     * @param systemPath the path where the older system is mounted
+     * @param images the squashfs images of the older system (relative to the
+     * system path and in the order they are stacked by live-boot)
+     * @param key a key that uniquely identifies the older system, e.g. the
+     * MD5 sums of its images
+     * @return the layer or <code>null</code>, if there are no differences,
+     * the layer could not be created or the layer would be too large
+     */
+    public synchronized SystemLayer getLayer(
+            String systemPath, List<String> images, String key) {
+        if (layers.containsKey(key)) {
+            LOGGER.log(Level.INFO, "reusing system layer {0}", layers.get(key));
+            return layers.get(key);
+        }
+        SystemLayer layer = null;
+        try {
+            layer = createLayer(systemPath, images);
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            LOGGER.log(Level.WARNING, "could not create system layer", ex);
+        }
+        layers.put(key, layer);
+        return layer;
+    }
+
+    /**
+     * removes all created layers
+     */
+    public synchronized void cleanup() {
+        layers.clear();
+        if (tmpDirectory != null) {
+            LernstickFileTools.recursiveDelete(tmpDirectory, true);
+            tmpDirectory = null;
+        }
+    }
+
+    /**
+     * returns the MD5 sum of a file
+     *
+     * @param file the file
+     * @return the MD5 sum of the file as hex string
+     * @throws IOException if reading the file fails
+     * @throws NoSuchAlgorithmException if there is no MD5 implementation
+     */
+    public static String getMd5Sum(File file)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[DLCopy.MEGA];
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            for (int read = inputStream.read(buffer); read != -1;
+                    read = inputStream.read(buffer)) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder stringBuilder = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            stringBuilder.append(String.format("%02x", b));
+        }
+        return stringBuilder.toString();
+    }
+
+    private SystemLayer createLayer(String systemPath, List<String> images)
+            throws IOException, NoSuchAlgorithmException {
+
+        if (tmpDirectory == null) {
+            tmpDirectory = Files.createTempDirectory("dlcopy-layers").toFile();
+        }
+        String layerPath = "live/filesystem.layer" + images.size()
+                + ".squashfs";
+        if (images.contains(layerPath)) {
+            LOGGER.log(Level.WARNING, "{0} already exists", layerPath);
+            return null;
+        }
+        File workDirectory = Files.createTempDirectory(
+                tmpDirectory.toPath(), "layer").toFile();
+        File baseDirectory = new File(workDirectory, "base");
+        File layerFile = new File(baseDirectory, layerPath);
+        if (!layerFile.getParentFile().mkdirs()) {
+            throw new IOException(
+                    "could not create " + layerFile.getParentFile());
+        }
+        File excludeFile = new File(workDirectory, "exclude");
+        File pseudoFile = new File(workDirectory, "pseudo");
+
+        List<String> mountPoints = new ArrayList<>();
+        try {
+            String sourcePath = source.getSystemPath();
+            Path newRoot = mountSystem(sourcePath,
+                    SystemSource.getSystemImages(sourcePath), mountPoints);
+            Path oldRoot = mountSystem(systemPath, images, mountPoints);
+
+            long start = System.currentTimeMillis();
+            int changes = compare(newRoot, oldRoot, excludeFile, pseudoFile);
+            LOGGER.log(Level.INFO, "found {0} changes in {1} ms",
+                    new Object[]{changes, System.currentTimeMillis() - start});
+            if (changes == 0) {
+                return null;
+            }
+
+            // create the layer from the complete new system without the
+            // unchanged files and with the whiteouts of the removed files
+            ProcessExecutor processExecutor = new ProcessExecutor();
+            int exitValue = processExecutor.executeProcess(true, true,
+                    "mksquashfs", newRoot.toString(), layerFile.getPath(),
+                    "-noappend", "-comp", "zstd", "-Xcompression-level", "22",
+                    "-ef", excludeFile.getPath(), "-pf", pseudoFile.getPath());
+            if (exitValue != 0) {
+                LOGGER.log(Level.SEVERE, processExecutor.getStdErr());
+                throw new IOException(DLCopy.STRINGS.getString(
+                        "Error_Creating_Squashfs") + ": " + exitValue);
+            }
+        } finally {
+            Collections.reverse(mountPoints);
+            for (String mountPoint : mountPoints) {
+                umount(mountPoint);
+            }
+        }
+
+        // A layer that is not much smaller than the complete system is not
+        // worth it, the system should better be compacted again.
+        long layerSize = layerFile.length();
+        if (layerSize > source.getSystemSize() / 2) {
+            LOGGER.log(Level.INFO, "system layer is too large ({0} byte)",
+                    layerSize);
+            Files.delete(layerFile.toPath());
+            return null;
+        }
+
+        SystemLayer layer = new SystemLayer(
+                baseDirectory, layerPath, getMd5Sum(layerFile));
+        LOGGER.log(Level.INFO, "created system layer {0} ({1} byte)",
+                new Object[]{layer, layerSize});
+        return layer;
+    }
+
+    private Path mountSystem(String systemPath, List<String> images,
+            List<String> mountPoints) throws IOException {
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        List<String> lowerDirs = new ArrayList<>();
+        for (String image : images) {
+            String mountPoint = Files.createTempDirectory(
+                    tmpDirectory.toPath(), "image").toString();
+            int exitValue = processExecutor.executeProcess(true, true,
+                    "mount", "-o", "loop,ro", systemPath + '/' + image,
+                    mountPoint);
+            if (exitValue != 0) {
+                throw new IOException("could not mount " + image);
+            }
+            mountPoints.add(mountPoint);
+            // overlay lists the upper directories first
+            lowerDirs.add(0, mountPoint);
+        }
+
+        if (lowerDirs.size() == 1) {
+            return Paths.get(lowerDirs.get(0));
+        }
+
+        String mountPoint = Files.createTempDirectory(
+                tmpDirectory.toPath(), "merged").toString();
+        int exitValue = processExecutor.executeProcess(true, true,
+                "mount", "-t", "overlay", "overlay",
+                "-o", "lowerdir=" + String.join(":", lowerDirs), mountPoint);
+        if (exitValue != 0) {
+            throw new IOException("could not merge " + images);
+        }
+        mountPoints.add(mountPoint);
+        return Paths.get(mountPoint);
+    }
+
+    private void umount(String mountPoint) {
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (processExecutor.executeProcess(true, true,
+                "umount", mountPoint) == 0) {
+            new File(mountPoint).delete();
+        } else {
+            LOGGER.log(Level.WARNING, "could not umount {0}", mountPoint);
+        }
+    }
+
+    // writes all unchanged files of the new system into the exclude file and
+    // whiteouts for all removed files into the pseudo file, returns the
+    // number of changes
+    private int compare(Path newRoot, Path oldRoot, File excludeFile,
+            File pseudoFile) throws IOException {
+
+        int[] changes = new int[1];
+        FileComparator fileComparator = new FileComparator(
+                getExtendedAttributes(newRoot),
+                getExtendedAttributes(oldRoot));
+
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                excludeFile.toPath())) {
+            Files.walkFileTree(newRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attributes) throws IOException {
+                    // Directories are never excluded because an excluded
+                    // directory would exclude all changes below it. Their
+                    // contents are merged with the older images anyway.
+                    String relativePath = newRoot.relativize(file).toString();
+                    if (isSafe(relativePath)
+                            && fileComparator.isUnchanged(file,
+                                    oldRoot.resolve(relativePath),
+                                    relativePath)) {
+                        writer.write(relativePath);
+                        writer.newLine();
+                    } else {
+                        changes[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                        IOException ex) {
+                    // the file is then included in the layer
+                    LOGGER.log(Level.WARNING, "", ex);
+                    changes[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                pseudoFile.toPath())) {
+            Files.walkFileTree(oldRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory,
+                        BasicFileAttributes attributes) throws IOException {
+                    if (directory.equals(oldRoot)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String relativePath
+                            = oldRoot.relativize(directory).toString();
+                    Path newDirectory = newRoot.resolve(relativePath);
+                    if (Files.isDirectory(
+                            newDirectory, LinkOption.NOFOLLOW_LINKS)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    // The directory was removed or replaced by a file. In
+                    // both cases the older contents must not be visited.
+                    if (!Files.exists(
+                            newDirectory, LinkOption.NOFOLLOW_LINKS)) {
+                        writeWhiteout(writer, relativePath);
+                        changes[0]++;
+                    }
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attributes) throws IOException {
+                    String relativePath = oldRoot.relativize(file).toString();
+                    if (!Files.exists(newRoot.resolve(relativePath),
+                            LinkOption.NOFOLLOW_LINKS)) {
+                        writeWhiteout(writer, relativePath);
+                        changes[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return changes[0];
+    }
+
+    // returns the extended attributes of all files below a root directory,
+    // mapped by their path relative to the root directory
+    private static Map<String, List<String>> getExtendedAttributes(Path root)
+            throws IOException {
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        int exitValue = processExecutor.executeProcess(true, true,
+                "getfattr", "-R", "-P", "-d", "-m", "-", "-e", "base64",
+                "--absolute-names", root.toString());
+        if (exitValue != 0) {
+            LOGGER.log(Level.SEVERE, processExecutor.getStdErr());
+            throw new IOException(
+                    "could not read extended attributes of " + root);
+        }
+
+        // getfattr only lists files with extended attributes in blocks of
+        // "# file: <path>" followed by "<name>=<value>" lines
+        Map<String, List<String>> extendedAttributes = new HashMap<>();
+        String prefix = "# file: " + root + '/';
+        List<String> attributes = null;
+        for (String line : processExecutor.getStdOut().split("\n")) {
+            if (line.startsWith(prefix)) {
+                attributes = new ArrayList<>();
+                extendedAttributes.put(unescape(
+                        line.substring(prefix.length())), attributes);
+            } else if (line.startsWith("# file: ")) {
+                // the root directory itself
+                attributes = null;
+            } else if ((attributes != null) && !line.isEmpty()) {
+                attributes.add(line);
+            }
+        }
+        return extendedAttributes;
+    }
+
+    // getfattr escapes special characters in paths as octal "\ooo" bytes
+    private static String unescape(String path) {
+        if (path.indexOf('\\') == -1) {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if ((c == '\\') && (i + 3 < path.length())) {
+                bytes.write(Integer.parseInt(path.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(
+                        StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeWhiteout(BufferedWriter writer,
+            String relativePath) throws IOException {
+        if (!isSafe(relativePath)) {
+            throw new IOException(
+                    "can not create whiteout for " + relativePath);
+        }
+        // overlay whiteouts are character devices with device number 0/0
+        writer.write('"' + relativePath + "\" c 000 0 0 0 0");
+        writer.newLine();
+    }
+
+    // returns true if the path can be used in mksquashfs exclude and pseudo
+    // files without escaping
+    private static boolean isSafe(String relativePath) {
+        return !relativePath.isEmpty()
+                && relativePath.equals(relativePath.trim())
+                && relativePath.indexOf('\n') == -1
+                && relativePath.indexOf('"') == -1
+                && relativePath.indexOf('\\') == -1;
+    }
+
+    // compares the files of the new and the old system
+    private static class FileComparator {
+
+        private final Map<String, List<String>> newExtendedAttributes;
+        private final Map<String, List<String>> oldExtendedAttributes;
+        private final byte[] newBuffer = new byte[DLCopy.MEGA];
+        private final byte[] oldBuffer = new byte[DLCopy.MEGA];
+
+        public FileComparator(Map<String, List<String>> newExtendedAttributes,
+                Map<String, List<String>> oldExtendedAttributes) {
+            this.newExtendedAttributes = newExtendedAttributes;
+            this.oldExtendedAttributes = oldExtendedAttributes;
+        }
+
+        public boolean isUnchanged(Path newFile, Path oldFile,
+                String relativePath) throws IOException {
+            Map<String, Object> oldAttributes;
+            try {
+                oldAttributes = Files.readAttributes(oldFile,
+                        COMPARED_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ex) {
+                // there is no old file
+                return false;
+            }
+            Map<String, Object> newAttributes = Files.readAttributes(
+                    newFile, COMPARED_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            if (!newAttributes.equals(oldAttributes)
+                    || !Objects.equals(newExtendedAttributes.get(relativePath),
+                            oldExtendedAttributes.get(relativePath))) {
+                return false;
+            }
+            if (Files.isSymbolicLink(newFile)) {
+                return Objects.equals(Files.readSymbolicLink(newFile),
+                        Files.readSymbolicLink(oldFile));
+            }
+            if (!Files.isRegularFile(newFile, LinkOption.NOFOLLOW_LINKS)) {
+                // device files, fifos and sockets have no contents
+                return true;
+            }
+            // the size and modification time may be kept when the contents
+            // change (e.g. by package updates)
+            return hasSameContents(newFile, oldFile);
+        }
+
+        private boolean hasSameContents(Path newFile, Path oldFile)
+                throws IOException {
+            try (InputStream newStream = Files.newInputStream(newFile);
+                    InputStream oldStream = Files.newInputStream(oldFile)) {
+                while (true) {
+                    int newRead = newStream.readNBytes(
+                            newBuffer, 0, newBuffer.length);
+                    int oldRead = oldStream.readNBytes(
+                            oldBuffer, 0, oldBuffer.length);
+                    if ((newRead != oldRead) || !Arrays.equals(
+                            newBuffer, 0, newRead, oldBuffer, 0, oldRead)) {
+                        return false;
+                    }
+                    if (newRead < newBuffer.length) {
+                        return true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * a squashfs layer that updates an older system
+     */
+    public static class SystemLayer {
+
+        private final File baseDirectory;
+        private final String path;
+        private final String md5Sum;
+
+        /**
+         * creates a new SystemLayer
+         *
+         * @param baseDirectory the directory that contains the layer
+         * @param path the path of the layer, relative to the base directory
+         * and to the system partition
+         * @param md5Sum the MD5 sum of the layer
+         */
+        public SystemLayer(File baseDirectory, String path, String md5Sum) {
+            this.baseDirectory = baseDirectory;
+            this.path = path;
+            this.md5Sum = md5Sum;
+        }
+
+        /**
+         * returns the directory that contains the layer
+         *
+         * @return the directory that contains the layer
+         */
+        public File getBaseDirectory() {
+            return baseDirectory;
+        }
+
+        /**
+         * returns the path of the layer, relative to the base directory and
+         * to the system partition
+         *
+         * @return the path of the layer
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * returns the layer file
+         *
+         * @return the layer file
+         */
+        public File getFile() {
+            return new File(baseDirectory, path);
+        }
+
+        /**
+         * returns the MD5 sum of the layer
+         *
+         * @return the MD5 sum of the layer
+         */
+        public String getMd5Sum() {
+            return md5Sum;
+        }
+
+        @Override
+        public String toString() {
+            return getFile().getPath();
+        }
+    }
+}
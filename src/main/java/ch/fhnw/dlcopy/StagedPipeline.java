@@ -0,0 +1,199 @@
+package ch.fhnw.dlcopy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pipeline of stages that process a list of items. Every stage has its own
+ * worker threads and takes its items from a bounded queue that is filled by
+ * the previous stage. Therefore the stages of different items overlap, e.g.
+ * one storage device is partitioned while another one is copied and a third
+ * one is finished. The bounded queues make sure that a fast stage can't run
+ * far ahead of a slow stage.
+ *
+ * @param <T> the type of the items
+ */
+public class StagedPipeline<T> {
+
+    /**
+     * a stage of a StagedPipeline
+     *
+     * @param <T> the type of the items
+     */
+    public interface Stage<T> {
+
+        /**
+         * processes an item
+         *
+         * @param item the item
+         * @throws Exception if processing the item failed, the item is then
+         * removed from the pipeline
+         */
+        void process(T item) throws Exception;
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(StagedPipeline.class.getName());
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> concurrencies = new ArrayList<>();
+    private final List<Stage<T>> stages = new ArrayList<>();
+
+    /**
+     * adds a stage at the end of the pipeline
+     *
+     * @param name the name of the stage (used for logging and thread names)
+     * @param concurrency the number of items this stage processes in parallel
+     * @param stage the stage
+     * @return this pipeline
+     */
+    public StagedPipeline<T> addStage(
+            String name, int concurrency, Stage<T> stage) {
+        names.add(name);
+        concurrencies.add(Math.max(1, concurrency));
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * processes all items through all stages and returns when all items left
+     * the pipeline
+     *
+     * @param items the items to process (in this order)
+     * @param failureHandler handles items whose processing failed in a stage,
+     * is called from the thread of the failed stage
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting for the pipeline
+     */
+    public void process(List<T> items,
+            BiConsumer<T, Exception> failureHandler)
+            throws InterruptedException {
+
+        int stageCount = stages.size();
+        if (stageCount == 0) {
+            return;
+        }
+
+        // The queue in front of every stage holds at most as many items as
+        // the stage can process in parallel.
+        List<BlockingQueue<Token<T>>> queues = new ArrayList<>();
+        int threadCount = 0;
+        for (int concurrency : concurrencies) {
+            queues.add(new ArrayBlockingQueue<>(concurrency));
+            threadCount += concurrency;
+        }
+
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < stageCount; i++) {
+                int concurrency = concurrencies.get(i);
+                AtomicInteger runningWorkers = new AtomicInteger(concurrency);
+                for (int j = 0; j < concurrency; j++) {
+                    int stageIndex = i;
+                    futures.add(executorService.submit(() -> {
+                        work(stageIndex, queues, runningWorkers,
+                                failureHandler);
+                        return null;
+                    }));
+                }
+            }
+
+            // feed the first stage
+            BlockingQueue<Token<T>> firstQueue = queues.get(0);
+            for (T item : items) {
+                firstQueue.put(new Token<>(item));
+            }
+            endStage(0, queues);
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    // the workers handle all item failures themselves
+                    LOGGER.log(Level.SEVERE, "", ex);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void work(int stageIndex, List<BlockingQueue<Token<T>>> queues,
+            AtomicInteger runningWorkers,
+            BiConsumer<T, Exception> failureHandler)
+            throws InterruptedException {
+
+        String name = names.get(stageIndex);
+        Stage<T> stage = stages.get(stageIndex);
+        BlockingQueue<Token<T>> queue = queues.get(stageIndex);
+        boolean lastStage = stageIndex == stages.size() - 1;
+        try {
+            while (true) {
+                Token<T> token = queue.take();
+                if (token.isEnd()) {
+                    break;
+                }
+                T item = token.getItem();
+                LOGGER.log(Level.INFO, "stage \"{0}\" processes {1}",
+                        new Object[]{name, item});
+                try {
+                    stage.process(item);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "stage \"" + name
+                            + "\" failed for " + item, ex);
+                    failureHandler.accept(item, ex);
+                    continue;
+                }
+                if (!lastStage) {
+                    // blocks while the next stage is fully booked
+                    queues.get(stageIndex + 1).put(token);
+                }
+            }
+        } finally {
+            // the last worker of a stage ends the next stage
+            if ((runningWorkers.decrementAndGet() == 0) && !lastStage) {
+                endStage(stageIndex + 1, queues);
+            }
+        }
+    }
+
+    private void endStage(int stageIndex, List<BlockingQueue<Token<T>>> queues)
+            throws InterruptedException {
+        BlockingQueue<Token<T>> queue = queues.get(stageIndex);
+        for (int i = 0, concurrency = concurrencies.get(stageIndex);
+                i < concurrency; i++) {
+            queue.put(new Token<>(null));
+        }
+    }
+
+    // an item on its way through the pipeline or (with a null item) the end
+    // of a stage
+    private static class Token<T> {
+
+        private final T item;
+
+        public Token(T item) {
+            this.item = item;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public boolean isEnd() {
+            return item == null;
+        }
+    }
+}
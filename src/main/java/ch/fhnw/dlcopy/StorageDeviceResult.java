@@ -16,6 +16,7 @@ public class StorageDeviceResult {
     private LocalTime finishTime;
     private Duration duration;
     private String errorMessage;
+    private volatile String progress;
 
     /**
      * creates a new StorageDeviceResult
@@ -92,4 +93,24 @@ public class StorageDeviceResult {
     public void setErrorMessage(String errorMessage) {
         this.errorMessage = errorMessage;
     }
+
+    /**
+     * returns the progress message of the operation or <tt>null</tt> if there
+     * is none
+     *
+     * @return the progress message of the operation or <tt>null</tt> if there
+     * is none
+     */
+    public String getProgress() {
+        return progress;
+    }
+
+    /**
+     * sets the progress message of a running operation
+     *
+     * @param progress the progress message of the operation
+     */
+    public void setProgress(String progress) {
+        this.progress = progress;
+    }
 }
@@ -0,0 +1,482 @@
+package ch.fhnw.dlcopy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Determines the used space of a file system by reading its on-disk metadata
+ * (superblock, allocation bitmap, ...) directly from the block device, without
+ * mounting the file system.
+ * <p>
+ * The metadata of a mounted file system may be outdated on disk, therefore
+ * only unmounted file systems should be read.
+ * <p>
+ * For ext file systems the blocks used by the file system itself are
+ * subtracted only if the superblock records them (s_overhead_clusters, set by
+ * recent versions of mke2fs). Otherwise the result includes the inode tables,
+ * bitmaps and the journal and is therefore larger than the value reported by
+ * <code>df</code> for the mounted file system.
+ */
+public class SuperblockReader {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SuperblockReader.class.getName());
+
+    // the maximum number of bytes read at once when counting bits
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    // ext2/3/4
+    private static final long EXT_SUPERBLOCK_OFFSET = 1024;
+    private static final int EXT_MAGIC = 0xEF53;
+    private static final int EXT_FEATURE_INCOMPAT_64BIT = 0x80;
+
+    // btrfs
+    private static final long BTRFS_SUPERBLOCK_OFFSET = 0x10000;
+    private static final String BTRFS_MAGIC = "_BHRfS_M";
+
+    // FAT32
+    private static final int FAT32_FSINFO_LEAD_SIGNATURE = 0x41615252;
+    private static final int FAT32_FSINFO_STRUCT_SIGNATURE = 0x61417272;
+    private static final long FAT32_UNKNOWN_FREE_COUNT = 0xFFFFFFFFL;
+    private static final int FAT32_CLUSTER_MASK = 0x0FFFFFFF;
+
+    // exFAT
+    private static final String EXFAT_NAME = "EXFAT   ";
+    private static final int EXFAT_ENTRY_SIZE = 32;
+    private static final int EXFAT_END_OF_DIRECTORY = 0x00;
+    private static final int EXFAT_ALLOCATION_BITMAP = 0x81;
+    private static final long EXFAT_END_OF_CHAIN = 0xFFFFFFFFL;
+
+    // NTFS
+    private static final String NTFS_NAME = "NTFS    ";
+    private static final String NTFS_FILE_SIGNATURE = "FILE";
+    private static final int NTFS_BITMAP_RECORD = 6;
+    private static final int NTFS_FIXUP_STRIDE = 512;
+    private static final long NTFS_DATA_ATTRIBUTE = 0x80;
+    private static final long NTFS_END_OF_ATTRIBUTES = 0xFFFFFFFFL;
+
+    /**
+     * returns the used space of an unmounted file system
+     *
+     * @param device the device file of the file system (e.g. "/dev/sdb1")
+     * @param idType the file system type as reported by udisks (e.g. "ext4")
+     * @return the used space of the file system in byte
+     * @throws IOException if the file system type is not supported or the
+     * metadata of the file system can't be read or is invalid
+     */
+    public static long getUsedSpace(String device, String idType)
+            throws IOException {
+
+        if (idType == null) {
+            throw new IOException("unknown file system on " + device);
+        }
+        try (FileChannel channel = FileChannel.open(
+                Paths.get(device), StandardOpenOption.READ)) {
+            long usedSpace;
+            switch (idType) {
+                case "ext2":
+                case "ext3":
+                case "ext4":
+                    usedSpace = getExtUsedSpace(channel);
+                    break;
+                case "btrfs":
+                    usedSpace = getBtrfsUsedSpace(channel);
+                    break;
+                case "vfat":
+                    usedSpace = getFat32UsedSpace(channel);
+                    break;
+                case "exfat":
+                    usedSpace = getExFatUsedSpace(channel);
+                    break;
+                case "ntfs":
+                    usedSpace = getNtfsUsedSpace(channel);
+                    break;
+                default:
+                    throw new IOException("unsupported file system "
+                            + idType + " on " + device);
+            }
+            LOGGER.log(Level.INFO, "used space of {0} ({1}): {2}",
+                    new Object[]{device, idType, usedSpace});
+            return usedSpace;
+        }
+    }
+
+    private static long getExtUsedSpace(FileChannel channel)
+            throws IOException {
+
+        ByteBuffer superblock = read(channel, EXT_SUPERBLOCK_OFFSET, 1024);
+        if (getU16(superblock, 56) != EXT_MAGIC) {
+            throw new IOException("no ext superblock found");
+        }
+        long blockCount = getU32(superblock, 4);
+        long freeBlockCount = getU32(superblock, 12);
+        if ((superblock.getInt(96) & EXT_FEATURE_INCOMPAT_64BIT) != 0) {
+            blockCount |= getU32(superblock, 336) << 32;
+            freeBlockCount |= getU32(superblock, 344) << 32;
+        }
+        long logBlockSize = getU32(superblock, 24);
+        long logClusterSize = getU32(superblock, 28);
+        // the file system overhead is counted in clusters (bigalloc)
+        long overheadBlockCount = getU32(superblock, 0x248)
+                << Math.max(0, logClusterSize - logBlockSize);
+        long usedBlockCount = checkUsedBlocks(blockCount, freeBlockCount);
+        if (overheadBlockCount <= usedBlockCount) {
+            usedBlockCount -= overheadBlockCount;
+        }
+        return usedBlockCount * (1024L << logBlockSize);
+    }
+
+    private static long getBtrfsUsedSpace(FileChannel channel)
+            throws IOException {
+
+        ByteBuffer superblock = read(channel, BTRFS_SUPERBLOCK_OFFSET, 0x100);
+        if (!getString(superblock, 0x40, 8).equals(BTRFS_MAGIC)) {
+            throw new IOException("no btrfs superblock found");
+        }
+        return superblock.getLong(0x78);
+    }
+
+    private static long getFat32UsedSpace(FileChannel channel)
+            throws IOException {
+
+        ByteBuffer bootSector = read(channel, 0, 512);
+        int bytesPerSector = getU16(bootSector, 11);
+        int sectorsPerCluster = getU8(bootSector, 13);
+        int reservedSectors = getU16(bootSector, 14);
+        int fatCount = getU8(bootSector, 16);
+        if ((bytesPerSector == 0) || (sectorsPerCluster == 0)
+                || (fatCount == 0) || (getU16(bootSector, 22) != 0)) {
+            // FAT12 and FAT16 have a FAT size in the BPB
+            throw new IOException("no FAT32 boot sector found");
+        }
+        long totalSectors = getU32(bootSector, 32);
+        long fatSectors = getU32(bootSector, 36);
+        int fsInfoSector = getU16(bootSector, 48);
+
+        long dataSectors = totalSectors - reservedSectors
+                - fatCount * fatSectors;
+        long clusterCount = dataSectors / sectorsPerCluster;
+        long clusterSize = (long) bytesPerSector * sectorsPerCluster;
+
+        // The FSInfo sector contains the number of free clusters. It is only a
+        // hint but Linux and Windows update it when unmounting.
+        long freeClusterCount = FAT32_UNKNOWN_FREE_COUNT;
+        if ((fsInfoSector != 0) && (fsInfoSector != 0xFFFF)) {
+            ByteBuffer fsInfo = read(channel,
+                    (long) fsInfoSector * bytesPerSector, 512);
+            if ((fsInfo.getInt(0) == FAT32_FSINFO_LEAD_SIGNATURE)
+                    && (fsInfo.getInt(484) == FAT32_FSINFO_STRUCT_SIGNATURE)) {
+                freeClusterCount = getU32(fsInfo, 488);
+            }
+        }
+        if ((freeClusterCount == FAT32_UNKNOWN_FREE_COUNT)
+                || (freeClusterCount > clusterCount)) {
+            freeClusterCount = countFreeFat32Clusters(channel,
+                    (long) reservedSectors * bytesPerSector, clusterCount);
+        }
+        return checkUsedBlocks(clusterCount, freeClusterCount) * clusterSize;
+    }
+
+    private static long countFreeFat32Clusters(FileChannel channel,
+            long fatOffset, long clusterCount) throws IOException {
+
+        // the first two FAT entries are reserved
+        long position = fatOffset + 2 * 4;
+        long remainingEntries = clusterCount;
+        long freeClusterCount = 0;
+        while (remainingEntries > 0) {
+            int entries = (int) Math.min(remainingEntries, CHUNK_SIZE / 4);
+            ByteBuffer buffer = read(channel, position, entries * 4);
+            for (int i = 0; i < entries; i++) {
+                if ((buffer.getInt(i * 4) & FAT32_CLUSTER_MASK) == 0) {
+                    freeClusterCount++;
+                }
+            }
+            position += entries * 4;
+            remainingEntries -= entries;
+        }
+        return freeClusterCount;
+    }
+
+    private static long getExFatUsedSpace(FileChannel channel)
+            throws IOException {
+
+        ByteBuffer bootSector = read(channel, 0, 512);
+        if (!getString(bootSector, 3, 8).equals(EXFAT_NAME)) {
+            throw new IOException("no exFAT boot sector found");
+        }
+        int bytesPerSectorShift = getU8(bootSector, 108);
+        int sectorsPerClusterShift = getU8(bootSector, 109);
+        long bytesPerSector = 1L << bytesPerSectorShift;
+        long fatOffset = getU32(bootSector, 80) * bytesPerSector;
+        long clusterHeapOffset = getU32(bootSector, 88) * bytesPerSector;
+        long clusterCount = getU32(bootSector, 92);
+        long rootDirectoryCluster = getU32(bootSector, 96);
+        int clusterSize = 1 << (bytesPerSectorShift + sectorsPerClusterShift);
+
+        // The allocation bitmap is described by an entry in the root
+        // directory. The exFAT boot sector only contains a rough percentage of
+        // the used clusters.
+        long cluster = rootDirectoryCluster;
+        for (long i = 0; isValidExFatCluster(cluster, clusterCount)
+                && (i < clusterCount); i++) {
+            ByteBuffer directory = read(channel, getExFatClusterOffset(
+                    clusterHeapOffset, clusterSize, cluster), clusterSize);
+            for (int offset = 0; offset < clusterSize;
+                    offset += EXFAT_ENTRY_SIZE) {
+                int entryType = getU8(directory, offset);
+                if (entryType == EXFAT_END_OF_DIRECTORY) {
+                    throw new IOException("no exFAT allocation bitmap found");
+                }
+                // the second allocation bitmap (flag bit 0 set) only exists
+                // for TexFAT
+                if ((entryType == EXFAT_ALLOCATION_BITMAP)
+                        && ((getU8(directory, offset + 1) & 1) == 0)) {
+                    long bitmapCluster = getU32(directory, offset + 20);
+                    long usedClusterCount = countExFatBitmap(channel,
+                            fatOffset, clusterHeapOffset, clusterSize,
+                            clusterCount, bitmapCluster);
+                    return usedClusterCount * clusterSize;
+                }
+            }
+            cluster = getU32(read(channel, fatOffset + cluster * 4, 4), 0);
+        }
+        throw new IOException("no exFAT allocation bitmap found");
+    }
+
+    private static long countExFatBitmap(FileChannel channel, long fatOffset,
+            long clusterHeapOffset, int clusterSize, long clusterCount,
+            long bitmapCluster) throws IOException {
+
+        // the bitmap has one bit per cluster of the cluster heap
+        long remainingBits = clusterCount;
+        long usedClusterCount = 0;
+        long cluster = bitmapCluster;
+        while (remainingBits > 0) {
+            if (!isValidExFatCluster(cluster, clusterCount)) {
+                throw new IOException("exFAT allocation bitmap is truncated");
+            }
+            long bits = Math.min(remainingBits, clusterSize * 8L);
+            usedClusterCount += countBits(channel, getExFatClusterOffset(
+                    clusterHeapOffset, clusterSize, cluster), bits);
+            remainingBits -= bits;
+            cluster = getU32(read(channel, fatOffset + cluster * 4, 4), 0);
+        }
+        return usedClusterCount;
+    }
+
+    private static boolean isValidExFatCluster(
+            long cluster, long clusterCount) {
+        // the first cluster of the cluster heap has the index 2
+        return (cluster >= 2) && (cluster < clusterCount + 2)
+                && (cluster != EXFAT_END_OF_CHAIN);
+    }
+
+    private static long getExFatClusterOffset(
+            long clusterHeapOffset, int clusterSize, long cluster) {
+        return clusterHeapOffset + (cluster - 2) * clusterSize;
+    }
+
+    private static long getNtfsUsedSpace(FileChannel channel)
+            throws IOException {
+
+        ByteBuffer bootSector = read(channel, 0, 512);
+        if (!getString(bootSector, 3, 8).equals(NTFS_NAME)) {
+            throw new IOException("no NTFS boot sector found");
+        }
+        int bytesPerSector = getU16(bootSector, 11);
+        int sectorsPerCluster = getU8(bootSector, 13);
+        if (sectorsPerCluster > 0x80) {
+            // large clusters are given as a negative power of two
+            sectorsPerCluster = 1 << (256 - sectorsPerCluster);
+        }
+        if ((bytesPerSector == 0) || (sectorsPerCluster == 0)) {
+            throw new IOException("invalid NTFS boot sector");
+        }
+        long clusterSize = (long) bytesPerSector * sectorsPerCluster;
+        long clusterCount = bootSector.getLong(40) / sectorsPerCluster;
+        long mftCluster = bootSector.getLong(48);
+        int clustersPerRecord = bootSector.get(64);
+        int recordSize = (clustersPerRecord < 0)
+                ? 1 << -clustersPerRecord
+                : (int) (clustersPerRecord * clusterSize);
+
+        // The used clusters are listed in the $Bitmap file. The first records
+        // of the MFT are always stored contiguously at its beginning.
+        ByteBuffer record = read(channel, mftCluster * clusterSize
+                + (long) NTFS_BITMAP_RECORD * recordSize, recordSize);
+        if (!getString(record, 0, 4).equals(NTFS_FILE_SIGNATURE)) {
+            throw new IOException("invalid NTFS $Bitmap record");
+        }
+        applyNtfsFixups(record);
+
+        int offset = getU16(record, 20);
+        while (offset + 16 <= recordSize) {
+            long type = getU32(record, offset);
+            long length = getU32(record, offset + 4);
+            if ((type == NTFS_END_OF_ATTRIBUTES) || (length == 0)) {
+                break;
+            }
+            // the unnamed $DATA attribute contains the bitmap
+            if ((type == NTFS_DATA_ATTRIBUTE)
+                    && (getU8(record, offset + 9) == 0)) {
+                if (getU8(record, offset + 8) == 0) {
+                    // resident (only on tiny file systems)
+                    int contentLength = (int) getU32(record, offset + 16);
+                    int contentOffset = getU16(record, offset + 20);
+                    return countBits(record, offset + contentOffset,
+                            Math.min(clusterCount, contentLength * 8L))
+                            * clusterSize;
+                }
+                return countNtfsBitmap(channel, record,
+                        offset + getU16(record, offset + 32), clusterSize,
+                        clusterCount) * clusterSize;
+            }
+            offset += length;
+        }
+        throw new IOException("no $DATA attribute in NTFS $Bitmap record");
+    }
+
+    private static void applyNtfsFixups(ByteBuffer record) throws IOException {
+        int updateSequenceOffset = getU16(record, 4);
+        int updateSequenceCount = getU16(record, 6);
+        int updateSequenceNumber = getU16(record, updateSequenceOffset);
+        for (int i = 1; i < updateSequenceCount; i++) {
+            int position = i * NTFS_FIXUP_STRIDE - 2;
+            if (position + 2 > record.limit()) {
+                break;
+            }
+            if (getU16(record, position) != updateSequenceNumber) {
+                throw new IOException("torn NTFS $Bitmap record");
+            }
+            record.putShort(position,
+                    record.getShort(updateSequenceOffset + 2 * i));
+        }
+    }
+
+    private static long countNtfsBitmap(FileChannel channel,
+            ByteBuffer record, int runListOffset, long clusterSize,
+            long clusterCount) throws IOException {
+
+        long remainingBits = clusterCount;
+        long usedClusterCount = 0;
+        long lcn = 0;
+        int offset = runListOffset;
+        while (remainingBits > 0) {
+            int header = getU8(record, offset++);
+            if (header == 0) {
+                throw new IOException("NTFS $Bitmap is truncated");
+            }
+            int lengthSize = header & 0x0F;
+            int offsetSize = header >> 4;
+            long runLength = getVariableLong(record, offset, lengthSize, false);
+            offset += lengthSize;
+            if (offsetSize == 0) {
+                // a sparse run, can't happen for $Bitmap
+                throw new IOException("sparse NTFS $Bitmap");
+            }
+            lcn += getVariableLong(record, offset, offsetSize, true);
+            offset += offsetSize;
+
+            long bits = Math.min(remainingBits, runLength * clusterSize * 8);
+            usedClusterCount += countBits(channel, lcn * clusterSize, bits);
+            remainingBits -= bits;
+        }
+        return usedClusterCount;
+    }
+
+    private static long getVariableLong(ByteBuffer buffer, int offset,
+            int size, boolean signed) {
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = (value << 8) | getU8(buffer, offset + i);
+        }
+        if (signed && (size > 0) && (size < 8)
+                && ((getU8(buffer, offset + size - 1) & 0x80) != 0)) {
+            // sign extension
+            value |= -1L << (size * 8);
+        }
+        return value;
+    }
+
+    private static long checkUsedBlocks(long blockCount, long freeBlockCount)
+            throws IOException {
+        if (freeBlockCount > blockCount) {
+            throw new IOException("more free than total blocks");
+        }
+        return blockCount - freeBlockCount;
+    }
+
+    private static long countBits(FileChannel channel, long position,
+            long bitCount) throws IOException {
+        long count = 0;
+        long remainingBits = bitCount;
+        while (remainingBits > 0) {
+            long bits = Math.min(remainingBits, CHUNK_SIZE * 8L);
+            ByteBuffer buffer = read(channel, position, (int) ((bits + 7) / 8));
+            count += countBits(buffer, 0, bits);
+            position += buffer.limit();
+            remainingBits -= bits;
+        }
+        return count;
+    }
+
+    private static long countBits(ByteBuffer buffer, int offset,
+            long bitCount) {
+        long count = 0;
+        int fullBytes = (int) (bitCount / 8);
+        for (int i = 0; i < fullBytes; i++) {
+            count += Integer.bitCount(getU8(buffer, offset + i));
+        }
+        int remainingBits = (int) (bitCount % 8);
+        if (remainingBits != 0) {
+            // bits are counted from the least significant bit
+            int mask = (1 << remainingBits) - 1;
+            count += Integer.bitCount(
+                    getU8(buffer, offset + fullBytes) & mask);
+        }
+        return count;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position,
+            int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("can't read " + length
+                        + " bytes at position " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int getU8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int getU16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long getU32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    private static String getString(ByteBuffer buffer, int index, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(index + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
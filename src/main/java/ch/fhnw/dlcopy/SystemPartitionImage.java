@@ -0,0 +1,192 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.FileCopier;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A "golden" file system image of the system partition of a SystemSource.
+ * <p>
+ * The image is built once per SystemSource (mkfs on an image file and copying
+ * the system files into it). Afterwards it is streamed directly onto the
+ * system partitions of all destination storage devices with large aligned
+ * direct I/O writes and then grown to the partition size. This skips mkfs and
+ * all per-file operations on the destination devices. Verification is done
+ * with a single streaming hash over the written partition.
+ */
+public class SystemPartitionImage {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(SystemPartitionImage.class.getName());
+    private static final Map<SystemSource, SystemPartitionImage> IMAGES
+            = new HashMap<>();
+    // the image size is always a multiple of this value
+    private static final long IMAGE_SIZE_GRANULARITY = 4 * DLCopy.MEGA;
+
+    private final SystemSource source;
+    private Path imagePath;
+    private long imageSize;
+    private byte[] imageDigest;
+
+    private SystemPartitionImage(SystemSource source) {
+        this.source = source;
+    }
+
+    /**
+     * returns the SystemPartitionImage of a SystemSource
+     *
+     * @param source the system source
+     * @return the SystemPartitionImage of the SystemSource
+     */
+    public static synchronized SystemPartitionImage getInstance(
+            SystemSource source) {
+        SystemPartitionImage image = IMAGES.get(source);
+        if (image == null) {
+            image = new SystemPartitionImage(source);
+            IMAGES.put(source, image);
+        }
+        return image;
+    }
+
+    /**
+     * writes the image to a system partition and grows the file system to the
+     * size of the partition. The image is built first, if necessary.
+     *
+     * @param systemDevice the device of the system partition (e.g. /dev/sdb3)
+     * @param installerOrUpgrader the Installer or Upgrader that is calling
+     * this method
+     * @param checkCopies if the written partition should be verified
+     * @throws IOException if an I/O exception occurs
+     * @throws NoSuchAlgorithmException if the digest algorithm used for
+     * verification can't be found
+     */
+    public void writeTo(String systemDevice,
+            InstallerOrUpgrader installerOrUpgrader, boolean checkCopies)
+            throws IOException, NoSuchAlgorithmException {
+
+        // parallel installations wait here until the image is built
+        synchronized (this) {
+            if (imagePath == null) {
+                build(installerOrUpgrader);
+            }
+        }
+
+        BlockDeviceCopier.writeImage(
+                imagePath, imageSize, systemDevice, false, null);
+
+        if (checkCopies) {
+            // O_DIRECT bypasses the page cache, so we really read back the
+            // data from the storage device
+            byte[] writtenDigest = BlockDeviceCopier.getDigest(
+                    Paths.get(systemDevice), imageSize, true);
+            if (!MessageDigest.isEqual(imageDigest, writtenDigest)) {
+                throw new IOException("verification of system partition "
+                        + systemDevice + " failed");
+            }
+            LOGGER.log(Level.INFO, "verified system partition {0}",
+                    systemDevice);
+        }
+
+        // grow the file system to the partition size and give every clone its
+        // own file system UUID
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        // e2fsck exits with 1 if it corrected errors, everything else means
+        // the copied file system is damaged
+        int exitValue = processExecutor.executeProcess(true, true,
+                "/sbin/e2fsck", "-f", "-p", systemDevice);
+        if ((exitValue != 0) && (exitValue != 1)) {
+            throw new IOException("file system check of system partition "
+                    + systemDevice + " failed with exit value " + exitValue
+                    + ": " + processExecutor.getOutput());
+        }
+        if (processExecutor.executeProcess(true, true,
+                "/sbin/resize2fs", systemDevice) != 0) {
+            throw new IOException("could not grow system partition "
+                    + systemDevice + ": " + processExecutor.getOutput());
+        }
+        if (processExecutor.executeProcess(true, true,
+                "/sbin/tune2fs", "-U", "random", systemDevice) != 0) {
+            throw new IOException("could not change UUID of system partition "
+                    + systemDevice + ": " + processExecutor.getOutput());
+        }
+    }
+
+    private void build(InstallerOrUpgrader installerOrUpgrader)
+            throws IOException, NoSuchAlgorithmException {
+
+        LOGGER.log(Level.INFO, "building system image of {0}", source);
+        long start = System.currentTimeMillis();
+
+        // the image must not be larger than the smallest system partition
+        long size = (long) (source.getSystemSize() * 1.05) + 50 * DLCopy.MEGA;
+        size = ((size + IMAGE_SIZE_GRANULARITY - 1) / IMAGE_SIZE_GRANULARITY)
+                * IMAGE_SIZE_GRANULARITY;
+
+        Path path = Files.createTempFile("DLCopy-system", ".img");
+        path.toFile().deleteOnExit();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            // creates a sparse file
+            file.setLength(size);
+        }
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (processExecutor.executeProcess(true, true, "/sbin/mkfs.ext3",
+                "-F", "-L", DLCopy.systemPartitionLabel,
+                path.toString()) != 0) {
+            Files.delete(path);
+            String errorMessage
+                    = DLCopy.STRINGS.getString("Error_Create_System_Partition");
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+
+        String mountPath = LernstickFileTools.createTempDirectory(
+                new File(System.getProperty("java.io.tmpdir")),
+                "DLCopy-system").getPath();
+        try {
+            if (processExecutor.executeProcess(true, true,
+                    "mount", "-o", "loop", path.toString(), mountPath) != 0) {
+                throw new IOException("could not mount system image: "
+                        + processExecutor.getOutput());
+            }
+            try {
+                FileCopier fileCopier
+                        = new FileCopier(DigestCache.getInstance());
+                installerOrUpgrader.showCopyingFiles(fileCopier);
+                fileCopier.copy(true, new CopyJob(
+                        new Source[]{source.getSystemCopySourceFull()},
+                        new String[]{mountPath}));
+            } finally {
+                processExecutor.executeProcess(true, true, "umount", mountPath);
+            }
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            Files.delete(path);
+            throw ex;
+        } finally {
+            new File(mountPath).delete();
+        }
+
+        // compute the image digest once for all later verifications
+        byte[] digest = BlockDeviceCopier.getDigest(path, size, false);
+
+        imagePath = path;
+        imageSize = size;
+        imageDigest = digest;
+        LOGGER.log(Level.INFO, "built system image {0} ({1} byte) in {2} ms",
+                new Object[]{path, size, System.currentTimeMillis() - start});
+    }
+}
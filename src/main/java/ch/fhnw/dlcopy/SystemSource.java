@@ -7,8 +7,11 @@ import ch.fhnw.util.StorageDevice.Type;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
@@ -64,6 +67,19 @@ public abstract class SystemSource {
     public final static String SYSTEM_COPY_PATTERN_FULL
             = "live/filesystem.*";
 
+    /**
+     * the path of the base squashfs image of the system (relative to the
+     * system partition)
+     */
+    public final static String SYSTEM_IMAGE_PATH = "live/filesystem.squashfs";
+
+    /**
+     * the path of the live-boot module file that lists all squashfs images of
+     * a layered system (relative to the system partition), the images are
+     * stacked in the listed order and every image overlays the previous ones
+     */
+    public final static String SYSTEM_MODULE_PATH = "live/filesystem.module";
+
     /**
      * the pattern of files that need to be copied to the system partition on
      * legacy (pre 2016-03) systems
@@ -219,6 +235,35 @@ public abstract class SystemSource {
         }
     }
 
+    /**
+     * returns the squashfs images of a system in the order they are stacked
+     * by live-boot
+     *
+     * @param systemPath the path where the system is mounted
+     * @return the paths of the squashfs images (relative to the system path)
+     * in the order they are stacked by live-boot, the first image is the base
+     * image
+     * @throws IOException if reading the live-boot module file fails
+     */
+    public static List<String> getSystemImages(String systemPath)
+            throws IOException {
+        List<String> images = new ArrayList<>();
+        Path modulePath = Paths.get(systemPath, SYSTEM_MODULE_PATH);
+        if (Files.exists(modulePath)) {
+            for (String line : Files.readAllLines(modulePath)) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    // the module file lists the images relative to its own
+                    // directory
+                    images.add("live/" + line);
+                }
+            }
+        } else {
+            images.add(SYSTEM_IMAGE_PATH);
+        }
+        return images;
+    }
+
     /**
      * Depending on the Debian Live version the EFI directory is lowercase or
      * uppercase.This function tries to find the file in either case.
@@ -2,6 +2,7 @@ package ch.fhnw.dlcopy;
 
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import static ch.fhnw.util.StorageDevice.EfiUpgradeVariant;
+import ch.fhnw.dlcopy.SquashFSLayerCreator.SystemLayer;
 import ch.fhnw.dlcopy.gui.swing.DLCopySwingGUI;
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.filecopier.CopyJob;
@@ -20,23 +21,22 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributeView;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
@@ -69,8 +69,11 @@ public class Upgrader extends InstallerOrUpgrader {
     private final boolean deleteHiddenFiles;
     private final List<String> filesToOverwrite;
     private final long systemSizeEnlarged;
-
-    UserConfiguration userConfiguration;
+    private final int maxConcurrentUpgrades;
+    private final int maxSystemLayers;
+    private final SquashFSLayerCreator squashFSLayerCreator;
+    private final BackupStore backupStore;
+    private volatile boolean concurrentUpgradeRunning;
 
     /**
      * Creates a new Upgrader
@@ -110,11 +113,20 @@ public class Upgrader extends InstallerOrUpgrader {
      * running system to the upgraded storage device
      * @param systemSizeEnlarged the "enlarged" system size (multiplied with a
      * small file system overhead factor)
+     * @param maxConcurrentUpgrades the maximum number of storage devices to
+     * upgrade in parallel
+     * @param maxSystemLayers the maximum number of squashfs images on an
+     * upgraded system partition, the system partition is updated with an
+     * additional layer until this number is reached and then compacted into
+     * one image again (values below 2 disable layers)
+     * @param deduplicateBackups if the automatic backups should be saved in a
+     * deduplicating {@link BackupStore} instead of separate rdiff-backup
+     * directories (unix domain sockets are not backed up)
      * @param lock the lock to aquire before executing in background
      */
     public Upgrader(SystemSource source, List<StorageDevice> deviceList,
             String exchangePartitionLabel, String exchangePartitionFileSystem,
-            String dataPartitionFileSystem, HashMap<String, byte[]> digestCache,
+            String dataPartitionFileSystem, DigestCache digestCache,
             DLCopySwingGUI dlCopy, DLCopyGUI dlCopyGUI,
             RepartitionStrategy repartitionStrategy,
             int resizedExchangePartitionSize, boolean automaticBackup,
@@ -123,7 +135,9 @@ public class Upgrader extends InstallerOrUpgrader {
             boolean keepPrinterSettings, boolean keepNetworkSettings,
             boolean keepFirewallSettings, boolean keepUserSettings,
             boolean reactivateWelcome, boolean deleteHiddenFiles,
-            List<String> filesToOverwrite, long systemSizeEnlarged, Lock lock) {
+            List<String> filesToOverwrite, long systemSizeEnlarged,
+            int maxConcurrentUpgrades, int maxSystemLayers,
+            boolean deduplicateBackups, Lock lock) {
 
         super(source, deviceList, exchangePartitionLabel,
                 exchangePartitionFileSystem, dataPartitionFileSystem,
@@ -144,6 +158,12 @@ public class Upgrader extends InstallerOrUpgrader {
         this.deleteHiddenFiles = deleteHiddenFiles;
         this.filesToOverwrite = filesToOverwrite;
         this.systemSizeEnlarged = systemSizeEnlarged;
+        this.maxConcurrentUpgrades = maxConcurrentUpgrades;
+        this.maxSystemLayers = maxSystemLayers;
+        squashFSLayerCreator = maxSystemLayers > 1
+                ? new SquashFSLayerCreator(source) : null;
+        backupStore = deduplicateBackups ? new BackupStore(
+                new File(automaticBackupDestination, "BackupStore")) : null;
     }
 
     @Override
@@ -155,82 +175,29 @@ public class Upgrader extends InstallerOrUpgrader {
         try {
             inhibit = new LogindInhibit("Upgrading");
 
-            // upgrade all selected storage devices
-            int batchCounter = 0;
-            for (StorageDevice storageDevice : deviceList) {
-
-                // update overall progress message
-                batchCounter++;
-                dlCopyGUI.upgradingDeviceStarted(storageDevice);
-                LOGGER.log(Level.INFO,
-                        "upgrading storage device: {0} of {1} ({2})",
-                        new Object[]{
-                            batchCounter, deviceListSize, storageDevice
-                        });
-
-                File dataDestination = new File(
-                        getBackupDestination(storageDevice),
-                        STRINGS.getString("Data_Partition"));
-                dataDestination.mkdirs();
-
-                String errorMessage = null;
-                try {
-                    StorageDevice.SystemUpgradeVariant upgradeVariant
-                            = storageDevice.getSystemUpgradeVariant(
-                                    DLCopy.getEnlargedSystemSize(
-                                            source.getSystemSize()));
-                    switch (upgradeVariant) {
-                        case REGULAR:
-                        case REPARTITION:
-                            if (upgradeDataPartition(
-                                    storageDevice, dataDestination)
-                                    & upgradeSystemPartition) {
-                                upgradeEfiAndSystemPartition(storageDevice);
-                            }
-                            break;
-
-                        case BACKUP:
-                            backupInstallRestore(storageDevice);
-                            break;
-
-                        case INSTALLATION:
-                            // TODO: support encryption and checking of copies
-                            DLCopy.copyToStorageDevice(source, fileCopier,
-                                    storageDevice, exchangePartitionLabel,
-                                    this, false, null, false, null, false,
-                                    false, dlCopyGUI);
-                            break;
-
-                        default:
-                            LOGGER.log(Level.WARNING,
-                                    "Unsupported variant {0}", upgradeVariant);
-                    }
-
-                    // automatic removal of (temporary) backup
-                    if (deleteBackup) {
-                        LernstickFileTools.recursiveDelete(
-                                dataDestination, true);
-                    }
-
-                } catch (Exception ex) {
-                    // We really want to catch *ALL* exceptions here, including
-                    // all possible unchecked runtime exceptions. Otherwise they
-                    // just get lost as we dont catch them in the done() method.
-                    LOGGER.log(Level.WARNING, "", ex);
-                    errorMessage = ex.getMessage();
+            if ((maxConcurrentUpgrades > 1) && (deviceListSize > 1)) {
+                upgradeConcurrently();
+            } else {
+                // upgrade all selected storage devices
+                for (int i = 0; i < deviceListSize; i++) {
+                    upgrade(new UpgradeContext(deviceList.get(i), fileCopier),
+                            i + 1);
                 }
-
-                dlCopyGUI.upgradingDeviceFinished(errorMessage);
-
-                LOGGER.log(Level.INFO, "upgrading of storage device finished: "
-                        + "{0} of {1} ({2})", new Object[]{
-                            batchCounter, deviceListSize, storageDevice
-                        });
             }
 
             return null;
 
         } finally {
+            if (squashFSLayerCreator != null) {
+                squashFSLayerCreator.cleanup();
+            }
+            if ((backupStore != null) && deleteBackup) {
+                try {
+                    backupStore.removeUnusedChunks();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                }
+            }
             lock.unlock();
         }
     }
@@ -241,6 +208,8 @@ public class Upgrader extends InstallerOrUpgrader {
             inhibit.delete();
         }
 
+        digestCache.save();
+
         // the following try-catch block is needed to log otherwise invisible
         // runtime exceptions
         try {
@@ -272,6 +241,121 @@ public class Upgrader extends InstallerOrUpgrader {
         dlCopyGUI.showUpgradeWritingBootSector();
     }
 
+    @Override
+    public void unmountSourceTmpPartitions() {
+        // the source partitions are still needed by the other upgrades
+        // (they are unmounted when all upgrades are finished)
+        if (!concurrentUpgradeRunning) {
+            super.unmountSourceTmpPartitions();
+        }
+    }
+
+    private void upgradeConcurrently() throws Exception {
+
+        int threadCount = Math.min(maxConcurrentUpgrades, deviceListSize);
+        LOGGER.log(Level.INFO, "upgrading {0} storage devices with {1} "
+                + "parallel upgrades", new Object[]{
+                    deviceListSize, threadCount});
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(threadCount);
+        concurrentUpgradeRunning = true;
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < deviceListSize; i++) {
+                // every upgrade needs its own FileCopier because a
+                // FileCopier can only run one copy operation at a time
+                UpgradeContext context = new UpgradeContext(
+                        deviceList.get(i), new FileCopier(digestCache));
+                int batchCounter = i + 1;
+                futures.add(executorService.submit(() -> {
+                    upgrade(context, batchCounter);
+                    return null;
+                }));
+            }
+            awaitAll(futures, "upgrade");
+        } finally {
+            // the source partitions, the squashfs layers and the backup
+            // store must not be released before all upgrades are really
+            // terminated
+            shutdownAndAwaitTermination(executorService);
+            concurrentUpgradeRunning = false;
+            source.unmountTmpPartitions();
+        }
+    }
+
+    private void upgrade(UpgradeContext context, int batchCounter) {
+
+        StorageDevice storageDevice = context.getStorageDevice();
+
+        // update overall progress message
+        dlCopyGUI.upgradingDeviceStarted(storageDevice);
+        LOGGER.log(Level.INFO, "upgrading storage device: {0} of {1} ({2})",
+                new Object[]{batchCounter, deviceListSize, storageDevice});
+
+        File dataDestination = new File(getBackupDestination(storageDevice),
+                STRINGS.getString("Data_Partition"));
+        dataDestination.mkdirs();
+
+        String errorMessage = null;
+        try {
+            StorageDevice.SystemUpgradeVariant upgradeVariant
+                    = storageDevice.getSystemUpgradeVariant(
+                            DLCopy.getEnlargedSystemSize(
+                                    source.getSystemSize()));
+            switch (upgradeVariant) {
+                case REGULAR:
+                case REPARTITION:
+                    if (upgradeDataPartition(context, dataDestination)
+                            & upgradeSystemPartition) {
+                        upgradeEfiAndSystemPartition(context);
+                    }
+                    break;
+
+                case BACKUP:
+                    backupInstallRestore(context);
+                    break;
+
+                case INSTALLATION:
+                    // TODO: support encryption and checking of copies
+                    DLCopy.copyToStorageDevice(source,
+                            context.getFileCopier(), storageDevice,
+                            exchangePartitionLabel, this, false, null, false,
+                            null, false, false, dlCopyGUI);
+                    break;
+
+                default:
+                    LOGGER.log(Level.WARNING,
+                            "Unsupported variant {0}", upgradeVariant);
+            }
+
+            // automatic removal of (temporary) backup
+            if (deleteBackup) {
+                LernstickFileTools.recursiveDelete(dataDestination, true);
+                if (backupStore != null) {
+                    // the chunks are removed when all upgrades are finished
+                    backupStore.removeBackup(
+                            getBackupName(storageDevice, "data"));
+                    backupStore.removeBackup(
+                            getBackupName(storageDevice, "exchange"));
+                }
+            }
+
+        } catch (Exception ex) {
+            // We really want to catch *ALL* exceptions here, including all
+            // possible unchecked runtime exceptions. Otherwise they just get
+            // lost as we dont catch them in the done() method.
+            LOGGER.log(Level.WARNING, "", ex);
+            errorMessage = ex.getMessage();
+        }
+
+        dlCopyGUI.upgradingDeviceFinished(storageDevice, errorMessage);
+
+        LOGGER.log(Level.INFO, "upgrading of storage device finished: "
+                + "{0} of {1} ({2})", new Object[]{
+                    batchCounter, deviceListSize, storageDevice
+                });
+    }
+
     private File getBackupDestination(StorageDevice storageDevice) {
         // use the device serial number as unique identifier for backups
         // (but replace all slashes because they are not allowed in
@@ -280,10 +364,17 @@ public class Upgrader extends InstallerOrUpgrader {
         return new File(automaticBackupDestination, backupUID);
     }
 
-    private void backupInstallRestore(StorageDevice storageDevice)
+    private String getBackupName(StorageDevice storageDevice, String suffix) {
+        // the same unique identifier as in getBackupDestination()
+        return storageDevice.getSerial().replaceAll("/", "-") + '-' + suffix;
+    }
+
+    private void backupInstallRestore(UpgradeContext context)
             throws InterruptedException, IOException, DBusException,
             SQLException, NoSuchAlgorithmException {
 
+        StorageDevice storageDevice = context.getStorageDevice();
+
         //TODO: union old squashfs and data partition!
         // prepare backup destination directories
         File dataDestination = new File(getBackupDestination(storageDevice),
@@ -296,57 +387,84 @@ public class Upgrader extends InstallerOrUpgrader {
         // backup
         Partition dataPartition = storageDevice.getDataPartition();
         String dataMountPoint = dataPartition.mount().getMountPath();
-        backupUserData(dataMountPoint, dataDestination);
+        backupUserData(context, dataMountPoint, dataDestination);
         dataPartition.umount();
-        backupExchangePartition(storageDevice, exchangeDestination);
+        backupExchangePartition(context, storageDevice, exchangeDestination);
 
         // installation
         // TODO: support encryption and checking of copies
-        DLCopy.copyToStorageDevice(source, fileCopier, storageDevice,
-                exchangePartitionLabel, this, false, null, false, null, false,
-                false, dlCopyGUI);
+        DLCopy.copyToStorageDevice(source, context.getFileCopier(),
+                storageDevice, exchangePartitionLabel, this, false, null, false,
+                null, false, false, dlCopyGUI);
 
         // !!! update reference to storage device !!!
         // copyToStorageDevice() may change the storage device completely
         storageDevice = new StorageDevice(storageDevice.getDevice());
-        restoreDataPartition(storageDevice, dataDestination);
-        restoreExchangePartition(storageDevice, exchangeDestination);
+        restoreDataPartition(context, storageDevice, dataDestination);
+        restoreExchangePartition(context, storageDevice, exchangeDestination);
     }
 
-    private void backupUserData(String mountPoint, File backupDestination)
-            throws IOException {
+    private void backupUserData(UpgradeContext context, String mountPoint,
+            File backupDestination) throws IOException {
+
+        List<String> includes = new ArrayList<>();
+        includes.add("home/user");
+        if (keepPrinterSettings) {
+            includes.add("etc/cups");
+        }
+        if (keepNetworkSettings) {
+            includes.add("etc/NetworkManager");
+        }
+        if (keepFirewallSettings) {
+            includes.add("etc/lernstick-firewall");
+        }
+
+        StorageDevice storageDevice = context.getStorageDevice();
+        if (backupStore != null) {
+            BackupStore.Progress progress = new BackupStore.Progress();
+            Timer backupTimer = new Timer(1000, new BackupActionListener(
+                    true, progress, storageDevice, dlCopyGUI));
+            backupTimer.setInitialDelay(0);
+            backupTimer.start();
+            dlCopyGUI.showUpgradeBackup();
+            try {
+                backupStore.backup(Paths.get(mountPoint), includes,
+                        getBackupName(storageDevice, "data"), progress);
+            } finally {
+                backupTimer.stop();
+            }
+            return;
+        }
 
         // prepare backup run
         File backupSource = new File(mountPoint);
         RdiffBackupRestore rdiffBackupRestore = new RdiffBackupRestore();
-        Timer backupTimer = new Timer(1000, new BackupActionListener(
-                true, rdiffBackupRestore, dlCopyGUI));
+        Timer backupTimer = new Timer(1000, new BackupActionListener(true,
+                rdiffBackupRestore, storageDevice, dlCopyGUI));
         backupTimer.setInitialDelay(0);
         backupTimer.start();
         dlCopyGUI.showUpgradeBackup();
 
-        String includes = mountPoint + "/home/user/";
-        if (keepPrinterSettings) {
-            includes += '\n' + mountPoint + "/etc/cups/";
-        }
-        if (keepNetworkSettings) {
-            includes += '\n' + mountPoint + "/etc/NetworkManager/";
-        }
-        if (keepFirewallSettings) {
-            includes += '\n' + mountPoint + "/etc/lernstick-firewall/";
+        StringBuilder rdiffIncludes = new StringBuilder();
+        for (String include : includes) {
+            if (rdiffIncludes.length() > 0) {
+                rdiffIncludes.append('\n');
+            }
+            rdiffIncludes.append(mountPoint).append('/').append(include)
+                    .append('/');
         }
 
         // run the actual backup process
         rdiffBackupRestore.backupViaFileSystem(backupSource,
-                backupDestination, null, mountPoint, includes, true, null,
-                null, false, false, false, false, false);
+                backupDestination, null, mountPoint, rdiffIncludes.toString(),
+                true, null, null, false, false, false, false, false);
 
         // cleanup
         backupTimer.stop();
     }
 
-    private void backupExchangePartition(StorageDevice storageDevice,
-            File exchangeDestination)
+    private void backupExchangePartition(UpgradeContext context,
+            StorageDevice storageDevice, File exchangeDestination)
             throws DBusException, IOException, NoSuchAlgorithmException {
 
         Partition exchangePartition = storageDevice.getExchangePartition();
@@ -356,7 +474,24 @@ public class Upgrader extends InstallerOrUpgrader {
         }
         String mountPath = exchangePartition.mount().getMountPath();
 
+        if (backupStore != null) {
+            BackupStore.Progress progress = new BackupStore.Progress();
+            Timer backupTimer = new Timer(1000, new BackupActionListener(
+                    true, progress, storageDevice, dlCopyGUI));
+            backupTimer.setInitialDelay(0);
+            backupTimer.start();
+            dlCopyGUI.showUpgradeBackup();
+            try {
+                backupStore.backup(Paths.get(mountPath), null,
+                        getBackupName(storageDevice, "exchange"), progress);
+            } finally {
+                backupTimer.stop();
+            }
+            return;
+        }
+
         // GUI update
+        FileCopier fileCopier = context.getFileCopier();
         dlCopyGUI.showUpgradeBackupExchangePartition(fileCopier);
 
         // Unfortunately, rdiffbackup does not work with exFAT or NTFS.
@@ -368,7 +503,7 @@ public class Upgrader extends InstallerOrUpgrader {
         fileCopier.copy(new CopyJob(sources, destinations));
     }
 
-    private void restoreDataPartition(
+    private void restoreDataPartition(UpgradeContext context,
             StorageDevice storageDevice, File restoreSourceDir)
             throws DBusException, IOException, SQLException {
 
@@ -380,9 +515,36 @@ public class Upgrader extends InstallerOrUpgrader {
 
         String mountPath = dataPartition.mount().getMountPath();
 
+        File restoreDestinationDir;
+        if (DLCopy.getMajorDebianVersion() > 8) {
+            restoreDestinationDir = new File(mountPath, "rw");
+        } else {
+            restoreDestinationDir = new File(mountPath);
+        }
+
         // restore data
         dlCopyGUI.showUpgradeRestoreInit();
 
+        if (backupStore != null) {
+            BackupStore.Progress progress = new BackupStore.Progress();
+            Timer restoreTimer = new Timer(1000, new BackupActionListener(
+                    false, progress, context.getStorageDevice(), dlCopyGUI));
+            restoreTimer.setInitialDelay(0);
+            restoreTimer.start();
+            dlCopyGUI.showUpgradeRestoreRunning();
+            try {
+                backupStore.restore(getBackupName(storageDevice, "data"),
+                        restoreDestinationDir.toPath(), progress);
+                // must happen *after* restoring the files (see below)
+                finalizeDataPartition(restoreDestinationDir.getPath());
+                DLCopy.writePersistenceConf(mountPath);
+                dataPartition.umount();
+            } finally {
+                restoreTimer.stop();
+            }
+            return;
+        }
+
         RdiffFileDatabase rdiffFileDatabase
                 = RdiffFileDatabase.getInstance(restoreSourceDir);
         rdiffFileDatabase.sync();
@@ -396,20 +558,13 @@ public class Upgrader extends InstallerOrUpgrader {
 
         // create a new RdiffBackupRestore instance to reset its counters
         RdiffBackupRestore rdiffBackupRestore = new RdiffBackupRestore();
-        Timer restoreTimer = new Timer(1000, new BackupActionListener(
-                false, rdiffBackupRestore, dlCopyGUI));
+        Timer restoreTimer = new Timer(1000, new BackupActionListener(false,
+                rdiffBackupRestore, context.getStorageDevice(), dlCopyGUI));
         restoreTimer.setInitialDelay(0);
         restoreTimer.start();
 
         dlCopyGUI.showUpgradeRestoreRunning();
 
-        File restoreDestinationDir;
-        if (DLCopy.getMajorDebianVersion() > 8) {
-            restoreDestinationDir = new File(mountPath, "rw");
-        } else {
-            restoreDestinationDir = new File(mountPath);
-        }
-
         rdiffBackupRestore.restore("now", rdiffRoot,
                 restoreSourceDir, restoreDestinationDir, null, false);
 
@@ -427,7 +582,7 @@ public class Upgrader extends InstallerOrUpgrader {
         restoreTimer.stop();
     }
 
-    private void restoreExchangePartition(
+    private void restoreExchangePartition(UpgradeContext context,
             StorageDevice storageDevice, File restoreSourceDir)
             throws DBusException, IOException,
             SQLException, NoSuchAlgorithmException {
@@ -438,6 +593,25 @@ public class Upgrader extends InstallerOrUpgrader {
             return;
         }
 
+        if (backupStore != null) {
+            BackupStore.Progress progress = new BackupStore.Progress();
+            Timer restoreTimer = new Timer(1000, new BackupActionListener(
+                    false, progress, context.getStorageDevice(), dlCopyGUI));
+            restoreTimer.setInitialDelay(0);
+            restoreTimer.start();
+            dlCopyGUI.showUpgradeRestoreRunning();
+            try {
+                backupStore.restore(getBackupName(storageDevice, "exchange"),
+                        Paths.get(exchangePartition.mount().getMountPath()),
+                        progress);
+                exchangePartition.umount();
+            } finally {
+                restoreTimer.stop();
+            }
+            return;
+        }
+
+        FileCopier fileCopier = context.getFileCopier();
         dlCopyGUI.showUpgradeRestoreExchangePartition(fileCopier);
 
         Source[] sources = new Source[]{
@@ -449,11 +623,12 @@ public class Upgrader extends InstallerOrUpgrader {
         exchangePartition.umount();
     }
 
-    private boolean upgradeDataPartition(StorageDevice storageDevice,
+    private boolean upgradeDataPartition(UpgradeContext context,
             File backupDestination) throws DBusException, IOException {
 
         dlCopyGUI.showUpgradeDataPartitionReset();
 
+        StorageDevice storageDevice = context.getStorageDevice();
         Partition dataPartition = storageDevice.getDataPartition();
         if (dataPartition == null) {
             LOGGER.log(Level.WARNING,
@@ -522,18 +697,18 @@ public class Upgrader extends InstallerOrUpgrader {
 
         // backup
         if (automaticBackup) {
-            backupUserData(cowPath, backupDestination);
+            backupUserData(context, cowPath, backupDestination);
             dlCopyGUI.showUpgradeDataPartitionReset();
         }
 
         // remember user settings before reset
         if (keepUserSettings) {
-            userConfiguration = new UserConfiguration(cowPath);
+            context.setUserConfiguration(new UserConfiguration(cowPath));
         }
 
         // reset data partition
         if (resetDataPartition) {
-            resetDataPartition(cowPath, dataMountPoint,
+            resetDataPartition(storageDevice, cowPath, dataMountPoint,
                     majorDebianVersion, upgradeFromAufsToOverlay);
             // the data partition gets unmounted by resetDataPartition
             // therefore we have to remount it here
@@ -542,7 +717,7 @@ public class Upgrader extends InstallerOrUpgrader {
         }
 
         if (upgradeSystemPartition) {
-            copyUp(cowPath);
+            copyUp(context, cowPath);
         }
 
         // upgrading from aufs to overlay has to happen before calling
@@ -607,6 +782,11 @@ public class Upgrader extends InstallerOrUpgrader {
             return false;
         }
 
+        // The golden snapshot contains the upper layer of the old system.
+        // It can't be refreshed because the data partition now contains user
+        // data, so later resets fall back to deleting files.
+        DLCopy.deleteGoldenSnapshot(dataPartition);
+
         // upgrade label (if necessary)
         if (!(dataPartition.getIdLabel().equals(Partition.PERSISTENCE_LABEL))) {
             ProcessExecutor processExecutor = new ProcessExecutor();
@@ -618,9 +798,9 @@ public class Upgrader extends InstallerOrUpgrader {
         return true;
     }
 
-    private void resetDataPartition(String cowPath, String dataMountPoint,
-            int majorDebianVersion, boolean upgradeFromAufsToOverlay)
-            throws IOException {
+    private void resetDataPartition(StorageDevice storageDevice,
+            String cowPath, String dataMountPoint, int majorDebianVersion,
+            boolean upgradeFromAufsToOverlay) throws IOException {
 
         // first umount the filesystem union (aufs or overlay)
         // (otherwise we would wreak havoc on the filesystem metadata)
@@ -648,7 +828,7 @@ public class Upgrader extends InstallerOrUpgrader {
                 || keepFirewallSettings) {
             excludes.add("/etc.*");
         }
-        cleanup(cleanupRoot, excludes);
+        cleanup(storageDevice, cleanupRoot, excludes);
 
         cleanupRoot += "/etc";
         excludes.clear();
@@ -665,7 +845,7 @@ public class Upgrader extends InstallerOrUpgrader {
                 excludes.add("/lernstick-firewall.*");
             }
         }
-        cleanup(cleanupRoot, excludes);
+        cleanup(storageDevice, cleanupRoot, excludes);
     }
 
     private String mountDataPartition(String dataMountPoint,
@@ -685,90 +865,36 @@ public class Upgrader extends InstallerOrUpgrader {
         }
     }
 
-    private int cleanup(String root, List<String> excludes) {
-        List<String> commandList = new ArrayList<>();
-        commandList.add("find");
-        commandList.add(root);
-        addExclude(commandList, root);
+    private void cleanup(StorageDevice storageDevice, String root,
+            List<String> excludes) throws IOException {
+        List<String> absoluteExcludes = new ArrayList<>();
         excludes.forEach((exclude) -> {
-            addExclude(commandList, root + exclude);
+            absoluteExcludes.add(root + exclude);
         });
-        commandList.add("-delete");
-        String[] command = commandList.toArray(new String[commandList.size()]);
-        ProcessExecutor processExecutor = new ProcessExecutor();
-        return processExecutor.executeProcess(true, true, command);
+        ParallelDeleter parallelDeleter = new ParallelDeleter(
+                absoluteExcludes, (files) -> {
+                    dlCopyGUI.setUpgradeDeleteProgress(storageDevice, files);
+                });
+        parallelDeleter.delete(Paths.get(root));
     }
 
-    private void addExclude(List<String> commandList, String exclude) {
-        commandList.addAll(Arrays.asList("!", "-regex", exclude));
-    }
-
-    private void copyUp(String cowPath) throws IOException {
+    private void copyUp(UpgradeContext context, String cowPath)
+            throws IOException {
         // Copy-up all personal data from old squashfs to data partition.
-        // For aufs and overlayfs it is enough to change the access file stamp
-        // of files and directories to trigger a copy-up action. Symbolic links
-        // have to be recreated to be "copied up" to the data partition.
-        final FileTime fileTime = FileTime.fromMillis(
-                System.currentTimeMillis());
-        FileVisitor<Path> copyUpFileVisitor = new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file,
-                    BasicFileAttributes attributes) throws IOException {
-                if (Files.isSymbolicLink(file)) {
-                    // recreate symbolic link
-                    Path target = Files.readSymbolicLink(file);
-                    LOGGER.log(Level.INFO,
-                            "recreating symbolic link {0} > {1}",
-                            new Object[]{file, target});
-                    Files.delete(file);
-                    Files.createSymbolicLink(file, target);
-                } else if (attributes.isOther()) {
-                    LOGGER.log(Level.WARNING, "skipping {0} (probably a "
-                            + "named pipe or unix domain socket, both are "
-                            + "not supported!)", file);
-                } else {
-                    changeAccessTime(file);
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir,
-                    BasicFileAttributes attrs) throws IOException {
-                changeAccessTime(dir);
-                return FileVisitResult.CONTINUE;
-            }
-
-            private void changeAccessTime(Path path) throws IOException {
-                // change file access time
-                LOGGER.log(Level.INFO, "updating access time of {0}", path);
-                BasicFileAttributeView attributeView
-                        = Files.getFileAttributeView(
-                                path, BasicFileAttributeView.class);
-                attributeView.setTimes(null, fileTime, null);
-            }
-        };
-
-        copyUp(cowPath, "home", copyUpFileVisitor);
-
+        StorageDevice storageDevice = context.getStorageDevice();
+        List<Path> directories = new ArrayList<>();
+        directories.add(Paths.get(cowPath, "home"));
         if (keepPrinterSettings) {
-            copyUp(cowPath, "etc/cups", copyUpFileVisitor);
+            directories.add(Paths.get(cowPath, "etc/cups"));
         }
         if (keepNetworkSettings) {
-            copyUp(cowPath, "etc/NetworkManager", copyUpFileVisitor);
+            directories.add(Paths.get(cowPath, "etc/NetworkManager"));
         }
         if (keepFirewallSettings) {
-            copyUp(cowPath, "etc/lernstick-firewall", copyUpFileVisitor);
-        }
-    }
-
-    private void copyUp(String cowPath, String directory,
-            FileVisitor<Path> fileVisitor) throws IOException {
-
-        Path path = Paths.get(cowPath, directory);
-        if (Files.exists(path)) {
-            Files.walkFileTree(path, fileVisitor);
+            directories.add(Paths.get(cowPath, "etc/lernstick-firewall"));
         }
+        new ParallelCopyUp((files, bytes) -> dlCopyGUI.setUpgradeCopyUpProgress(
+                storageDevice, files, bytes)).copyUp(directories);
     }
 
     private void finalizeDataPartition(String persistenceRoot)
@@ -833,10 +959,11 @@ public class Upgrader extends InstallerOrUpgrader {
         }
     }
 
-    private boolean upgradeEfiAndSystemPartition(StorageDevice storageDevice)
+    private boolean upgradeEfiAndSystemPartition(UpgradeContext context)
             throws DBusException, IOException,
             InterruptedException, NoSuchAlgorithmException, SQLException {
 
+        StorageDevice storageDevice = context.getStorageDevice();
         String device = storageDevice.getDevice();
         String devicePath = "/dev/" + device;
         Partition efiPartition = storageDevice.getEfiPartition();
@@ -869,7 +996,8 @@ public class Upgrader extends InstallerOrUpgrader {
             exchangeDestination = new File(getBackupDestination(storageDevice),
                     STRINGS.getString("Exchange_Partition"));
             exchangeDestination.mkdirs();
-            backupExchangePartition(storageDevice, exchangeDestination);
+            backupExchangePartition(
+                    context, storageDevice, exchangeDestination);
 
             dlCopyGUI.showUpgradeChangingPartitionSizes();
 
@@ -919,7 +1047,8 @@ public class Upgrader extends InstallerOrUpgrader {
         }
 
         if (efiUpgradeVariant == EfiUpgradeVariant.ENLARGE_BACKUP) {
-            restoreExchangePartition(storageDevice, exchangeDestination);
+            restoreExchangePartition(
+                    context, storageDevice, exchangeDestination);
             dlCopyGUI.showUpgradeChangingPartitionSizes();
         }
 
@@ -1048,7 +1177,9 @@ public class Upgrader extends InstallerOrUpgrader {
                 return false;
             }
             // refresh storage device and partition info
-            processExecutor.executeProcess(true, true, "/sbin/partprobe");
+            // (only this device, other devices might be upgraded in parallel)
+            processExecutor.executeProcess(
+                    true, true, "/sbin/partprobe", devicePath);
             // safety wait so that new partitions are known to the system
             // (7 seconds were NOT enough!)
             TimeUnit.SECONDS.sleep(7);
@@ -1115,16 +1246,59 @@ public class Upgrader extends InstallerOrUpgrader {
                 storageDevice, efiPartition, exchangePartition,
                 systemPartition, exchangePartitionFS);
 
-        // clean up EFI and system partition
-        cleanupPartition(new File(copyJobsInfo.getDestinationEfiPath()));
-        cleanupPartition(new File(copyJobsInfo.getDestinationSystemPath()));
+        // The system partition is updated in place. The md5sum.txt files of
+        // the source and the old destination tell us which files are
+        // unchanged and can be skipped without reading them.
+        String destinationEfiPath = copyJobsInfo.getDestinationEfiPath();
+        Map<String, String> destinationDigests = DeltaFileCopier.readMd5Sums(
+                new File(destinationEfiPath, "md5sum.txt"));
+        Map<String, String> sourceDigests = DeltaFileCopier.readMd5Sums(
+                new File(source.getEfiCopySource().getBaseDirectory(),
+                        "md5sum.txt"));
+
+        // clean up EFI partition
+        cleanupPartition(new File(destinationEfiPath));
+
+        // The system partition must be updated before the EFI partition.
+        // Otherwise an interrupted upgrade could leave the new md5sum.txt
+        // next to a partially updated system partition and the next upgrade
+        // would skip the files that were not yet updated.
+        LOGGER.info("starting system partition update");
+        String destinationSystemPath = copyJobsInfo.getDestinationSystemPath();
+        List<String> destinationImages
+                = SystemSource.getSystemImages(destinationSystemPath);
+        SystemLayer systemLayer = getSystemLayer(destinationSystemPath,
+                destinationImages, sourceDigests, destinationDigests);
+        if (systemLayer == null) {
+            if (destinationImages.size() > 1) {
+                // The layers were created for the old base image and must
+                // not be stacked on top of the rewritten one, not even when
+                // the upgrade gets interrupted.
+                writeSystemModule(destinationSystemPath,
+                        Collections.singletonList(
+                                SystemSource.SYSTEM_IMAGE_PATH));
+            }
+            DeltaFileCopier deltaFileCopier = new DeltaFileCopier();
+            deltaFileCopier.setDigests(sourceDigests, destinationDigests);
+            dlCopyGUI.showUpgradeFileCopy(deltaFileCopier);
+            deltaFileCopier.copy(copyJobsInfo.getSystemCopyJob());
+        } else {
+            addSystemLayer(context, destinationSystemPath, destinationImages,
+                    systemLayer);
+        }
 
         LOGGER.info("starting copy job");
+        FileCopier fileCopier = context.getFileCopier();
         dlCopyGUI.showUpgradeFileCopy(fileCopier);
 
         CopyJob bootFilesCopyJob = copyJobsInfo.getExchangeEfiCopyJob();
-        fileCopier.copy(copyJobsInfo.getEfiCopyJob(),
-                bootFilesCopyJob, copyJobsInfo.getSystemCopyJob());
+        fileCopier.copy(copyJobsInfo.getEfiCopyJob(), bootFilesCopyJob);
+
+        if (systemLayer != null) {
+            // the md5sum.txt of the source lists the images of the source
+            updateSystemMd5Sums(destinationEfiPath, destinationSystemPath,
+                    destinationImages, destinationDigests, systemLayer);
+        }
 
         dlCopyGUI.showUpgradeUnmounting();
         DLCopy.isolinuxToSyslinux(
@@ -1134,7 +1308,9 @@ public class Upgrader extends InstallerOrUpgrader {
         dlCopyGUI.showUpgradeWritingBootSector();
         DLCopy.makeBootable(source, devicePath, efiPartition);
 
-        if (keepUserSettings && (userConfiguration.getPasswdLine() != null
+        UserConfiguration userConfiguration = context.getUserConfiguration();
+        if (keepUserSettings && (userConfiguration != null)
+                && (userConfiguration.getPasswdLine() != null
                 || userConfiguration.getShadowLine() != null
                 || userConfiguration.getGroupLine() != null
                 || userConfiguration.getGroups() != null
@@ -1171,13 +1347,141 @@ public class Upgrader extends InstallerOrUpgrader {
         }
 
         // cleanup
-        source.unmountTmpPartitions();
+        unmountSourceTmpPartitions();
         if (!DLCopy.umount(efiPartition, dlCopyGUI)) {
             return false;
         }
         return DLCopy.umount(systemPartition, dlCopyGUI);
     }
 
+    // returns the layer that updates the system partition of a storage
+    // device or null, if the system partition must be updated completely
+    private SystemLayer getSystemLayer(String destinationSystemPath,
+            List<String> destinationImages, Map<String, String> sourceDigests,
+            Map<String, String> destinationDigests) throws IOException {
+
+        if ((squashFSLayerCreator == null)
+                || (DLCopy.getMajorDebianVersion() < 9)) {
+            // layers need overlay whiteouts (Debian 9 and newer)
+            return null;
+        }
+
+        if (destinationImages.size() >= maxSystemLayers) {
+            LOGGER.log(Level.INFO, "compacting the {0} images of {1}",
+                    new Object[]{destinationImages.size(),
+                        destinationSystemPath});
+            return null;
+        }
+
+        // The MD5 sums of all images identify the system on the storage
+        // device. Storage devices with the same system can use the same layer.
+        List<String> sourceImages
+                = SystemSource.getSystemImages(source.getSystemPath());
+        StringBuilder key = new StringBuilder();
+        boolean upToDate = sourceImages.equals(destinationImages);
+        for (String image : destinationImages) {
+            String digest = destinationDigests.get(image);
+            if ((digest == null)
+                    || !new File(destinationSystemPath, image).isFile()) {
+                LOGGER.log(Level.INFO, "unknown image {0} in {1}",
+                        new Object[]{image, destinationSystemPath});
+                return null;
+            }
+            upToDate &= digest.equals(sourceDigests.get(image));
+            key.append(image).append(' ').append(digest).append('\n');
+        }
+        if (upToDate) {
+            // nothing to add, DeltaFileCopier skips all images
+            return null;
+        }
+
+        SystemLayer systemLayer = squashFSLayerCreator.getLayer(
+                destinationSystemPath, destinationImages, key.toString());
+        if ((systemLayer != null) && (systemLayer.getFile().length()
+                >= new File(destinationSystemPath).getUsableSpace())) {
+            LOGGER.log(Level.INFO, "{0} has not enough space for {1}",
+                    new Object[]{destinationSystemPath, systemLayer});
+            return null;
+        }
+        return systemLayer;
+    }
+
+    private void addSystemLayer(UpgradeContext context,
+            String destinationSystemPath, List<String> destinationImages,
+            SystemLayer systemLayer)
+            throws IOException, NoSuchAlgorithmException {
+
+        LOGGER.log(Level.INFO, "adding {0} to {1}",
+                new Object[]{systemLayer, destinationSystemPath});
+
+        // copy the layer and the other (small) system files, e.g. the package
+        // list
+        Source layerSource = new Source(systemLayer.getBaseDirectory(),
+                systemLayer.getPath());
+        Source systemFilesSource = new Source(source.getSystemPath(),
+                "live/filesystem\\.(?!module$|.*\\.squashfs$).*");
+        FileCopier fileCopier = context.getFileCopier();
+        dlCopyGUI.showUpgradeFileCopy(fileCopier);
+        fileCopier.copy(new CopyJob(
+                new Source[]{layerSource, systemFilesSource},
+                new String[]{destinationSystemPath}));
+
+        // Activate the layer only after it was copied completely. An
+        // interrupted upgrade keeps the old system.
+        List<String> images = new ArrayList<>(destinationImages);
+        images.add(systemLayer.getPath());
+        writeSystemModule(destinationSystemPath, images);
+    }
+
+    // atomically replaces the module file that lists the images live-boot
+    // stacks on a system partition
+    private static void writeSystemModule(String destinationSystemPath,
+            List<String> images) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String image : images) {
+            lines.add(new File(image).getName());
+        }
+        Path modulePath = Paths.get(
+                destinationSystemPath, SystemSource.SYSTEM_MODULE_PATH);
+        Path tmpModulePath = Paths.get(modulePath + ".tmp");
+        Files.write(tmpModulePath, lines);
+        Files.move(tmpModulePath, modulePath,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void updateSystemMd5Sums(String destinationEfiPath,
+            String destinationSystemPath, List<String> destinationImages,
+            Map<String, String> destinationDigests, SystemLayer systemLayer)
+            throws IOException, NoSuchAlgorithmException {
+
+        File md5sumFile = new File(destinationEfiPath, "md5sum.txt");
+        if (!md5sumFile.isFile()) {
+            return;
+        }
+
+        // remove the entries of the images and module file of the source
+        List<String> lines = new ArrayList<>();
+        for (String line : LernstickFileTools.readFile(md5sumFile)) {
+            if (!line.contains("./live/filesystem.squashfs")
+                    && !line.contains("./live/filesystem.layer")
+                    && !line.contains("./" + SystemSource.SYSTEM_MODULE_PATH)) {
+                lines.add(line);
+            }
+        }
+
+        // add the entries of the layered system partition
+        for (String image : destinationImages) {
+            lines.add(destinationDigests.get(image) + "  ./" + image);
+        }
+        lines.add(systemLayer.getMd5Sum() + "  ./" + systemLayer.getPath());
+        String moduleMd5Sum = SquashFSLayerCreator.getMd5Sum(new File(
+                destinationSystemPath, SystemSource.SYSTEM_MODULE_PATH));
+        lines.add(moduleMd5Sum + "  ./" + SystemSource.SYSTEM_MODULE_PATH);
+
+        LernstickFileTools.writeFile(md5sumFile, lines);
+    }
+
     private void cleanupPartition(File moutPoint) throws IOException {
         LOGGER.log(Level.INFO, "recursively deleting {0}", moutPoint);
         // The file syslinux/ldlinux.sys has the immutable flag set. To be able
@@ -1187,8 +1491,10 @@ public class Upgrader extends InstallerOrUpgrader {
             ProcessExecutor processExecutor = new ProcessExecutor();
             processExecutor.executeProcess("chattr", "-i", ldLinuxPath);
         }
-        LernstickFileTools.recursiveDelete(moutPoint, false);
-
+        // the EFI partition is small, no need to show the progress
+        ParallelDeleter parallelDeleter = new ParallelDeleter(
+                Collections.emptyList(), (files) -> {});
+        parallelDeleter.delete(moutPoint.toPath());
     }
 
     @Override
@@ -1196,4 +1502,34 @@ public class Upgrader extends InstallerOrUpgrader {
         return DLCopy.getUpgradePartitionSizes(source, storageDevice,
                 repartitionStrategy, resizedExchangePartitionSize);
     }
+
+    // the state of a single storage device upgrade
+    private static class UpgradeContext {
+
+        private final StorageDevice storageDevice;
+        private final FileCopier fileCopier;
+        private UserConfiguration userConfiguration;
+
+        public UpgradeContext(StorageDevice storageDevice,
+                FileCopier fileCopier) {
+            this.storageDevice = storageDevice;
+            this.fileCopier = fileCopier;
+        }
+
+        public StorageDevice getStorageDevice() {
+            return storageDevice;
+        }
+
+        public FileCopier getFileCopier() {
+            return fileCopier;
+        }
+
+        public UserConfiguration getUserConfiguration() {
+            return userConfiguration;
+        }
+
+        public void setUserConfiguration(UserConfiguration userConfiguration) {
+            this.userConfiguration = userConfiguration;
+        }
+    }
 }
@@ -0,0 +1,116 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.StorageDevice;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Determines the used space of partitions.
+ * <p>
+ * <code>Partition.getUsedSpace()</code> has to mount an unmounted partition
+ * first. For unmounted partitions with a supported file system the used space
+ * is read from the file system metadata via the {@link SuperblockReader}
+ * instead. The results are cached as long as the partition doesn't change.
+ * <p>
+ * Probing blocks, therefore {@link #getUsedSpace(Partition, boolean)} must be
+ * called in background threads (e.g. when initializing the storage device
+ * lists) and the Swing renderers only use
+ * {@link #getCachedUsedSpace(Partition, boolean)}.
+ */
+public class UsedSpaceProbe {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(UsedSpaceProbe.class.getName());
+
+    // the used space of partitions, see getKey()
+    private static final Map<String, Long> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * returns the used space of a partition, determines and caches it if it
+     * is not cached yet (may block, never call it in the Swing event thread)
+     *
+     * @param partition the partition
+     * @param onlyHome if only the space used in the home directory should be
+     * returned (always needs a mounted partition)
+     * @return the used space of the partition or -1 if it is unknown
+     */
+    public static long getUsedSpace(Partition partition, boolean onlyHome) {
+        String key = getKey(partition, onlyHome);
+        Long usedSpace = CACHE.get(key);
+        if (usedSpace != null) {
+            return usedSpace;
+        }
+        usedSpace = probe(partition, onlyHome);
+        if (usedSpace != -1) {
+            CACHE.put(key, usedSpace);
+        }
+        return usedSpace;
+    }
+
+    /**
+     * returns the cached used space of a partition without determining it
+     *
+     * @param partition the partition
+     * @param onlyHome if only the space used in the home directory should be
+     * returned
+     * @return the cached used space of the partition or -1 if it is not cached
+     */
+    public static long getCachedUsedSpace(
+            Partition partition, boolean onlyHome) {
+        return CACHE.getOrDefault(getKey(partition, onlyHome), -1L);
+    }
+
+    /**
+     * removes the cached used space of all partitions of a storage device,
+     * must be called when the file systems on a storage device were changed
+     *
+     * @param storageDevice the changed storage device
+     */
+    public static void invalidate(StorageDevice storageDevice) {
+        String prefix = storageDevice.getSerial() + ':';
+        CACHE.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private static long probe(Partition partition, boolean onlyHome) {
+        if (!onlyHome) {
+            String device = "/dev/" + partition.getDeviceAndNumber();
+            if (!isMounted(device)) {
+                try {
+                    return SuperblockReader.getUsedSpace(
+                            device, partition.getIdType());
+                } catch (IOException ex) {
+                    // unsupported file system, missing permissions, ...
+                    LOGGER.log(Level.FINE, "", ex);
+                }
+            }
+        }
+        return partition.getUsedSpace(onlyHome);
+    }
+
+    private static String getKey(Partition partition, boolean onlyHome) {
+        // the partition table of a storage device may have changed
+        // (or another storage device got the same device name)
+        return partition.getStorageDevice().getSerial() + ':'
+                + partition.getDeviceAndNumber() + ':'
+                + partition.getOffset() + ':' + partition.getSize() + ':'
+                + partition.getIdType() + ':' + partition.getIdLabel() + ':'
+                + onlyHome;
+    }
+
+    private static boolean isMounted(String device) {
+        try {
+            return Files.readAllLines(Paths.get("/proc/mounts")).stream()
+                    .anyMatch(line -> line.startsWith(device + ' '));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            // play it safe, the metadata of mounted file systems is unreliable
+            return true;
+        }
+    }
+}
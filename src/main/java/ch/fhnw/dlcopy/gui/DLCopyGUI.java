@@ -1,6 +1,6 @@
 package ch.fhnw.dlcopy.gui;
 
-import ch.fhnw.dlcopy.Installer;
+import ch.fhnw.dlcopy.DataPartitionCopier;
 import ch.fhnw.filecopier.FileCopier;
 import ch.fhnw.util.StorageDevice;
 import java.nio.file.Path;
@@ -21,7 +21,9 @@ public interface DLCopyGUI {
     }
 
     /**
-     * sets the info about the currently installed device
+     * called when installing of a StorageDevice started (when installing
+     * several StorageDevices in parallel, this method may be called again
+     * before the previous installation finished)
      *
      * @param storageDevice the StorageDevice to be installed
      */
@@ -29,6 +31,18 @@ public interface DLCopyGUI {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * called when the current thread continues the installation of a
+     * StorageDevice that was started on another thread (the following
+     * progress callbacks of the current thread belong to this installation)
+     *
+     * @param storageDevice the StorageDevice to be installed
+     */
+    public default void installingDeviceContinued(
+            StorageDevice storageDevice) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     /**
      * shows the user interface for creating file systems of a running
      * installation
@@ -63,21 +77,10 @@ public interface DLCopyGUI {
      * shows the user interface for copying the persistency partition during
      * installation
      *
-     * @param installer the Installer currently in use
-     * @param copyScript the shell script for the copy operation
-     * @param sourcePath the path to the source directory
+     * @param dataPartitionCopier the DataPartitionCopier used for copying
      */
     public default void showInstallPersistencyCopy(
-            Installer installer, String copyScript, String sourcePath) {
-        throw new UnsupportedOperationException("Not supported yet.");
-    }
-
-    /**
-     * sets the current output line of the copy process
-     *
-     * @param line the current output line of the copy process
-     */
-    public default void setInstallCopyLine(String line) {
+            DataPartitionCopier dataPartitionCopier) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
@@ -99,11 +102,12 @@ public interface DLCopyGUI {
     /**
      * called when installing of a StorageDevice finished
      *
+     * @param storageDevice the StorageDevice that was installed
      * @param errorMessage the error message or <code>null</code> if there was
      * no error
      * @param autoNumberStart the new auto numbering start value
      */
-    public default void installingDeviceFinished(
+    public default void installingDeviceFinished(StorageDevice storageDevice,
             String errorMessage, int autoNumberStart) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
@@ -209,9 +213,11 @@ public interface DLCopyGUI {
     /**
      * sets the progress of the backup/restore process when upgrading a system
      *
+     * @param storageDevice the upgraded StorageDevice
      * @param progressInfo the backup progress message (e.g. "x of y files")
      */
-    public default void setUpgradeBackupProgress(String progressInfo) {
+    public default void setUpgradeBackupProgress(
+            StorageDevice storageDevice, String progressInfo) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
@@ -219,19 +225,48 @@ public interface DLCopyGUI {
      * sets the currently processed file of the backup/restore process when
      * upgrading a system
      *
+     * @param storageDevice the upgraded StorageDevice
      * @param filename the name of the currently processed file
      */
-    public default void setUpgradeBackupFilename(String filename) {
+    public default void setUpgradeBackupFilename(
+            StorageDevice storageDevice, String filename) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
     /**
      * sets the duration of the currently running backup/restore process
      *
+     * @param storageDevice the upgraded StorageDevice
      * @param duration the duration of the currently running backup/restore
      * process
      */
-    public default void setUpgradeBackupDuration(long duration) {
+    public default void setUpgradeBackupDuration(
+            StorageDevice storageDevice, long duration) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    /**
+     * sets the progress of copying up the personal data from the old system
+     * to the data partition when upgrading a system
+     *
+     * @param storageDevice the upgraded StorageDevice
+     * @param files the number of files that were copied up
+     * @param bytes the size of the files that were copied up in byte
+     */
+    public default void setUpgradeCopyUpProgress(
+            StorageDevice storageDevice, long files, long bytes) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    /**
+     * sets the progress of removing files from the data partition when
+     * upgrading a system
+     *
+     * @param storageDevice the upgraded StorageDevice
+     * @param files the number of files that were removed
+     */
+    public default void setUpgradeDeleteProgress(
+            StorageDevice storageDevice, long files) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
@@ -255,10 +290,12 @@ public interface DLCopyGUI {
     /**
      * called when upgrading of a StorageDevice finished
      *
+     * @param storageDevice the StorageDevice that was upgraded
      * @param errorMessage the error message or <code>null</code> if there was
      * no error
      */
-    public default void upgradingDeviceFinished(String errorMessage) {
+    public default void upgradingDeviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
@@ -345,6 +382,18 @@ public interface DLCopyGUI {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * called when resetting of a StorageDevice finished
+     *
+     * @param storageDevice the StorageDevice that was reset
+     * @param errorMessage the error message or <code>null</code> if there was
+     * no error
+     */
+    public default void resettingDeviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     /**
      * shows the user interface for printing documents during reset
      */
@@ -398,6 +447,15 @@ public interface DLCopyGUI {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * sets the progress of removing files during reset
+     *
+     * @param files the number of files that were removed
+     */
+    public default void setResetDeleteProgress(long files) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     /**
      * shows the user interface for restoring files during a running reset
      *
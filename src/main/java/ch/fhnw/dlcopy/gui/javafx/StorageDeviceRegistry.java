@@ -0,0 +1,219 @@
+package ch.fhnw.dlcopy.gui.javafx;
+
+import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.HotplugMonitor;
+import ch.fhnw.util.StorageDevice;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * The list of all currently plugged storage devices, shared by all views.
+ * <p>
+ * Instead of every view polling <code>DLCopy.getStorageDevices()</code> (which
+ * rebuilds every StorageDevice over D-Bus) the registry enumerates the storage
+ * devices once and afterwards only probes the storage devices that the
+ * {@link HotplugMonitor} reports as added or changed. The HotplugMonitor
+ * coalesces bursts of signals so that every storage device is probed only
+ * once per burst. The StorageDevices in the registry are never changed, a
+ * changed storage device is replaced by a new StorageDevice.
+ */
+public class StorageDeviceRegistry {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(StorageDeviceRegistry.class.getName());
+    // the polling interval when udisks signals are not available
+    private static final long POLL_INTERVAL = 1000; // ms
+
+    private static StorageDeviceRegistry instance;
+
+    // the StorageDevices by device name (e.g. "sdb"), may be read from any
+    // thread
+    private final Map<String, StorageDevice> devices
+            = new ConcurrentHashMap<>();
+    // the same StorageDevices, only changed on the JavaFX application thread
+    private final ObservableList<StorageDevice> deviceList
+            = FXCollections.observableArrayList();
+    private final ObservableList<StorageDevice> unmodifiableDeviceList
+            = FXCollections.unmodifiableObservableList(deviceList);
+    // enumerates and probes the storage devices
+    private final ScheduledExecutorService executor;
+
+    private StorageDeviceRegistry() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, getClass().getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        HotplugMonitor hotplugMonitor = new HotplugMonitor(
+                changes -> executor.execute(() -> probe(changes)));
+        try {
+            // The monitor is started before enumerating the storage devices
+            // so that we don't miss any changes in between.
+            hotplugMonitor.start();
+            executor.execute(this::enumerate);
+        } catch (DBusException ex) {
+            LOGGER.log(Level.WARNING,
+                    "can't monitor udisks, falling back to polling", ex);
+            executor.scheduleWithFixedDelay(this::enumerate,
+                    0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * returns the StorageDeviceRegistry
+     *
+     * @return the StorageDeviceRegistry
+     */
+    public static synchronized StorageDeviceRegistry getInstance() {
+        if (instance == null) {
+            instance = new StorageDeviceRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * returns the list of all plugged storage devices (including hard disks
+     * but without optical discs), the list must only be observed on the
+     * JavaFX application thread
+     *
+     * @return the list of all plugged storage devices
+     */
+    public ObservableList<StorageDevice> getStorageDevices() {
+        return unmodifiableDeviceList;
+    }
+
+    /**
+     * checks if a storage device is still plugged, can be called from any
+     * thread
+     *
+     * @param storageDevice the storage device to check
+     * @return <code>true</code>, if the storage device is still plugged,
+     * <code>false</code> otherwise
+     */
+    public boolean isPlugged(StorageDevice storageDevice) {
+        StorageDevice plugged = devices.get(storageDevice.getDevice());
+        // another storage device may have gotten the same device name
+        return (plugged != null) && Objects.equals(
+                plugged.getSerial(), storageDevice.getSerial());
+    }
+
+    /**
+     * checks if a storage device is a hard disk
+     *
+     * @param storageDevice the storage device to check
+     * @return <code>true</code>, if the storage device is a hard disk,
+     * <code>false</code> otherwise
+     */
+    public static boolean isHardDisk(StorageDevice storageDevice) {
+        StorageDevice.Type type = storageDevice.getType();
+        return (type == StorageDevice.Type.HardDrive)
+                || (type == StorageDevice.Type.NVMe);
+    }
+
+    private void probe(HotplugMonitor.Changes hotplugChanges) {
+        // a null value means that the storage device is gone
+        Map<String, StorageDevice> changes = new HashMap<>();
+        hotplugChanges.getRemovedDevices().forEach(
+                name -> changes.put(name, null));
+        List<String> names = new ArrayList<>();
+        names.addAll(hotplugChanges.getAddedDevices());
+        names.addAll(hotplugChanges.getChangedDevices());
+        for (String name : names) {
+            StorageDevice storageDevice = null;
+            try {
+                storageDevice = DLCopy.getStorageDevice(
+                        HotplugMonitor.getPath(name), true);
+            } catch (Exception ex) {
+                // don't catch more specific exceptions, otherwise we will
+                // miss occuring runtime exceptions
+                // (the storage device may have been removed while probing)
+                LOGGER.log(Level.INFO, "could not probe " + name, ex);
+            }
+            if ((storageDevice != null) && (storageDevice.getType()
+                    == StorageDevice.Type.OpticalDisc)) {
+                storageDevice = null;
+            }
+            changes.put(name, storageDevice);
+        }
+        apply(changes);
+    }
+
+    private void enumerate() {
+        try {
+            List<StorageDevice> storageDevices
+                    = DLCopy.getStorageDevices(true, true, null);
+            // only add new and remove missing storage devices, replacing
+            // all others would needlessly update the views
+            Map<String, StorageDevice> changes = new HashMap<>();
+            devices.keySet().forEach(name -> changes.put(name, null));
+            for (StorageDevice storageDevice : storageDevices) {
+                String name = storageDevice.getDevice();
+                if (devices.containsKey(name)) {
+                    changes.remove(name);
+                } else {
+                    changes.put(name, storageDevice);
+                }
+            }
+            if (!changes.isEmpty()) {
+                apply(changes);
+            }
+        } catch (IOException | DBusException ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
+        }
+    }
+
+    private void apply(Map<String, StorageDevice> changes) {
+        for (Map.Entry<String, StorageDevice> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                devices.remove(change.getKey());
+            } else {
+                devices.put(change.getKey(), change.getValue());
+            }
+        }
+
+        Platform.runLater(() -> {
+            for (Map.Entry<String, StorageDevice> change
+                    : changes.entrySet()) {
+                String name = change.getKey();
+                StorageDevice storageDevice = change.getValue();
+                int index = indexOf(name);
+                if (storageDevice == null) {
+                    if (index != -1) {
+                        LOGGER.log(Level.INFO, "removing {0}", name);
+                        deviceList.remove(index);
+                    }
+                } else if (index == -1) {
+                    LOGGER.log(Level.INFO, "adding {0}", name);
+                    deviceList.add(storageDevice);
+                } else if (deviceList.get(index) != storageDevice) {
+                    LOGGER.log(Level.INFO, "updating {0}", name);
+                    deviceList.set(index, storageDevice);
+                }
+            }
+        });
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0, size = deviceList.size(); i < size; i++) {
+            if (deviceList.get(i).getDevice().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
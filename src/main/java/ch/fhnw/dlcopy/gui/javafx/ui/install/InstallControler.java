@@ -1,6 +1,6 @@
 package ch.fhnw.dlcopy.gui.javafx.ui.install;
 
-import ch.fhnw.dlcopy.Installer;
+import ch.fhnw.dlcopy.DataPartitionCopier;
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.dlcopy.gui.javafx.SceneContext;
 import ch.fhnw.dlcopy.model.install.Installation;
@@ -99,6 +99,16 @@ public class InstallControler implements DLCopyGUI {
         currentInstallation.setStatus(OperationStatus.ONGOING);
     }
 
+    /**
+     * This methode is called, when the installation on the given device
+     * continues on another thread
+     * @param storageDevice
+     */
+    @Override
+    public void installingDeviceContinued(StorageDevice storageDevice) {
+        currentInstallation = getInstallationFor(storageDevice);
+    }
+
     @Override
     public void showInstallCreatingFileSystems() {
         currentInstallation.setDetailStatus(InstallationStatus.CREATE_FILE_SYSTEMS);
@@ -122,17 +132,11 @@ public class InstallControler implements DLCopyGUI {
     }
 
     @Override
-    public void showInstallPersistencyCopy(Installer installer, String copyScript, String sourcePath) {
+    public void showInstallPersistencyCopy(DataPartitionCopier dataPartitionCopier) {
         currentInstallation.setDetailStatus(InstallationStatus.COPY_PERSISTENCY_PARTITION);
         progress.setValue(-1);
     }
 
-    @Override
-    public void setInstallCopyLine(String line) {
-        // TODO: What does this function do?
-        System.out.println(String.format(">>>>>>>>>>>>>>> TRACE: `setInstallCopyLine()` with %s as line is called.", line));
-    }
-
     @Override
     public void showInstallUnmounting() {
         currentInstallation.setDetailStatus(InstallationStatus.UNMOUNTING);
@@ -149,16 +153,18 @@ public class InstallControler implements DLCopyGUI {
 
 
     @Override
-    public void installingDeviceFinished(String errorMessage, int autoNumberStart) {
+    public void installingDeviceFinished(StorageDevice storageDevice, String errorMessage, int autoNumberStart) {
+        // Installations may run in parallel, so the finished installation is not necessarily the current one
+        Installation finishedInstallation = getInstallationFor(storageDevice);
         // Update the status
         if (errorMessage == null) {
             // No error occured
-            currentInstallation.setStatus(OperationStatus.SUCCESSFULL);
+            finishedInstallation.setStatus(OperationStatus.SUCCESSFULL);
             installationStep.setValue(stringBundle.getString("install.success"));
         } else {
             // An error occured
-            currentInstallation.setError(errorMessage);
-            currentInstallation.setStatus(OperationStatus.FAILED);
+            finishedInstallation.setError(errorMessage);
+            finishedInstallation.setStatus(OperationStatus.FAILED);
             installationStep.setValue(stringBundle.getString("error.error") + ": " + errorMessage);
         }
         progress.setValue(1);
@@ -1,21 +1,17 @@
 package ch.fhnw.dlcopy.gui.javafx.ui.install;
 
-import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.gui.javafx.StorageDeviceRegistry;
 import ch.fhnw.dlcopy.gui.javafx.ui.View;
 import ch.fhnw.dlcopy.model.install.Installation;
-import java.io.IOException;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
-import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
  * In this view the installation results are shown as a table
@@ -76,16 +72,11 @@ public class InstallationReportUI extends View{
         });
         colModel.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getDevice().getModel()));
         colMounted.setCellValueFactory(cell -> {
-            try {
-                if (DLCopy.getStorageDevices(false, false, "bootDeviceName").contains(cell.getValue().getDevice())) {
-                    // Device is sitll in the plugged devices
-                    return new SimpleStringProperty(stringBundle.getString("global.yes"));
-                }
-                return new SimpleStringProperty(stringBundle.getString("global.no"));
-            } catch (IOException | DBusException ex) {
-                Logger.getLogger(InstallationReportUI.class.getName()).log(Level.SEVERE, null, ex);
-                return new SimpleStringProperty("unknown");
+            if (StorageDeviceRegistry.getInstance().isPlugged(cell.getValue().getDevice())) {
+                // Device is sitll in the plugged devices
+                return new SimpleStringProperty(stringBundle.getString("global.yes"));
             }
+            return new SimpleStringProperty(stringBundle.getString("global.no"));
         });
         colMountpoint.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getDevice().getFullDevice()));
         colNumber.setCellValueFactory(cell -> new SimpleStringProperty(String.valueOf(cell.getValue().getNumber())));
@@ -1,9 +1,11 @@
 package ch.fhnw.dlcopy.gui.javafx.ui.install;
 
 import ch.fhnw.dlcopy.gui.javafx.NumericTextField;
+import ch.fhnw.dlcopy.gui.javafx.StorageDeviceRegistry;
 import ch.fhnw.dlcopy.DLCopy;
 import static ch.fhnw.dlcopy.DLCopy.MEGA;
 import ch.fhnw.dlcopy.DataPartitionMode;
+import ch.fhnw.dlcopy.DigestCache;
 import ch.fhnw.dlcopy.Installer;
 import ch.fhnw.dlcopy.IsoSystemSource;
 import ch.fhnw.dlcopy.PartitionSizes;
@@ -21,18 +23,13 @@ import ch.fhnw.util.StorageDevice;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.LongProperty;
 import javafx.beans.property.Property;
@@ -40,7 +37,9 @@ import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
@@ -74,7 +73,7 @@ public class SelectDeviceUI extends View {
     
     private static final long GIGA = 1073741824;
 
-    private final Timer listUpdateTimer = new Timer();
+    private FilteredList<StorageDevice> devices;
     private SystemSource runningSystemSource;
     private SystemSource isoSystemSource;
     private boolean showHarddisks = false;
@@ -148,51 +147,21 @@ public class SelectDeviceUI extends View {
      */
     @Override
     public void deinitialize() {
-        listUpdateTimer.cancel();
+        // stop following the changes of the shared device registry
+        lvDevices.setItems(null);
     }
 
     @Override
     @SuppressWarnings("unchecked") // cmbDataPartitionMode items' type safety does not need validation, as they are the same raw type.
     protected void initControls() {
-        TimerTask listUpdater = new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    List<StorageDevice> pluggedDevices = DLCopy.getStorageDevices(showHarddisks, false, "bootDeviceName");
-                    List<StorageDevice> removedDevices = new ArrayList<>();
-                    List<StorageDevice> addedDevices = new ArrayList<>();
-                    for (StorageDevice device : pluggedDevices) {
-                        if (!lvDevices.getItems().contains(device)) {
-                            // Plugged deice is not shown yet
-                            addedDevices.add(device);
-                        }
-                    }
-                    for (StorageDevice device : lvDevices.getItems()) {
-                        if (!pluggedDevices.contains(device)) {
-                            // Shown device is not plugged anymore
-                            removedDevices.add(device);
-                        }
-                    }
-                    Platform.runLater(() -> {
-                        lvDevices.getItems().removeAll(removedDevices);
-                        lvDevices.getItems().addAll(addedDevices);
-
-                        // Calc the max space for the exchange and data partition
-                        lvDevices.getItems().forEach(device -> {
-                            double customizablePartitionSpace = device.getSize()
-                                    - getSelectedSource().getSystemSize()
-                                    - DLCopy.EFI_PARTITION_SIZE * MEGA;
-                            if (maxCustomizablePartitionSpace.greaterThan(customizablePartitionSpace).get()) {
-                                maxCustomizablePartitionSpace.set(customizablePartitionSpace);
-                            }
-                        });
-                    });
-                } catch (IOException | DBusException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getLocalizedMessage());
-                }
-            }
-        };
-        listUpdateTimer.scheduleAtFixedRate(listUpdater, 0, 1000L); // Starts the `lisstUpdater`-task each 1000ms (1sec)
+        // The shared registry is updated by UDisks2 signals, we only have to
+        // filter the hard disks.
+        devices = new FilteredList<>(StorageDeviceRegistry.getInstance().getStorageDevices(), this::isShown);
+        lvDevices.setItems(devices);
+        devices.addListener((ListChangeListener.Change<? extends StorageDevice> change) -> {
+            updateMaxCustomizablePartitionSpace();
+        });
+        updateMaxCustomizablePartitionSpace();
 
         lvDevices.setPlaceholder(new Label(stringBundle.getString("install.lvDevices")));
 
@@ -330,6 +299,7 @@ public class SelectDeviceUI extends View {
         });
         chbShowHarddisk.setOnAction(event -> {
             showHarddisks = valChb(chbShowHarddisk);
+            devices.setPredicate(this::isShown);
         });
         chbDataPartitionPersonalPassword.setOnAction(event -> {
             // other options are only available if encryption is enabled
@@ -403,7 +373,7 @@ public class SelectDeviceUI extends View {
             tfExchangePartitionLabel.getText(),     // the label of the exchange partition
             cmbExchangePartitionFilesystem.getValue().toString(),    // the file system of the exchange partition
             cmbDataPartitionFilesystem.getValue().toString(), // the file system of the data partition
-            new HashMap<String, byte[]>(),  // a global digest cache for speeding up repeated file checks
+            DigestCache.getInstance(),  // a global digest cache for speeding up repeated file checks
             // Register the InstallControler as Callback-Class
             installcontroller,    // the DLCopyGUI
             exchangePartitionSize.intValue(),  // the size of the exchange partition
@@ -426,6 +396,11 @@ public class SelectDeviceUI extends View {
             valChb(chbPrinterSettings),  // if the printer settings should be transferred
             valChb(chbFirewallSettings),  // if the firewall settings should be transferred
             valChb(chbCheckCopies),  // if copies should be checked for errors
+            1,  // the maximum number of storage devices to install in parallel
+            false,  // if the system partition should be cloned from an image
+            false,  // if the EFI partition should be cloned from an image
+            false,  // if the data partition should be cloned
+            null,  // the stage concurrencies of the installation pipeline
             installLock // the lock to aquire before executing in background
         ).execute();
     }
@@ -811,6 +786,22 @@ public class SelectDeviceUI extends View {
         }
     }
 
+    private boolean isShown(StorageDevice device) {
+        return showHarddisks || !StorageDeviceRegistry.isHardDisk(device);
+    }
+
+    private void updateMaxCustomizablePartitionSpace() {
+        // Calc the max space for the exchange and data partition
+        devices.forEach(device -> {
+            double customizablePartitionSpace = device.getSize()
+                    - getSelectedSource().getSystemSize()
+                    - DLCopy.EFI_PARTITION_SIZE * MEGA;
+            if (maxCustomizablePartitionSpace.greaterThan(customizablePartitionSpace).get()) {
+                maxCustomizablePartitionSpace.set(customizablePartitionSpace);
+            }
+        });
+    }
+
     private SystemSource getSelectedSource(){
         if (rdbIsoImage.isSelected()) {
             return isoSystemSource;
@@ -1,11 +1,13 @@
 package ch.fhnw.dlcopy.gui.javafx.ui.update;
 
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.DigestCache;
 import ch.fhnw.dlcopy.PartitionState;
 import ch.fhnw.dlcopy.RepartitionStrategy;
 import ch.fhnw.dlcopy.RunningSystemSource;
 import ch.fhnw.dlcopy.SystemSource;
 import ch.fhnw.dlcopy.Upgrader;
+import ch.fhnw.dlcopy.gui.javafx.StorageDeviceRegistry;
 import ch.fhnw.dlcopy.gui.javafx.ui.StartscreenUI;
 import ch.fhnw.dlcopy.gui.javafx.ui.View;
 import ch.fhnw.util.ProcessExecutor;
@@ -21,14 +23,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -51,7 +51,7 @@ public class UpdateDeviceUI extends View {
     private static final ProcessExecutor PROCESS_EXECUTOR = new ProcessExecutor();
     private SystemSource runningSystemSource;
     private boolean showHarddisks = false;
-    private final Timer listUpdateTimer = new Timer();
+    private FilteredList<StorageDevice> devices;
     private ObservableList<StorageDevice> selectedStds;
     private RepartitionStrategy repartitionStrategy = RepartitionStrategy.KEEP;
 
@@ -133,7 +133,8 @@ public class UpdateDeviceUI extends View {
      */
     @Override
     public void deinitialize() {
-        listUpdateTimer.cancel();
+        // stop following the changes of the shared device registry
+        lvDevices.setItems(null);
     }
 
     @Override
@@ -165,37 +166,13 @@ public class UpdateDeviceUI extends View {
 
         chbShowHarddisk.setOnAction(event -> {
             showHarddisks = valChb(chbShowHarddisk);
+            devices.setPredicate(this::isShown);
         });
 
-        TimerTask listUpdater = new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    List<StorageDevice> pluggedDevices = DLCopy.getStorageDevices(showHarddisks, false, "bootDeviceName");
-                    List<StorageDevice> removedDevices = new ArrayList<>();
-                    List<StorageDevice> addedDevices = new ArrayList<>();
-                    for (StorageDevice device : pluggedDevices) {
-                        if (!lvDevices.getItems().contains(device)) {
-
-                            // Plugged deice is not shown yet
-                            addedDevices.add(device);
-                        }
-                    }
-                    for (StorageDevice device : lvDevices.getItems()) {
-                        if (!pluggedDevices.contains(device)) {
-                            removedDevices.add(device);
-                        }
-                    }
-                    Platform.runLater(() -> {
-                        lvDevices.getItems().removeAll(removedDevices);
-                        lvDevices.getItems().addAll(addedDevices);
-                    });
-                } catch (IOException | DBusException ex) {
-                    LOGGER.log(Level.SEVERE, ex.getLocalizedMessage());
-                }
-            }
-        };
-        listUpdateTimer.scheduleAtFixedRate(listUpdater, 0, 1000L); // Starts the `lisstUpdater`-task each 1000ms (1sec)
+        // The shared registry is updated by UDisks2 signals, we only have to
+        // filter the hard disks.
+        devices = new FilteredList<>(StorageDeviceRegistry.getInstance().getStorageDevices(), this::isShown);
+        lvDevices.setItems(devices);
         lvDevices.setPlaceholder(new Label(stringBundle.getString("update.lvDevices")));
 
         lvDevices.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
@@ -397,14 +374,18 @@ public class UpdateDeviceUI extends View {
         // see ch.fhnw.dlcopy.gui.swing.InstallerPanels
     }
 
+    private boolean isShown(StorageDevice device) {
+        return showHarddisks || !StorageDeviceRegistry.isHardDisk(device);
+    }
+
     private void update() {
         new Upgrader(
                 runningSystemSource, // the system source
-                lvDevices.getItems(), // the list of StorageDevices to upgrade
+                new ArrayList<>(lvDevices.getItems()), // the list of StorageDevices to upgrade
                 "", // the label of the exchange partition
                 "", // the file system of the exchange partition
                 "", // the file system of the data partition
-                new HashMap<>(), // a global digest cache for speeding up repeated file checks
+                DigestCache.getInstance(), // a global digest cache for speeding up repeated file checks
                 null, // the main DLCopy instance
                 context, // the DLCopy GUI
                 RepartitionStrategy.KEEP, // the repartition strategie for the exchange partition
@@ -422,6 +403,9 @@ public class UpdateDeviceUI extends View {
                 false, // if hidden files in the user's home of the storage device should be deleted
                 lvFilesToOverwritte.getItems(), // the list of files to copy from the currently
                 DLCopy.getEnlargedSystemSize(runningSystemSource.getSystemSize()), // the "enlarged" system size (multiplied with a small file system overhead factor)
+                1, // the maximum number of storage devices to upgrade in parallel
+                1, // the maximum number of squashfs images on an upgraded system partition
+                false, // if the automatic backups should be saved in a deduplicating backup store
                 new ReentrantLock() // the lock to aquire before executing in background
         ).execute();
     }
@@ -1,52 +1,68 @@
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.DataPartitionCopier;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
 
 /**
- * Parses the output of the cp command and updates a text label with the name of
- * the source file and a text label with the elapsed time.
+ * Polls the state of a DataPartitionCopier and updates a text label with the
+ * name of the source file, a progress bar and a text label with the elapsed
+ * time. Stops its timer when the DataPartitionCopier is finished.
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
 public class CpActionListener implements ActionListener {
 
     private final JLabel fileNameLabel;
+    private final JProgressBar progressBar;
     private final JLabel elapsedTimeLabel;
+    private final DataPartitionCopier dataPartitionCopier;
     private final long start;
-    private final Pattern cpPattern = Pattern.compile("'(.*)' -> .*");
-    private final int pathIndex;
     private final DateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-    private String currentLine = "";
 
     /**
      * creates a new CpActionListener
      * @param fileNameLabel the label for the file name
+     * @param progressBar the progress bar
      * @param elapsedTimeLabel the label for the elapsed time
-     * @param sourceMountPoint the mountpoint of the source files
+     * @param dataPartitionCopier the DataPartitionCopier to poll
      */
-    public CpActionListener(JLabel fileNameLabel, JLabel elapsedTimeLabel,
-            String sourceMountPoint) {
+    public CpActionListener(JLabel fileNameLabel, JProgressBar progressBar,
+            JLabel elapsedTimeLabel, DataPartitionCopier dataPartitionCopier) {
         this.fileNameLabel = fileNameLabel;
+        this.progressBar = progressBar;
         this.elapsedTimeLabel = elapsedTimeLabel;
-        pathIndex = sourceMountPoint.length();
+        this.dataPartitionCopier = dataPartitionCopier;
         start = System.currentTimeMillis();
         timeFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
+        if (dataPartitionCopier.isFinished()) {
+            ((Timer) e.getSource()).stop();
+        }
+
         // update file name
-        Matcher matcher = cpPattern.matcher(currentLine);
-        if (matcher.matches()) {
-            fileNameLabel.setText(matcher.group(1).substring(pathIndex));
+        String currentFile = dataPartitionCopier.getCurrentFile();
+        if (!currentFile.isEmpty()) {
+            fileNameLabel.setText(currentFile);
+        }
+
+        // update progress
+        // (the byte count is unknown while scanning the source directory)
+        long byteCount = dataPartitionCopier.getByteCount();
+        if (byteCount > 0) {
+            progressBar.setIndeterminate(false);
+            progressBar.setValue((int) ((dataPartitionCopier.getCopiedBytes()
+                    * progressBar.getMaximum()) / byteCount));
         }
 
         // update time
@@ -54,12 +70,4 @@ public class CpActionListener implements ActionListener {
         String timeString = timeFormat.format(new Date(time));
         elapsedTimeLabel.setText(timeString);
     }
-
-    /**
-     * sets the current cp output line
-     * @param currentLine the current cp output line
-     */
-    public void setCurrentLine(String currentLine) {
-        this.currentLine = currentLine;
-    }
 }
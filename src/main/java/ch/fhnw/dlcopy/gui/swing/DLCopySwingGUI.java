@@ -7,8 +7,11 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.DataPartitionCopier;
 import ch.fhnw.dlcopy.DataPartitionMode;
 import ch.fhnw.dlcopy.DebianLiveDistribution;
+import ch.fhnw.dlcopy.DigestCache;
+import ch.fhnw.dlcopy.HotplugMonitor;
 import ch.fhnw.dlcopy.Installer;
 import ch.fhnw.dlcopy.RepartitionStrategy;
 import ch.fhnw.dlcopy.Resetter;
@@ -23,7 +26,6 @@ import ch.fhnw.dlcopy.gui.swing.preferences.DLCopySwingGUIPreferencesHandler;
 import ch.fhnw.dlcopy.gui.swing.preferences.MainMenuPreferences;
 import ch.fhnw.filecopier.FileCopier;
 import ch.fhnw.jbackpack.RdiffBackupRestore;
-import ch.fhnw.util.DbusTools;
 import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.ProcessExecutor;
@@ -38,20 +40,20 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.KeyEvent;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.text.DateFormat;
+import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.ConsoleHandler;
@@ -59,8 +61,7 @@ import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineEvent;
@@ -93,7 +94,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
  * @author Ronny Standtke <Ronny.Standtke@gmx.net>
  */
 public class DLCopySwingGUI extends JFrame
-        implements DLCopyGUI, PropertyChangeListener {
+        implements DLCopyGUI {
 
     public enum State {
 
@@ -108,8 +109,6 @@ public class DLCopySwingGUI extends JFrame
             = Logger.getLogger(DLCopySwingGUI.class.getName());
     private final static ProcessExecutor PROCESS_EXECUTOR
             = new ProcessExecutor();
-    private final static String UDISKS_ADDED = "added:";
-    private final static String UDISKS_REMOVED = "removed:";
 
     private final DateFormat timeFormat;
 
@@ -120,28 +119,43 @@ public class DLCopySwingGUI extends JFrame
 
     private DebianLiveDistribution debianLiveDistribution;
 
-    private final UdisksMonitorThread udisksMonitorThread;
+    private final HotplugMonitor hotplugMonitor;
     private RdiffBackupRestore rdiffBackupRestore;
 
     private final ResultsTableModel resultsTableModel;
     private UpdateChangingDurationsTableActionListener updateTableActionListener;
     private Timer tableUpdateTimer;
 
-    private final static Pattern ADDED_PATTERN = Pattern.compile(
-            ".*: Added (/org/freedesktop/UDisks2/block_devices/.*)");
-    private final static Pattern REMOVED_PATTERN = Pattern.compile(
-            ".*: Removed (/org/freedesktop/UDisks2/block_devices/.*)");
-
     private final StorageDeviceListUpdateDialogHandler storageDeviceListUpdateDialogHandler
             = new StorageDeviceListUpdateDialogHandler(this);
 
     private int batchCounter;
+    // the results list is shown in the results tables and must therefore
+    // only be accessed on the Event Dispatch Thread
     private List<StorageDeviceResult> resultsList;
+    // the "in progress" entries of the results list, accessed by the
+    // threads of concurrent operations
+    private final List<StorageDeviceResult> runningResults
+            = new CopyOnWriteArrayList<>();
+    // the storage device installed by the current thread
+    private final ThreadLocal<StorageDevice> installingDevice
+            = new ThreadLocal<>();
+    private volatile StorageDevice shownInstallDevice;
+    private volatile StorageDevice shownUpgradeDevice;
 
     private Integer commandLineExchangePartitionSize;
     private String commandLineExchangePartitionFileSystem;
     private Boolean commandLineCopyDataPartition;
     private Boolean commandLineReactivateWelcome;
+    private int commandLineMaxConcurrentInstallations = 1;
+    private int commandLineMaxConcurrentUpgrades = 1;
+    private int commandLineMaxConcurrentResets = 1;
+    private int commandLineMaxSystemLayers = 1;
+    private boolean commandLineDeduplicateBackups;
+    private boolean commandLineCloneSystemPartition;
+    private boolean commandLineCloneEfiPartition;
+    private boolean commandLineCloneDataPartition;
+    private int[] commandLinePipelineStageConcurrencies;
     private boolean instantInstallation;
     private boolean instantUpgrade;
     private boolean autoUpgrade;
@@ -154,7 +168,7 @@ public class DLCopySwingGUI extends JFrame
     private Lock resetLock = new ReentrantLock();
 
     // global cache for file digests to speed up repeated file copy checks
-    private final HashMap<String, byte[]> digestCache = new HashMap<>();
+    private final DigestCache digestCache = DigestCache.getInstance();
 
     private final DLCopySwingGUIPreferencesHandler preferencesHandler;
 
@@ -334,7 +348,7 @@ public class DLCopySwingGUI extends JFrame
         }
 
         // monitor udisks changes
-        udisksMonitorThread = new UdisksMonitorThread();
+        hotplugMonitor = new HotplugMonitor(this::storageDevicesChanged);
 
         resultsTableModel = new ResultsTableModel(resultsTable);
         resultsTable.setModel(resultsTableModel);
@@ -417,52 +431,10 @@ public class DLCopySwingGUI extends JFrame
         // center on screen
         setLocationRelativeTo(null);
 
-        udisksMonitorThread.start();
-    }
-
-    @Override
-    public void propertyChange(final PropertyChangeEvent evt) {
-
-        // Take great care when calling Swing functions,
-        // because here we are on the UdisksMonitorThread!
-        // only handle line changes
-        if (!ProcessExecutor.LINE.equals(evt.getPropertyName())) {
-            return;
-        }
-
-        String line = (String) evt.getNewValue();
-
-        boolean deviceAdded;
-        Matcher matcher = null;
-        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-            deviceAdded = line.startsWith(UDISKS_ADDED);
-        } else {
-            matcher = ADDED_PATTERN.matcher(line);
-            deviceAdded = matcher.matches();
-        }
-
-        if (deviceAdded) {
-            String addedPath;
-            if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-                addedPath = line.substring(UDISKS_ADDED.length()).trim();
-            } else {
-                addedPath = matcher.group(1);
-            }
-            LOGGER.log(Level.INFO, "added path: \"{0}\"", addedPath);
-            addStorageDevice(addedPath);
-
-        } else {
-            // check, if a device was removed
-            boolean deviceRemoved;
-            if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-                deviceRemoved = line.startsWith(UDISKS_REMOVED);
-            } else {
-                matcher = REMOVED_PATTERN.matcher(line);
-                deviceRemoved = matcher.matches();
-            }
-            if (deviceRemoved) {
-                removeStorageDevice(line);
-            }
+        try {
+            hotplugMonitor.start();
+        } catch (DBusException ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
         }
     }
 
@@ -477,64 +449,98 @@ public class DLCopySwingGUI extends JFrame
     @Override
     public void installingDeviceStarted(StorageDevice storageDevice) {
 
-        deviceStarted(storageDevice);
+        installingDevice.set(storageDevice);
+        int deviceCounter = deviceStarted(storageDevice);
 
-        installerPanels.startedInstallationOnDevice(
-                storageDevice, batchCounter, resultsList);
+        shownInstallDevice = storageDevice;
+        SwingUtilities.invokeLater(() -> {
+            installerPanels.startedInstallationOnDevice(
+                    storageDevice, deviceCounter, resultsList);
+        });
+    }
+
+    @Override
+    public void installingDeviceContinued(StorageDevice storageDevice) {
+        installingDevice.set(storageDevice);
     }
 
+    // The progress panel shows the last started installation, the progress
+    // of all concurrent installations is shown in their rows of the results
+    // table.
+
     @Override
     public void showInstallCreatingFileSystems() {
-        installerPanels.showIndeterminateProgressBarText(
-                "Creating_File_Systems");
+        if (showInstallStep("Creating_File_Systems")) {
+            installerPanels.showIndeterminateProgressBarText(
+                    "Creating_File_Systems");
+        }
     }
 
     @Override
     public void showInstallOverwritingDataPartitionWithRandomData(
             long done, long size) {
-        installerPanels.showOverwriteRandomProgressBar(done, size);
+        StorageDevice storageDevice = installingDevice.get();
+        if (storageDevice != null) {
+            setProgress(storageDevice, MessageFormat.format(
+                    STRINGS.getString(
+                            "OverwritingDataPartitionWithRandomData"),
+                    LernstickFileTools.getDataVolumeString(done, 1),
+                    LernstickFileTools.getDataVolumeString(size, 1)));
+        }
+        if (isShownInstallDevice(storageDevice)) {
+            SwingUtilities.invokeLater(() -> {
+                installerPanels.showOverwriteRandomProgressBar(done, size);
+            });
+        }
     }
 
     @Override
     public void showInstallFileCopy(FileCopier fileCopier) {
-        installerPanels.showFileCopierPanel(fileCopier);
+        if (showInstallStep("Copying_Files")) {
+            installerPanels.showFileCopierPanel(fileCopier);
+        }
     }
 
     @Override
     public void showInstallPersistencyCopy(
-            Installer installer, String copyScript, String sourcePath) {
-
-        installerPanels.showInstallPersistencyCopy(
-                installer, copyScript, sourcePath);
-    }
-
-    @Override
-    public void setInstallCopyLine(String line) {
-        installerPanels.setInstallCopyLine(line);
+            DataPartitionCopier dataPartitionCopier) {
+        if (showInstallStep("Copying_Files")) {
+            installerPanels.showInstallPersistencyCopy(dataPartitionCopier);
+        }
     }
 
     @Override
     public void showInstallUnmounting() {
-        installerPanels.showIndeterminateProgressBarText(
-                "Unmounting_File_Systems");
+        if (showInstallStep("Unmounting_File_Systems")) {
+            installerPanels.showIndeterminateProgressBarText(
+                    "Unmounting_File_Systems");
+        }
     }
 
     @Override
     public void showInstallWritingBootSector() {
-        installerPanels.showIndeterminateProgressBarText(
-                "Writing_Boot_Sector");
+        if (showInstallStep("Writing_Boot_Sector")) {
+            installerPanels.showIndeterminateProgressBarText(
+                    "Writing_Boot_Sector");
+        }
     }
 
     @Override
-    public void installingDeviceFinished(
+    public void installingDeviceFinished(StorageDevice storageDevice,
             String errorMessage, int autoNumberStart) {
 
+        if (storageDevice.equals(installingDevice.get())) {
+            installingDevice.remove();
+        }
+
         // update final report
-        deviceFinished(errorMessage);
+        deviceFinished(storageDevice, errorMessage);
 
         // update current report
-        installerPanels.finishedInstallationOnDevice(
-                autoNumberStart, resultsList);
+        SwingUtilities.invokeLater(() -> {
+            installerPanels.finishedInstallationOnDevice(
+                    autoNumberStart, resultsList);
+        });
     }
 
     @Override
@@ -552,10 +558,13 @@ public class DLCopySwingGUI extends JFrame
     @Override
     public void upgradingDeviceStarted(StorageDevice storageDevice) {
 
-        deviceStarted(storageDevice);
+        int deviceCounter = deviceStarted(storageDevice);
 
-        upgraderPanels.startedUpgradeOnDevice(
-                storageDevice, batchCounter, resultsList);
+        shownUpgradeDevice = storageDevice;
+        SwingUtilities.invokeLater(() -> {
+            upgraderPanels.startedUpgradeOnDevice(
+                    storageDevice, deviceCounter, resultsList);
+        });
     }
 
     @Override
@@ -563,19 +572,53 @@ public class DLCopySwingGUI extends JFrame
         upgraderPanels.showUpgradeBackup();
     }
 
+    // The progress panel shows the last started upgrade, the progress of all
+    // concurrent upgrades is shown in their rows of the results table.
+
+    @Override
+    public void setUpgradeBackupProgress(
+            StorageDevice storageDevice, String progressInfo) {
+        setProgress(storageDevice, progressInfo);
+        if (storageDevice.equals(shownUpgradeDevice)) {
+            upgraderPanels.setUpgradeBackupProgress(progressInfo);
+        }
+    }
+
     @Override
-    public void setUpgradeBackupProgress(String progressInfo) {
-        upgraderPanels.setUpgradeBackupProgress(progressInfo);
+    public void setUpgradeBackupFilename(
+            StorageDevice storageDevice, String filename) {
+        if (storageDevice.equals(shownUpgradeDevice)) {
+            upgraderPanels.setUpgradeBackupFilename(filename);
+        }
     }
 
     @Override
-    public void setUpgradeBackupFilename(String filename) {
-        upgraderPanels.setUpgradeBackupFilename(filename);
+    public void setUpgradeBackupDuration(
+            StorageDevice storageDevice, long time) {
+        if (storageDevice.equals(shownUpgradeDevice)) {
+            upgraderPanels.setUpgradeBackupDuration(time);
+        }
     }
 
     @Override
-    public void setUpgradeBackupDuration(long time) {
-        upgraderPanels.setUpgradeBackupDuration(time);
+    public void setUpgradeCopyUpProgress(
+            StorageDevice storageDevice, long files, long bytes) {
+        setProgress(storageDevice, MessageFormat.format(
+                STRINGS.getString("Copying_Up_Personal_Data"), files,
+                LernstickFileTools.getDataVolumeString(bytes, 1)));
+        if (storageDevice.equals(shownUpgradeDevice)) {
+            upgraderPanels.setUpgradeCopyUpProgress(files, bytes);
+        }
+    }
+
+    @Override
+    public void setUpgradeDeleteProgress(
+            StorageDevice storageDevice, long files) {
+        setProgress(storageDevice, MessageFormat.format(
+                STRINGS.getString("Removing_Files_Progress"), files));
+        if (storageDevice.equals(shownUpgradeDevice)) {
+            upgraderPanels.setUpgradeDeleteProgress(files);
+        }
     }
 
     @Override
@@ -637,12 +680,15 @@ public class DLCopySwingGUI extends JFrame
     }
 
     @Override
-    public void upgradingDeviceFinished(String errorMessage) {
+    public void upgradingDeviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
         // upgrade final report
-        deviceFinished(errorMessage);
+        deviceFinished(storageDevice, errorMessage);
 
         // update current report
-        upgraderPanels.finishedUpgradeOnDevice(resultsList);
+        SwingUtilities.invokeLater(() -> {
+            upgraderPanels.finishedUpgradeOnDevice(resultsList);
+        });
     }
 
     @Override
@@ -720,8 +766,16 @@ public class DLCopySwingGUI extends JFrame
 
     @Override
     public void resettingDeviceStarted(StorageDevice storageDevice) {
-        deviceStarted(storageDevice);
-        resetterPanels.startedResetOnDevice(batchCounter, storageDevice);
+        int deviceCounter = deviceStarted(storageDevice);
+        SwingUtilities.invokeLater(() -> {
+            resetterPanels.startedResetOnDevice(deviceCounter, storageDevice);
+        });
+    }
+
+    @Override
+    public void resettingDeviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
+        deviceFinished(storageDevice, errorMessage);
     }
 
     @Override
@@ -775,6 +829,11 @@ public class DLCopySwingGUI extends JFrame
         resetterPanels.showResetRemovingFiles();
     }
 
+    @Override
+    public void setResetDeleteProgress(long files) {
+        resetterPanels.setResetDeleteProgress(files);
+    }
+
     @Override
     public void resettingFinished(boolean success) {
 
@@ -1082,7 +1141,8 @@ public class DLCopySwingGUI extends JFrame
                 resetterPanels.isDeleteHomeDirectorySelected(),
                 resetterPanels.isDeleteSystemFilesSelected(),
                 resetterPanels.isRestoreDataSelected(),
-                resetterPanels.getRestoreEntries(), resetLock)
+                resetterPanels.getRestoreEntries(),
+                commandLineMaxConcurrentResets, resetLock)
                 .execute();
     }
 
@@ -1198,8 +1258,9 @@ public class DLCopySwingGUI extends JFrame
                 upgraderPanels.isReactivateWelcomeSelected(),
                 upgraderPanels.isDeleteHiddenFilesSelected(), overWriteList,
                 DLCopy.getEnlargedSystemSize(
-                        runningSystemSource.getSystemSize()), upgradeLock)
-                .execute();
+                        runningSystemSource.getSystemSize()),
+                commandLineMaxConcurrentUpgrades, commandLineMaxSystemLayers,
+                commandLineDeduplicateBackups, upgradeLock).execute();
 
         updateTableActionListener
                 = new UpdateChangingDurationsTableActionListener(
@@ -1851,6 +1912,94 @@ public class DLCopySwingGUI extends JFrame
                         = "true".equalsIgnoreCase(arguments[i + 1]);
             }
 
+            // the maximum number of storage devices to install in parallel
+            if (arguments[i].equals("--maxConcurrentInstallations")
+                    && (i != length - 1)) {
+                try {
+                    commandLineMaxConcurrentInstallations
+                            = Integer.parseInt(arguments[i + 1]);
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // the maximum number of storage devices to upgrade in parallel
+            if (arguments[i].equals("--maxConcurrentUpgrades")
+                    && (i != length - 1)) {
+                try {
+                    commandLineMaxConcurrentUpgrades
+                            = Integer.parseInt(arguments[i + 1]);
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // the maximum number of storage devices to reset in parallel
+            if (arguments[i].equals("--maxConcurrentResets")
+                    && (i != length - 1)) {
+                try {
+                    commandLineMaxConcurrentResets
+                            = Integer.parseInt(arguments[i + 1]);
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // the maximum number of squashfs images on an upgraded system
+            // partition
+            if (arguments[i].equals("--maxSystemLayers")
+                    && (i != length - 1)) {
+                try {
+                    commandLineMaxSystemLayers
+                            = Integer.parseInt(arguments[i + 1]);
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // if automatic backups should be saved in a deduplicating
+            // backup store (hard links, device files and named pipes are
+            // kept, unix domain sockets are skipped)
+            if (arguments[i].equals("--deduplicateBackups")) {
+                commandLineDeduplicateBackups = true;
+            }
+
+            // if the system partition should be cloned from an image
+            if (arguments[i].equals("--cloneSystemPartition")) {
+                commandLineCloneSystemPartition = true;
+            }
+
+            // if the EFI partition should be cloned from an image
+            if (arguments[i].equals("--cloneEfiPartition")) {
+                commandLineCloneEfiPartition = true;
+            }
+
+            // if the data partition should be cloned (when possible)
+            if (arguments[i].equals("--cloneDataPartition")) {
+                commandLineCloneDataPartition = true;
+            }
+
+            // the number of storage devices in the preparation, copy and
+            // finishing stage of the installation pipeline (e.g. "2,1,2")
+            if (arguments[i].equals("--pipelineStages")
+                    && (i != length - 1)) {
+                String[] tokens = arguments[i + 1].split(",");
+                if (tokens.length == 3) {
+                    try {
+                        int[] concurrencies = new int[3];
+                        for (int j = 0; j < 3; j++) {
+                            concurrencies[j] = Integer.parseInt(tokens[j]);
+                        }
+                        commandLinePipelineStageConcurrencies = concurrencies;
+                    } catch (NumberFormatException numberFormatException) {
+                        LOGGER.log(Level.WARNING, "", numberFormatException);
+                    }
+                } else {
+                    LOGGER.log(Level.WARNING, "invalid pipeline stages: {0}",
+                            arguments[i + 1]);
+                }
+            }
+
             // if the welcome application should be reactivated during upgrade
             if (arguments[i].equals("--reactivateWelcome")
                     && (i != length - 1)) {
@@ -1875,16 +2024,16 @@ public class DLCopySwingGUI extends JFrame
         }
     }
 
-    private void addStorageDevice(String addedPath) {
+    private void addStorageDevices(List<String> addedPaths) {
         switch (state) {
             case INSTALL_SELECTION:
-                new InstallStorageDeviceAdder(addedPath,
+                new InstallStorageDeviceAdder(addedPaths,
                         installerPanels.isShowHardDisksSelected(),
                         storageDeviceListUpdateDialogHandler,
                         installerPanels.getDeviceListModel(),
                         installerPanels.getDeviceList(), this, installLock)
                         .execute();
-                new InstallTransferStorageDeviceAdder(addedPath,
+                new InstallTransferStorageDeviceAdder(addedPaths,
                         installerPanels.isShowHardDisksSelected(),
                         storageDeviceListUpdateDialogHandler,
                         installerPanels.getTransferDeviceListModel(),
@@ -1894,7 +2043,7 @@ public class DLCopySwingGUI extends JFrame
 
             case UPGRADE_SELECTION:
                 new UpgradeStorageDeviceAdder(runningSystemSource,
-                        addedPath,
+                        addedPaths,
                         upgraderPanels.isShowHardDiskSelected(),
                         storageDeviceListUpdateDialogHandler,
                         upgraderPanels.getDeviceListModel(),
@@ -1903,7 +2052,7 @@ public class DLCopySwingGUI extends JFrame
                 break;
 
             case RESET_SELECTION:
-                new ResetStorageDeviceAdder(addedPath,
+                new ResetStorageDeviceAdder(addedPaths,
                         resetterPanels.isShowHardDiskSelected(),
                         storageDeviceListUpdateDialogHandler,
                         resetterPanels.getDeviceListModel(),
@@ -1918,14 +2067,33 @@ public class DLCopySwingGUI extends JFrame
         }
     }
 
-    private void removeStorageDevice(String udisksLine) {
-        // the device was just removed, so we can not use getStorageDevice()
-        // here...
-        String[] tokens = udisksLine.split("/");
-        final String device = tokens[tokens.length - 1];
-        LOGGER.log(Level.INFO, "removed device: {0}", device);
+    private void storageDevicesChanged(HotplugMonitor.Changes changes) {
 
-        // the list of listmodels where the device must be removed
+        // Take great care when calling Swing functions,
+        // because here we are on the thread of the HotplugMonitor!
+        List<String> removedDevices = changes.getRemovedDevices();
+        if (!removedDevices.isEmpty()) {
+            removeStorageDevices(removedDevices);
+        }
+
+        // changed storage devices may have been skipped before, e.g. because
+        // they had no partitions yet
+        List<String> addedDevices = new ArrayList<>(changes.getAddedDevices());
+        addedDevices.addAll(changes.getChangedDevices());
+        if (!addedDevices.isEmpty()) {
+            // all storage devices of a batch are added by a single adder
+            List<String> addedPaths = addedDevices.stream()
+                    .map(HotplugMonitor::getPath)
+                    .collect(Collectors.toList());
+            LOGGER.log(Level.INFO, "added paths: {0}", addedPaths);
+            addStorageDevices(addedPaths);
+        }
+    }
+
+    private void removeStorageDevices(List<String> devices) {
+        LOGGER.log(Level.INFO, "removed devices: {0}", devices);
+
+        // the list of listmodels where the devices must be removed
         List<DefaultListModel<StorageDevice>> listModels = new ArrayList<>();
 
         SwingUtilities.invokeLater(() -> {
@@ -1954,34 +2122,37 @@ public class DLCopySwingGUI extends JFrame
                     return;
             }
 
-            listModels.forEach(listModel -> {
-                for (int i = 0, size = listModel.getSize(); i < size; i++) {
-                    StorageDevice storageDevice = listModel.get(i);
-                    if (storageDevice.getDevice().equals(device)) {
-
+            // update the GUI only once for all removed devices
+            boolean removed = false;
+            for (DefaultListModel<StorageDevice> listModel : listModels) {
+                for (int i = listModel.getSize() - 1; i >= 0; i--) {
+                    String device = listModel.get(i).getDevice();
+                    if (devices.contains(device)) {
                         listModel.remove(i);
+                        removed = true;
                         LOGGER.log(Level.INFO,
                                 "removed from storage device list: {0}",
                                 device);
+                    }
+                }
+            }
+            if (!removed) {
+                return;
+            }
 
-                        switch (state) {
-                            case INSTALL_SELECTION:
-                                installStorageDeviceListChanged();
-                                installTransferStorageDeviceListChanged();
-                                break;
-
-                            case UPGRADE_SELECTION:
-                                upgradeStorageDeviceListChanged();
-                                break;
+            switch (state) {
+                case INSTALL_SELECTION:
+                    installStorageDeviceListChanged();
+                    installTransferStorageDeviceListChanged();
+                    break;
 
-                            case RESET_SELECTION:
-                                resetStorageDeviceListChanged();
-                        }
+                case UPGRADE_SELECTION:
+                    upgradeStorageDeviceListChanged();
+                    break;
 
-                        break; // for
-                    }
-                }
-            });
+                case RESET_SELECTION:
+                    resetStorageDeviceListChanged();
+            }
         });
     }
 
@@ -2050,6 +2221,11 @@ public class DLCopySwingGUI extends JFrame
                 installerPanels.isTransferPrinterSelected(),
                 installerPanels.isTransferFirewallSelected(),
                 installerPanels.isCheckCopiesSelected(),
+                commandLineMaxConcurrentInstallations,
+                commandLineCloneSystemPartition,
+                commandLineCloneEfiPartition,
+                commandLineCloneDataPartition,
+                commandLinePipelineStageConcurrencies,
                 installLock).execute();
 
         updateTableActionListener
@@ -2126,21 +2302,77 @@ public class DLCopySwingGUI extends JFrame
         }
     }
 
-    private void deviceStarted(StorageDevice storageDevice) {
+    // Several operations may run in parallel and call the methods below from
+    // their own threads. The results list is only changed on the Event
+    // Dispatch Thread, the entries are found via runningResults.
+
+    // returns the batch counter of the started device
+    private synchronized int deviceStarted(StorageDevice storageDevice) {
         batchCounter++;
         // add "in progress" entry to results table
-        resultsList.add(new StorageDeviceResult(storageDevice));
+        StorageDeviceResult result = new StorageDeviceResult(storageDevice);
+        runningResults.add(result);
+        SwingUtilities.invokeLater(() -> resultsList.add(result));
+        return batchCounter;
     }
 
-    private void deviceFinished(String errorMessage) {
+    private void deviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
 
-        // update "in progress" entry
-        StorageDeviceResult result = resultsList.get(resultsList.size() - 1);
-        result.finish();
-        result.setErrorMessage(errorMessage);
+        // the used space of the storage device has changed
+        StorageDeviceListUpdater.invalidate(storageDevice);
 
-        // update final report
-        resultsTableModel.setList(resultsList);
+        StorageDeviceResult result = getRunningResult(storageDevice);
+        if (result == null) {
+            LOGGER.log(Level.WARNING,
+                    "no running operation found for {0}", storageDevice);
+            return;
+        }
+        runningResults.remove(result);
+        SwingUtilities.invokeLater(() -> {
+            // update "in progress" entry
+            result.finish();
+            result.setErrorMessage(errorMessage);
+
+            // update final report
+            resultsTableModel.setList(resultsList);
+        });
+    }
+
+    private void setProgress(StorageDevice storageDevice, String progress) {
+        StorageDeviceResult result = getRunningResult(storageDevice);
+        if (result != null) {
+            // the results table is updated by the tableUpdateTimer
+            result.setProgress(progress);
+        }
+    }
+
+    // returns the "in progress" entry of a storage device
+    private StorageDeviceResult getRunningResult(StorageDevice storageDevice) {
+        for (StorageDeviceResult result : runningResults) {
+            if (result.getStorageDevice().equals(storageDevice)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    // shows an installation step in the row of the storage device installed
+    // by the current thread, returns true if the progress panel must show
+    // the step, too
+    private boolean showInstallStep(String key) {
+        StorageDevice storageDevice = installingDevice.get();
+        if (storageDevice != null) {
+            setProgress(storageDevice, STRINGS.getString(key));
+        }
+        return isShownInstallDevice(storageDevice);
+    }
+
+    private boolean isShownInstallDevice(StorageDevice storageDevice) {
+        // steps of unknown installations (e.g. sequential installations on
+        // other threads) are always shown
+        return (storageDevice == null)
+                || storageDevice.equals(shownInstallDevice);
     }
 
     private void batchFinished(String nonRemovableKey,
@@ -2312,39 +2544,13 @@ public class DLCopySwingGUI extends JFrame
         runningSystemSource.unmountTmpPartitions();
         installerPanels.unmountIsoSystemSource();
 
-        // stop monitoring thread
-        udisksMonitorThread.stopMonitoring();
+        // stop monitoring
+        hotplugMonitor.stop();
 
         // everything is done, disappear now
         System.exit(0);
     }
 
-    private class UdisksMonitorThread extends Thread {
-
-        // use local ProcessExecutor because the udisks process is blocking and
-        // long-running
-        private final ProcessExecutor executor = new ProcessExecutor(false);
-
-        @Override
-        public void run() {
-            String binaryName;
-            String parameter;
-            if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-                binaryName = "udisks";
-                parameter = "--monitor";
-            } else {
-                binaryName = "udisksctl";
-                parameter = "monitor";
-            }
-            executor.addPropertyChangeListener(DLCopySwingGUI.this);
-            executor.executeProcess(binaryName, parameter);
-        }
-
-        public void stopMonitoring() {
-            executor.destroy();
-        }
-    }
-
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel buttonGridPanel;
     private javax.swing.JPanel cardPanel;
@@ -8,6 +8,7 @@ package ch.fhnw.dlcopy.gui.swing;
 import ch.fhnw.dlcopy.DLCopy;
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import ch.fhnw.dlcopy.SystemSource;
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
@@ -170,9 +171,11 @@ public abstract class DetailedStorageDeviceRenderer extends JPanel
                 try {
                     long usedSpace;
                     if (partition.isPersistencePartition()) {
-                        usedSpace = partition.getUsedSpace(true);
+                        usedSpace = UsedSpaceProbe.getCachedUsedSpace(
+                                partition, true);
                     } else {
-                        usedSpace = partition.getUsedSpace(false);
+                        usedSpace = UsedSpaceProbe.getCachedUsedSpace(
+                                partition, false);
                     }
                     if (usedSpace == -1) {
                         stringBuilder.append(STRINGS.getString("Unknown"));
@@ -360,9 +363,11 @@ public abstract class DetailedStorageDeviceRenderer extends JPanel
                 try {
                     long usedSpace;
                     if (partition.isPersistencePartition()) {
-                        usedSpace = partition.getUsedSpace(true);
+                        usedSpace = UsedSpaceProbe.getCachedUsedSpace(
+                                partition, true);
                     } else {
-                        usedSpace = partition.getUsedSpace(false);
+                        usedSpace = UsedSpaceProbe.getCachedUsedSpace(
+                                partition, false);
                     }
                     if (usedSpace != -1) {
                         int usedWidth = (int) ((width * usedSpace)
@@ -1,12 +1,13 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.util.StorageDevice;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import javax.swing.DefaultListModel;
 import javax.swing.JList;
 
 /**
- * parses udisks output paths and adds the corresponding storage devices to the
+ * probes added udisks paths and adds the corresponding storage devices to the
  * installation list
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
@@ -16,7 +17,7 @@ public class InstallStorageDeviceAdder extends StorageDeviceAdder {
     /**
      * creates a new InstallStorageDeviceAdder
      *
-     * @param addedPath the added udisks path
+     * @param addedPaths the added udisks paths
      * @param showHardDisks if true, paths to hard disks are processed,
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
@@ -25,17 +26,18 @@ public class InstallStorageDeviceAdder extends StorageDeviceAdder {
      * @param swingGUI the DLCopySwingGUI
      * @param lock the lock to aquire before adding the device to the listModel
      */
-    public InstallStorageDeviceAdder(String addedPath, boolean showHardDisks,
+    public InstallStorageDeviceAdder(List<String> addedPaths,
+            boolean showHardDisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
             DefaultListModel<StorageDevice> listModel,
             JList<StorageDevice> list, DLCopySwingGUI swingGUI, Lock lock) {
         
-        super(addedPath, showHardDisks, dialogHandler,
+        super(addedPaths, showHardDisks, dialogHandler,
                 listModel, list, swingGUI, lock);
     }
 
     @Override
-    public void initDevice() {
+    public void initDevice(StorageDevice addedDevice) {
         // we don't need to do here anything...
     }
 
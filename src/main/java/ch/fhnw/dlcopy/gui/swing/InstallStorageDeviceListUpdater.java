@@ -28,7 +28,7 @@ public class InstallStorageDeviceListUpdater extends StorageDeviceListUpdater {
     }
 
     @Override
-    public void initDevices() {
+    public void initDevice(StorageDevice device) {
         // we don't need to do here anything...
     }
 
@@ -1,5 +1,6 @@
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.StorageDevice;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,16 +37,16 @@ public class InstallTransferStorageDeviceListUpdater
     }
 
     @Override
-    public void initDevices() {
-        for (StorageDevice device : storageDevices) {
-            try {
-                device.getPartitions().forEach((partition) -> {
-                        partition.getUsedSpace(false);
-                });
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "", ex);
-                throw ex;
-            }
+    public void initDevice(StorageDevice device) {
+        try {
+            device.getPartitions().forEach((partition) -> {
+                // same as in DetailedStorageDeviceRenderer
+                UsedSpaceProbe.getUsedSpace(
+                        partition, partition.isPersistencePartition());
+            });
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
+            throw ex;
         }
     }
 
@@ -1,5 +1,6 @@
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.StorageDevice;
 import javax.swing.DefaultListModel;
 import javax.swing.JList;
@@ -29,14 +30,12 @@ public class ResetStorageDeviceListUpdater extends StorageDeviceListUpdater {
     }
 
     @Override
-    public void initDevices() {
-        storageDevices.forEach(device -> {
-            device.getPartitions().forEach(partition -> {
-                try {
-                    partition.getUsedSpace(false);
-                } catch (Exception ignored) {
-                }
-            });
+    public void initDevice(StorageDevice device) {
+        device.getPartitions().forEach(partition -> {
+            try {
+                UsedSpaceProbe.getUsedSpace(partition, false);
+            } catch (Exception ignored) {
+            }
         });
     }
 
@@ -6,6 +6,7 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
@@ -147,7 +148,8 @@ public class ResetStorageDeviceRenderer extends JPanel
                 stringBuilder.append(STRINGS.getString("Used"));
                 stringBuilder.append(": ");
                 try {
-                    long usedSpace = partition.getUsedSpace(false);
+                    long usedSpace = UsedSpaceProbe.getCachedUsedSpace(
+                            partition, false);
                     if (usedSpace == -1) {
                         stringBuilder.append(STRINGS.getString("Unknown"));
                     } else {
@@ -275,7 +277,8 @@ public class ResetStorageDeviceRenderer extends JPanel
             // paint partition storage space usage (if known)
             if (!extended) {
                 try {
-                    long usableSpace = partition.getUsedSpace(false);
+                    long usableSpace = UsedSpaceProbe.getCachedUsedSpace(
+                            partition, false);
                     if (usableSpace != -1) {
                         int usedWidth = (int) ((width * usableSpace)
                                 / maxStorageDeviceSize);
@@ -438,6 +438,12 @@ public class ResetterPanels
                 progressBar, "Removing_Selected_Files");
     }
 
+    public void setResetDeleteProgress(long files) {
+        String text = MessageFormat.format(
+                DLCopy.STRINGS.getString("Removing_Files_Progress"), files);
+        SwingUtilities.invokeLater(() -> progressBar.setString(text));
+    }
+
     public void showNoMediaPanel() {
         showSelection();
         DLCopySwingGUI.showCard(selectionCardPanel, "noMediaPanel");
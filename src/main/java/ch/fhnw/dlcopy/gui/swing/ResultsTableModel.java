@@ -184,8 +184,10 @@ public class ResultsTableModel extends PreferredSizesTableModel {
                     String errorMessage = result.getErrorMessage();
                     if (errorMessage == null) {
                         if (result.getDuration() == null) {
+                            String progress = result.getProgress();
                             return "<html><font color=\"green\">"
                                     + STRINGS.getString("In_Progress")
+                                    + (progress == null ? "" : " " + progress)
                                     + "</font></html>";
                         } else {
                             return "<html><font color=\"green\">"
@@ -2,6 +2,7 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
 import ch.fhnw.util.StorageDevice;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
@@ -11,8 +12,9 @@ import javax.swing.JList;
 import javax.swing.SwingWorker;
 
 /**
- * parses udisks output paths and adds the storage devices to the corresponding
- * list
+ * probes added udisks paths and adds the storage devices to the corresponding
+ * list (all storage devices of a batch of paths are probed in parallel and
+ * added to the list at once)
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
@@ -27,13 +29,13 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
     protected final DLCopySwingGUI swingGUI;
 
     /**
-     * the added device
+     * the added devices
      */
-    protected StorageDevice addedDevice;
+    protected List<StorageDevice> addedDevices;
 
     protected final JList<StorageDevice> list;
 
-    private final String addedPath;
+    private final List<String> addedPaths;
     private final boolean showHardDisks;
     private final StorageDeviceListUpdateDialogHandler dialogHandler;
     private final DefaultListModel<StorageDevice> listModel;
@@ -42,7 +44,7 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
     /**
      * creates a new StorageDeviceAdder
      *
-     * @param addedPath the added udisks path
+     * @param addedPaths the added udisks paths
      * @param showHardDisks if true, paths to hard disks are processed,
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
@@ -51,12 +53,12 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
      * @param swingGUI the DLCopySwingGUI
      * @param lock the lock to aquire before adding the device to the listModel
      */
-    public StorageDeviceAdder(String addedPath, boolean showHardDisks,
+    public StorageDeviceAdder(List<String> addedPaths, boolean showHardDisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
             DefaultListModel<StorageDevice> listModel,
             JList<StorageDevice> list, DLCopySwingGUI swingGUI, Lock lock) {
 
-        this.addedPath = addedPath;
+        this.addedPaths = addedPaths;
         this.showHardDisks = showHardDisks;
         this.dialogHandler = dialogHandler;
         this.listModel = listModel;
@@ -64,7 +66,7 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
         this.swingGUI = swingGUI;
         this.lock = lock;
 
-        dialogHandler.addPath(addedPath);
+        addedPaths.forEach(dialogHandler::addPath);
     }
 
     @Override
@@ -72,53 +74,61 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
 
         Thread.currentThread().setName(getClass().getName());
 
-        addedDevice = DLCopy.getStorageDeviceAfterTimeout(
-                addedPath, showHardDisks);
-        if (addedDevice != null) {
-            initDevice();
-        }
+        addedDevices = DLCopy.getAddedStorageDevices(
+                addedPaths, showHardDisks);
+        addedDevices.parallelStream().forEach(this::initDevice);
         return null;
     }
 
     @Override
     protected void done() {
-        dialogHandler.removePath(addedPath);
+        addedPaths.forEach(dialogHandler::removePath);
 
-        if (addedDevice == null) {
+        if ((addedDevices == null) || addedDevices.isEmpty()) {
             return;
         }
         synchronized (listModel) {
-            // do nothing, if device was added in the meantime
+            // skip devices that were added in the meantime
             // e.g. via a StorageDeviceListUpdater
-            if (!listModel.contains(addedDevice)) {
-                LOGGER.info("trying to acquire lock...");
-                lock.lock();
-                LOGGER.info("lock aquired");
-                try {
-                    addDeviceToList();
-                    updateGUI();
-                } finally {
-                    LOGGER.info("releasing lock...");
-                    lock.unlock();
-                    LOGGER.info("unlocked");
+            List<StorageDevice> newDevices = new ArrayList<>();
+            for (StorageDevice addedDevice : addedDevices) {
+                if (!listModel.contains(addedDevice)) {
+                    newDevices.add(addedDevice);
                 }
             }
+            if (newDevices.isEmpty()) {
+                return;
+            }
+            LOGGER.info("trying to acquire lock...");
+            lock.lock();
+            LOGGER.info("lock aquired");
+            try {
+                addDevicesToList(newDevices);
+                updateGUI();
+            } finally {
+                LOGGER.info("releasing lock...");
+                lock.unlock();
+                LOGGER.info("unlocked");
+            }
         }
     }
 
     /**
      * get all the necessary infos about a device in the background thread so
-     * that later rendering in the Swing event thread does not block
+     * that later rendering in the Swing event thread does not block (is
+     * called in parallel for all added devices)
+     *
+     * @param addedDevice the added device
      */
-    public abstract void initDevice();
+    public abstract void initDevice(StorageDevice addedDevice);
 
     /**
      * do all the necessary GUI updates (showing or hiding panels, disabling or
-     * enabling buttons, ...) after a device has been added to the list
+     * enabling buttons, ...) after devices have been added to the list
      */
     public abstract void updateGUI();
 
-    private void addDeviceToList() {
+    private void addDevicesToList(List<StorageDevice> newDevices) {
 
         // remember selected values
         List<StorageDevice> selectedValues = list.getSelectedValuesList();
@@ -131,14 +141,16 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
         // devices added to the list model might be automatically upgraded or
         // reset.
         // !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
-        int addIndex = 0;
-        while (addIndex < listModel.size()
-                && listModel.get(addIndex).compareTo(addedDevice) < 0) {
-            addIndex++;
+        for (StorageDevice addedDevice : newDevices) {
+            int addIndex = 0;
+            while (addIndex < listModel.size()
+                    && listModel.get(addIndex).compareTo(addedDevice) < 0) {
+                addIndex++;
+            }
+            LOGGER.log(Level.INFO, "adding {0} to index {1}",
+                    new Object[]{addedDevice, addIndex});
+            listModel.add(addIndex, addedDevice);
         }
-        LOGGER.log(Level.INFO, "adding {0} to index {1}",
-                new Object[]{addedDevice, addIndex});
-        listModel.add(addIndex, addedDevice);
 
         // try to restore the previous selection
         for (StorageDevice selectedValue : selectedValues) {
@@ -1,11 +1,25 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.ModalDialogHandler;
+import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.DefaultListModel;
@@ -15,6 +29,14 @@ import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
  * updates a list of available storage devices
+ * <p>
+ * Initializing a storage device (e.g. determining the used space of its
+ * partitions) may include mounting its partitions and is therefore slow. The
+ * storage devices are initialized in parallel and the initialized storage
+ * devices are cached per list updater class, keyed by serial. As long as the
+ * partition table, the file systems and the number of writes of a storage
+ * device don't change, the cached storage device is reused instead of
+ * initializing it again.
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
@@ -35,6 +57,13 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
     private static final Logger LOGGER
             = Logger.getLogger(StorageDeviceListUpdater.class.getName());
 
+    // the maximum number of storage devices that are initialized in parallel
+    private static final int MAX_CONCURRENT_INITS = 4;
+
+    // the initialized storage devices of every list updater class by serial
+    private static final Map<Class<?>, Map<String, CachedDevice>> CACHES
+            = new ConcurrentHashMap<>();
+
     private final DefaultListModel<StorageDevice> listModel;
     private final boolean showHardDisks;
     private final boolean showBootDevice;
@@ -81,7 +110,7 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
                 storageDevices = DLCopy.getStorageDevices(
                         showHardDisks, showBootDevice, bootDeviceName);
                 Collections.sort(storageDevices);
-                initDevices();
+                initDevices(getCache());
             } catch (IOException | DBusException ex) {
                 LOGGER.log(Level.SEVERE, "", ex);
             } catch (Exception ex) {
@@ -111,13 +140,176 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
     }
 
     /**
-     * get all the necessary infos about all devices in the background thread so
-     * that later rendering in the Swing event thread does not block
+     * removes a storage device from all caches, must be called when a storage
+     * device was changed (e.g. after installing, upgrading or resetting it)
+     * because its used space may have changed without changing its partition
+     * table
+     *
+     * @param storageDevice the changed storage device
+     */
+    static void invalidate(StorageDevice storageDevice) {
+        String serial = storageDevice.getSerial();
+        if (serial != null) {
+            CACHES.values().forEach(cache -> cache.remove(serial));
+        }
+        UsedSpaceProbe.invalidate(storageDevice);
+    }
+
+    /**
+     * get all the necessary infos about a device in the background thread so
+     * that later rendering in the Swing event thread does not block (is
+     * called in parallel for several devices)
+     *
+     * @param device the device to initialize
      */
-    public abstract void initDevices();
+    public abstract void initDevice(StorageDevice device);
 
     /**
      * updates the GUI for the new storage device list
      */
     public abstract void updateGUI();
+
+    private Map<String, CachedDevice> getCache() {
+        return CACHES.computeIfAbsent(
+                getClass(), key -> new ConcurrentHashMap<>());
+    }
+
+    private void initDevices(Map<String, CachedDevice> cache)
+            throws Exception {
+
+        // replace unchanged storage devices with their cached (and already
+        // initialized) instances
+        Map<String, String> uuids = getFileSystemUuids();
+        List<StorageDevice> uninitializedDevices = new ArrayList<>();
+        for (int i = 0, size = storageDevices.size(); i < size; i++) {
+            StorageDevice device = storageDevices.get(i);
+            String serial = device.getSerial();
+            CachedDevice cachedDevice
+                    = (serial == null) ? null : cache.get(serial);
+            if ((cachedDevice != null) && cachedDevice.fingerprint
+                    .equals(getFingerprint(device, uuids))) {
+                LOGGER.log(Level.INFO, "reusing cached {0}", device);
+                storageDevices.set(i, cachedDevice.device);
+            } else {
+                uninitializedDevices.add(device);
+            }
+        }
+        if (uninitializedDevices.isEmpty()) {
+            return;
+        }
+
+        int threadCount = Math.min(
+                MAX_CONCURRENT_INITS, uninitializedDevices.size());
+        LOGGER.log(Level.INFO, "initializing {0} storage devices with {1} "
+                + "threads", new Object[]{
+                    uninitializedDevices.size(), threadCount});
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (StorageDevice device : uninitializedDevices) {
+                futures.add(executorService.submit(() -> {
+                    initDevice(device);
+                    String serial = device.getSerial();
+                    if (serial != null) {
+                        // initializing may mount and therefore write to the
+                        // storage device
+                        cache.put(serial, new CachedDevice(device,
+                                getFingerprint(device,
+                                        getFileSystemUuids())));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw ex;
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * returns a fingerprint of the partition table, the file systems and the
+     * number of writes of a storage device
+     *
+     * @param device the storage device
+     * @param uuids the file system UUIDs of all partitions by device name
+     * @return a fingerprint of the storage device
+     */
+    private static String getFingerprint(
+            StorageDevice device, Map<String, String> uuids) {
+        // the device name is part of the fingerprint because a StorageDevice
+        // can't be reused after replugging it under another name
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(device.getDevice()).append(':')
+                .append(device.getSize()).append(':')
+                .append(getWriteCount(device.getDevice()));
+        for (Partition partition : device.getPartitions()) {
+            stringBuilder.append(';').append(partition.getNumber())
+                    .append(':').append(partition.getOffset())
+                    .append(':').append(partition.getSize())
+                    .append(':').append(partition.getIdType())
+                    .append(':').append(partition.getIdLabel())
+                    .append(':').append(
+                            uuids.get(partition.getDeviceAndNumber()));
+        }
+        return stringBuilder.toString();
+    }
+
+    // returns the file system UUIDs of all partitions by device name
+    // (e.g. "sdb1"), a reformatted partition gets a new UUID
+    private static Map<String, String> getFileSystemUuids() {
+        Map<String, String> uuids = new HashMap<>();
+        try (DirectoryStream<Path> links = Files.newDirectoryStream(
+                Paths.get("/dev/disk/by-uuid"))) {
+            for (Path link : links) {
+                try {
+                    uuids.put(link.toRealPath().getFileName().toString(),
+                            link.getFileName().toString());
+                } catch (IOException ex) {
+                    // the partition was just removed
+                    LOGGER.log(Level.FINE, "", ex);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        }
+        return uuids;
+    }
+
+    // returns the number of completed writes of a storage device since it
+    // was plugged in, file systems could have been changed in between
+    private static String getWriteCount(String device) {
+        try {
+            String[] stat = new String(Files.readAllBytes(
+                    Paths.get("/sys/class/block", device, "stat")))
+                    .trim().split("\\s+");
+            // the fifth field contains the completed write requests
+            return stat[4];
+        } catch (IOException | ArrayIndexOutOfBoundsException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return null;
+        }
+    }
+
+    // an initialized storage device with its fingerprint
+    private static class CachedDevice {
+
+        private final StorageDevice device;
+        private final String fingerprint;
+
+        public CachedDevice(StorageDevice device, String fingerprint) {
+            this.device = device;
+            this.fingerprint = fingerprint;
+        }
+    }
 }
@@ -2,9 +2,10 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
 import ch.fhnw.dlcopy.SystemSource;
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.StorageDevice;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,7 +14,7 @@ import javax.swing.JList;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
- * parses udisks output paths and adds the corresponding storage devices to the
+ * probes added udisks paths and adds the corresponding storage devices to the
  * upgrade list
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
@@ -28,7 +29,7 @@ public class UpgradeStorageDeviceAdder extends StorageDeviceAdder {
      * creates a new UpgradeStorageDeviceAdder
      *
      * @param source the system source
-     * @param addedPath the added udisks path
+     * @param addedPaths the added udisks paths
      * @param showHardDisks if true, paths to hard disks are processed,
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
@@ -38,34 +39,33 @@ public class UpgradeStorageDeviceAdder extends StorageDeviceAdder {
      * @param lock the lock to aquire before adding the device to the listModel
      */
     public UpgradeStorageDeviceAdder(SystemSource source,
-            String addedPath, boolean showHardDisks,
+            List<String> addedPaths, boolean showHardDisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
             DefaultListModel<StorageDevice> listModel,
             JList<StorageDevice> list, DLCopySwingGUI swingGUI, Lock lock) {
         
-        super(addedPath, showHardDisks, dialogHandler,
+        super(addedPaths, showHardDisks, dialogHandler,
                 listModel, list, swingGUI, lock);
         
         this.source = source;
     }
 
     @Override
-    public void initDevice() {
+    public void initDevice(StorageDevice addedDevice) {
         try {
-            TimeUnit.SECONDS.sleep(7);
             addedDevice.getSystemUpgradeVariant(
                     DLCopy.getEnlargedSystemSize(source.getSystemSize()));
             addedDevice.getPartitions().forEach((partition) -> {
                 try {
                     if (partition.isPersistencePartition()) {
-                        partition.getUsedSpace(true);
+                        UsedSpaceProbe.getUsedSpace(partition, true);
                     } else {
-                        partition.getUsedSpace(false);
+                        UsedSpaceProbe.getUsedSpace(partition, false);
                     }
                 } catch (Exception ignored) {
                 }
             });
-        } catch (DBusException | IOException | InterruptedException ex) {
+        } catch (DBusException | IOException ex) {
             LOGGER.log(Level.SEVERE, "", ex);
         }
     }
@@ -2,6 +2,7 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
 import ch.fhnw.dlcopy.SystemSource;
+import ch.fhnw.dlcopy.UsedSpaceProbe;
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
 import java.io.IOException;
@@ -42,27 +43,25 @@ public class UpgradeStorageDeviceListUpdater extends StorageDeviceListUpdater {
     }
 
     @Override
-    public void initDevices() {
-        for (StorageDevice device : storageDevices) {
-            try {
-                device.getSystemUpgradeVariant(
-                        DLCopy.getEnlargedSystemSize(source.getSystemSize()));
-                for (Partition partition : device.getPartitions()) {
-                    try {
-                        if (partition.isPersistencePartition()) {
-                            partition.getUsedSpace(true);
-                        } else {
-                            partition.getUsedSpace(false);
-                        }
-                    } catch (Exception ignored) {
+    public void initDevice(StorageDevice device) {
+        try {
+            device.getSystemUpgradeVariant(
+                    DLCopy.getEnlargedSystemSize(source.getSystemSize()));
+            for (Partition partition : device.getPartitions()) {
+                try {
+                    if (partition.isPersistencePartition()) {
+                        UsedSpaceProbe.getUsedSpace(partition, true);
+                    } else {
+                        UsedSpaceProbe.getUsedSpace(partition, false);
                     }
+                } catch (Exception ignored) {
                 }
-            } catch (DBusException | IOException ex) {
-                LOGGER.log(Level.WARNING, "", ex);
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "", ex);
-                throw ex;
             }
+        } catch (DBusException | IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
+            throw ex;
         }
     }
 
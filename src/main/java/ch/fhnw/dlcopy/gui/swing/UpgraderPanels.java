@@ -459,6 +459,27 @@ public class UpgraderPanels extends JPanel implements ListDataListener {
                 timeFormat.format(new Date(time)));
     }
 
+    public void setUpgradeCopyUpProgress(long files, long bytes) {
+        String text = MessageFormat.format(
+                STRINGS.getString("Copying_Up_Personal_Data"), files,
+                LernstickFileTools.getDataVolumeString(bytes, 1));
+        SwingUtilities.invokeLater(() -> {
+            DLCopySwingGUI.showCard(upgradeCardPanel,
+                    "indeterminateProgressPanel");
+            indeterminateProgressBar.setString(text);
+        });
+    }
+
+    public void setUpgradeDeleteProgress(long files) {
+        String text = MessageFormat.format(
+                STRINGS.getString("Removing_Files_Progress"), files);
+        SwingUtilities.invokeLater(() -> {
+            DLCopySwingGUI.showCard(upgradeCardPanel,
+                    "indeterminateProgressPanel");
+            indeterminateProgressBar.setString(text);
+        });
+    }
+
     public void showUpgradeBackupExchangePartition(FileCopier fileCopier) {
         SwingUtilities.invokeLater(() -> {
             copyLabel.setText(STRINGS.getString(
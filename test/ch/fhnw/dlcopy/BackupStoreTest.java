@@ -0,0 +1,196 @@
+package ch.fhnw.dlcopy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the chunking and the manifest format of the {@link BackupStore}.
+ */
+public class BackupStoreTest {
+
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        Path store = temporaryFolder.newFolder().toPath();
+        Path source = temporaryFolder.newFolder().toPath();
+        byte[] data = new byte[5 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        Files.write(source.resolve("file"), data);
+
+        List<String> chunks = backup(store, source, "original");
+        assertTrue(chunks.size() > 1);
+        long size = 0;
+        for (int i = 0, last = chunks.size() - 1; i <= last; i++) {
+            long chunkSize = Files.size(getChunk(store, chunks.get(i)));
+            assertTrue(chunkSize <= MAX_CHUNK_SIZE);
+            if (i < last) {
+                assertTrue(chunkSize >= MIN_CHUNK_SIZE);
+            }
+            size += chunkSize;
+        }
+        assertEquals(data.length, size);
+
+        // the boundaries depend on the content, inserting some bytes at the
+        // start of the file must only change the first chunk
+        byte[] shiftedData = new byte[data.length + 100];
+        System.arraycopy(data, 0, shiftedData, 100, data.length);
+        Files.write(source.resolve("file"), shiftedData);
+        Set<String> shiftedChunks
+                = new HashSet<>(backup(store, source, "shifted"));
+        for (String chunk : chunks.subList(1, chunks.size())) {
+            assertTrue(chunk + " was not reused",
+                    shiftedChunks.contains(chunk));
+        }
+    }
+
+    @Test
+    public void testEmptyAndSmallFiles() throws IOException {
+        Path store = temporaryFolder.newFolder().toPath();
+        Path source = temporaryFolder.newFolder().toPath();
+
+        Files.createFile(source.resolve("file"));
+        assertEquals(Arrays.asList(""),
+                getManifestColumn(backup(store, source), 'f', 6));
+
+        Files.write(source.resolve("file"), new byte[MIN_CHUNK_SIZE]);
+        List<String> chunks = backup(store, source, "small");
+        assertEquals(1, chunks.size());
+        assertEquals(MIN_CHUNK_SIZE,
+                Files.size(getChunk(store, chunks.get(0))));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path store = temporaryFolder.newFolder().toPath();
+        Path source = temporaryFolder.newFolder().toPath();
+
+        Path directory = Files.createDirectories(source.resolve("dir/sub"));
+        Path file = source.resolve("dir/file");
+        byte[] data = new byte[3 * MAX_CHUNK_SIZE];
+        new Random(7).nextBytes(data);
+        Files.write(file, data);
+        Files.setAttribute(file, "unix:mode", 0640);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1000000000000L));
+        Files.write(source.resolve("tab\tand\nnewline"),
+                "special".getBytes(StandardCharsets.UTF_8));
+        Files.createFile(source.resolve("empty"));
+        Files.createSymbolicLink(source.resolve("link"), Paths.get("dir/file"));
+        Files.createLink(source.resolve("hardlink"), file);
+        Path fifo = source.resolve("fifo");
+        assertEquals(0, new ProcessBuilder("mkfifo", fifo.toString())
+                .start().waitFor());
+        Files.setLastModifiedTime(
+                directory, FileTime.fromMillis(1200000000000L));
+
+        BackupStore backupStore = new BackupStore(store.toFile());
+        backupStore.backup(source, null, "test", new BackupStore.Progress());
+
+        Set<Character> types = new HashSet<>();
+        for (String line : readManifest(store, "test")) {
+            if (!line.startsWith("#")) {
+                types.add(line.charAt(0));
+            }
+        }
+        assertEquals(new HashSet<>(Arrays.asList('d', 'f', 'l', 'h', 'n')),
+                types);
+
+        Path destination = temporaryFolder.newFolder().toPath();
+        backupStore.restore("test", destination, new BackupStore.Progress());
+
+        Path restoredFile = destination.resolve("dir/file");
+        assertArrayEquals(data, Files.readAllBytes(restoredFile));
+        assertEquals(0640, getMode(restoredFile) & 07777);
+        assertEquals(1000000000000L,
+                Files.getLastModifiedTime(restoredFile).toMillis());
+        assertEquals("special", new String(Files.readAllBytes(
+                destination.resolve("tab\tand\nnewline")),
+                StandardCharsets.UTF_8));
+        assertEquals(0, Files.size(destination.resolve("empty")));
+        assertEquals(Paths.get("dir/file"),
+                Files.readSymbolicLink(destination.resolve("link")));
+        assertTrue(Files.isSameFile(
+                restoredFile, destination.resolve("hardlink")));
+        assertEquals(0010000, getMode(destination.resolve("fifo")) & 0170000);
+        Path restoredDirectory = destination.resolve("dir/sub");
+        assertTrue(Files.isDirectory(restoredDirectory));
+        assertEquals(1200000000000L,
+                Files.getLastModifiedTime(restoredDirectory).toMillis());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRestoreWithoutBackup() throws IOException {
+        new BackupStore(temporaryFolder.newFolder()).restore("missing",
+                temporaryFolder.newFolder().toPath(),
+                new BackupStore.Progress());
+    }
+
+    // backs up the single file "file" and returns its chunks
+    private static List<String> backup(Path store, Path source, String name)
+            throws IOException {
+        new BackupStore(store.toFile()).backup(source,
+                Arrays.asList("file"), name, new BackupStore.Progress());
+        String chunks = getManifestColumn(
+                readManifest(store, name), 'f', 6).get(0);
+        return Arrays.asList(chunks.split(","));
+    }
+
+    private static List<String> backup(Path store, Path source)
+            throws IOException {
+        new BackupStore(store.toFile()).backup(
+                source, null, "test", new BackupStore.Progress());
+        return readManifest(store, "test");
+    }
+
+    private static List<String> readManifest(Path store, String name)
+            throws IOException {
+        List<String> lines = Files.readAllLines(
+                store.resolve("manifests").resolve(name),
+                StandardCharsets.UTF_8);
+        assertEquals("# DLCopy backup manifest 2", lines.get(0));
+        return lines;
+    }
+
+    private static List<String> getManifestColumn(
+            List<String> manifest, char type, int column) {
+        List<String> values = new ArrayList<>();
+        for (String line : manifest) {
+            if (line.charAt(0) == type) {
+                values.add(line.split("\t", -1)[column]);
+            }
+        }
+        return values;
+    }
+
+    private static Path getChunk(Path store, String hash) {
+        return store.resolve("chunks").resolve(hash.substring(0, 2))
+                .resolve(hash);
+    }
+
+    private static int getMode(Path path) throws IOException {
+        return (Integer) Files.getAttribute(
+                path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+    }
+}
@@ -0,0 +1,124 @@
+package ch.fhnw.dlcopy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that the {@link ParallelDeleter} keeps the same files as
+ * "find &lt;root&gt; ! -regex &lt;exclude&gt; ... -delete".
+ */
+public class ParallelDeleterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testDeleteAll() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "a/b/c", "a/d", "e");
+        assertEquals(5, delete(root, Collections.emptyList()));
+        // the root directory itself is never deleted
+        assertTrue(Files.isDirectory(root));
+        assertEquals(0, count(root));
+    }
+
+    @Test
+    public void testCompleteMatch() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "keep", "keep2", "dir/keep");
+        delete(root, Arrays.asList(root + "/keep"));
+        assertTrue(Files.exists(root.resolve("keep")));
+        assertFalse(Files.exists(root.resolve("keep2")));
+        assertFalse(Files.exists(root.resolve("dir")));
+    }
+
+    @Test
+    public void testExcludedDirectory() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "dir/file", "dir/sub/file");
+        delete(root, Arrays.asList(root + "/dir"));
+        // only the directory itself is kept, not its contents
+        assertTrue(Files.isDirectory(root.resolve("dir")));
+        assertEquals(0, count(root.resolve("dir")));
+    }
+
+    @Test
+    public void testParentsOfExcludedFiles() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "a/b/keep", "a/b/other", "a/other");
+        delete(root, Arrays.asList(root + "/a/b/keep"));
+        // the parent directories are not empty and therefore kept
+        assertTrue(Files.exists(root.resolve("a/b/keep")));
+        assertFalse(Files.exists(root.resolve("a/b/other")));
+        assertFalse(Files.exists(root.resolve("a/other")));
+    }
+
+    @Test
+    public void testSubtreeExclude() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "home/user/.config/file", "home/user/file",
+                "homework", "other/file");
+        // ".*" keeps the directory and everything below it (and everything
+        // else that starts with the same prefix)
+        delete(root, Arrays.asList(root + "/home.*"));
+        assertTrue(Files.exists(root.resolve("home/user/.config/file")));
+        assertTrue(Files.exists(root.resolve("home/user/file")));
+        assertTrue(Files.exists(root.resolve("homework")));
+        assertFalse(Files.exists(root.resolve("other")));
+    }
+
+    @Test
+    public void testEscapedDotsAreNoSubtreeExclude() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "dir/file", "dir./file");
+        // "\.*" only matches dots, the contents of "dir" are deleted
+        delete(root, Arrays.asList(root + "/dir\\.*"));
+        assertTrue(Files.isDirectory(root.resolve("dir")));
+        assertFalse(Files.exists(root.resolve("dir/file")));
+        assertTrue(Files.isDirectory(root.resolve("dir.")));
+        assertFalse(Files.exists(root.resolve("dir./file")));
+    }
+
+    @Test
+    public void testNewlines() throws IOException {
+        Path root = temporaryFolder.newFolder().toPath();
+        createFiles(root, "a\nb", "a\nc");
+        // like in "find", "." also matches newlines
+        delete(root, Arrays.asList(root + "/a.b"));
+        assertTrue(Files.exists(root.resolve("a\nb")));
+        assertFalse(Files.exists(root.resolve("a\nc")));
+    }
+
+    private static void createFiles(Path root, String... paths)
+            throws IOException {
+        for (String path : paths) {
+            Path file = root.resolve(path);
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+        }
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.count();
+        }
+    }
+
+    private static long delete(Path root, List<String> excludes)
+            throws IOException {
+        return new ParallelDeleter(excludes, files -> {
+        }).delete(root);
+    }
+}
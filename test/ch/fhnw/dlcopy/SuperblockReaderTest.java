@@ -0,0 +1,240 @@
+package ch.fhnw.dlcopy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the file system parsers of the {@link SuperblockReader} with
+ * synthetic images that only contain the metadata read by the parsers.
+ */
+public class SuperblockReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testExt() throws IOException {
+        File image = createImage(64 * 1024);
+        ByteBuffer superblock = createBuffer(1024);
+        superblock.putInt(4, 1000); // s_blocks_count_lo
+        superblock.putInt(12, 400); // s_free_blocks_count_lo
+        superblock.putInt(24, 2); // s_log_block_size (4096 byte)
+        superblock.putInt(28, 2); // s_log_cluster_size
+        superblock.putShort(56, (short) 0xEF53); // s_magic
+        write(image, 1024, superblock);
+        assertEquals(600 * 4096L, getUsedSpace(image, "ext4"));
+
+        // the file system overhead is subtracted if known
+        superblock.putInt(0x248, 50); // s_overhead_clusters
+        write(image, 1024, superblock);
+        assertEquals(550 * 4096L, getUsedSpace(image, "ext4"));
+    }
+
+    @Test
+    public void testExt64Bit() throws IOException {
+        File image = createImage(64 * 1024);
+        ByteBuffer superblock = createBuffer(1024);
+        superblock.putInt(4, 1000); // s_blocks_count_lo
+        superblock.putInt(12, 400); // s_free_blocks_count_lo
+        superblock.putShort(56, (short) 0xEF53); // s_magic
+        superblock.putInt(96, 0x80); // s_feature_incompat (64bit)
+        superblock.putInt(336, 1); // s_blocks_count_hi
+        superblock.putInt(344, 0); // s_free_blocks_count_hi
+        write(image, 1024, superblock);
+        assertEquals(((1L << 32) + 600) * 1024, getUsedSpace(image, "ext3"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testExtWithoutMagic() throws IOException {
+        getUsedSpace(createImage(64 * 1024), "ext4");
+    }
+
+    @Test
+    public void testBtrfs() throws IOException {
+        File image = createImage(128 * 1024);
+        ByteBuffer superblock = createBuffer(0x100);
+        putString(superblock, 0x40, "_BHRfS_M");
+        superblock.putLong(0x78, 123456789L); // bytes_used
+        write(image, 0x10000, superblock);
+        assertEquals(123456789L, getUsedSpace(image, "btrfs"));
+    }
+
+    @Test
+    public void testFat32() throws IOException {
+        // 512 byte clusters, 32 reserved sectors, 2 FATs with 100 sectors,
+        // 10000 sectors -> 9768 clusters
+        File image = createImage(10000 * 512);
+        ByteBuffer bootSector = createFat32BootSector();
+        write(image, 0, bootSector);
+        ByteBuffer fat = createBuffer(100 * 512);
+        // two reserved entries and ten used clusters
+        for (int i = 0; i < 12; i++) {
+            fat.putInt(i * 4, 0x0FFFFFFF);
+        }
+        write(image, 32 * 512, fat);
+
+        // the FAT is counted if FSInfo doesn't know the free clusters
+        ByteBuffer fsInfo = createFsInfo(0xFFFFFFFF);
+        write(image, 512, fsInfo);
+        assertEquals(10 * 512L, getUsedSpace(image, "vfat"));
+
+        // otherwise FSInfo is used
+        fsInfo = createFsInfo(9768 - 20);
+        write(image, 512, fsInfo);
+        assertEquals(20 * 512L, getUsedSpace(image, "vfat"));
+    }
+
+    @Test
+    public void testExFat() throws IOException {
+        // 512 byte clusters, FAT at sector 24, cluster heap at sector 100,
+        // 1000 clusters, the bitmap is in cluster 2, the root directory in
+        // cluster 4
+        File image = createImage(1200 * 512);
+        ByteBuffer bootSector = createBuffer(512);
+        putString(bootSector, 3, "EXFAT   ");
+        bootSector.putInt(80, 24); // FatOffset
+        bootSector.putInt(84, 10); // FatLength
+        bootSector.putInt(88, 100); // ClusterHeapOffset
+        bootSector.putInt(92, 1000); // ClusterCount
+        bootSector.putInt(96, 4); // FirstClusterOfRootDirectory
+        bootSector.put(108, (byte) 9); // BytesPerSectorShift
+        bootSector.put(109, (byte) 0); // SectorsPerClusterShift
+        write(image, 0, bootSector);
+
+        ByteBuffer fat = createBuffer(4000);
+        fat.putInt(2 * 4, 0xFFFFFFFF);
+        fat.putInt(4 * 4, 0xFFFFFFFF);
+        write(image, 24 * 512, fat);
+
+        ByteBuffer rootDirectory = createBuffer(512);
+        rootDirectory.put(0, (byte) 0x85); // a file entry
+        rootDirectory.put(32, (byte) 0x81); // the allocation bitmap entry
+        rootDirectory.putInt(32 + 20, 2); // FirstCluster
+        rootDirectory.putLong(32 + 24, 125); // DataLength
+        write(image, 100 * 512 + 2 * 512, rootDirectory);
+
+        ByteBuffer bitmap = createBuffer(125);
+        bitmap.put(0, (byte) 0x07);
+        bitmap.put(1, (byte) 0xFF);
+        write(image, 100 * 512, bitmap);
+
+        assertEquals(11 * 512L, getUsedSpace(image, "exfat"));
+    }
+
+    @Test
+    public void testNtfs() throws IOException {
+        // 4096 byte clusters, 1000 clusters, the MFT starts at cluster 4,
+        // 1024 byte records, the $Bitmap data is stored in cluster 20
+        File image = createImage(1000 * 4096);
+        ByteBuffer bootSector = createBuffer(512);
+        putString(bootSector, 3, "NTFS    ");
+        bootSector.putShort(11, (short) 512); // bytes per sector
+        bootSector.put(13, (byte) 8); // sectors per cluster
+        bootSector.putLong(40, 8000); // total sectors
+        bootSector.putLong(48, 4); // MFT cluster
+        bootSector.put(64, (byte) -10); // clusters per MFT record
+        write(image, 0, bootSector);
+
+        ByteBuffer record = createBuffer(1024);
+        putString(record, 0, "FILE");
+        record.putShort(4, (short) 48); // update sequence offset
+        record.putShort(6, (short) 3); // update sequence count
+        record.putShort(48, (short) 7); // update sequence number
+        record.putShort(510, (short) 7);
+        record.putShort(1022, (short) 7);
+        record.putShort(20, (short) 56); // first attribute
+        // $STANDARD_INFORMATION (only the header)
+        record.putInt(56, 0x10);
+        record.putInt(60, 24);
+        // non-resident unnamed $DATA with a run of one cluster at LCN 20
+        record.putInt(80, 0x80);
+        record.putInt(84, 80);
+        record.put(88, (byte) 1);
+        record.putShort(80 + 32, (short) 64);
+        record.put(80 + 64, (byte) 0x11);
+        record.put(80 + 65, (byte) 1);
+        record.put(80 + 66, (byte) 20);
+        record.putInt(160, 0xFFFFFFFF);
+        write(image, 4 * 4096 + 6 * 1024, record);
+
+        ByteBuffer bitmap = createBuffer(125);
+        bitmap.put(0, (byte) 0xFF);
+        bitmap.put(124, (byte) 0xFF);
+        write(image, 20 * 4096, bitmap);
+
+        assertEquals(16 * 4096L, getUsedSpace(image, "ntfs"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedFileSystem() throws IOException {
+        getUsedSpace(createImage(64 * 1024), "xfs");
+    }
+
+    private File createImage(long size) throws IOException {
+        File image = temporaryFolder.newFile();
+        try (FileChannel channel = FileChannel.open(
+                image.toPath(), StandardOpenOption.WRITE)) {
+            // a sparse file, only the metadata gets written
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+        return image;
+    }
+
+    private static ByteBuffer createBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer createFat32BootSector() {
+        ByteBuffer bootSector = createBuffer(512);
+        bootSector.putShort(11, (short) 512); // bytes per sector
+        bootSector.put(13, (byte) 1); // sectors per cluster
+        bootSector.putShort(14, (short) 32); // reserved sectors
+        bootSector.put(16, (byte) 2); // number of FATs
+        bootSector.putInt(32, 10000); // total sectors
+        bootSector.putInt(36, 100); // sectors per FAT
+        bootSector.putInt(44, 2); // root directory cluster
+        bootSector.putShort(48, (short) 1); // FSInfo sector
+        return bootSector;
+    }
+
+    private static ByteBuffer createFsInfo(int freeClusterCount) {
+        ByteBuffer fsInfo = createBuffer(512);
+        fsInfo.putInt(0, 0x41615252);
+        fsInfo.putInt(484, 0x61417272);
+        fsInfo.putInt(488, freeClusterCount);
+        return fsInfo;
+    }
+
+    private static void putString(ByteBuffer buffer, int index, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(index + i, bytes[i]);
+        }
+    }
+
+    private static void write(File image, long position, ByteBuffer buffer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                image.toPath(), StandardOpenOption.WRITE)) {
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    private static long getUsedSpace(File image, String idType)
+            throws IOException {
+        return SuperblockReader.getUsedSpace(image.getPath(), idType);
+    }
+}